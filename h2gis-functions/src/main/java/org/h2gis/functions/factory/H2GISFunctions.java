@@ -48,15 +48,21 @@ import org.h2gis.functions.spatial.affine_transformations.ST_Translate;
 import org.h2gis.functions.spatial.aggregate.ST_Accum;
 import org.h2gis.functions.spatial.aggregate.ST_Collect;
 import org.h2gis.functions.spatial.aggregate.ST_LineMerge;
+import org.h2gis.functions.spatial.aggregate.ST_UnionAgg;
 import org.h2gis.functions.spatial.buffer.ST_Buffer;
 import org.h2gis.functions.spatial.buffer.ST_OffSetCurve;
 import org.h2gis.functions.spatial.buffer.ST_RingSideBuffer;
 import org.h2gis.functions.spatial.buffer.ST_SideBuffer;
+import org.h2gis.functions.spatial.cluster.ST_ClusterDBSCAN;
+import org.h2gis.functions.spatial.cluster.ST_ClusterWithin;
 import org.h2gis.functions.spatial.clean.ST_MakeValid;
 import org.h2gis.functions.spatial.convert.*;
 import org.h2gis.functions.spatial.create.*;
 import org.h2gis.functions.spatial.crs.ST_SetSRID;
 import org.h2gis.functions.spatial.crs.ST_Transform;
+import org.h2gis.functions.spatial.crs.ST_TransformTable;
+import org.h2gis.functions.spatial.crs.SpatialRefSnapshot;
+import org.h2gis.functions.spatial.crs.SpatialRefSysTrigger;
 import org.h2gis.functions.spatial.distance.*;
 import org.h2gis.functions.spatial.earth.ST_GeometryShadow;
 import org.h2gis.functions.spatial.earth.ST_Isovist;
@@ -66,6 +72,8 @@ import org.h2gis.functions.spatial.edit.*;
 import org.h2gis.functions.spatial.generalize.ST_PrecisionReducer;
 import org.h2gis.functions.spatial.generalize.ST_Simplify;
 import org.h2gis.functions.spatial.generalize.ST_SimplifyPreserveTopology;
+import org.h2gis.functions.spatial.hexgrid.*;
+import org.h2gis.functions.spatial.sort.*;
 import org.h2gis.functions.spatial.mesh.ST_ConstrainedDelaunay;
 import org.h2gis.functions.spatial.mesh.ST_Delaunay;
 import org.h2gis.functions.spatial.mesh.ST_Tessellate;
@@ -167,6 +175,7 @@ public class H2GISFunctions {
                 new ST_Relate(),
                 new ST_Distance(),
                 new ST_DistanceSphere(),
+                new ST_DistanceSpheroid(),
                 new ST_Intersection(),
                 new ST_Difference(),
                 new ST_Union(),
@@ -318,7 +327,24 @@ public class H2GISFunctions {
                 new ST_InsertPoint(),
                 new JTSVersion(),
                 new ST_Force4D(),
-                new ST_Force3DM()
+                new ST_Force3DM(),
+                new ST_TransformTable(),
+                new ST_SpatialJoin(),
+                new ST_KNearest(),
+                new ST_KNearestJoin(),
+                new ST_ClusterDBSCAN(),
+                new ST_ClusterWithin(),
+                new ST_UnionAgg(),
+                new ST_GridAggregate(),
+                new ST_HexCell(),
+                new ST_HexCellGeometry(),
+                new ST_HexParent(),
+                new ST_HexChildren(),
+                new ST_HexKRing(),
+                new ST_HexPolyfill(),
+                new ST_Hilbert(),
+                new ST_ZOrder(),
+                new ST_HilbertSortTable()
         };
     }
 
@@ -382,7 +408,11 @@ public class H2GISFunctions {
             } catch (IOException e) {
                 e.printStackTrace();
             }
+            SpatialRefSnapshot.invalidate();
         }
+        st.execute("CREATE TRIGGER IF NOT EXISTS PUBLIC." + SpatialRefSysTrigger.TRIGGER_NAME
+                + " AFTER INSERT, UPDATE, DELETE ON PUBLIC.SPATIAL_REF_SYS CALL \""
+                + SpatialRefSysTrigger.class.getName() + "\"");
     }
 
     /**
@@ -528,5 +558,6 @@ public class H2GISFunctions {
         for (Function function : getBuiltInsFunctions()) {
             unRegisterFunction(st, function);
         }
+        st.execute("DROP TRIGGER IF EXISTS PUBLIC." + SpatialRefSysTrigger.TRIGGER_NAME);
     }
 }
@@ -34,6 +34,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Map;
 import org.h2gis.utilities.GeometryTableUtilities;
+import org.h2gis.functions.spatial.crs.SpatialRefSnapshot;
 
 /**
  * A class to manage PRJ file
@@ -182,25 +183,7 @@ public class PRJUtil {
      * @throws java.sql.SQLException 
      */
     public static boolean isSRIDValid(int srid, Connection connection) throws SQLException {
-        PreparedStatement ps = null;
-        ResultSet rs = null;
-        String queryCheck = "SELECT count(SRID) from PUBLIC.SPATIAL_REF_SYS WHERE SRID = ?";
-        try {
-            ps = connection.prepareStatement(queryCheck);
-            ps.setInt(1, srid);
-            rs = ps.executeQuery();
-            if (rs.next()) {
-                return rs.getInt(1) != 0;
-            }
-        } finally {
-            if (rs != null) {
-                rs.close();
-            }
-            if (ps != null) {
-                ps.close();
-            }
-        }
-        return false;
+        return SpatialRefSnapshot.get(connection).contains(srid);
     }
     
 }
@@ -0,0 +1,387 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.aggregate;
+
+import org.h2.util.geometry.JTSUtils;
+import org.locationtech.jts.geom.Geometry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Append only storage of geometries used by the aggregate functions.
+ *
+ * The geometries are stored as EWKB records in a growable heap buffer, which
+ * is much smaller than the JTS objects. When the buffer reaches the spill
+ * threshold the records are moved to a temporary file and the next records
+ * are appended to the file. The threshold is read from the
+ * {@link #SPILL_THRESHOLD_PROPERTY} system property, in bytes.
+ *
+ * The temporary file is deleted by {@link #close()}. H2 does not notify an
+ * aggregate whose result is never read, so the file of a buffer that is
+ * garbage collected without being closed is deleted by the next buffer that is
+ * created or closed, and the remaining files are deleted when the JVM exits.
+ *
+ * The files of a process are written in its own temporary directory, which
+ * holds a locked file while the process runs. A process killed before its
+ * exit leaves its directory behind: the directories whose lock can be taken
+ * are deleted when this class is loaded.
+ */
+final class GeometryBuffer {
+
+    /**
+     * System property that sets the size in bytes above which the
+     * geometries are written to a temporary file
+     */
+    static final String SPILL_THRESHOLD_PROPERTY = "h2gis.aggregate.spillThreshold";
+
+    static final int DEFAULT_SPILL_THRESHOLD = 64 * 1024 * 1024;
+
+    private static final int INITIAL_CAPACITY = 4096;
+
+    /**
+     * Prefix of the temporary directories
+     */
+    static final String DIRECTORY_PREFIX = "h2gis_aggregate";
+
+    private static final String LOCK_FILE = "lock";
+
+    /**
+     * Directories created by a process that is starting may not be locked
+     * yet, so only the older directories are deleted
+     */
+    private static final long ORPHAN_MIN_AGE = 60000;
+
+    private static final ReferenceQueue<GeometryBuffer> RELEASED = new ReferenceQueue<GeometryBuffer>();
+
+    /**
+     * Temporary files not deleted yet, the references keep them reachable
+     * until their buffer is closed or collected
+     */
+    private static final Set<SpillFile> SPILL_FILES = Collections.synchronizedSet(new HashSet<SpillFile>());
+
+    /**
+     * Temporary directory of this process, created with the first file
+     */
+    private static File spillDirectory;
+
+    /**
+     * Lock held on the lock file of the directory until the JVM exits
+     */
+    private static FileChannel spillLock;
+
+    static {
+        deleteOrphanDirectories();
+    }
+
+    private final int spillThreshold;
+    private ByteBuffer memory;
+    private SpillFile spillFile;
+    private DataOutputStream spill;
+    private int count = 0;
+
+    GeometryBuffer() {
+        deleteReleasedFiles();
+        spillThreshold = Math.max(INITIAL_CAPACITY, Integer.getInteger(SPILL_THRESHOLD_PROPERTY, DEFAULT_SPILL_THRESHOLD));
+    }
+
+    /**
+     * @return the number of stored geometries
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Append a geometry
+     *
+     * @param geometry geometry
+     * @throws SQLException if the temporary file cannot be written
+     */
+    void add(Geometry geometry) throws SQLException {
+        byte[] ewkb = JTSUtils.geometry2ewkb(geometry);
+        int recordSize = Integer.BYTES + ewkb.length;
+        try {
+            if (spill == null) {
+                int position = memory == null ? 0 : memory.position();
+                if ((long) position + recordSize > spillThreshold) {
+                    openSpillFile();
+                } else {
+                    ensureCapacity(position + recordSize);
+                    memory.putInt(ewkb.length);
+                    memory.put(ewkb);
+                }
+            }
+            if (spill != null) {
+                spill.writeInt(ewkb.length);
+                spill.write(ewkb);
+            }
+        } catch (IOException ex) {
+            close();
+            throw new SQLException("Cannot write the geometries in a temporary file", ex);
+        }
+        count++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (memory == null || memory.capacity() < capacity) {
+            int newCapacity = memory == null ? INITIAL_CAPACITY : memory.capacity();
+            while (newCapacity < capacity) {
+                newCapacity = (int) Math.min(spillThreshold, 2L * newCapacity);
+            }
+            ByteBuffer grown = ByteBuffer.allocate(newCapacity);
+            if (memory != null) {
+                memory.flip();
+                grown.put(memory);
+            }
+            memory = grown;
+        }
+    }
+
+    /**
+     * Move the records stored in memory to a new temporary file
+     */
+    private void openSpillFile() throws IOException {
+        deleteReleasedFiles();
+        File file = File.createTempFile("geometries", ".ewkb", getSpillDirectory());
+        try {
+            spill = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        } catch (IOException ex) {
+            file.delete();
+            throw ex;
+        }
+        spillFile = new SpillFile(this, file, spill);
+        SPILL_FILES.add(spillFile);
+        if (memory != null) {
+            memory.flip();
+            byte[] chunk = new byte[Math.min(memory.remaining(), 1 << 16)];
+            while (memory.hasRemaining()) {
+                int length = Math.min(chunk.length, memory.remaining());
+                memory.get(chunk, 0, length);
+                spill.write(chunk, 0, length);
+            }
+            memory = null;
+        }
+    }
+
+    /**
+     * Read all the stored geometries, in insertion order
+     *
+     * @return the geometries
+     * @throws SQLException if the temporary file cannot be read
+     */
+    Geometry[] toArray() throws SQLException {
+        Geometry[] geometries = new Geometry[count];
+        if (spill == null) {
+            if (memory != null) {
+                ByteBuffer records = memory.duplicate();
+                records.flip();
+                for (int i = 0; i < count; i++) {
+                    byte[] ewkb = new byte[records.getInt()];
+                    records.get(ewkb);
+                    geometries[i] = JTSUtils.ewkb2geometry(ewkb);
+                }
+            }
+            return geometries;
+        }
+        try {
+            spill.flush();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile.file)))) {
+                for (int i = 0; i < count; i++) {
+                    byte[] ewkb = new byte[in.readInt()];
+                    in.readFully(ewkb);
+                    geometries[i] = JTSUtils.ewkb2geometry(ewkb);
+                }
+            }
+        } catch (IOException ex) {
+            throw new SQLException("Cannot read the geometries from a temporary file", ex);
+        }
+        return geometries;
+    }
+
+    /**
+     * Release the memory and delete the temporary file
+     */
+    void close() {
+        memory = null;
+        count = 0;
+        spill = null;
+        if (spillFile != null) {
+            spillFile.delete();
+            spillFile = null;
+        }
+        deleteReleasedFiles();
+    }
+
+    /**
+     * Delete the temporary files of the buffers collected without being closed
+     */
+    private static void deleteReleasedFiles() {
+        Reference<? extends GeometryBuffer> reference;
+        while ((reference = RELEASED.poll()) != null) {
+            ((SpillFile) reference).delete();
+        }
+    }
+
+    /**
+     * Create the temporary directory of this process, lock it and register the
+     * deletion of its files when the JVM exits
+     *
+     * @return the directory
+     * @throws IOException if the directory cannot be created
+     */
+    private static synchronized File getSpillDirectory() throws IOException {
+        if (spillDirectory == null) {
+            File directory = Files.createTempDirectory(DIRECTORY_PREFIX).toFile();
+            FileChannel lock = FileChannel.open(new File(directory, LOCK_FILE).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                lock.lock();
+            } catch (IOException ex) {
+                lock.close();
+                throw ex;
+            }
+            spillLock = lock;
+            spillDirectory = directory;
+            Runtime.getRuntime().addShutdownHook(new Thread("H2GIS-aggregate-cleanup") {
+                @Override
+                public void run() {
+                    deleteSpillDirectory();
+                }
+            });
+        }
+        return spillDirectory;
+    }
+
+    /**
+     * Delete the temporary files and the directory of this process
+     */
+    private static synchronized void deleteSpillDirectory() {
+        List<SpillFile> files;
+        synchronized (SPILL_FILES) {
+            files = new ArrayList<SpillFile>(SPILL_FILES);
+        }
+        for (SpillFile file : files) {
+            file.delete();
+        }
+        try {
+            spillLock.close();
+        } catch (IOException ex) {
+            // Ignore, the lock is released when the process ends
+        }
+        deleteDirectory(spillDirectory);
+    }
+
+    /**
+     * Delete the temporary directories left by the processes that did not
+     * exit normally. A directory is left when its lock is held by another
+     * process or cannot be checked.
+     */
+    private static void deleteOrphanDirectories() {
+        File[] directories = new File(System.getProperty("java.io.tmpdir")).listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory() && file.getName().startsWith(DIRECTORY_PREFIX)
+                        && System.currentTimeMillis() - file.lastModified() > ORPHAN_MIN_AGE;
+            }
+        });
+        if (directories == null) {
+            return;
+        }
+        for (File directory : directories) {
+            boolean orphan = false;
+            try (FileChannel channel = FileChannel.open(new File(directory, LOCK_FILE).toPath(), StandardOpenOption.WRITE)) {
+                FileLock lock = channel.tryLock();
+                if (lock != null) {
+                    lock.release();
+                    orphan = true;
+                }
+            } catch (IOException | OverlappingFileLockException ex) {
+                // Not a directory of this class or still in use
+            }
+            if (orphan) {
+                deleteDirectory(directory);
+            }
+        }
+    }
+
+    /**
+     * Delete the files of a directory then the directory
+     */
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Temporary file of a buffer, with the stream writing in it
+     */
+    private static final class SpillFile extends PhantomReference<GeometryBuffer> {
+        private final File file;
+        private final Closeable stream;
+
+        SpillFile(GeometryBuffer buffer, File file, Closeable stream) {
+            super(buffer, RELEASED);
+            this.file = file;
+            this.stream = stream;
+        }
+
+        void delete() {
+            SPILL_FILES.remove(this);
+            clear();
+            try {
+                stream.close();
+            } catch (IOException ex) {
+                // Ignore, the file is deleted anyway
+            }
+            file.delete();
+        }
+    }
+}
@@ -27,18 +27,18 @@ import org.locationtech.jts.geom.*;
 
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Construct an array of Geometries.
+ * The geometries are kept as EWKB until the end of the aggregation, see
+ * {@link GeometryBuffer}.
  *
  * @author Nicolas Fortin
  * @author Erwan Bocher, CNRS
  */
 public class ST_Accum extends AbstractFunction implements Aggregate {
-    private List<Geometry> toUnite = new LinkedList<Geometry>();
+    private GeometryBuffer toUnite = new GeometryBuffer();
     private int minDim = Integer.MAX_VALUE;
     private int maxDim = Integer.MIN_VALUE;
     private int srid =-1;
@@ -75,15 +75,13 @@ public class ST_Accum extends AbstractFunction implements Aggregate {
      * Add geometry into an array to accumulate
      * @param geom 
      */
-    private void addGeometry(Geometry geom) {
+    private void addGeometry(Geometry geom) throws SQLException {
         if (geom != null) {
             if (geom instanceof GeometryCollection) {
-                List<Geometry> toUnitTmp = new ArrayList<Geometry>(geom.getNumGeometries());
                 for (int i = 0; i < geom.getNumGeometries(); i++) {
-                    toUnitTmp.add(geom.getGeometryN(i));
+                    toUnite.add(geom.getGeometryN(i));
                     feedDim(geom.getGeometryN(i));
                 }
-                toUnite.addAll(toUnitTmp);
             } else {
                 toUnite.add(geom);
                 feedDim(geom);
@@ -113,16 +111,18 @@ public class ST_Accum extends AbstractFunction implements Aggregate {
     @Override
     public GeometryCollection getResult() throws SQLException {
         GeometryFactory factory = new GeometryFactory(new PrecisionModel(), srid==-1?0:srid);        
+        Geometry[] geometries = toUnite.toArray();
+        toUnite.close();
         if(maxDim != minDim) {
-            return factory.createGeometryCollection(toUnite.toArray(new Geometry[0]));
+            return factory.createGeometryCollection(geometries);
         } else {
             switch (maxDim) {
                 case 0:
-                    return factory.createMultiPoint(toUnite.toArray(new Point[0]));
+                    return factory.createMultiPoint(Arrays.copyOf(geometries, geometries.length, Point[].class));
                 case 1:
-                    return factory.createMultiLineString(toUnite.toArray(new LineString[0]));
+                    return factory.createMultiLineString(Arrays.copyOf(geometries, geometries.length, LineString[].class));
                 default:
-                    return factory.createMultiPolygon(toUnite.toArray(new Polygon[0]));
+                    return factory.createMultiPolygon(Arrays.copyOf(geometries, geometries.length, Polygon[].class));
             }
         }
     }
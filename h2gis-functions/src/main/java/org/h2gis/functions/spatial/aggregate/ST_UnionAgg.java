@@ -0,0 +1,222 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.aggregate;
+
+import org.h2.api.Aggregate;
+import org.h2.value.Value;
+import org.h2gis.api.AbstractFunction;
+import org.h2gis.utilities.ParallelUtilities;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.operation.union.UnaryUnionOp;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Aggregate function that computes the union of a column of geometries.
+ *
+ * The geometries are split in spatially coherent buckets with the
+ * Sort-Tile-Recursive algorithm. The buckets are unioned in parallel, then the
+ * bucket results are merged two by two, level by level, following the tile
+ * order, so the neighbour geometries are merged first.
+ *
+ * The input is reduced every {@link #BATCH_SIZE} geometries, so the aggregate
+ * keeps at most one batch of input geometries in memory.
+ */
+public class ST_UnionAgg extends AbstractFunction implements Aggregate {
+
+    /**
+     * Number of input geometries unioned before being reduced to a partial
+     * result
+     */
+    static final int BATCH_SIZE = 50000;
+
+    /**
+     * Number of geometries unioned by a single task
+     */
+    static final int BUCKET_SIZE = 256;
+
+    private List<Geometry> batch = new ArrayList<>();
+    private List<Geometry> partials = new ArrayList<>();
+    private int srid = -1;
+
+    public ST_UnionAgg() {
+        addProperty(PROP_REMARKS, "This aggregate function returns the union of a column of geometries.\n"
+                + "The geometries are unioned by spatial buckets on all the available processors.");
+    }
+
+    @Override
+    public void init(Connection connection) throws SQLException {
+    }
+
+    @Override
+    public int getInternalType(int[] inputTypes) throws SQLException {
+        if (inputTypes.length != 1) {
+            throw new SQLException(ST_UnionAgg.class.getSimpleName() + " expects 1 argument.");
+        }
+        if (inputTypes[0] != Value.GEOMETRY) {
+            throw new SQLException(ST_UnionAgg.class.getSimpleName() + " expects a Geometry argument");
+        }
+        return Value.GEOMETRY;
+    }
+
+    @Override
+    public void add(Object o) throws SQLException {
+        if (o instanceof Geometry) {
+            Geometry geom = (Geometry) o;
+            if (srid == -1) {
+                srid = geom.getSRID();
+            }
+            if (srid != geom.getSRID()) {
+                throw new SQLException("Operation on mixed SRID geometries not supported");
+            }
+            if (!geom.isEmpty()) {
+                batch.add(geom);
+                if (batch.size() >= BATCH_SIZE) {
+                    partials.add(union(batch));
+                    batch = new ArrayList<>();
+                }
+            }
+        } else if (o != null) {
+            throw new SQLException("ST_UnionAgg accepts only Geometry values. Input: "
+                    + o.getClass().getSimpleName());
+        }
+    }
+
+    @Override
+    public Geometry getResult() throws SQLException {
+        if (!batch.isEmpty()) {
+            partials.add(union(batch));
+            batch = new ArrayList<>();
+        }
+        if (partials.isEmpty()) {
+            return null;
+        }
+        Geometry result = partials.size() == 1 ? partials.get(0) : union(partials);
+        partials = new ArrayList<>();
+        result.setSRID(srid == -1 ? 0 : srid);
+        return result;
+    }
+
+    /**
+     * Union a list of geometries by spatial buckets
+     *
+     * @param geometries geometries
+     * @return the union
+     * @throws SQLException if a task fails or the thread is interrupted
+     */
+    static Geometry union(List<Geometry> geometries) throws SQLException {
+        if (geometries.size() <= BUCKET_SIZE) {
+            return UnaryUnionOp.union(geometries);
+        }
+        List<Callable<Geometry>> tasks = new ArrayList<>();
+        for (final List<Geometry> bucket : partition(geometries, BUCKET_SIZE)) {
+            tasks.add(new Callable<Geometry>() {
+                @Override
+                public Geometry call() {
+                    return UnaryUnionOp.union(bucket);
+                }
+            });
+        }
+        List<Geometry> level = ParallelUtilities.invokeAll(tasks, "union");
+        // Cascaded merge of the neighbour buckets
+        while (level.size() > 1) {
+            tasks = new ArrayList<>();
+            for (int i = 0; i < level.size(); i += 2) {
+                if (i + 1 < level.size()) {
+                    final Geometry a = level.get(i);
+                    final Geometry b = level.get(i + 1);
+                    tasks.add(new Callable<Geometry>() {
+                        @Override
+                        public Geometry call() {
+                            return UnaryUnionOp.union(Arrays.asList(a, b));
+                        }
+                    });
+                } else {
+                    final Geometry a = level.get(i);
+                    tasks.add(new Callable<Geometry>() {
+                        @Override
+                        public Geometry call() {
+                            return a;
+                        }
+                    });
+                }
+            }
+            level = ParallelUtilities.invokeAll(tasks, "union");
+        }
+        return level.get(0);
+    }
+
+    /**
+     * Split the geometries in buckets with the Sort-Tile-Recursive algorithm.
+     * The geometries are sorted in vertical slices by the x of their envelope
+     * centre, then each slice is sorted by y and cut in buckets.
+     *
+     * @param geometries geometries
+     * @param bucketSize maximum number of geometries of a bucket
+     * @return the buckets, in tile order
+     */
+    static List<List<Geometry>> partition(List<Geometry> geometries, int bucketSize) {
+        List<Geometry> sorted = new ArrayList<>(geometries);
+        Collections.sort(sorted, new CentreComparator(true));
+        int bucketCount = (sorted.size() + bucketSize - 1) / bucketSize;
+        int sliceCount = (int) Math.ceil(Math.sqrt(bucketCount));
+        int sliceSize = bucketSize * ((bucketCount + sliceCount - 1) / sliceCount);
+        List<List<Geometry>> buckets = new ArrayList<>(bucketCount);
+        for (int start = 0; start < sorted.size(); start += sliceSize) {
+            List<Geometry> slice = new ArrayList<>(sorted.subList(start, Math.min(sorted.size(), start + sliceSize)));
+            Collections.sort(slice, new CentreComparator(false));
+            for (int i = 0; i < slice.size(); i += bucketSize) {
+                buckets.add(slice.subList(i, Math.min(slice.size(), i + bucketSize)));
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * Compare the geometries by the x or the y of their envelope centre
+     */
+    private static final class CentreComparator implements Comparator<Geometry> {
+
+        private final boolean xAxis;
+
+        CentreComparator(boolean xAxis) {
+            this.xAxis = xAxis;
+        }
+
+        @Override
+        public int compare(Geometry a, Geometry b) {
+            return Double.compare(centre(a.getEnvelopeInternal()), centre(b.getEnvelopeInternal()));
+        }
+
+        private double centre(Envelope envelope) {
+            return xAxis ? envelope.getMinX() + envelope.getMaxX() : envelope.getMinY() + envelope.getMaxY();
+        }
+    }
+}
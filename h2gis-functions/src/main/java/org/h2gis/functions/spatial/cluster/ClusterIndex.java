@@ -0,0 +1,372 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.cluster;
+
+import org.h2.tools.SimpleResultSet;
+import org.h2.tools.SimpleRowSource;
+import org.h2gis.utilities.GeometryMetaData;
+import org.h2gis.utilities.GeometryTableUtilities;
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.ParallelUtilities;
+import org.h2gis.utilities.TableLocation;
+import org.h2gis.utilities.TableUtilities;
+import org.h2gis.utilities.Tuple;
+import org.h2gis.utilities.UnionFind;
+import org.h2gis.utilities.dbtypes.DBTypes;
+import org.h2gis.utilities.dbtypes.DBUtils;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.index.ItemVisitor;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Geometries of a table loaded in memory with a packed {@link STRtree}, shared
+ * by the clustering functions.
+ *
+ * The rows are identified by their position in the index. The neighbourhood
+ * queries are read only, so they can be run by chunks of rows on a pool of
+ * worker threads.
+ */
+final class ClusterIndex {
+
+    static final String ID = "ID";
+    static final String CLUSTER_ID = "CLUSTER_ID";
+
+    /**
+     * Number of rows processed by a single task
+     */
+    private static final int CHUNK_SIZE = 2000;
+
+    /**
+     * Identifiers of the rows
+     */
+    final long[] ids;
+
+    /**
+     * Geometries of the rows
+     */
+    final Geometry[] geometries;
+
+    private final STRtree tree;
+
+    private ClusterIndex(long[] ids, Geometry[] geometries) {
+        this.ids = ids;
+        this.geometries = geometries;
+        tree = new STRtree();
+        for (int i = 0; i < geometries.length; i++) {
+            tree.insert(geometries[i].getEnvelopeInternal(), i);
+        }
+        tree.build();
+    }
+
+    /**
+     * @return the number of rows
+     */
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * Load the non empty geometries of the first geometry column of a table.
+     * The identifiers are the integer primary key of the table or its _ROWID_.
+     *
+     * @param connection Active connection
+     * @param tableName Table name
+     * @return the index
+     * @throws SQLException
+     */
+    static ClusterIndex load(Connection connection, String tableName) throws SQLException {
+        if (tableName == null) {
+            throw new SQLException("The table name cannot be null");
+        }
+        final DBTypes dbType = DBUtils.getDBType(connection);
+        TableLocation location = TableUtilities.parseInputTable(connection, tableName);
+        Tuple<String, Integer> pk = JDBCUtilities.getIntegerPrimaryKeyNameAndIndex(connection, location);
+        String keyColumn = pk == null ? "_ROWID_" : TableLocation.quoteIdentifier(pk.first(), dbType);
+        Tuple<String, GeometryMetaData> geomMetadata = GeometryTableUtilities.getFirstColumnMetaData(connection, location);
+        String geomColumn = TableLocation.quoteIdentifier(geomMetadata.first(), dbType);
+        long[] ids = new long[1024];
+        List<Geometry> geometries = new ArrayList<>();
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT " + keyColumn + ", " + geomColumn + " FROM " + location
+                     + " WHERE " + geomColumn + " IS NOT NULL")) {
+            while (rs.next()) {
+                Geometry geometry = (Geometry) rs.getObject(2);
+                if (!geometry.isEmpty()) {
+                    if (geometries.size() == ids.length) {
+                        ids = Arrays.copyOf(ids, ids.length * 2);
+                    }
+                    ids[geometries.size()] = rs.getLong(1);
+                    geometries.add(geometry);
+                }
+            }
+        }
+        return new ClusterIndex(Arrays.copyOf(ids, geometries.size()), geometries.toArray(new Geometry[0]));
+    }
+
+    /**
+     * Visit the rows whose geometry is within a distance of the geometry of
+     * a row, the row itself included
+     *
+     * @param i row
+     * @param distance distance
+     * @param visitor called for each neighbour
+     */
+    void queryNeighbours(final int i, final double distance, final NeighbourVisitor visitor) {
+        Envelope envelope = new Envelope(geometries[i].getEnvelopeInternal());
+        envelope.expandBy(distance);
+        tree.query(envelope, new ItemVisitor() {
+            @Override
+            public void visitItem(Object item) {
+                int j = (Integer) item;
+                if (j == i || isWithinDistance(geometries[i], geometries[j], distance)) {
+                    visitor.visit(j);
+                }
+            }
+        });
+    }
+
+    private static boolean isWithinDistance(Geometry a, Geometry b, double distance) {
+        if (a instanceof Point && b instanceof Point) {
+            double dx = ((Point) a).getX() - ((Point) b).getX();
+            double dy = ((Point) a).getY() - ((Point) b).getY();
+            return dx * dx + dy * dy <= distance * distance;
+        }
+        if (a.getEnvelopeInternal().distance(b.getEnvelopeInternal()) > distance) {
+            return false;
+        }
+        return a.isWithinDistance(b, distance);
+    }
+
+    /**
+     * Callback of the neighbourhood queries
+     */
+    interface NeighbourVisitor {
+        void visit(int j);
+    }
+
+    /**
+     * Work done on a range of rows by a worker thread
+     */
+    interface ChunkTask<T> {
+        T process(int start, int end);
+    }
+
+    /**
+     * Consume the result of a chunk on the calling thread
+     */
+    interface ChunkConsumer<T> {
+        void accept(T result);
+    }
+
+    /**
+     * Run a task on all the rows, by chunks, on a pool of worker threads.
+     * The results are consumed on the calling thread in the order of the rows.
+     *
+     * @param task task run on each chunk
+     * @param consumer consumer of the chunk results
+     * @throws SQLException if a task fails or the thread is interrupted
+     */
+    <T> void forEachChunk(final ChunkTask<T> task, ChunkConsumer<T> consumer) throws SQLException {
+        ParallelUtilities.OrderedTasks<T> pending = new ParallelUtilities.OrderedTasks<>("clustering");
+        try {
+            int start = 0;
+            while (start < size() || !pending.isEmpty()) {
+                while (start < size() && !pending.isFull()) {
+                    final int chunkStart = start;
+                    final int chunkEnd = Math.min(size(), start + CHUNK_SIZE);
+                    pending.submit(new Callable<T>() {
+                        @Override
+                        public T call() {
+                            return task.process(chunkStart, chunkEnd);
+                        }
+                    });
+                    start = chunkEnd;
+                }
+                consumer.accept(pending.take());
+            }
+        } finally {
+            pending.cancel();
+        }
+    }
+
+    /**
+     * Disjoint sets of the rows linked by a chunk. Only the rows met by the
+     * chunk are stored, so the links are merged as they are found instead of
+     * being listed.
+     */
+    static final class ChunkUnionFind {
+
+        private final Map<Integer, Integer> parent = new HashMap<>();
+
+        int find(int i) {
+            Integer p = parent.get(i);
+            if (p == null) {
+                return i;
+            }
+            // The parents are always stored, see union
+            while (p != i) {
+                int grandParent = parent.get(p);
+                parent.put(i, grandParent);
+                i = grandParent;
+                p = parent.get(i);
+            }
+            return i;
+        }
+
+        /**
+         * Merge the sets of two rows, the smallest root is kept
+         */
+        void union(int i, int j) {
+            int rootI = find(i);
+            int rootJ = find(j);
+            if (rootI == rootJ) {
+                return;
+            }
+            if (rootI < rootJ) {
+                parent.put(rootJ, rootI);
+                parent.put(rootI, rootI);
+            } else {
+                parent.put(rootI, rootJ);
+                parent.put(rootJ, rootJ);
+            }
+        }
+
+        /**
+         * Merge the sets found by the chunk into the sets of the whole table
+         *
+         * @param unionFind disjoint sets of the whole table
+         */
+        void mergeInto(UnionFind unionFind) {
+            for (Integer row : parent.keySet()) {
+                int root = find(row);
+                if (root != row) {
+                    unionFind.union(row, root);
+                }
+            }
+        }
+    }
+
+    /**
+     * Number the clusters from 0, in the order of their first row
+     *
+     * @param roots representative row of the cluster of each row, -1 for the
+     * rows out of any cluster
+     * @return the cluster number of each row, -1 for the rows out of any
+     * cluster
+     */
+    static int[] numberClusters(int[] roots) {
+        int[] numbers = new int[roots.length];
+        Arrays.fill(numbers, -1);
+        int[] clusters = new int[roots.length];
+        int count = 0;
+        for (int i = 0; i < roots.length; i++) {
+            int root = roots[i];
+            if (root >= 0) {
+                if (numbers[root] < 0) {
+                    numbers[root] = count++;
+                }
+                clusters[i] = numbers[root];
+            } else {
+                clusters[i] = -1;
+            }
+        }
+        return clusters;
+    }
+
+    /**
+     * @param rowSource rows of the result, null for the column list
+     * @return the result set of the clustering functions
+     */
+    static SimpleResultSet prepareResultSet(SimpleRowSource rowSource) {
+        SimpleResultSet output = rowSource == null ? new SimpleResultSet() : new SimpleResultSet(rowSource);
+        output.addColumn(ID, Types.BIGINT, 19, 0);
+        output.addColumn(CLUSTER_ID, Types.INTEGER, 10, 0);
+        return output;
+    }
+
+    /**
+     * Produce the (ID, CLUSTER_ID) rows. The clusters are computed on the first
+     * read.
+     */
+    abstract static class ClusterRowSource implements SimpleRowSource {
+
+        private final Connection connection;
+        private final String tableName;
+        private long[] ids;
+        private int[] clusters;
+        private int index = 0;
+
+        ClusterRowSource(Connection connection, String tableName) {
+            this.connection = connection;
+            this.tableName = tableName;
+        }
+
+        /**
+         * @param index loaded table
+         * @return the cluster number of each row, -1 for noise
+         * @throws SQLException
+         */
+        abstract int[] cluster(ClusterIndex index) throws SQLException;
+
+        @Override
+        public Object[] readRow() throws SQLException {
+            if (ids == null) {
+                ClusterIndex clusterIndex = load(connection, tableName);
+                clusters = cluster(clusterIndex);
+                ids = clusterIndex.ids;
+            }
+            if (index >= ids.length) {
+                return null;
+            }
+            int cluster = clusters[index];
+            Object[] row = new Object[]{ids[index], cluster < 0 ? null : cluster};
+            index++;
+            return row;
+        }
+
+        @Override
+        public void close() {
+            ids = null;
+            clusters = null;
+        }
+
+        @Override
+        public void reset() {
+            close();
+            index = 0;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.cluster;
+
+import org.h2gis.api.AbstractFunction;
+import org.h2gis.api.ScalarFunction;
+import org.h2gis.utilities.IntList;
+import org.h2gis.utilities.UnionFind;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import static org.h2gis.utilities.TableUtilities.isColumnListConnection;
+
+/**
+ * Table function that clusters the geometries of a table with the DBSCAN
+ * algorithm.
+ *
+ * A geometry is a core geometry if at least minPoints geometries, itself
+ * included, are within eps of it. The core geometries within eps of each
+ * other are in the same cluster, a geometry that is not a core geometry
+ * joins the cluster of the first core geometry within eps, the other
+ * geometries are noise.
+ *
+ * The neighbourhoods are queried twice on an in-memory {@link
+ * org.locationtech.jts.index.strtree.STRtree}, by chunks of rows on a pool of
+ * worker threads: a first pass counts the neighbours and a second pass
+ * links the core geometries with a union-find. No neighbour list is kept in
+ * memory.
+ */
+public class ST_ClusterDBSCAN extends AbstractFunction implements ScalarFunction {
+
+    public ST_ClusterDBSCAN() {
+        addProperty(PROP_REMARKS, "Returns the DBSCAN cluster number (" + ClusterIndex.ID + ", "
+                + ClusterIndex.CLUSTER_ID + ") of each geometry of a table.\n"
+                + "A geometry with at least minPoints geometries (itself included) within eps is a core geometry. "
+                + "The core geometries within eps of each other are in the same cluster and the geometries "
+                + "within eps of a core geometry join its cluster.\n"
+                + "The clusters are numbered from 0, the CLUSTER_ID of the noise geometries is null. "
+                + "The identifiers are the integer primary key of the table or its _ROWID_.");
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "clusterDBSCAN";
+    }
+
+    /**
+     * @param connection Active connection
+     * @param tableName Table name
+     * @param eps Neighbourhood distance
+     * @param minPoints Minimum number of geometries in the neighbourhood of a
+     * core geometry
+     * @return a table of (ID, CLUSTER_ID) rows
+     * @throws SQLException
+     */
+    public static ResultSet clusterDBSCAN(Connection connection, String tableName, double eps, int minPoints) throws SQLException {
+        if (isColumnListConnection(connection)) {
+            return ClusterIndex.prepareResultSet(null);
+        }
+        if (eps < 0) {
+            throw new SQLException("The eps distance must be positive");
+        }
+        if (minPoints < 1) {
+            throw new SQLException("The minimum number of points must be at least 1");
+        }
+        final double distance = eps;
+        final int minCount = minPoints;
+        return ClusterIndex.prepareResultSet(new ClusterIndex.ClusterRowSource(connection, tableName) {
+            @Override
+            int[] cluster(ClusterIndex index) throws SQLException {
+                return clusterDBSCAN(index, distance, minCount);
+            }
+        });
+    }
+
+    /**
+     * @param index loaded table
+     * @param eps Neighbourhood distance
+     * @param minPoints Minimum number of geometries in the neighbourhood of a
+     * core geometry
+     * @return the cluster number of each row, -1 for noise
+     * @throws SQLException
+     */
+    static int[] clusterDBSCAN(final ClusterIndex index, final double eps, final int minPoints) throws SQLException {
+        final boolean[] core = new boolean[index.size()];
+        // First pass, find the core geometries. Each task writes its own range.
+        index.forEachChunk(new ClusterIndex.ChunkTask<Void>() {
+            @Override
+            public Void process(int start, int end) {
+                final int[] count = new int[1];
+                for (int i = start; i < end; i++) {
+                    count[0] = 0;
+                    index.queryNeighbours(i, eps, new ClusterIndex.NeighbourVisitor() {
+                        @Override
+                        public void visit(int j) {
+                            count[0]++;
+                        }
+                    });
+                    core[i] = count[0] >= minPoints;
+                }
+                return null;
+            }
+        }, new ClusterIndex.ChunkConsumer<Void>() {
+            @Override
+            public void accept(Void result) {
+            }
+        });
+        // Second pass, link the core geometries and attach the border geometries
+        final UnionFind unionFind = new UnionFind(index.size());
+        final int[] border = new int[index.size()];
+        Arrays.fill(border, -1);
+        index.forEachChunk(new ClusterIndex.ChunkTask<ChunkLinks>() {
+            @Override
+            public ChunkLinks process(int start, int end) {
+                final ChunkLinks result = new ChunkLinks();
+                final ClusterIndex.ChunkUnionFind links = result.links;
+                final IntList borders = result.borders;
+                final int[] nearestCore = new int[1];
+                for (int i = start; i < end; i++) {
+                    final int row = i;
+                    if (core[row]) {
+                        index.queryNeighbours(row, eps, new ClusterIndex.NeighbourVisitor() {
+                            @Override
+                            public void visit(int j) {
+                                if (j > row && core[j]) {
+                                    links.union(row, j);
+                                }
+                            }
+                        });
+                    } else {
+                        // Use the first core neighbour in row order, so the
+                        // result does not depend on the index traversal
+                        nearestCore[0] = -1;
+                        index.queryNeighbours(row, eps, new ClusterIndex.NeighbourVisitor() {
+                            @Override
+                            public void visit(int j) {
+                                if (core[j] && (nearestCore[0] < 0 || j < nearestCore[0])) {
+                                    nearestCore[0] = j;
+                                }
+                            }
+                        });
+                        if (nearestCore[0] >= 0) {
+                            borders.add(row, nearestCore[0]);
+                        }
+                    }
+                }
+                return result;
+            }
+        }, new ClusterIndex.ChunkConsumer<ChunkLinks>() {
+            @Override
+            public void accept(ChunkLinks result) {
+                result.links.mergeInto(unionFind);
+                IntList borders = result.borders;
+                for (int k = 0; k < borders.size(); k += 2) {
+                    border[borders.get(k)] = borders.get(k + 1);
+                }
+            }
+        });
+        int[] roots = new int[index.size()];
+        for (int i = 0; i < roots.length; i++) {
+            if (core[i]) {
+                roots[i] = unionFind.find(i);
+            } else if (border[i] >= 0) {
+                roots[i] = unionFind.find(border[i]);
+            } else {
+                roots[i] = -1;
+            }
+        }
+        return ClusterIndex.numberClusters(roots);
+    }
+
+    /**
+     * Links found by a chunk of the second pass
+     */
+    private static final class ChunkLinks {
+
+        /**
+         * Sets of the linked core geometries
+         */
+        final ClusterIndex.ChunkUnionFind links = new ClusterIndex.ChunkUnionFind();
+
+        /**
+         * Pairs of (border geometry, core geometry)
+         */
+        final IntList borders = new IntList();
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.cluster;
+
+import org.h2gis.api.AbstractFunction;
+import org.h2gis.api.ScalarFunction;
+import org.h2gis.utilities.UnionFind;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.h2gis.utilities.TableUtilities.isColumnListConnection;
+
+/**
+ * Table function that groups the geometries of a table that are connected by
+ * a chain of geometries separated by at most a distance.
+ *
+ * The neighbours of each geometry are found with an in-memory {@link
+ * org.locationtech.jts.index.strtree.STRtree}, by chunks of rows on a pool of
+ * worker threads, and the pairs of neighbours are merged with a union-find.
+ */
+public class ST_ClusterWithin extends AbstractFunction implements ScalarFunction {
+
+    public ST_ClusterWithin() {
+        addProperty(PROP_REMARKS, "Returns the cluster number (" + ClusterIndex.ID + ", " + ClusterIndex.CLUSTER_ID + ") "
+                + "of each geometry of a table.\n"
+                + "Two geometries are in the same cluster if they are connected by a chain of geometries "
+                + "separated by at most the given distance.\n"
+                + "The clusters are numbered from 0. The identifiers are the integer primary key of the table "
+                + "or its _ROWID_.");
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "clusterWithin";
+    }
+
+    /**
+     * @param connection Active connection
+     * @param tableName Table name
+     * @param distance Maximum distance between two neighbour geometries
+     * @return a table of (ID, CLUSTER_ID) rows
+     * @throws SQLException
+     */
+    public static ResultSet clusterWithin(Connection connection, String tableName, double distance) throws SQLException {
+        if (isColumnListConnection(connection)) {
+            return ClusterIndex.prepareResultSet(null);
+        }
+        if (distance < 0) {
+            throw new SQLException("The distance must be positive");
+        }
+        final double tolerance = distance;
+        return ClusterIndex.prepareResultSet(new ClusterIndex.ClusterRowSource(connection, tableName) {
+            @Override
+            int[] cluster(ClusterIndex index) throws SQLException {
+                return clusterWithin(index, tolerance);
+            }
+        });
+    }
+
+    /**
+     * @param index loaded table
+     * @param distance Maximum distance between two neighbour geometries
+     * @return the cluster number of each row
+     * @throws SQLException
+     */
+    static int[] clusterWithin(final ClusterIndex index, final double distance) throws SQLException {
+        final UnionFind unionFind = new UnionFind(index.size());
+        index.forEachChunk(new ClusterIndex.ChunkTask<ClusterIndex.ChunkUnionFind>() {
+            @Override
+            public ClusterIndex.ChunkUnionFind process(int start, int end) {
+                final ClusterIndex.ChunkUnionFind links = new ClusterIndex.ChunkUnionFind();
+                for (int i = start; i < end; i++) {
+                    final int row = i;
+                    index.queryNeighbours(row, distance, new ClusterIndex.NeighbourVisitor() {
+                        @Override
+                        public void visit(int j) {
+                            // Each pair is reported once
+                            if (j > row) {
+                                links.union(row, j);
+                            }
+                        }
+                    });
+                }
+                return links;
+            }
+        }, new ClusterIndex.ChunkConsumer<ClusterIndex.ChunkUnionFind>() {
+            @Override
+            public void accept(ClusterIndex.ChunkUnionFind links) {
+                links.mergeInto(unionFind);
+            }
+        });
+        int[] roots = new int[index.size()];
+        for (int i = 0; i < roots.length; i++) {
+            roots[i] = unionFind.find(i);
+        }
+        return ClusterIndex.numberClusters(roots);
+    }
+}
@@ -21,41 +21,57 @@ package org.h2gis.functions.spatial.create;
 
 import org.h2.tools.SimpleResultSet;
 import org.h2.tools.SimpleRowSource;
+import org.h2gis.utilities.GeometryMetaData;
+import org.h2gis.utilities.ParallelUtilities;
 import org.h2gis.utilities.TableLocation;
+import org.h2gis.utilities.Tuple;
 import org.h2gis.utilities.dbtypes.DBUtils;
 import org.locationtech.jts.geom.*;
 
 import java.sql.*;
+import java.util.concurrent.Callable;
+
 import org.cts.util.UTMUtils;
 import org.h2gis.utilities.GeographyUtilities;
 import static org.h2gis.utilities.GeographyUtilities.computeLongitudeDistance;
-import org.h2gis.utilities.GeometryMetaData;
 import org.h2gis.utilities.GeometryTableUtilities;
-import org.h2gis.utilities.Tuple;
 
 /**
  * GridRowSet is used to populate a result set with all grid cells. A cell could
  * be represented as a polygon or its center point.
  *
+ * The cells are produced on request. The grid parameters are computed once, on
+ * the first read, from the exact extent of the table: the extent estimated
+ * from a spatial index may be smaller than the data. Large grids are generated
+ * by chunks of cells on the shared pool of worker threads, ahead of the reads.
+ *
  * @author Erwan Bocher
  */
 public class GridRowSet implements SimpleRowSource {
 
-    private static final GeometryFactory GF = new GeometryFactory();
-    private static int cellI = 0;
-    private static int cellJ = 0;
+    /**
+     * Number of cells generated by a single task
+     */
+    private static final int CHUNK_SIZE = 10000;
+
     private int maxI, maxJ;
     private double deltaX, deltaY;
     private double minX, minY;
-    private int id = 0;
     private final Connection connection;
-    private boolean firstRow = true;
     private Envelope envelope;
     private boolean isTable;
     private String tableName;
     private boolean isCenterCell = false;
     private int srid;
     private boolean isRowColumnNumber =false;
+    private boolean initialized = false;
+    private GeometryFactory factory;
+    private long cellCount;
+    // Cursor of the chunks
+    private long nextChunkStart = 0;
+    private Object[][] currentChunk = new Object[0][];
+    private int currentIndex = 0;
+    private final ParallelUtilities.OrderedTasks<Object[][]> pending = new ParallelUtilities.OrderedTasks<>("grid");
 
     /**
      * The grid will be computed according a table stored in the database
@@ -92,65 +108,136 @@ public class GridRowSet implements SimpleRowSource {
 
     @Override
     public Object[] readRow() throws SQLException {
-        if (firstRow) {
-            reset();
+        if (!initialized) {
+            init();
+            if (cellCount > Integer.MAX_VALUE) {
+                throw new SQLException("The grid has " + cellCount + " cells, the maximum is " + Integer.MAX_VALUE);
+            }
         }
-        if (cellI == maxI) {
-            cellJ++;
-            cellI = 0;
+        while (currentIndex >= currentChunk.length) {
+            if (nextChunkStart >= cellCount && pending.isEmpty()) {
+                return null;
+            }
+            currentChunk = nextChunk();
+            currentIndex = 0;
+        }
+        return currentChunk[currentIndex++];
+    }
+
+    /**
+     * Return the next chunk of cells. The first chunk and the small grids are
+     * computed on the calling thread.
+     */
+    private Object[][] nextChunk() throws SQLException {
+        if (nextChunkStart == 0 || cellCount <= CHUNK_SIZE) {
+            long start = nextChunkStart;
+            nextChunkStart = Math.min(cellCount, start + CHUNK_SIZE);
+            return createCells(start, nextChunkStart);
         }
-        if (cellJ >= maxJ) {
-            cellJ = 0;
-            return null;
+        while (nextChunkStart < cellCount && !pending.isFull()) {
+            final long start = nextChunkStart;
+            final long end = Math.min(cellCount, start + CHUNK_SIZE);
+            pending.submit(new Callable<Object[][]>() {
+                @Override
+                public Object[][] call() {
+                    return createCells(start, end);
+                }
+            });
+            nextChunkStart = end;
         }
-        if (isCenterCell) {
-            return new Object[]{getCellPoint(), id++, cellI, cellJ + 1};
+        return pending.take();
+    }
+
+    /**
+     * Create the rows of a range of cells, the cells are numbered row by row
+     *
+     * @param start index of the first cell
+     * @param end index after the last cell
+     * @return the rows
+     */
+    private Object[][] createCells(long start, long end) {
+        Object[][] rows = new Object[(int) (end - start)][];
+        for (long cell = start; cell < end; cell++) {
+            int cellI = (int) (cell % maxI);
+            int cellJ = (int) (cell / maxI);
+            Geometry geom = isCenterCell ? getCellPoint(cellI, cellJ) : getCellPolygon(cellI, cellJ);
+            // The number of cells is checked on the first read
+            rows[(int) (cell - start)] = new Object[]{geom, (int) cell, cellI + 1, cellJ + 1};
         }
-        return new Object[]{getCellPolygon(), id++, cellI, cellJ + 1};
+        return rows;
     }
 
     @Override
     public void close() {
+        pending.cancel();
     }
 
     @Override
     public void reset() throws SQLException {
-        cellI = 0;
-        cellJ = 0;
-        firstRow = false;
+        close();
+        nextChunkStart = 0;
+        currentChunk = new Object[0][];
+        currentIndex = 0;
+    }
+
+    /**
+     * Compute the extent and the grid parameters
+     */
+    void init() throws SQLException {
         //We compute the extend according the first input value
         if (isTable) {
-            Statement statement = connection.createStatement();
-            //Find the SRID
-            Tuple<String, GeometryMetaData> geomMetadata = GeometryTableUtilities.getFirstColumnMetaData(connection, TableLocation.parse(tableName, DBUtils.getDBType(connection)));
+            TableLocation location = TableLocation.parse(tableName, DBUtils.getDBType(connection));
+            Tuple<String, GeometryMetaData> geomMetadata = GeometryTableUtilities.getFirstColumnMetaData(connection, location);
+            Geometry geomExtend = GeometryTableUtilities.getEnvelope(connection, location, geomMetadata.first());
+            if (geomExtend == null) {
+                throw new SQLException("The envelope cannot be null.");
+            }
             srid = geomMetadata.second().SRID;
-            try (ResultSet rs = statement.executeQuery("select ST_Extent(" + geomMetadata.first() + ")  from " + tableName)) {
-                rs.next();
-                Geometry geomExtend = (Geometry) rs.getObject(1);
-                if (geomExtend == null) {
-                    throw new SQLException("The envelope cannot be null.");
-                } else {
-                    envelope = geomExtend.getEnvelopeInternal();
-                    initParameters();
-                }
+            envelope = geomExtend.getEnvelopeInternal();
+        } else if (envelope == null || envelope.isNull()) {
+            throw new SQLException("The input geometry used to compute the grid cannot be null.");
+        }
+        initParameters();
+        factory = new GeometryFactory(new PrecisionModel(), srid);
+        cellCount = maxI <= 0 || maxJ <= 0 ? 0 : (long) maxI * maxJ;
+        initialized = true;
+    }
 
-            }
-        } else {
-            if (envelope == null || envelope.isNull()) {
-                throw new SQLException("The input geometry used to compute the grid cannot be null.");
-            }
-            else {
-                initParameters();
-            }
+    /**
+     * @return the number of columns of the grid
+     */
+    int getColumnCount() {
+        return maxI;
+    }
+
+    /**
+     * Return the index of the cell that contains a coordinate, the cells are
+     * numbered row by row from the lower left corner. A coordinate on the
+     * upper or right border of the grid belongs to the last cell. The
+     * coordinates of the table are within its extent, so a coordinate out of
+     * the grid by a rounding error is clamped into the border cell.
+     *
+     * @param x x coordinate
+     * @param y y coordinate
+     * @return the cell index or -1 if the grid is empty
+     */
+    long getCellIndex(double x, double y) {
+        if (maxI <= 0 || maxJ <= 0) {
+            return -1;
         }
+        int cellI = Math.max(0, Math.min(maxI - 1, (int) Math.floor((x - minX) / deltaX)));
+        int cellJ = Math.max(0, Math.min(maxJ - 1, (int) Math.floor((y - minY) / deltaY)));
+        return (long) cellJ * maxI + cellI;
     }
 
     /**
      * Compute the polygon corresponding to the cell
      *
+     * @param cellI column of the cell
+     * @param cellJ row of the cell
      * @return Polygon of the cell
      */
-    private Polygon getCellPolygon() {
+    Polygon getCellPolygon(int cellI, int cellJ) {
         final Coordinate[] summits = new Coordinate[5];
         double x1 = minX + cellI * deltaX;
         double y1 = minY + cellJ * deltaY;
@@ -161,25 +248,20 @@ public class GridRowSet implements SimpleRowSource {
         summits[2] = new Coordinate(x2, y2);
         summits[3] = new Coordinate(x1, y2);
         summits[4] = new Coordinate(x1, y1);
-        final LinearRing g = GF.createLinearRing(summits);
-        final Polygon gg = GF.createPolygon(g, null);
-        cellI++;
-        gg.setSRID(srid);
-        return gg;
+        return factory.createPolygon(summits);
     }
 
     /**
      * Compute the point of the cell
      *
+     * @param cellI column of the cell
+     * @param cellJ row of the cell
      * @return Center point of the cell
      */
-    private Point getCellPoint() {
+    private Point getCellPoint(int cellI, int cellJ) {
         double x1 = (minX + cellI * deltaX) + (deltaX / 2d);
         double y1 = (minY + cellJ * deltaY) + (deltaY / 2d);
-        cellI++;
-        Point gg = GF.createPoint(new Coordinate(x1, y1));
-        gg.setSRID(srid);
-        return gg;
+        return factory.createPoint(new Coordinate(x1, y1));
     }
 
     /**
@@ -0,0 +1,526 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.create;
+
+import org.h2.tools.SimpleResultSet;
+import org.h2.tools.SimpleRowSource;
+import org.h2.util.geometry.JTSUtils;
+import org.h2gis.api.AbstractFunction;
+import org.h2gis.api.ScalarFunction;
+import org.h2gis.utilities.GeometryMetaData;
+import org.h2gis.utilities.GeometryTableUtilities;
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.ParallelUtilities;
+import org.h2gis.utilities.TableLocation;
+import org.h2gis.utilities.TableUtilities;
+import org.h2gis.utilities.Tuple;
+import org.h2gis.utilities.dbtypes.DBTypes;
+import org.h2gis.utilities.dbtypes.DBUtils;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Point;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+import static org.h2gis.utilities.TableUtilities.isColumnListConnection;
+
+/**
+ * Aggregate the points of a table on a regular grid.
+ *
+ * The grid is the one of {@link ST_MakeGrid} for the extent of the table. The
+ * cell of each point is computed from its coordinates, so the table is read
+ * once, without any spatial predicate. The geometries are read as EWKB and
+ * decoded by chunks on the shared pool of worker threads, each worker
+ * accumulates the cells in its own hash table. Only the non empty cells are returned.
+ */
+public class ST_GridAggregate extends AbstractFunction implements ScalarFunction {
+
+    public static final String COUNT = "COUNT";
+
+    /**
+     * Number of points decoded by a single task
+     */
+    private static final int CHUNK_SIZE = 10000;
+
+    /**
+     * Supported aggregates
+     */
+    public enum Operation {
+        COUNT, SUM, MEAN, MIN, MAX
+    }
+
+    public ST_GridAggregate() {
+        addProperty(PROP_REMARKS, "Aggregate the points of a table on a regular grid.\n"
+                + "The arguments are the table name, the delta X and Y of the cells, "
+                + "then optionally an aggregate (COUNT, SUM, MEAN, MIN or MAX) with the column to aggregate "
+                + "and a value set to true to express the delta X and Y as the number of columns and rows.\n"
+                + "Returns the non empty cells (THE_GEOM, ID, ID_COL, ID_ROW) of the grid built by ST_MakeGrid, "
+                + "the number of points of each cell (COUNT) and the aggregated value.\n"
+                + "A point on the border of two cells belongs to the upper or right cell. "
+                + "Other geometries are aggregated by their centroid.");
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "gridAggregate";
+    }
+
+    /**
+     * @param connection Active connection
+     * @param tableName Point table
+     * @param deltaX the X cell size
+     * @param deltaY the Y cell size
+     * @return the non empty cells with their number of points
+     * @throws SQLException
+     */
+    public static ResultSet gridAggregate(Connection connection, String tableName, double deltaX, double deltaY) throws SQLException {
+        return gridAggregate(connection, tableName, deltaX, deltaY, COUNT, null, false);
+    }
+
+    /**
+     * @param connection Active connection
+     * @param tableName Point table
+     * @param deltaX the X cell size or the number of columns
+     * @param deltaY the Y cell size or the number of rows
+     * @param isColumnsRowsMeasure true if deltaX and deltaY are the number of
+     * columns and rows
+     * @return the non empty cells with their number of points
+     * @throws SQLException
+     */
+    public static ResultSet gridAggregate(Connection connection, String tableName, double deltaX, double deltaY,
+            boolean isColumnsRowsMeasure) throws SQLException {
+        return gridAggregate(connection, tableName, deltaX, deltaY, COUNT, null, isColumnsRowsMeasure);
+    }
+
+    /**
+     * @param connection Active connection
+     * @param tableName Point table
+     * @param deltaX the X cell size
+     * @param deltaY the Y cell size
+     * @param operation Aggregate, COUNT, SUM, MEAN, MIN or MAX
+     * @param column Aggregated column
+     * @return the non empty cells with their number of points and the
+     * aggregated value
+     * @throws SQLException
+     */
+    public static ResultSet gridAggregate(Connection connection, String tableName, double deltaX, double deltaY,
+            String operation, String column) throws SQLException {
+        return gridAggregate(connection, tableName, deltaX, deltaY, operation, column, false);
+    }
+
+    /**
+     * @param connection Active connection
+     * @param tableName Point table
+     * @param deltaX the X cell size or the number of columns
+     * @param deltaY the Y cell size or the number of rows
+     * @param operation Aggregate, COUNT, SUM, MEAN, MIN or MAX
+     * @param column Aggregated column
+     * @param isColumnsRowsMeasure true if deltaX and deltaY are the number of
+     * columns and rows
+     * @return the non empty cells with their number of points and the
+     * aggregated value
+     * @throws SQLException
+     */
+    public static ResultSet gridAggregate(Connection connection, String tableName, double deltaX, double deltaY,
+            String operation, String column, boolean isColumnsRowsMeasure) throws SQLException {
+        Operation op;
+        try {
+            op = Operation.valueOf(operation == null ? COUNT : operation.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            throw new SQLException("Unsupported aggregate " + operation);
+        }
+        if (op != Operation.COUNT && column == null) {
+            throw new SQLException("The " + op.name() + " aggregate requires a column");
+        }
+        if (isColumnListConnection(connection)) {
+            return prepareResultSet(null, op);
+        }
+        if (tableName == null) {
+            throw new SQLException("The table name cannot be null");
+        }
+        GridRowSet grid = new GridRowSet(connection, deltaX, deltaY, tableName);
+        grid.setIsRowColumnNumber(isColumnsRowsMeasure);
+        return prepareResultSet(new AggregateRowSource(connection, tableName, grid, op, column), op);
+    }
+
+    private static SimpleResultSet prepareResultSet(SimpleRowSource rowSource, Operation op) {
+        SimpleResultSet output = rowSource == null ? new SimpleResultSet() : new SimpleResultSet(rowSource);
+        output.addColumn("THE_GEOM", Types.OTHER, "GEOMETRY", 0, 0);
+        // Only the non empty cells are returned, so the grid may have more
+        // cells than an INTEGER identifier can number
+        output.addColumn("ID", Types.BIGINT, 19, 0);
+        output.addColumn("ID_COL", Types.INTEGER, 10, 0);
+        output.addColumn("ID_ROW", Types.INTEGER, 10, 0);
+        output.addColumn(COUNT, Types.BIGINT, 19, 0);
+        if (op != Operation.COUNT) {
+            output.addColumn(op.name(), Types.DOUBLE, 17, 0);
+        }
+        return output;
+    }
+
+    /**
+     * Read the coordinates of a point from its EWKB representation, the other
+     * geometries are decoded and replaced by their centroid
+     *
+     * @param ewkb EWKB of the geometry
+     * @param xy array where the coordinates are written
+     * @return false if the geometry is empty
+     */
+    static boolean readCoordinates(byte[] ewkb, double[] xy) {
+        ByteBuffer buffer = ByteBuffer.wrap(ewkb).order(ewkb[0] == 1 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        int type = buffer.getInt(1);
+        if ((type & 0xFFFF) % 1000 == 1) {
+            int offset = (type & 0x20000000) != 0 ? 9 : 5;
+            xy[0] = buffer.getDouble(offset);
+            xy[1] = buffer.getDouble(offset + 8);
+        } else {
+            Geometry geometry = JTSUtils.ewkb2geometry(ewkb);
+            if (geometry.isEmpty()) {
+                return false;
+            }
+            Point centroid = geometry.getCentroid();
+            xy[0] = centroid.getX();
+            xy[1] = centroid.getY();
+        }
+        return !Double.isNaN(xy[0]) && !Double.isNaN(xy[1]);
+    }
+
+    /**
+     * Statistics of the cells, stored in an open addressing hash table
+     */
+    static final class CellStats {
+
+        private long[] keys;
+        private long[] counts;
+        private long[] valueCounts;
+        private double[] sums;
+        private double[] mins;
+        private double[] maxs;
+        private int size = 0;
+
+        CellStats() {
+            allocate(1024);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            Arrays.fill(keys, -1);
+            counts = new long[capacity];
+            valueCounts = new long[capacity];
+            sums = new double[capacity];
+            mins = new double[capacity];
+            maxs = new double[capacity];
+        }
+
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 33) & mask;
+            while (keys[slot] != -1 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private int getOrCreate(long key) {
+            int slot = slot(key);
+            if (keys[slot] == -1) {
+                if (2 * (size + 1) > keys.length) {
+                    grow();
+                    slot = slot(key);
+                }
+                keys[slot] = key;
+                mins[slot] = Double.POSITIVE_INFINITY;
+                maxs[slot] = Double.NEGATIVE_INFINITY;
+                size++;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldCounts = counts;
+            long[] oldValueCounts = valueCounts;
+            double[] oldSums = sums;
+            double[] oldMins = mins;
+            double[] oldMaxs = maxs;
+            allocate(oldKeys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != -1) {
+                    int slot = slot(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                    valueCounts[slot] = oldValueCounts[i];
+                    sums[slot] = oldSums[i];
+                    mins[slot] = oldMins[i];
+                    maxs[slot] = oldMaxs[i];
+                }
+            }
+        }
+
+        /**
+         * Add a point to a cell
+         *
+         * @param key cell index
+         * @param value value of the point, NaN for null
+         */
+        void add(long key, double value) {
+            int slot = getOrCreate(key);
+            counts[slot]++;
+            if (!Double.isNaN(value)) {
+                valueCounts[slot]++;
+                sums[slot] += value;
+                mins[slot] = Math.min(mins[slot], value);
+                maxs[slot] = Math.max(maxs[slot], value);
+            }
+        }
+
+        /**
+         * Merge the statistics of other cells
+         *
+         * @param other cells
+         */
+        void merge(CellStats other) {
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.keys[i] != -1) {
+                    int slot = getOrCreate(other.keys[i]);
+                    counts[slot] += other.counts[i];
+                    valueCounts[slot] += other.valueCounts[i];
+                    sums[slot] += other.sums[i];
+                    mins[slot] = Math.min(mins[slot], other.mins[i]);
+                    maxs[slot] = Math.max(maxs[slot], other.maxs[i]);
+                }
+            }
+        }
+
+        /**
+         * @return the cell indexes, in ascending order
+         */
+        long[] sortedKeys() {
+            long[] result = new long[size];
+            int index = 0;
+            for (long key : keys) {
+                if (key != -1) {
+                    result[index++] = key;
+                }
+            }
+            Arrays.sort(result);
+            return result;
+        }
+
+        long getCount(long key) {
+            return counts[slot(key)];
+        }
+
+        /**
+         * @param key cell index
+         * @param op aggregate
+         * @return the aggregated value, null if the cell has no value
+         */
+        Double getValue(long key, Operation op) {
+            int slot = slot(key);
+            if (valueCounts[slot] == 0) {
+                return null;
+            }
+            switch (op) {
+                case SUM:
+                    return sums[slot];
+                case MEAN:
+                    return sums[slot] / valueCounts[slot];
+                case MIN:
+                    return mins[slot];
+                case MAX:
+                    return maxs[slot];
+                default:
+                    return (double) valueCounts[slot];
+            }
+        }
+    }
+
+    /**
+     * Bin a chunk of EWKB geometries in the statistics of a worker
+     */
+    private static final class BinTask implements Callable<Void> {
+
+        private final GridRowSet grid;
+        private final byte[][] geometries;
+        private final double[] values;
+        private final int size;
+        private final BlockingQueue<CellStats> workers;
+
+        BinTask(GridRowSet grid, byte[][] geometries, double[] values, int size, BlockingQueue<CellStats> workers) {
+            this.grid = grid;
+            this.geometries = geometries;
+            this.values = values;
+            this.size = size;
+            this.workers = workers;
+        }
+
+        @Override
+        public Void call() throws InterruptedException {
+            double[] xy = new double[2];
+            CellStats stats = workers.take();
+            try {
+                for (int i = 0; i < size; i++) {
+                    if (readCoordinates(geometries[i], xy)) {
+                        long cell = grid.getCellIndex(xy[0], xy[1]);
+                        if (cell >= 0) {
+                            stats.add(cell, values[i]);
+                        }
+                    }
+                }
+            } finally {
+                workers.put(stats);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Aggregate the table on the first read, then return the non empty cells
+     * in the order of their index
+     */
+    private static final class AggregateRowSource implements SimpleRowSource {
+
+        private final Connection connection;
+        private final String tableName;
+        private final GridRowSet grid;
+        private final Operation op;
+        private final String column;
+        private boolean gridInitialized = false;
+        private CellStats stats;
+        private long[] cells;
+        private int index = 0;
+
+        AggregateRowSource(Connection connection, String tableName, GridRowSet grid, Operation op, String column) {
+            this.connection = connection;
+            this.tableName = tableName;
+            this.grid = grid;
+            this.op = op;
+            this.column = column;
+        }
+
+        @Override
+        public Object[] readRow() throws SQLException {
+            if (cells == null) {
+                aggregate();
+            }
+            if (index >= cells.length) {
+                return null;
+            }
+            long cell = cells[index++];
+            int columns = grid.getColumnCount();
+            int cellI = (int) (cell % columns);
+            int cellJ = (int) (cell / columns);
+            Object[] row = new Object[op == Operation.COUNT ? 5 : 6];
+            row[0] = grid.getCellPolygon(cellI, cellJ);
+            row[1] = cell;
+            row[2] = cellI + 1;
+            row[3] = cellJ + 1;
+            row[4] = stats.getCount(cell);
+            if (op != Operation.COUNT) {
+                row[5] = stats.getValue(cell, op);
+            }
+            return row;
+        }
+
+        private void aggregate() throws SQLException {
+            if (!gridInitialized) {
+                grid.init();
+                gridInitialized = true;
+            }
+            final DBTypes dbType = DBUtils.getDBType(connection);
+            TableLocation location = TableUtilities.parseInputTable(connection, tableName);
+            Tuple<String, GeometryMetaData> geomMetadata = GeometryTableUtilities.getFirstColumnMetaData(connection, location);
+            String geomColumn = TableLocation.quoteIdentifier(geomMetadata.first(), dbType);
+            String valueColumn = "NULL";
+            if (op != Operation.COUNT) {
+                for (String columnName : JDBCUtilities.getColumnNames(connection, location.toString())) {
+                    if (columnName.equalsIgnoreCase(column)) {
+                        valueColumn = TableLocation.quoteIdentifier(columnName, dbType);
+                    }
+                }
+                if (valueColumn.equals("NULL")) {
+                    throw new SQLException("The column " + column + " does not exist in the table " + tableName);
+                }
+            }
+            int threadCount = ParallelUtilities.getThreadCount();
+            BlockingQueue<CellStats> workers = new ArrayBlockingQueue<>(threadCount);
+            for (int i = 0; i < threadCount; i++) {
+                workers.add(new CellStats());
+            }
+            ParallelUtilities.OrderedTasks<Void> pending = new ParallelUtilities.OrderedTasks<>("grid aggregation");
+            try (Statement st = connection.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT " + geomColumn + ", " + valueColumn + " FROM " + location
+                         + " WHERE " + geomColumn + " IS NOT NULL")) {
+                boolean hasNext = true;
+                while (hasNext) {
+                    byte[][] geometries = new byte[CHUNK_SIZE][];
+                    double[] values = new double[CHUNK_SIZE];
+                    int size = 0;
+                    while (size < CHUNK_SIZE && (hasNext = rs.next())) {
+                        geometries[size] = rs.getBytes(1);
+                        double value = rs.getDouble(2);
+                        values[size] = rs.wasNull() ? Double.NaN : value;
+                        size++;
+                    }
+                    if (size > 0) {
+                        if (pending.isFull()) {
+                            pending.take();
+                        }
+                        pending.submit(new BinTask(grid, geometries, values, size, workers));
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    pending.take();
+                }
+            } finally {
+                pending.cancel();
+            }
+            stats = workers.poll();
+            for (CellStats other : workers) {
+                stats.merge(other);
+            }
+            cells = stats.sortedKeys();
+        }
+
+        @Override
+        public void close() {
+            stats = null;
+            cells = null;
+        }
+
+        @Override
+        public void reset() {
+            index = 0;
+        }
+    }
+}
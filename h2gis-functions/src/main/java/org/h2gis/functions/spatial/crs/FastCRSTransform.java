@@ -0,0 +1,319 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+package org.h2gis.functions.spatial.crs;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.CoordinateSequenceFilter;
+
+import java.util.Map;
+
+/**
+ * Closed-form transformations for the most common CRS pairs.
+ * These operations bypass the generic CTS operation chain and work directly
+ * on the coordinate sequences of the geometry.
+ *
+ * Supported pairs are WGS84 (EPSG:4326) to and from Web Mercator (EPSG:3857)
+ * and WGS84 to and from the WGS84 UTM zones (EPSG:32601-32660 and 32701-32760).
+ * The UTM projection uses the Kruger series up to the sixth order, which is
+ * accurate to a few nanometers inside the zone.
+ *
+ * These transformations are only used when the rows of the spatial_ref_sys
+ * table still hold the definitions shipped with H2GIS. A SRID redefined by
+ * the user is transformed by CTS.
+ *
+ * The z ordinate is kept unchanged as the datum does not change.
+ */
+public abstract class FastCRSTransform implements CoordinateSequenceFilter {
+
+    /**
+     * EPSG code of the WGS84 geographic CRS
+     */
+    public static final int WGS84 = 4326;
+
+    /**
+     * EPSG code of the Web Mercator CRS
+     */
+    public static final int WEB_MERCATOR = 3857;
+
+    /**
+     * Largest latitude of the square Web Mercator world, the latitudes beyond
+     * are clamped to it
+     */
+    public static final double WEB_MERCATOR_MAX_LATITUDE = 85.0511287798066;
+
+    /**
+     * Proj4 definitions of the spatial_ref_sys table shipped with H2GIS
+     */
+    private static final Map<String, String> WGS84_PARAMETERS = SpatialRefSnapshot.SpatialRef.parse(
+            "+proj=longlat +ellps=WGS84 +datum=WGS84 +no_defs");
+    private static final Map<String, String> WEB_MERCATOR_PARAMETERS = SpatialRefSnapshot.SpatialRef.parse(
+            "+proj=merc +a=6378137 +b=6378137 +lat_ts=0.0 +lon_0=0.0 +x_0=0.0 +y_0=0 +k=1.0 +units=m "
+            + "+nadgrids=@null +wktext +no_defs");
+
+    /**
+     * Semi major axis of the WGS84 ellipsoid
+     */
+    private static final double A = 6378137.0;
+
+    /**
+     * Flattening of the WGS84 ellipsoid
+     */
+    private static final double F = 1 / 298.257223563;
+
+    /**
+     * Eccentricity of the WGS84 ellipsoid
+     */
+    private static final double E = Math.sqrt(F * (2 - F));
+
+    private static final double UTM_SCALE_FACTOR = 0.9996;
+    private static final double UTM_FALSE_EASTING = 500000;
+    private static final double UTM_FALSE_NORTHING_SOUTH = 10000000;
+
+    /**
+     * Rectifying radius multiplied by the UTM scale factor
+     */
+    private static final double K0_A;
+
+    /**
+     * Kruger series coefficients, forward and inverse
+     */
+    private static final double[] ALPHA = new double[6];
+    private static final double[] BETA = new double[6];
+
+    static {
+        double n = F / (2 - F);
+        double n2 = n * n, n3 = n2 * n, n4 = n3 * n, n5 = n4 * n, n6 = n5 * n;
+        K0_A = UTM_SCALE_FACTOR * A / (1 + n) * (1 + n2 / 4 + n4 / 64 + n6 / 256);
+        ALPHA[0] = n / 2 - 2 * n2 / 3 + 5 * n3 / 16 + 41 * n4 / 180 - 127 * n5 / 288 + 7891 * n6 / 37800;
+        ALPHA[1] = 13 * n2 / 48 - 3 * n3 / 5 + 557 * n4 / 1440 + 281 * n5 / 630 - 1983433 * n6 / 1935360;
+        ALPHA[2] = 61 * n3 / 240 - 103 * n4 / 140 + 15061 * n5 / 26880 + 167603 * n6 / 181440;
+        ALPHA[3] = 49561 * n4 / 161280 - 179 * n5 / 168 + 6601661 * n6 / 7257600;
+        ALPHA[4] = 34729 * n5 / 80640 - 3418889 * n6 / 1995840;
+        ALPHA[5] = 212378941 * n6 / 319334400;
+        BETA[0] = n / 2 - 2 * n2 / 3 + 37 * n3 / 96 - n4 / 360 - 81 * n5 / 512 + 96199 * n6 / 604800;
+        BETA[1] = n2 / 48 + n3 / 15 - 437 * n4 / 1440 + 46 * n5 / 105 - 1118711 * n6 / 3870720;
+        BETA[2] = 17 * n3 / 480 - 37 * n4 / 840 - 209 * n5 / 4480 + 5569 * n6 / 90720;
+        BETA[3] = 4397 * n4 / 161280 - 11 * n5 / 504 - 830251 * n6 / 7257600;
+        BETA[4] = 4583 * n5 / 161280 - 108847 * n6 / 3991680;
+        BETA[5] = 20648693 * n6 / 638668800;
+    }
+
+    private static final FastCRSTransform WGS84_TO_WEB_MERCATOR = new FastCRSTransform() {
+        @Override
+        public void filter(CoordinateSequence seq, int i) {
+            double lat = Math.toRadians(Math.max(-WEB_MERCATOR_MAX_LATITUDE,
+                    Math.min(WEB_MERCATOR_MAX_LATITUDE, seq.getY(i))));
+            seq.setOrdinate(i, CoordinateSequence.X, A * Math.toRadians(seq.getX(i)));
+            seq.setOrdinate(i, CoordinateSequence.Y, A * Math.log(Math.tan(Math.PI / 4 + lat / 2)));
+        }
+    };
+
+    private static final FastCRSTransform WEB_MERCATOR_TO_WGS84 = new FastCRSTransform() {
+        @Override
+        public void filter(CoordinateSequence seq, int i) {
+            double y = seq.getY(i);
+            seq.setOrdinate(i, CoordinateSequence.X, Math.toDegrees(seq.getX(i) / A));
+            seq.setOrdinate(i, CoordinateSequence.Y, Math.toDegrees(2 * Math.atan(Math.exp(y / A)) - Math.PI / 2));
+        }
+    };
+
+    /**
+     * Return the closed-form transformation between two SRIDs, if both are
+     * defined in the snapshot as in the spatial_ref_sys table of H2GIS
+     *
+     * @param snapshot spatial_ref_sys snapshot
+     * @param inputSRID source EPSG code
+     * @param targetSRID target EPSG code
+     * @return the transformation or null if the pair is not supported
+     */
+    public static FastCRSTransform get(SpatialRefSnapshot snapshot, int inputSRID, int targetSRID) {
+        FastCRSTransform transform = get(inputSRID, targetSRID);
+        if (transform == null || !isBuiltIn(snapshot.get(inputSRID)) || !isBuiltIn(snapshot.get(targetSRID))) {
+            return null;
+        }
+        return transform;
+    }
+
+    private static boolean isBuiltIn(SpatialRefSnapshot.SpatialRef spatialRef) {
+        return spatialRef != null && spatialRef.hasParameters(getBuiltInParameters(spatialRef.getSRID()));
+    }
+
+    /**
+     * Return the proj4 parameters of a supported SRID, as defined in the
+     * spatial_ref_sys table of H2GIS
+     *
+     * @param srid EPSG code
+     * @return the parameters, keys are without the + prefix
+     */
+    static Map<String, String> getBuiltInParameters(int srid) {
+        if (srid == WGS84) {
+            return WGS84_PARAMETERS;
+        } else if (srid == WEB_MERCATOR) {
+            return WEB_MERCATOR_PARAMETERS;
+        } else if (isUTM(srid)) {
+            return SpatialRefSnapshot.SpatialRef.parse("+proj=utm +zone=" + (srid % 100)
+                    + (srid > 32700 ? " +south" : "") + " +datum=WGS84 +units=m +no_defs");
+        }
+        return null;
+    }
+
+    /**
+     * Return the closed-form transformation between two EPSG codes
+     *
+     * @param inputSRID source EPSG code
+     * @param targetSRID target EPSG code
+     * @return the transformation or null if the pair is not supported
+     */
+    private static FastCRSTransform get(int inputSRID, int targetSRID) {
+        if (inputSRID == WGS84) {
+            if (targetSRID == WEB_MERCATOR) {
+                return WGS84_TO_WEB_MERCATOR;
+            } else if (isUTM(targetSRID)) {
+                return new UTMForward(targetSRID);
+            }
+        } else if (targetSRID == WGS84) {
+            if (inputSRID == WEB_MERCATOR) {
+                return WEB_MERCATOR_TO_WGS84;
+            } else if (isUTM(inputSRID)) {
+                return new UTMInverse(inputSRID);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check if the EPSG code is a WGS84 UTM zone
+     *
+     * @param srid EPSG code
+     * @return true for the codes 32601-32660 and 32701-32760
+     */
+    public static boolean isUTM(int srid) {
+        return (srid >= 32601 && srid <= 32660) || (srid >= 32701 && srid <= 32760);
+    }
+
+    @Override
+    public boolean isDone() {
+        return false;
+    }
+
+    @Override
+    public boolean isGeometryChanged() {
+        return true;
+    }
+
+    private static double atanh(double x) {
+        return 0.5 * Math.log((1 + x) / (1 - x));
+    }
+
+    private static double asinh(double x) {
+        double ax = Math.abs(x);
+        return Math.copySign(Math.log(ax + Math.sqrt(ax * ax + 1)), x);
+    }
+
+    /**
+     * Parameters shared by the UTM transformations
+     */
+    private abstract static class UTM extends FastCRSTransform {
+
+        final double centralMeridian;
+        final double falseNorthing;
+
+        UTM(int srid) {
+            int zone = srid % 100;
+            centralMeridian = Math.toRadians(zone * 6 - 183);
+            falseNorthing = srid > 32700 ? UTM_FALSE_NORTHING_SOUTH : 0;
+        }
+    }
+
+    /**
+     * WGS84 longitude, latitude to UTM easting, northing
+     */
+    private static final class UTMForward extends UTM {
+
+        UTMForward(int srid) {
+            super(srid);
+        }
+
+        @Override
+        public void filter(CoordinateSequence seq, int i) {
+            double lambda = Math.toRadians(seq.getX(i)) - centralMeridian;
+            double tau = Math.tan(Math.toRadians(seq.getY(i)));
+            // Conformal latitude
+            double sigma = Math.sinh(E * atanh(E * tau / Math.sqrt(1 + tau * tau)));
+            double tauP = tau * Math.sqrt(1 + sigma * sigma) - sigma * Math.sqrt(1 + tau * tau);
+            double cosLambda = Math.cos(lambda);
+            double xiP = Math.atan2(tauP, cosLambda);
+            double etaP = asinh(Math.sin(lambda) / Math.sqrt(tauP * tauP + cosLambda * cosLambda));
+            double xi = xiP;
+            double eta = etaP;
+            for (int j = 0; j < 6; j++) {
+                double k = 2 * (j + 1);
+                xi += ALPHA[j] * Math.sin(k * xiP) * Math.cosh(k * etaP);
+                eta += ALPHA[j] * Math.cos(k * xiP) * Math.sinh(k * etaP);
+            }
+            seq.setOrdinate(i, CoordinateSequence.X, UTM_FALSE_EASTING + K0_A * eta);
+            seq.setOrdinate(i, CoordinateSequence.Y, falseNorthing + K0_A * xi);
+        }
+    }
+
+    /**
+     * UTM easting, northing to WGS84 longitude, latitude
+     */
+    private static final class UTMInverse extends UTM {
+
+        UTMInverse(int srid) {
+            super(srid);
+        }
+
+        @Override
+        public void filter(CoordinateSequence seq, int i) {
+            double xi = (seq.getY(i) - falseNorthing) / K0_A;
+            double eta = (seq.getX(i) - UTM_FALSE_EASTING) / K0_A;
+            double xiP = xi;
+            double etaP = eta;
+            for (int j = 0; j < 6; j++) {
+                double k = 2 * (j + 1);
+                xiP -= BETA[j] * Math.sin(k * xi) * Math.cosh(k * eta);
+                etaP -= BETA[j] * Math.cos(k * xi) * Math.sinh(k * eta);
+            }
+            double sinhEtaP = Math.sinh(etaP);
+            double cosXiP = Math.cos(xiP);
+            double tauP = Math.sin(xiP) / Math.sqrt(sinhEtaP * sinhEtaP + cosXiP * cosXiP);
+            double lambda = Math.atan2(sinhEtaP, cosXiP);
+            // Newton iterations from the conformal latitude to the geodetic latitude
+            double e2m = 1 - E * E;
+            double tau = tauP;
+            for (int iter = 0; iter < 10; iter++) {
+                double sqrtTau = Math.sqrt(1 + tau * tau);
+                double sigma = Math.sinh(E * atanh(E * tau / sqrtTau));
+                double tauI = tau * Math.sqrt(1 + sigma * sigma) - sigma * sqrtTau;
+                double dTau = (tauP - tauI) / Math.sqrt(1 + tauI * tauI)
+                        * (1 + e2m * tau * tau) / (e2m * sqrtTau);
+                tau += dTau;
+                if (Math.abs(dTau) < 1e-14 * Math.max(1, Math.abs(tau))) {
+                    break;
+                }
+            }
+            seq.setOrdinate(i, CoordinateSequence.X, Math.toDegrees(lambda + centralMeridian));
+            seq.setOrdinate(i, CoordinateSequence.Y, Math.toDegrees(Math.atan(tau)));
+        }
+    }
+}
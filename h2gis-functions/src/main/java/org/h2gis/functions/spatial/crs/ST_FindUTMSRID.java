@@ -21,8 +21,8 @@ package org.h2gis.functions.spatial.crs;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import org.cts.util.UTMUtils;
 import org.h2gis.api.DeterministicScalarFunction;
-import org.h2gis.utilities.GeographyUtilities;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.Point;
 
@@ -55,7 +55,7 @@ public class ST_FindUTMSRID extends DeterministicScalarFunction {
             return -1;
         }        
         Point coord = geometry.getCentroid();
-        return GeographyUtilities.getSRID(connection,(float)coord.getY(), (float)coord.getX());
+        return SpatialRefSnapshot.get(connection).getSRID(UTMUtils.getProj((float)coord.getY(), (float)coord.getX()));
     }
     
 }
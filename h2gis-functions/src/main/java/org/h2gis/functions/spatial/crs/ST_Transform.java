@@ -20,7 +20,6 @@
 
 package org.h2gis.functions.spatial.crs;
 
-import org.cts.CRSFactory;
 import org.cts.IllegalCoordinateException;
 import org.cts.crs.CRSException;
 import org.cts.crs.CoordinateReferenceSystem;
@@ -32,6 +31,8 @@ import org.h2gis.api.AbstractFunction;
 import org.h2gis.api.ScalarFunction;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.CoordinateFilter;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.CoordinateSequenceFilter;
 import org.locationtech.jts.geom.Geometry;
 
 import java.sql.Connection;
@@ -53,10 +54,6 @@ import java.util.logging.Logger;
  */
 public class ST_Transform extends AbstractFunction implements ScalarFunction {
 
-    private static CRSFactory crsf;
-    private static SpatialRefRegistry srr = new SpatialRefRegistry();
-    private static Map<EPSGTuple, CoordinateOperation> copPool = new CopCache(5);
-
     /**
      * Constructor
      */
@@ -86,64 +83,141 @@ public class ST_Transform extends AbstractFunction implements ScalarFunction {
         if (codeEpsg == null) {
             throw new IllegalArgumentException("The SRID code cannot be null.");
         }
-        if (crsf == null) {
-            crsf = new CRSFactory();
-            //Activate the CRSFactory and the internal H2 spatial_ref_sys registry to
-            // manage Coordinate Reference Systems.
-            crsf.getRegistryManager().addRegistry(srr);
-        }
-        srr.setConnection(connection);
+        SpatialRefSnapshot snapshot = SpatialRefSnapshot.get(connection);
         try {
             int inputSRID = geom.getSRID();
             if (inputSRID == 0) {
                 throw new SQLException("Cannot find a CRS");
+            } else if (inputSRID == codeEpsg) {
+                return geom;
             } else {
-                CoordinateReferenceSystem inputCRS = crsf.getCRS(srr.getRegistryName() + ":" + inputSRID);
-                CoordinateReferenceSystem targetCRS = crsf.getCRS(srr.getRegistryName() + ":" + codeEpsg);
+                FastCRSTransform fastTransform = FastCRSTransform.get(snapshot, inputSRID, codeEpsg);
+                if (fastTransform != null) {
+                    return transform(geom, fastTransform, codeEpsg);
+                }
+                CoordinateReferenceSystem inputCRS = snapshot.getCRS(inputSRID);
+                CoordinateReferenceSystem targetCRS = snapshot.getCRS(codeEpsg);
                 if (inputCRS.equals(targetCRS)) {
                     return geom;
                 }
                 EPSGTuple epsg = new EPSGTuple(inputSRID, codeEpsg);
-                CoordinateOperation op = copPool.get(epsg);
-                if (op != null) {
-                    Geometry outPutGeom = geom.copy();
-                    outPutGeom.geometryChanged();
-                    outPutGeom.apply(new CRSTransformFilter(op));
-                    outPutGeom.setSRID(codeEpsg);
-                    return outPutGeom;
-                } else {
-                    if (inputCRS instanceof GeodeticCRS && targetCRS instanceof GeodeticCRS) {
-                        Set<CoordinateOperation> ops = CoordinateOperationFactory
-                                .createCoordinateOperations((GeodeticCRS) inputCRS, (GeodeticCRS) targetCRS);
-                        if (!ops.isEmpty()) {
-                            op = CoordinateOperationFactory.getMostPrecise(ops);
-                            Geometry outPutGeom = geom.copy();
-                            outPutGeom.geometryChanged();
-                            outPutGeom.apply(new CRSTransformFilter(op));
-                            copPool.put(epsg, op);
-                            outPutGeom.setSRID(codeEpsg);
-                            return outPutGeom;
-                        }
-                    } else {
-                        throw new SQLException("The transformation from "
-                                + inputCRS + " to " + codeEpsg + " is not yet supported.");
+                CoordinateOperation op = snapshot.getOperation(epsg);
+                if (op == null) {
+                    op = getMostPreciseOperation(inputCRS, targetCRS, codeEpsg);
+                    if (op == null) {
+                        return null;
                     }
+                    snapshot.putOperation(epsg, op);
                 }
+                return transform(geom, op, codeEpsg);
             }
         } catch (CRSException ex) {
             throw new SQLException("Cannot create the CRS", ex);
-        } finally {
-            srr.setConnection(null);
         }
-        return null;
+    }
 
+    /**
+     * Create a new {@link CoordinateOperation} between two SRIDs available in
+     * the spatial_ref_sys table.
+     * The operation is not shared with the ST_Transform cache, so it can be
+     * owned by a single thread.
+     *
+     * @param connection active connection to the database
+     * @param inputSRID the SRID of the input geometries
+     * @param targetSRID the SRID of the output geometries
+     * @return the most precise operation or null if both CRSes are equal
+     * @throws SQLException if a CRS cannot be created or the transformation is
+     * not supported
+     */
+    public static CoordinateOperation createCoordinateOperation(Connection connection, int inputSRID, int targetSRID) throws SQLException {
+        SpatialRefSnapshot snapshot = SpatialRefSnapshot.get(connection);
+        try {
+            CoordinateReferenceSystem inputCRS = snapshot.getCRS(inputSRID);
+            CoordinateReferenceSystem targetCRS = snapshot.getCRS(targetSRID);
+            if (inputCRS.equals(targetCRS)) {
+                return null;
+            }
+            CoordinateOperation op = getMostPreciseOperation(inputCRS, targetCRS, targetSRID);
+            if (op == null) {
+                throw new SQLException("Cannot find a transformation from "
+                        + inputSRID + " to " + targetSRID);
+            }
+            return op;
+        } catch (CRSException | CoordinateOperationException ex) {
+            throw new SQLException("Cannot create the CRS", ex);
+        }
+    }
+
+    /**
+     * Find the most precise {@link CoordinateOperation} between two CRSes
+     *
+     * @param inputCRS input CRS
+     * @param targetCRS target CRS
+     * @param codeEpsg target SRID, used in the error message
+     * @return the operation or null if there is none
+     * @throws SQLException if the CRSes are not geodetic
+     * @throws CoordinateOperationException
+     */
+    private static CoordinateOperation getMostPreciseOperation(CoordinateReferenceSystem inputCRS,
+            CoordinateReferenceSystem targetCRS, int codeEpsg) throws SQLException, CoordinateOperationException {
+        if (inputCRS instanceof GeodeticCRS && targetCRS instanceof GeodeticCRS) {
+            Set<CoordinateOperation> ops = CoordinateOperationFactory
+                    .createCoordinateOperations((GeodeticCRS) inputCRS, (GeodeticCRS) targetCRS);
+            if (ops.isEmpty()) {
+                return null;
+            }
+            return CoordinateOperationFactory.getMostPrecise(ops);
+        } else {
+            throw new SQLException("The transformation from "
+                    + inputCRS + " to " + codeEpsg + " is not yet supported.");
+        }
+    }
+
+    /**
+     * Apply a {@link FastCRSTransform} to a copy of the geometry.
+     *
+     * @param geom input geometry
+     * @param fastTransform the closed-form transformation
+     * @param codeEpsg the SRID of the output geometry
+     * @return the transformed geometry
+     */
+    public static Geometry transform(Geometry geom, FastCRSTransform fastTransform, int codeEpsg) {
+        Geometry outPutGeom = geom.copy();
+        outPutGeom.apply(fastTransform);
+        outPutGeom.setSRID(codeEpsg);
+        return outPutGeom;
+    }
+
+    /**
+     * Apply a {@link CoordinateOperation} to a copy of the geometry.
+     * The coordinate sequences of the copy are transformed in place.
+     *
+     * @param geom input geometry
+     * @param op the coordinate operation
+     * @param codeEpsg the SRID of the output geometry
+     * @return the transformed geometry
+     * @throws SQLException if a coordinate cannot be transformed
+     */
+    public static Geometry transform(Geometry geom, CoordinateOperation op, int codeEpsg) throws SQLException {
+        Geometry outPutGeom = geom.copy();
+        CRSTransformSequenceFilter filter = new CRSTransformSequenceFilter(op);
+        outPutGeom.apply(filter);
+        if (filter.getError() != null) {
+            throw new SQLException("Cannot transform the geometry to " + codeEpsg, filter.getError());
+        }
+        outPutGeom.setSRID(codeEpsg);
+        return outPutGeom;
     }
 
   
     /**
      * This method is used to apply a {@link CoordinateOperation} to a geometry.
      * The transformation loops on each coordinate. 
+     *
+     * @deprecated use {@link CRSTransformSequenceFilter} that does not allocate
+     * a new array per coordinate
      */
+    @Deprecated
     public static class CRSTransformFilter implements CoordinateFilter{
         private final CoordinateOperation coordinateOperation;
 
@@ -176,9 +250,67 @@ public class ST_Transform extends AbstractFunction implements ScalarFunction {
     
     }
 
+    /**
+     * This filter is used to apply a {@link CoordinateOperation} on each
+     * {@link CoordinateSequence} of a geometry.
+     * The coordinates are updated in place and a single buffer is reused for
+     * all of them. The filter stops on the first coordinate that cannot be
+     * transformed, the cause is then available with {@link #getError()}.
+     */
+    public static class CRSTransformSequenceFilter implements CoordinateSequenceFilter {
+
+        private final CoordinateOperation coordinateOperation;
+        private final double[] xyz = new double[3];
+        private Exception error;
+
+        public CRSTransformSequenceFilter(final CoordinateOperation coordinateOperation) {
+            this.coordinateOperation = coordinateOperation;
+        }
+
+        @Override
+        public void filter(CoordinateSequence seq, int i) {
+            boolean hasZ = seq.hasZ();
+            double z = hasZ ? seq.getZ(i) : Double.NaN;
+            xyz[0] = seq.getX(i);
+            xyz[1] = seq.getY(i);
+            xyz[2] = Double.isNaN(z) ? 0 : z;
+            try {
+                double[] result = coordinateOperation.transform(xyz);
+                seq.setOrdinate(i, CoordinateSequence.X, result[0]);
+                seq.setOrdinate(i, CoordinateSequence.Y, result[1]);
+                if (hasZ) {
+                    seq.setOrdinate(i, CoordinateSequence.Z, result.length > 2 ? result[2] : Double.NaN);
+                }
+            } catch (CoordinateOperationException | IllegalCoordinateException ex) {
+                error = ex;
+            }
+        }
+
+        @Override
+        public boolean isDone() {
+            return error != null;
+        }
+
+        @Override
+        public boolean isGeometryChanged() {
+            return true;
+        }
+
+        /**
+         * @return the exception raised by the first coordinate that cannot be
+         * transformed or null
+         */
+        public Exception getError() {
+            return error;
+        }
+    }
+
     /**
      * A simple cache to manage {@link CoordinateOperation}
+     *
+     * @deprecated the operations are cached by {@link SpatialRefSnapshot}
      */
+    @Deprecated
     public static class CopCache extends LinkedHashMap<EPSGTuple, CoordinateOperation> {
 
         private final int limit;
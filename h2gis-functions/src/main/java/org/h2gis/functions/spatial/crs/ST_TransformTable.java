@@ -0,0 +1,402 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+package org.h2gis.functions.spatial.crs;
+
+import org.cts.op.CoordinateOperation;
+import org.h2gis.api.AbstractFunction;
+import org.h2gis.api.ScalarFunction;
+import org.h2gis.utilities.GeometryMetaData;
+import org.h2gis.utilities.GeometryTableUtilities;
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.ParallelUtilities;
+import org.h2gis.utilities.TableLocation;
+import org.h2gis.utilities.TableUtilities;
+import org.h2gis.utilities.Tuple;
+import org.h2gis.utilities.dbtypes.DBTypes;
+import org.h2gis.utilities.dbtypes.DBUtils;
+import org.locationtech.jts.geom.Geometry;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+/**
+ * Transform all the geometries of a table from their CRS to another one.
+ *
+ * The table is read by pages of its integer primary key (or of the H2
+ * _ROWID_ when there is no such key), each page starting after the last key
+ * of the previous one. The geometries of each page are transformed on the
+ * shared pool of worker threads, each task borrowing a
+ * {@link CoordinateOperation}, and are written back by batches.
+ *
+ * When the input table is updated in place, the SRID constraint of the
+ * geometry column is first removed, then all the geometries are updated in a
+ * single transaction and the constraint of the target SRID is set at the end.
+ * The changes of the constraint are DDL statements that commit, they are run
+ * out of the transaction of the geometries. If the update fails, it is rolled
+ * back and the original SRID constraint is restored.
+ *
+ * When an output table is given, it is created from a staging table of the
+ * transformed geometries, the NOT NULL columns, the primary key and the
+ * indexes of the input table are then created on it. The other constraints
+ * are not copied.
+ */
+public class ST_TransformTable extends AbstractFunction implements ScalarFunction {
+
+    /**
+     * Number of rows read and transformed by a single task
+     */
+    private static final int PAGE_SIZE = 10000;
+
+    private static final String STAGING_PK = "PK";
+    private static final String STAGING_GEOM = "THE_GEOM";
+
+    public ST_TransformTable() {
+        addProperty(PROP_REMARKS, "Transform all the geometries of the first geometry column of a table "
+                + "to the SRID given by an integer code of the SPATIAL_REF_SYS table.\n"
+                + "The geometries are transformed in parallel and the SRID constraint of the column is updated.\n"
+                + "An optional output table name can be set to keep the input table unchanged.");
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "transformTable";
+    }
+
+    /**
+     * Transform the geometries of a table in place
+     *
+     * @param connection active connection to the database
+     * @param tableName name of the table
+     * @param srid the target SRID
+     * @return true if the geometries have been transformed
+     * @throws SQLException
+     */
+    public static boolean transformTable(Connection connection, String tableName, int srid) throws SQLException {
+        return transformTable(connection, tableName, srid, null);
+    }
+
+    /**
+     * Transform the geometries of a table
+     *
+     * @param connection active connection to the database
+     * @param tableName name of the table
+     * @param srid the target SRID
+     * @param outputTableName name of the output table, if null or empty the
+     * input table is updated
+     * @return true if the geometries have been transformed
+     * @throws SQLException
+     */
+    public static boolean transformTable(Connection connection, String tableName, int srid, String outputTableName) throws SQLException {
+        if (srid <= 0) {
+            throw new SQLException("The SRID value must be greater than 0");
+        }
+        final DBTypes dbType = DBUtils.getDBType(connection);
+        final TableLocation tableLocation = TableUtilities.parseInputTable(connection, tableName);
+        TableLocation outputTable = null;
+        if (outputTableName != null && !outputTableName.isEmpty()) {
+            outputTable = TableUtilities.parseInputTable(connection, outputTableName);
+            if (JDBCUtilities.tableExists(connection, outputTable)) {
+                throw new SQLException("The table " + outputTable + " already exists.");
+            }
+        }
+        Tuple<String, GeometryMetaData> geomMetadata = GeometryTableUtilities.getFirstColumnMetaData(connection, tableLocation);
+        String geomColumn = TableLocation.quoteIdentifier(geomMetadata.first(), dbType);
+        int inputSRID = geomMetadata.second().getSRID();
+        if (inputSRID == 0) {
+            throw new SQLException("Cannot find a CRS for the column " + geomMetadata.first());
+        }
+        if (inputSRID == srid && outputTable == null) {
+            return false;
+        }
+        Tuple<String, Integer> pk = JDBCUtilities.getIntegerPrimaryKeyNameAndIndex(connection, tableLocation);
+        String keyColumn = pk == null ? "_ROWID_" : TableLocation.quoteIdentifier(pk.first(), dbType);
+        String geometrySignature = "GEOMETRY(" + geomMetadata.second().geometryType + "," + srid + ")";
+
+        try (Statement st = connection.createStatement()) {
+            if (outputTable != null) {
+                TableLocation stagingTable = TableUtilities.suffixTableLocation(tableLocation,
+                        "_" + System.currentTimeMillis() + "_TRANSFORM");
+                st.execute("CREATE TABLE " + stagingTable + "(" + STAGING_PK + " BIGINT PRIMARY KEY, "
+                        + STAGING_GEOM + " " + geometrySignature + ")");
+                try {
+                    transformRows(connection, tableLocation, keyColumn, geomColumn, "INSERT INTO " + stagingTable
+                            + "(" + STAGING_GEOM + ", " + STAGING_PK + ") VALUES (?, ?)", inputSRID, srid);
+                    createOutputTable(connection, st, tableLocation, keyColumn, geomMetadata.first(), stagingTable, outputTable, dbType);
+                } finally {
+                    st.execute("DROP TABLE IF EXISTS " + stagingTable);
+                }
+                GeometryTableUtilities.alterSRID(connection, outputTable, geomMetadata.first(), srid);
+                copyKeysAndIndexes(connection, st, tableLocation, geomMetadata.first(), outputTable, dbType);
+            } else {
+                // Remove the SRID constraint, the geometries are not changed
+                st.execute("ALTER TABLE " + tableLocation + " ALTER COLUMN " + geomColumn
+                        + " SET DATA TYPE GEOMETRY(" + geomMetadata.second().geometryType + ")");
+                boolean autoCommit = connection.getAutoCommit();
+                try {
+                    connection.setAutoCommit(false);
+                    transformRows(connection, tableLocation, keyColumn, geomColumn, "UPDATE " + tableLocation
+                            + " SET " + geomColumn + " = ? WHERE " + keyColumn + " = ?", inputSRID, srid);
+                    connection.commit();
+                } catch (SQLException | RuntimeException ex) {
+                    connection.rollback();
+                    // Restore the original SRID constraint, the geometries are unchanged
+                    GeometryTableUtilities.alterSRID(connection, tableLocation, geomMetadata.first(), inputSRID);
+                    throw ex;
+                } finally {
+                    connection.setAutoCommit(autoCommit);
+                }
+                GeometryTableUtilities.alterSRID(connection, tableLocation, geomMetadata.first(), srid);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read the input table by pages of keys, transform the geometries in
+     * parallel and write them with a statement whose parameters are the
+     * geometry and the key
+     */
+    private static void transformRows(Connection connection, TableLocation tableLocation, String keyColumn,
+            String geomColumn, String write, int inputSRID, int srid) throws SQLException {
+        int threadCount = ParallelUtilities.getThreadCount();
+        FastCRSTransform fastTransform = FastCRSTransform.get(SpatialRefSnapshot.get(connection), inputSRID, srid);
+        BlockingQueue<CoordinateOperation> operations = null;
+        if (fastTransform == null && inputSRID != srid) {
+            CoordinateOperation first = ST_Transform.createCoordinateOperation(connection, inputSRID, srid);
+            if (first != null) {
+                operations = new ArrayBlockingQueue<>(threadCount);
+                operations.add(first);
+                for (int i = 1; i < threadCount; i++) {
+                    operations.add(ST_Transform.createCoordinateOperation(connection, inputSRID, srid));
+                }
+            }
+        }
+        ParallelUtilities.OrderedTasks<TransformedRange> pending = new ParallelUtilities.OrderedTasks<>("transformation");
+        try (PreparedStatement select = connection.prepareStatement("SELECT " + keyColumn + ", " + geomColumn
+                + " FROM " + tableLocation + " WHERE " + keyColumn + " >= ? ORDER BY " + keyColumn
+                + " LIMIT " + PAGE_SIZE);
+             PreparedStatement insert = connection.prepareStatement(write)) {
+            long start = Long.MIN_VALUE;
+            boolean hasNext = true;
+            while (hasNext) {
+                select.setLong(1, start);
+                TransformedRange range = new TransformedRange();
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        range.keys.add(rs.getLong(1));
+                        range.geometries.add((Geometry) rs.getObject(2));
+                    }
+                }
+                if (range.keys.isEmpty()) {
+                    break;
+                }
+                long lastKey = range.keys.get(range.keys.size() - 1);
+                hasNext = range.keys.size() == PAGE_SIZE && lastKey < Long.MAX_VALUE;
+                start = lastKey + 1;
+                // Keep a bounded number of pages in memory
+                if (pending.isFull()) {
+                    writeRange(insert, pending.take());
+                }
+                pending.submit(new TransformTask(range, fastTransform, operations, srid));
+            }
+            while (!pending.isEmpty()) {
+                writeRange(insert, pending.take());
+            }
+        } finally {
+            pending.cancel();
+        }
+    }
+
+    /**
+     * Write a transformed range by a batch
+     */
+    private static void writeRange(PreparedStatement insert, TransformedRange range) throws SQLException {
+        for (int i = 0; i < range.keys.size(); i++) {
+            insert.setObject(1, range.geometries.get(i));
+            insert.setLong(2, range.keys.get(i));
+            insert.addBatch();
+        }
+        insert.executeBatch();
+    }
+
+    /**
+     * Create the output table as a copy of the input table where the geometry
+     * column is replaced by the transformed geometries
+     */
+    private static void createOutputTable(Connection connection, Statement st, TableLocation tableLocation, String keyColumn,
+            String geomColumnName, TableLocation stagingTable, TableLocation outputTable, DBTypes dbType) throws SQLException {
+        StringBuilder columns = new StringBuilder();
+        for (String column : JDBCUtilities.getColumnNames(connection, tableLocation.toString())) {
+            if (columns.length() > 0) {
+                columns.append(", ");
+            }
+            String quotedColumn = TableLocation.quoteIdentifier(column, dbType);
+            if (column.equals(geomColumnName)) {
+                columns.append("S.").append(STAGING_GEOM).append(" AS ").append(quotedColumn);
+            } else {
+                columns.append("T.").append(quotedColumn);
+            }
+        }
+        st.execute("CREATE TABLE " + outputTable + " AS SELECT " + columns + " FROM " + tableLocation
+                + " T LEFT JOIN " + stagingTable + " S ON T." + keyColumn + " = S." + STAGING_PK);
+    }
+
+    /**
+     * Create on the output table the NOT NULL constraints, the primary key and
+     * the indexes of the input table
+     */
+    private static void copyKeysAndIndexes(Connection connection, Statement st, TableLocation tableLocation,
+            String geomColumnName, TableLocation outputTable, DBTypes dbType) throws SQLException {
+        DatabaseMetaData meta = connection.getMetaData();
+        String catalog = tableLocation.getCatalog(null);
+        String schema = tableLocation.getSchema(null);
+        try (ResultSet rs = meta.getColumns(catalog, schema, tableLocation.getTable(), null)) {
+            while (rs.next()) {
+                if ("NO".equals(rs.getString("IS_NULLABLE"))) {
+                    st.execute("ALTER TABLE " + outputTable + " ALTER COLUMN "
+                            + TableLocation.quoteIdentifier(rs.getString("COLUMN_NAME"), dbType) + " SET NOT NULL");
+                }
+            }
+        }
+        Map<Short, String> keyColumns = new TreeMap<>();
+        try (ResultSet rs = meta.getPrimaryKeys(catalog, schema, tableLocation.getTable())) {
+            while (rs.next()) {
+                keyColumns.put(rs.getShort("KEY_SEQ"), rs.getString("COLUMN_NAME"));
+            }
+        }
+        List<String> primaryKey = new ArrayList<>(keyColumns.values());
+        if (!primaryKey.isEmpty()) {
+            st.execute("ALTER TABLE " + outputTable + " ADD PRIMARY KEY (" + quoteColumns(primaryKey, dbType) + ")");
+        }
+        // Columns of each index, in the order of the index
+        Map<String, Map<Short, String>> indexColumns = new LinkedHashMap<>();
+        Map<String, Boolean> uniqueIndexes = new HashMap<>();
+        try (ResultSet rs = meta.getIndexInfo(catalog, schema, tableLocation.getTable(), false, true)) {
+            while (rs.next()) {
+                String indexName = rs.getString("INDEX_NAME");
+                String column = rs.getString("COLUMN_NAME");
+                if (indexName == null || column == null) {
+                    continue;
+                }
+                Map<Short, String> columns = indexColumns.get(indexName);
+                if (columns == null) {
+                    columns = new TreeMap<>();
+                    indexColumns.put(indexName, columns);
+                }
+                columns.put(rs.getShort("ORDINAL_POSITION"), column);
+                uniqueIndexes.put(indexName, !rs.getBoolean("NON_UNIQUE"));
+            }
+        }
+        for (Map.Entry<String, Map<Short, String>> index : indexColumns.entrySet()) {
+            List<String> columns = new ArrayList<>(index.getValue().values());
+            boolean unique = uniqueIndexes.get(index.getKey());
+            if (unique && columns.equals(primaryKey)) {
+                // Index of the primary key
+                continue;
+            }
+            // An index on the geometry column alone is a spatial index
+            boolean spatial = columns.size() == 1 && columns.get(0).equals(geomColumnName);
+            st.execute("CREATE " + (spatial ? "SPATIAL " : unique ? "UNIQUE " : "") + "INDEX ON " + outputTable
+                    + "(" + quoteColumns(columns, dbType) + ")");
+        }
+    }
+
+    private static String quoteColumns(List<String> columns, DBTypes dbType) {
+        StringBuilder sb = new StringBuilder();
+        for (String column : columns) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(TableLocation.quoteIdentifier(column, dbType));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Keys and geometries of a range of rows
+     */
+    private static class TransformedRange {
+        final List<Long> keys = new ArrayList<>();
+        final List<Geometry> geometries = new ArrayList<>();
+    }
+
+    /**
+     * Transform the geometries of a range in place, using a coordinate
+     * operation borrowed from the shared pool
+     */
+    private static class TransformTask implements Callable<TransformedRange> {
+
+        private final TransformedRange range;
+        private final FastCRSTransform fastTransform;
+        private final BlockingQueue<CoordinateOperation> operations;
+        private final int srid;
+
+        TransformTask(TransformedRange range, FastCRSTransform fastTransform,
+                BlockingQueue<CoordinateOperation> operations, int srid) {
+            this.range = range;
+            this.fastTransform = fastTransform;
+            this.operations = operations;
+            this.srid = srid;
+        }
+
+        @Override
+        public TransformedRange call() throws Exception {
+            CoordinateOperation op = operations == null ? null : operations.take();
+            try {
+                List<Geometry> geometries = range.geometries;
+                for (int i = 0; i < geometries.size(); i++) {
+                    Geometry geom = geometries.get(i);
+                    if (geom == null) {
+                        continue;
+                    }
+                    if (fastTransform != null) {
+                        geometries.set(i, ST_Transform.transform(geom, fastTransform, srid));
+                    } else if (op != null) {
+                        geometries.set(i, ST_Transform.transform(geom, op, srid));
+                    } else {
+                        // Same CRS, only the SRID changes
+                        Geometry copy = geom.copy();
+                        copy.setSRID(srid);
+                        geometries.set(i, copy);
+                    }
+                }
+            } finally {
+                if (op != null) {
+                    operations.put(op);
+                }
+            }
+            return range;
+        }
+    }
+}
@@ -21,7 +21,6 @@
 package org.h2gis.functions.spatial.crs;
 
 
-import org.cts.parser.proj.ProjKeyParameters;
 import org.cts.registry.AbstractProjRegistry;
 import org.cts.registry.Registry;
 import org.cts.registry.RegistryException;
@@ -31,19 +30,36 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
 
 
 /**
  * This class builds a registry based on a spatial_ref_sys table stored in the
  * H2 database.
+ * The CRS definitions are read from a {@link SpatialRefSnapshot}, either the
+ * one given to the constructor or the one of the connection.
  *
  * @author Erwan Bocher
  */
 public class SpatialRefRegistry  extends AbstractProjRegistry implements Registry {
 
+    private final SpatialRefSnapshot snapshot;
     private Connection connection;
-    private static final Pattern regex = Pattern.compile("\\s+");
+
+    /**
+     * Registry reading the snapshot of the connection
+     */
+    public SpatialRefRegistry() {
+        this(null);
+    }
+
+    /**
+     * Registry bound to a snapshot
+     *
+     * @param snapshot the spatial_ref_sys snapshot
+     */
+    public SpatialRefRegistry(SpatialRefSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
 
     @Override
     public String getRegistryName() {
@@ -53,35 +69,10 @@ public class SpatialRefRegistry  extends AbstractProjRegistry implements Registr
     @Override
     public Map<String, String> getParameters(String code) throws RegistryException {
         try {
-            PreparedStatement prepStmt = connection.prepareStatement("SELECT proj4text, auth_name FROM SPATIAL_REF_SYS where srid=?");
-            prepStmt.setInt(1, Integer.valueOf(code));
-            ResultSet rs = prepStmt.executeQuery();
-            if (rs.next()) {
-                String proj4Text = rs.getString(1);
-                String authcode = rs.getString(2) + ":" + code;
-                if(proj4Text.isEmpty()){
-                    throw new RegistryException("No translation for "+  authcode +" to PROJ format is known");
-                }
-                String[] tokens = regex.split(proj4Text);
-                Map<String, String> v = new HashMap<String, String>();
-                for (String token : tokens) {
-                    String[] keyValue = token.split("=");
-                    if (keyValue.length == 2) {
-                        String key = formatKey(keyValue[0]);
-                        ProjKeyParameters.checkUnsupported(key);
-                        v.put(key, keyValue[1]);
-                    } else {
-                        String key = formatKey(token);
-                        ProjKeyParameters.checkUnsupported(key);
-                        v.put(key, null);
-                    }
-                }
-                if (!v.containsKey(ProjKeyParameters.title)) {
-                    v.put(ProjKeyParameters.title, authcode);
-                }
-                prepStmt.close();
-                
-                return v;
+            SpatialRefSnapshot.SpatialRef spatialRef = getSnapshot().get(Integer.valueOf(code));
+            if (spatialRef != null) {
+                // The parser of CTS may alter the map
+                return new HashMap<String, String>(spatialRef.getParameters());
             }
         } catch (SQLException ex) {
             throw new RegistryException("Cannot obtain the CRS parameters", ex);
@@ -89,37 +80,23 @@ public class SpatialRefRegistry  extends AbstractProjRegistry implements Registr
         return null;
     }
 
-    /**
-     * Remove + char if exists
-     *
-     * @param prjKey represents a proj key parameter
-     * @return a new string without + char
-     */
-    private static String formatKey(String prjKey) {
-        String formatKey = prjKey;
-        if (prjKey.startsWith("+")) {
-            formatKey = prjKey.substring(1);
-        }
-        return formatKey;
-    }
-
     @Override
     public Set<String> getSupportedCodes() throws RegistryException {
-        Statement st;
         try {
-            st = connection.createStatement();
-            ResultSet rs = st.executeQuery("SELECT srid from SPATIAL_REF_SYS;");
             Set<String> codes = new HashSet<String>();
-            while (rs.next()) {
-                codes.add(rs.getString(1));
+            for (Integer srid : getSnapshot().getSRIDs()) {
+                codes.add(srid.toString());
             }
-            st.close();
             return codes;
         } catch (SQLException ex) {
             throw new RegistryException("Cannot load the EPSG registry", ex);
         }
     }
 
+    private SpatialRefSnapshot getSnapshot() throws SQLException {
+        return snapshot != null ? snapshot : SpatialRefSnapshot.get(connection);
+    }
+
     /**
      * Set the database connection
      *
@@ -0,0 +1,557 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.crs;
+
+import org.cts.CRSFactory;
+import org.cts.crs.CRSException;
+import org.cts.crs.CoordinateReferenceSystem;
+import org.cts.op.CoordinateOperation;
+import org.cts.parser.proj.ParameterException;
+import org.cts.parser.proj.ProjKeyParameters;
+import org.cts.registry.RegistryException;
+import org.h2.jdbc.JdbcConnection;
+
+import java.lang.ref.WeakReference;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable in-memory copy of the spatial_ref_sys table.
+ *
+ * The table is read once and the proj4 definitions are parsed when the
+ * snapshot is loaded, so resolving a CRS does not read the table again.
+ * The CRSes and the coordinate operations built from a snapshot are cached
+ * with it, they are dropped with the snapshot.
+ *
+ * The snapshots are kept by database. The {@link SpatialRefSysTrigger}
+ * installed on spatial_ref_sys by the H2GIS functions counts the changes of
+ * each database in memory, so finding the current snapshot does not run any
+ * query. The session that wrote to the table keeps its own snapshot until its
+ * changes are committed or rolled back, the other sessions keep the last
+ * committed one.
+ *
+ * The trigger does not see a TRUNCATE, nor the changes made while it was not
+ * installed, nor the tables of other databases than H2. Call
+ * {@link #refresh(Connection)} or {@link #invalidate()} after such changes.
+ */
+public final class SpatialRefSnapshot {
+
+    private static final Pattern regex = Pattern.compile("\\s+");
+
+    /**
+     * Maximum number of coordinate operations cached by a snapshot
+     */
+    private static final int OPERATIONS_SIZE = 64;
+
+    /**
+     * State of each database, by database name and path
+     */
+    private static final Map<String, DatabaseState> DATABASES = new ConcurrentHashMap<>();
+
+    /**
+     * Database of each session, the session is the H2 engine session or the
+     * connection itself for the other databases
+     */
+    private static final Map<Object, SessionState> SESSIONS = Collections.synchronizedMap(new WeakHashMap<Object, SessionState>());
+
+    /**
+     * Last session seen by each thread, a function is called with a new
+     * connection for each row but the session stays the same
+     */
+    private static final ThreadLocal<SessionState> LAST_SESSION = new ThreadLocal<>();
+
+    private final long modification;
+    private final Map<Integer, SpatialRef> spatialRefs;
+    private final Map<String, Integer> sridByProj4;
+    private final Map<Integer, CoordinateReferenceSystem> crses = new ConcurrentHashMap<>();
+    private final Map<EPSGTuple, CoordinateOperation> operations = new ConcurrentHashMap<>();
+    private volatile CRSFactory crsFactory;
+
+    private SpatialRefSnapshot(long modification, Map<Integer, SpatialRef> spatialRefs, Map<String, Integer> sridByProj4) {
+        this.modification = modification;
+        this.spatialRefs = Collections.unmodifiableMap(spatialRefs);
+        this.sridByProj4 = Collections.unmodifiableMap(sridByProj4);
+    }
+
+    /**
+     * Return the snapshot of the database of a connection, the
+     * spatial_ref_sys table is read if there is no valid snapshot
+     *
+     * @param connection active connection
+     * @return the snapshot
+     * @throws SQLException
+     */
+    public static SpatialRefSnapshot get(Connection connection) throws SQLException {
+        if (connection == null) {
+            throw new SQLException("Cannot load the spatial_ref_sys table without a connection");
+        }
+        Object session = getSession(connection);
+        DatabaseState database = getSessionState(connection, session).database;
+        SpatialRefSnapshot snapshot = database.shared;
+        if (snapshot != null && database.writers.isEmpty() && snapshot.modification == database.modifications.get()) {
+            return snapshot;
+        }
+        return database.get(connection, session, false);
+    }
+
+    /**
+     * Read the spatial_ref_sys table again and replace the snapshot of the
+     * database of a connection
+     *
+     * @param connection active connection
+     * @return the new snapshot
+     * @throws SQLException
+     */
+    public static SpatialRefSnapshot refresh(Connection connection) throws SQLException {
+        if (connection == null) {
+            throw new SQLException("Cannot load the spatial_ref_sys table without a connection");
+        }
+        Object session = getSession(connection);
+        return getSessionState(connection, session).database.get(connection, session, true);
+    }
+
+    /**
+     * Drop all the snapshots, they will be loaded again on the next access
+     */
+    public static void invalidate() {
+        for (DatabaseState database : DATABASES.values()) {
+            database.modifications.incrementAndGet();
+            database.shared = null;
+        }
+    }
+
+    /**
+     * Called by {@link SpatialRefSysTrigger} after each statement writing to
+     * the spatial_ref_sys table
+     *
+     * @param connection connection of the writing session
+     * @throws SQLException
+     */
+    static void modified(Connection connection) throws SQLException {
+        Object session = getSession(connection);
+        SessionState state = getSessionState(connection, session);
+        DatabaseState database = state.database;
+        if (!database.writers.containsKey(session)) {
+            database.writers.put(session, new Writer(state.sessionId));
+        }
+        database.modifications.incrementAndGet();
+    }
+
+    private static Object getSession(Connection connection) throws SQLException {
+        if (connection.isWrapperFor(JdbcConnection.class)) {
+            Object session = connection.unwrap(JdbcConnection.class).getSession();
+            if (session != null) {
+                return session;
+            }
+        }
+        return connection;
+    }
+
+    private static SessionState getSessionState(Connection connection, Object session) throws SQLException {
+        SessionState state = LAST_SESSION.get();
+        if (state != null && state.session.get() == session) {
+            return state;
+        }
+        state = SESSIONS.get(session);
+        if (state == null) {
+            state = createSessionState(connection, session);
+            SESSIONS.put(session, state);
+        }
+        LAST_SESSION.set(state);
+        return state;
+    }
+
+    private static SessionState createSessionState(Connection connection, Object session) throws SQLException {
+        String key;
+        int sessionId = -1;
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT DATABASE(), DATABASE_PATH(), SESSION_ID()")) {
+            rs.next();
+            key = rs.getString(1) + "\n" + rs.getString(2);
+            sessionId = rs.getInt(3);
+        } catch (SQLException ex) {
+            // Not an H2 database
+            DatabaseMetaData meta = connection.getMetaData();
+            key = meta.getURL() + "\n" + meta.getUserName();
+        }
+        DatabaseState database = DATABASES.get(key);
+        if (database == null) {
+            DatabaseState newDatabase = new DatabaseState();
+            database = DATABASES.putIfAbsent(key, newDatabase);
+            if (database == null) {
+                database = newDatabase;
+            }
+        }
+        return new SessionState(session, database, sessionId);
+    }
+
+    private static SpatialRefSnapshot load(Connection connection, long modification) throws SQLException {
+        Map<Integer, SpatialRef> spatialRefs = new HashMap<>();
+        Map<String, Integer> sridByProj4 = new HashMap<>();
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT SRID, AUTH_NAME, AUTH_SRID, PROJ4TEXT FROM PUBLIC.SPATIAL_REF_SYS ORDER BY SRID")) {
+            while (rs.next()) {
+                int srid = rs.getInt(1);
+                String proj4Text = rs.getString(4);
+                SpatialRef spatialRef = new SpatialRef(srid, rs.getString(2), rs.getInt(3), proj4Text);
+                spatialRefs.put(srid, spatialRef);
+                if (proj4Text != null && !sridByProj4.containsKey(proj4Text)) {
+                    sridByProj4.put(proj4Text, srid);
+                }
+            }
+        }
+        return new SpatialRefSnapshot(modification, spatialRefs, sridByProj4);
+    }
+
+    /**
+     * Return the CRS of a SRID, the CRSes are cached by the snapshot
+     *
+     * @param srid SRID code
+     * @return the coordinate reference system
+     * @throws CRSException if the SRID is unknown or cannot be parsed
+     */
+    public CoordinateReferenceSystem getCRS(int srid) throws CRSException {
+        CoordinateReferenceSystem crs = crses.get(srid);
+        if (crs == null) {
+            crs = getCRSFactory().getCRS("epsg:" + srid);
+            crses.put(srid, crs);
+        }
+        return crs;
+    }
+
+    private CRSFactory getCRSFactory() {
+        CRSFactory factory = crsFactory;
+        if (factory == null) {
+            synchronized (this) {
+                factory = crsFactory;
+                if (factory == null) {
+                    factory = new CRSFactory();
+                    factory.getRegistryManager().addRegistry(new SpatialRefRegistry(this));
+                    crsFactory = factory;
+                }
+            }
+        }
+        return factory;
+    }
+
+    /**
+     * @param epsg input and target SRIDs
+     * @return the cached operation or null
+     */
+    CoordinateOperation getOperation(EPSGTuple epsg) {
+        return operations.get(epsg);
+    }
+
+    /**
+     * Cache an operation, the cache is emptied when it is full
+     *
+     * @param epsg input and target SRIDs
+     * @param op the operation
+     */
+    void putOperation(EPSGTuple epsg, CoordinateOperation op) {
+        if (operations.size() >= OPERATIONS_SIZE) {
+            operations.clear();
+        }
+        operations.put(epsg, op);
+    }
+
+    /**
+     * @param srid SRID code
+     * @return true if the SRID is defined in the spatial_ref_sys table
+     */
+    public boolean contains(int srid) {
+        return spatialRefs.containsKey(srid);
+    }
+
+    /**
+     * @param srid SRID code
+     * @return the definition of the SRID or null if it does not exist
+     */
+    public SpatialRef get(int srid) {
+        return spatialRefs.get(srid);
+    }
+
+    /**
+     * @return all the SRID codes of the spatial_ref_sys table
+     */
+    public Set<Integer> getSRIDs() {
+        return spatialRefs.keySet();
+    }
+
+    /**
+     * Return the smallest SRID defined by a proj4 text
+     *
+     * @param proj4Text proj4 definition, as stored in the spatial_ref_sys table
+     * @return the SRID or -1 if the definition is unknown
+     */
+    public int getSRID(String proj4Text) {
+        Integer srid = sridByProj4.get(proj4Text);
+        return srid == null ? -1 : srid;
+    }
+
+    /**
+     * A row of the spatial_ref_sys table with its parsed proj4 parameters
+     */
+    public static final class SpatialRef {
+
+        private final int srid;
+        private final String authName;
+        private final int authSrid;
+        private final Map<String, String> parameters;
+        private final String error;
+        private final ParameterException unsupported;
+
+        /**
+         * Cached result of {@link #hasParameters(Map)}
+         */
+        private volatile Boolean builtIn;
+
+        SpatialRef(int srid, String authName, int authSrid, String proj4Text) {
+            this.srid = srid;
+            this.authName = authName;
+            this.authSrid = authSrid;
+            String authcode = authName + ":" + srid;
+            Map<String, String> v = null;
+            String message = null;
+            ParameterException unsupportedParameter = null;
+            if (proj4Text == null || proj4Text.isEmpty()) {
+                message = "No translation for " + authcode + " to PROJ format is known";
+            } else {
+                try {
+                    v = parse(proj4Text);
+                    if (!v.containsKey(ProjKeyParameters.title)) {
+                        v.put(ProjKeyParameters.title, authcode);
+                    }
+                } catch (ParameterException ex) {
+                    v = null;
+                    unsupportedParameter = ex;
+                }
+            }
+            this.parameters = v == null ? null : Collections.unmodifiableMap(v);
+            this.error = message;
+            this.unsupported = unsupportedParameter;
+        }
+
+        public int getSRID() {
+            return srid;
+        }
+
+        public String getAuthName() {
+            return authName;
+        }
+
+        public int getAuthSRID() {
+            return authSrid;
+        }
+
+        /**
+         * @return the proj4 parameters, keys are without the + prefix
+         * @throws RegistryException if the proj4 text is empty
+         * @throws ParameterException if a proj4 parameter is not supported
+         */
+        public Map<String, String> getParameters() throws RegistryException {
+            if (unsupported != null) {
+                throw unsupported;
+            }
+            if (parameters == null) {
+                throw new RegistryException(error);
+            }
+            return parameters;
+        }
+
+        /**
+         * Check if this SRID is defined by the given proj4 parameters, the
+         * title is ignored. The result of the first call is kept, the
+         * parameters must always be the same for a SRID.
+         *
+         * @param expected proj4 parameters, keys are without the + prefix
+         * @return true if the parameters are the same
+         */
+        boolean hasParameters(Map<String, String> expected) {
+            Boolean same = builtIn;
+            if (same == null) {
+                same = false;
+                if (expected != null && parameters != null) {
+                    Map<String, String> v = new HashMap<String, String>(parameters);
+                    v.remove(ProjKeyParameters.title);
+                    same = v.equals(expected);
+                }
+                builtIn = same;
+            }
+            return same;
+        }
+
+        static Map<String, String> parse(String proj4Text) {
+            String[] tokens = regex.split(proj4Text);
+            Map<String, String> v = new HashMap<String, String>();
+            for (String token : tokens) {
+                String[] keyValue = token.split("=");
+                if (keyValue.length == 2) {
+                    String key = formatKey(keyValue[0]);
+                    ProjKeyParameters.checkUnsupported(key);
+                    v.put(key, keyValue[1]);
+                } else {
+                    String key = formatKey(token);
+                    ProjKeyParameters.checkUnsupported(key);
+                    v.put(key, null);
+                }
+            }
+            return v;
+        }
+
+        /**
+         * Remove + char if exists
+         *
+         * @param prjKey represents a proj key parameter
+         * @return a new string without + char
+         */
+        private static String formatKey(String prjKey) {
+            String formatKey = prjKey;
+            if (prjKey.startsWith("+")) {
+                formatKey = prjKey.substring(1);
+            }
+            return formatKey;
+        }
+    }
+
+    /**
+     * Database of a session
+     */
+    private static final class SessionState {
+
+        private final WeakReference<Object> session;
+        private final DatabaseState database;
+        private final int sessionId;
+
+        SessionState(Object session, DatabaseState database, int sessionId) {
+            this.session = new WeakReference<Object>(session);
+            this.database = database;
+            this.sessionId = sessionId;
+        }
+    }
+
+    /**
+     * A session that wrote to the spatial_ref_sys table, with the snapshot it
+     * sees until its transaction ends
+     */
+    private static final class Writer {
+
+        private final int sessionId;
+        private SpatialRefSnapshot snapshot;
+
+        Writer(int sessionId) {
+            this.sessionId = sessionId;
+        }
+    }
+
+    /**
+     * Snapshots of a database
+     */
+    private static final class DatabaseState {
+
+        /**
+         * Number of statements that changed the spatial_ref_sys table
+         */
+        private final AtomicLong modifications = new AtomicLong();
+
+        /**
+         * Sessions that may hold uncommitted changes
+         */
+        private final Map<Object, Writer> writers = new ConcurrentHashMap<>();
+
+        /**
+         * Snapshot of the committed rows
+         */
+        private volatile SpatialRefSnapshot shared;
+
+        /**
+         * Name of the session id column of INFORMATION_SCHEMA.SESSIONS, it
+         * depends on the version of H2
+         */
+        private String sessionIdColumn;
+
+        synchronized SpatialRefSnapshot get(Connection connection, Object session, boolean force) throws SQLException {
+            if (!writers.isEmpty()) {
+                removeFinishedWriters(connection);
+            }
+            if (force) {
+                modifications.incrementAndGet();
+            }
+            long modification = modifications.get();
+            Writer writer = writers.get(session);
+            if (writer != null) {
+                if (writer.snapshot == null || writer.snapshot.modification != modification) {
+                    writer.snapshot = load(connection, modification);
+                }
+                return writer.snapshot;
+            }
+            SpatialRefSnapshot snapshot = shared;
+            if (snapshot == null || snapshot.modification != modification) {
+                snapshot = load(connection, modification);
+                shared = snapshot;
+            }
+            return snapshot;
+        }
+
+        /**
+         * Forget the writers whose transaction is over, the shared snapshot
+         * is then loaded again to see their committed changes
+         */
+        private void removeFinishedWriters(Connection connection) throws SQLException {
+            if (sessionIdColumn == null) {
+                try (ResultSet rs = connection.getMetaData().getColumns(null, "INFORMATION_SCHEMA", "SESSIONS", "SESSION_ID")) {
+                    sessionIdColumn = rs.next() ? "SESSION_ID" : "ID";
+                }
+            }
+            boolean finished = false;
+            try (PreparedStatement ps = connection.prepareStatement("SELECT CONTAINS_UNCOMMITTED FROM INFORMATION_SCHEMA.SESSIONS WHERE "
+                    + sessionIdColumn + " = ?")) {
+                Iterator<Writer> it = writers.values().iterator();
+                while (it.hasNext()) {
+                    ps.setInt(1, it.next().sessionId);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (!rs.next() || !rs.getBoolean(1)) {
+                            it.remove();
+                            finished = true;
+                        }
+                    }
+                }
+            }
+            if (finished) {
+                shared = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.crs;
+
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * This statement trigger tells the {@link SpatialRefSnapshot} of the database
+ * that the spatial_ref_sys table has been modified by a session.
+ */
+public class SpatialRefSysTrigger implements Trigger {
+
+    /**
+     * Name of the trigger attached to the spatial_ref_sys table
+     */
+    public static final String TRIGGER_NAME = "SPATIAL_REF_SYS_SNAPSHOT";
+
+    @Override
+    public void init(Connection conn, String schemaName, String triggerName, String tableName, boolean before, int type) throws SQLException {
+        // The table may have been modified while the trigger was not loaded
+        SpatialRefSnapshot.invalidate();
+    }
+
+    @Override
+    public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+        SpatialRefSnapshot.modified(conn);
+    }
+
+    @Override
+    public void close() throws SQLException {
+    }
+
+    @Override
+    public void remove() throws SQLException {
+        SpatialRefSnapshot.invalidate();
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.distance;
+
+import org.h2gis.functions.spatial.predicates.IndexedGeometry;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.index.strtree.AbstractNode;
+import org.locationtech.jts.index.strtree.Boundable;
+import org.locationtech.jts.index.strtree.ItemBoundable;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Best-first k nearest neighbour search in a {@link STRtree}.
+ *
+ * The nodes of the tree are visited by increasing envelope distance to the
+ * query geometry. The exact distance of an item is computed when its envelope
+ * is the closest one left, so only the items that may belong to the result
+ * are measured.
+ */
+public final class KNearestSearch {
+
+    private KNearestSearch() {
+    }
+
+    /**
+     * An item and its distance to the query geometry
+     */
+    public static final class Neighbour {
+
+        public final IndexedGeometry item;
+        public final double distance;
+
+        Neighbour(IndexedGeometry item, double distance) {
+            this.item = item;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * Build a tree of items, the tree is ready to be queried by several threads
+     *
+     * @param items items to index
+     * @return the tree
+     */
+    public static STRtree createTree(List<IndexedGeometry> items) {
+        STRtree tree = new STRtree();
+        for (IndexedGeometry item : items) {
+            tree.insert(item.geometry.getEnvelopeInternal(), item);
+        }
+        tree.build();
+        return tree;
+    }
+
+    /**
+     * Find the k nearest items of a geometry
+     *
+     * @param tree tree of {@link IndexedGeometry}, see {@link #createTree(List)}
+     * @param geometry query geometry
+     * @param k maximum number of neighbours
+     * @param maxDistance neighbours farther than this distance are ignored
+     * @return the neighbours sorted by distance
+     */
+    public static List<Neighbour> nearest(STRtree tree, Geometry geometry, int k, double maxDistance) {
+        List<Neighbour> result = new ArrayList<>(Math.min(k, 64));
+        if (k <= 0 || tree.isEmpty() || geometry.isEmpty()) {
+            return result;
+        }
+        final Envelope queryEnvelope = geometry.getEnvelopeInternal();
+        PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        AbstractNode root = tree.getRoot();
+        queue.add(new Candidate(root, queryEnvelope.distance((Envelope) root.getBounds()), false));
+        while (!queue.isEmpty() && result.size() < k) {
+            Candidate candidate = queue.poll();
+            if (candidate.distance > maxDistance) {
+                break;
+            }
+            if (candidate.exact) {
+                result.add(new Neighbour((IndexedGeometry) candidate.boundable, candidate.distance));
+            } else if (candidate.boundable instanceof ItemBoundable) {
+                IndexedGeometry item = (IndexedGeometry) ((ItemBoundable) candidate.boundable).getItem();
+                queue.add(new Candidate(item, item.geometry.distance(geometry), true));
+            } else {
+                for (Object child : ((AbstractNode) candidate.boundable).getChildBoundables()) {
+                    Boundable boundable = (Boundable) child;
+                    double distance = queryEnvelope.distance((Envelope) boundable.getBounds());
+                    if (distance <= maxDistance) {
+                        queue.add(new Candidate(boundable, distance, false));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A node, an item envelope or an item with its exact distance
+     */
+    private static final class Candidate implements Comparable<Candidate> {
+
+        final Object boundable;
+        final double distance;
+        final boolean exact;
+
+        Candidate(Object boundable, double distance, boolean exact) {
+            this.boundable = boundable;
+            this.distance = distance;
+            this.exact = exact;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            int cmp = Double.compare(distance, other.distance);
+            if (cmp == 0 && exact && other.exact) {
+                return Long.compare(((IndexedGeometry) boundable).id, ((IndexedGeometry) other.boundable).id);
+            }
+            return cmp;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.distance;
+
+import org.h2.tools.SimpleResultSet;
+import org.h2gis.api.AbstractFunction;
+import org.h2gis.api.ScalarFunction;
+import org.h2gis.utilities.GeometryMetaData;
+import org.h2gis.utilities.GeometryTableUtilities;
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.TableLocation;
+import org.h2gis.utilities.TableUtilities;
+import org.h2gis.utilities.Tuple;
+import org.h2gis.utilities.dbtypes.DBTypes;
+import org.h2gis.utilities.dbtypes.DBUtils;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static org.h2gis.utilities.TableUtilities.isColumnListConnection;
+
+/**
+ * Table function that returns the k rows of a table whose geometries are the
+ * nearest to a given geometry.
+ *
+ * When the geometry column has a spatial index, the rows are searched in a
+ * window around the geometry that grows until k rows are found within the
+ * window radius. Otherwise the table is read once and only the k nearest rows
+ * are kept.
+ */
+public class ST_KNearest extends AbstractFunction implements ScalarFunction {
+
+    public static final String DISTANCE_FIELD = "DISTANCE";
+
+    public ST_KNearest() {
+        addProperty(PROP_REMARKS, "Returns the k rows of a table whose geometries are the nearest to a given geometry, "
+                + "with a " + DISTANCE_FIELD + " column.\n"
+                + "An optional maximum distance can be set to ignore the rows that are too far.\n"
+                + "The spatial index of the table is used when there is one.");
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "kNearest";
+    }
+
+    /**
+     * @param connection Active connection
+     * @param tableName Table name
+     * @param geometry Query geometry
+     * @param k Number of rows to return
+     * @return the k nearest rows sorted by distance
+     * @throws SQLException
+     */
+    public static ResultSet kNearest(Connection connection, String tableName, Geometry geometry, int k) throws SQLException {
+        return kNearest(connection, tableName, geometry, k, null);
+    }
+
+    /**
+     * @param connection Active connection
+     * @param tableName Table name
+     * @param geometry Query geometry
+     * @param k Number of rows to return
+     * @param maxDistance Maximum distance between the geometries
+     * @return the k nearest rows sorted by distance
+     * @throws SQLException
+     */
+    public static ResultSet kNearest(Connection connection, String tableName, Geometry geometry, int k,
+            Double maxDistance) throws SQLException {
+        final DBTypes dbType = DBUtils.getDBType(connection);
+        final TableLocation tableLocation = TableUtilities.parseInputTable(connection, tableName);
+        SimpleResultSet output = new SimpleResultSet();
+        TableUtilities.copyFields(connection, output, tableLocation);
+        output.addColumn(DISTANCE_FIELD, Types.DOUBLE, 17, 0);
+        if (isColumnListConnection(connection) || geometry == null || geometry.isEmpty() || k <= 0) {
+            return output;
+        }
+        double max = maxDistance == null ? Double.POSITIVE_INFINITY : maxDistance;
+        if (max < 0) {
+            throw new SQLException("The maximum distance must be positive");
+        }
+        Tuple<String, GeometryMetaData> geomMetadata = GeometryTableUtilities.getFirstColumnMetaData(connection, tableLocation);
+        int srid = geomMetadata.second().getSRID();
+        if (srid != 0 && srid != geometry.getSRID()) {
+            throw new SQLException("Operation on mixed SRID geometries not supported");
+        }
+        String geomColumn = TableLocation.quoteIdentifier(geomMetadata.first(), dbType);
+        Tuple<String, Integer> pk = JDBCUtilities.getIntegerPrimaryKeyNameAndIndex(connection, tableLocation);
+        String keyColumn = pk == null ? "_ROWID_" : TableLocation.quoteIdentifier(pk.first(), dbType);
+
+        NearestHeap heap;
+        if (isSpatialIndexed(connection, tableLocation, geomMetadata.first())) {
+            heap = windowSearch(connection, tableLocation, keyColumn, geomColumn, geometry, k, max);
+        } else {
+            heap = scanSearch(connection, tableLocation, keyColumn, geomColumn, geometry, k, max);
+        }
+        List<Nearest> nearest = heap.toSortedList();
+        if (nearest.isEmpty()) {
+            return output;
+        }
+        // Read the complete rows of the neighbours
+        Map<Long, Object[]> rows = new HashMap<>();
+        StringBuilder ids = new StringBuilder();
+        for (Nearest n : nearest) {
+            if (ids.length() > 0) {
+                ids.append(",");
+            }
+            ids.append(n.id);
+        }
+        int columnCount = output.getColumnCount() - 1;
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT T.*, T." + keyColumn + " FROM " + tableLocation
+                     + " T WHERE T." + keyColumn + " IN (" + ids + ")")) {
+            while (rs.next()) {
+                Object[] row = new Object[columnCount + 1];
+                for (int i = 0; i < columnCount; i++) {
+                    row[i] = rs.getObject(i + 1);
+                }
+                rows.put(rs.getLong(columnCount + 1), row);
+            }
+        }
+        for (Nearest n : nearest) {
+            Object[] row = rows.get(n.id);
+            if (row != null) {
+                row[columnCount] = n.distance;
+                output.addRow(row);
+            }
+        }
+        return output;
+    }
+
+    private static boolean isSpatialIndexed(Connection connection, TableLocation tableLocation, String geomColumn) {
+        try {
+            return GeometryTableUtilities.isSpatialIndexed(connection, tableLocation, geomColumn);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Read all the geometries of the table and keep the k nearest
+     */
+    private static NearestHeap scanSearch(Connection connection, TableLocation tableLocation, String keyColumn,
+            String geomColumn, Geometry geometry, int k, double maxDistance) throws SQLException {
+        NearestHeap heap = new NearestHeap(k);
+        Envelope queryEnvelope = geometry.getEnvelopeInternal();
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT " + keyColumn + ", " + geomColumn + " FROM " + tableLocation
+                     + " WHERE " + geomColumn + " IS NOT NULL")) {
+            while (rs.next()) {
+                Geometry other = (Geometry) rs.getObject(2);
+                if (other.isEmpty()) {
+                    continue;
+                }
+                double bound = Math.min(maxDistance, heap.getMaxDistance());
+                // The envelope distance is a lower bound of the distance
+                if (queryEnvelope.distance(other.getEnvelopeInternal()) > bound) {
+                    continue;
+                }
+                double distance = other.distance(geometry);
+                if (distance <= maxDistance) {
+                    heap.offer(rs.getLong(1), distance);
+                }
+            }
+        }
+        return heap;
+    }
+
+    /**
+     * Search the rows in a window that grows until k rows are found within its
+     * radius. Each window is resolved by the spatial index of the table.
+     */
+    private static NearestHeap windowSearch(Connection connection, TableLocation tableLocation, String keyColumn,
+            String geomColumn, Geometry geometry, int k, double maxDistance) throws SQLException {
+        Geometry extentGeometry = GeometryTableUtilities.getEstimatedExtent(connection, tableLocation, geomColumn);
+        int rowCount = JDBCUtilities.getRowCount(connection, tableLocation.toString());
+        if (extentGeometry == null || extentGeometry.isEmpty() || rowCount == 0) {
+            return new NearestHeap(k);
+        }
+        Envelope extent = extentGeometry.getEnvelopeInternal();
+        Envelope queryEnvelope = geometry.getEnvelopeInternal();
+        // Radius of a disc that would hold k rows if they were evenly spread
+        double radius = Math.sqrt(extent.getArea() * k / (Math.PI * rowCount));
+        if (!(radius > 0)) {
+            radius = Math.max(Math.max(extent.getWidth(), extent.getHeight()) / rowCount, 1);
+        }
+        radius = Math.min(radius + queryEnvelope.distance(extent), maxDistance);
+        try (PreparedStatement ps = connection.prepareStatement("SELECT " + keyColumn + ", " + geomColumn
+                + " FROM " + tableLocation + " WHERE " + geomColumn + " && ?")) {
+            while (true) {
+                Envelope window = new Envelope(queryEnvelope);
+                window.expandBy(radius);
+                // Rows farther than the radius may be outside of the window
+                double limit = window.contains(extent) ? maxDistance : radius;
+                NearestHeap heap = new NearestHeap(k);
+                Geometry windowGeometry = geometry.getFactory().toGeometry(window);
+                windowGeometry.setSRID(geometry.getSRID());
+                ps.setObject(1, windowGeometry);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Geometry other = (Geometry) rs.getObject(2);
+                        if (other == null || other.isEmpty()) {
+                            continue;
+                        }
+                        double distance = other.distance(geometry);
+                        if (distance <= limit) {
+                            heap.offer(rs.getLong(1), distance);
+                        }
+                    }
+                }
+                if (heap.size() == k || limit >= maxDistance) {
+                    return heap;
+                }
+                radius = Math.min(radius * 2, maxDistance);
+            }
+        }
+    }
+
+    /**
+     * Identifier of a row and its distance
+     */
+    private static final class Nearest implements Comparable<Nearest> {
+
+        final long id;
+        final double distance;
+
+        Nearest(long id, double distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(Nearest other) {
+            int cmp = Double.compare(distance, other.distance);
+            return cmp != 0 ? cmp : Long.compare(id, other.id);
+        }
+    }
+
+    /**
+     * Keep the k smallest distances
+     */
+    private static final class NearestHeap {
+
+        private final int k;
+        private final PriorityQueue<Nearest> queue;
+
+        NearestHeap(int k) {
+            this.k = k;
+            this.queue = new PriorityQueue<>(Math.min(k, 1024), Collections.reverseOrder());
+        }
+
+        void offer(long id, double distance) {
+            Nearest nearest = new Nearest(id, distance);
+            if (queue.size() < k) {
+                queue.add(nearest);
+            } else if (nearest.compareTo(queue.peek()) < 0) {
+                queue.poll();
+                queue.add(nearest);
+            }
+        }
+
+        int size() {
+            return queue.size();
+        }
+
+        /**
+         * @return the largest distance kept or infinity while less than k
+         * distances are kept
+         */
+        double getMaxDistance() {
+            return queue.size() < k ? Double.POSITIVE_INFINITY : queue.peek().distance;
+        }
+
+        List<Nearest> toSortedList() {
+            List<Nearest> list = new ArrayList<>(queue);
+            Collections.sort(list);
+            return list;
+        }
+    }
+}
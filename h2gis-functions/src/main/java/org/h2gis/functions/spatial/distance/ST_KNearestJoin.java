@@ -0,0 +1,319 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.distance;
+
+import org.h2.tools.SimpleResultSet;
+import org.h2.tools.SimpleRowSource;
+import org.h2gis.api.AbstractFunction;
+import org.h2gis.api.ScalarFunction;
+import org.h2gis.functions.spatial.predicates.IndexedGeometry;
+import org.h2gis.utilities.GeometryMetaData;
+import org.h2gis.utilities.GeometryTableUtilities;
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.ParallelUtilities;
+import org.h2gis.utilities.TableLocation;
+import org.h2gis.utilities.TableUtilities;
+import org.h2gis.utilities.Tuple;
+import org.h2gis.utilities.dbtypes.DBTypes;
+import org.h2gis.utilities.dbtypes.DBUtils;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.h2gis.utilities.TableUtilities.isColumnListConnection;
+
+/**
+ * Table function that returns, for each row of a table A, the k rows of a
+ * table B whose geometries are the nearest.
+ *
+ * The geometries of table B are loaded in a {@link STRtree} that is searched
+ * with a best-first traversal, see {@link KNearestSearch}. Table A is read by
+ * chunks of rows that are processed on a pool of worker threads.
+ */
+public class ST_KNearestJoin extends AbstractFunction implements ScalarFunction {
+
+    public static final String ID_A = "ID_A";
+    public static final String ID_B = "ID_B";
+    public static final String DISTANCE_FIELD = "DISTANCE";
+    public static final String RANK_FIELD = "RANK";
+
+    /**
+     * Number of rows of table A processed by a single task
+     */
+    private static final int CHUNK_SIZE = 1000;
+
+    public ST_KNearestJoin() {
+        addProperty(PROP_REMARKS, "Returns for each row of the first table the k nearest rows of the second table.\n"
+                + "The result contains the identifiers of both rows (" + ID_A + ", " + ID_B + "), their "
+                + DISTANCE_FIELD + " and the " + RANK_FIELD + " of the neighbour, starting at 1.\n"
+                + "An optional maximum distance can be set to ignore the rows that are too far.\n"
+                + "The identifiers are the integer primary keys of the tables or their _ROWID_.");
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "kNearestJoin";
+    }
+
+    /**
+     * @param connection Active connection
+     * @param tableA Table of the query geometries
+     * @param tableB Table of the neighbours
+     * @param k Number of neighbours
+     * @return a table of (ID_A, ID_B, DISTANCE, RANK)
+     * @throws SQLException
+     */
+    public static ResultSet kNearestJoin(Connection connection, String tableA, String tableB, int k) throws SQLException {
+        return kNearestJoin(connection, tableA, tableB, k, null);
+    }
+
+    /**
+     * @param connection Active connection
+     * @param tableA Table of the query geometries
+     * @param tableB Table of the neighbours
+     * @param k Number of neighbours
+     * @param maxDistance Maximum distance between the geometries
+     * @return a table of (ID_A, ID_B, DISTANCE, RANK)
+     * @throws SQLException
+     */
+    public static ResultSet kNearestJoin(Connection connection, String tableA, String tableB, int k,
+            Double maxDistance) throws SQLException {
+        if (isColumnListConnection(connection)) {
+            return prepareResultSet(null);
+        }
+        if (tableA == null || tableB == null) {
+            throw new SQLException("The table names cannot be null");
+        }
+        double max = maxDistance == null ? Double.POSITIVE_INFINITY : maxDistance;
+        if (max < 0) {
+            throw new SQLException("The maximum distance must be positive");
+        }
+        final DBTypes dbType = DBUtils.getDBType(connection);
+        TableLocation locationA = TableUtilities.parseInputTable(connection, tableA);
+        TableLocation locationB = TableUtilities.parseInputTable(connection, tableB);
+        Tuple<String, GeometryMetaData> geomMetadataA = GeometryTableUtilities.getFirstColumnMetaData(connection, locationA);
+        Tuple<String, GeometryMetaData> geomMetadataB = GeometryTableUtilities.getFirstColumnMetaData(connection, locationB);
+        if (geomMetadataA.second().getSRID() != geomMetadataB.second().getSRID()) {
+            throw new SQLException("Operation on mixed SRID geometries not supported");
+        }
+        return prepareResultSet(new KNearestRowSource(connection, selectQuery(connection, locationA, geomMetadataA.first(), dbType),
+                selectQuery(connection, locationB, geomMetadataB.first(), dbType), k, max));
+    }
+
+    private static SimpleResultSet prepareResultSet(SimpleRowSource rowSource) {
+        SimpleResultSet output = rowSource == null ? new SimpleResultSet() : new SimpleResultSet(rowSource);
+        output.addColumn(ID_A, Types.BIGINT, 19, 0);
+        output.addColumn(ID_B, Types.BIGINT, 19, 0);
+        output.addColumn(DISTANCE_FIELD, Types.DOUBLE, 17, 0);
+        output.addColumn(RANK_FIELD, Types.INTEGER, 10, 0);
+        return output;
+    }
+
+    /**
+     * @return the query that reads the identifiers and the geometries of a
+     * table
+     */
+    private static String selectQuery(Connection connection, TableLocation location, String geomColumnName,
+            DBTypes dbType) throws SQLException {
+        Tuple<String, Integer> pk = JDBCUtilities.getIntegerPrimaryKeyNameAndIndex(connection, location);
+        String keyColumn = pk == null ? "_ROWID_" : TableLocation.quoteIdentifier(pk.first(), dbType);
+        String geomColumn = TableLocation.quoteIdentifier(geomColumnName, dbType);
+        return "SELECT " + keyColumn + ", " + geomColumn + " FROM " + location
+                + " WHERE " + geomColumn + " IS NOT NULL";
+    }
+
+    /**
+     * Neighbours of a chunk of rows
+     */
+    private static final class ChunkResult {
+
+        final List<Long> ids = new ArrayList<>();
+        final List<KNearestSearch.Neighbour> neighbours = new ArrayList<>();
+        final List<Integer> ranks = new ArrayList<>();
+    }
+
+    /**
+     * Search the neighbours of a chunk of rows of table A
+     */
+    private static final class KNearestTask implements Callable<ChunkResult> {
+
+        private final STRtree tree;
+        private final List<Long> ids;
+        private final List<Geometry> geometries;
+        private final int k;
+        private final double maxDistance;
+
+        KNearestTask(STRtree tree, List<Long> ids, List<Geometry> geometries, int k, double maxDistance) {
+            this.tree = tree;
+            this.ids = ids;
+            this.geometries = geometries;
+            this.k = k;
+            this.maxDistance = maxDistance;
+        }
+
+        @Override
+        public ChunkResult call() {
+            ChunkResult result = new ChunkResult();
+            for (int i = 0; i < ids.size(); i++) {
+                int rank = 1;
+                for (KNearestSearch.Neighbour neighbour : KNearestSearch.nearest(tree, geometries.get(i), k, maxDistance)) {
+                    result.ids.add(ids.get(i));
+                    result.neighbours.add(neighbour);
+                    result.ranks.add(rank++);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Produce the neighbours on request.
+     * Table A is read on the calling connection while the chunks already read
+     * are processed in parallel.
+     */
+    private static final class KNearestRowSource implements SimpleRowSource {
+
+        private final Connection connection;
+        private final String queryA;
+        private final String queryB;
+        private final int k;
+        private final double maxDistance;
+
+        private STRtree tree;
+        private Statement statementA;
+        private ResultSet rowsA;
+        private final ParallelUtilities.OrderedTasks<ChunkResult> pending = new ParallelUtilities.OrderedTasks<>("nearest neighbour search");
+        private ChunkResult current;
+        private int currentIndex = 0;
+        private boolean initialized = false;
+
+        KNearestRowSource(Connection connection, String queryA, String queryB, int k, double maxDistance) {
+            this.connection = connection;
+            this.queryA = queryA;
+            this.queryB = queryB;
+            this.k = k;
+            this.maxDistance = maxDistance;
+        }
+
+        @Override
+        public Object[] readRow() throws SQLException {
+            if (!initialized) {
+                init();
+            }
+            while (current == null || currentIndex >= current.ids.size()) {
+                fillPending();
+                ChunkResult next = pending.take();
+                if (next == null) {
+                    return null;
+                }
+                current = next;
+                currentIndex = 0;
+            }
+            KNearestSearch.Neighbour neighbour = current.neighbours.get(currentIndex);
+            Object[] row = new Object[]{current.ids.get(currentIndex), neighbour.item.id, neighbour.distance,
+                current.ranks.get(currentIndex)};
+            currentIndex++;
+            return row;
+        }
+
+        private void init() throws SQLException {
+            initialized = true;
+            List<IndexedGeometry> items = new ArrayList<>();
+            try (Statement st = connection.createStatement();
+                 ResultSet rs = st.executeQuery(queryB)) {
+                while (rs.next()) {
+                    Geometry geometry = (Geometry) rs.getObject(2);
+                    if (!geometry.isEmpty()) {
+                        items.add(new IndexedGeometry(rs.getLong(1), geometry));
+                    }
+                }
+            }
+            tree = KNearestSearch.createTree(items);
+            if (k > 0 && !items.isEmpty()) {
+                statementA = connection.createStatement();
+                rowsA = statementA.executeQuery(queryA);
+            }
+        }
+
+        /**
+         * Read chunks of table A until enough tasks are queued
+         */
+        private void fillPending() throws SQLException {
+            while (rowsA != null && !pending.isFull()) {
+                List<Long> ids = new ArrayList<>(CHUNK_SIZE);
+                List<Geometry> geometries = new ArrayList<>(CHUNK_SIZE);
+                while (ids.size() < CHUNK_SIZE && rowsA.next()) {
+                    Geometry geometry = (Geometry) rowsA.getObject(2);
+                    if (!geometry.isEmpty()) {
+                        ids.add(rowsA.getLong(1));
+                        geometries.add(geometry);
+                    }
+                }
+                if (ids.size() < CHUNK_SIZE) {
+                    closeTableA();
+                }
+                if (!ids.isEmpty()) {
+                    pending.submit(new KNearestTask(tree, ids, geometries, k, maxDistance));
+                }
+            }
+        }
+
+        private void closeTableA() throws SQLException {
+            if (rowsA != null) {
+                rowsA.close();
+                rowsA = null;
+            }
+            if (statementA != null) {
+                statementA.close();
+                statementA = null;
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                closeTableA();
+            } catch (SQLException ex) {
+                throw new RuntimeException(ex);
+            } finally {
+                pending.cancel();
+                tree = null;
+            }
+        }
+
+        @Override
+        public void reset() throws SQLException {
+            close();
+            current = null;
+            currentIndex = 0;
+            initialized = false;
+        }
+    }
+}
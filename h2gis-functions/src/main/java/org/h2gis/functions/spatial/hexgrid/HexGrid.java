@@ -0,0 +1,424 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.hexgrid;
+
+import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.PrecisionModel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical grid of hexagons in the plane of the coordinates, indexed in
+ * the manner of H3.
+ *
+ * The hexagon centres of a resolution form a lattice of Eisenstein integers
+ * a + b&omega;, with &omega; = e^(2i&pi;/3). From one resolution to the next
+ * the lattice is divided by &alpha; = 2 - &omega; : the spacing shrinks by
+ * sqrt(7) and the lattice rotates by about 19.1 degrees. The centre of a cell
+ * is also the centre of one of its 7 children, the 6 other children are the
+ * neighbours of this central child. As with H3 the children cover their
+ * parent approximately, every cell has exactly one parent.
+ *
+ * A cell identifier is a positive long that packs the resolution (5 bits) and
+ * the two lattice coordinates (29 bits each). The identifiers can be
+ * compared, indexed and joined as plain integers.
+ *
+ * The resolution 0 hexagons are spaced by 10 000 000 units, the hexagons of the
+ * finest resolution ({@link #MAX_RESOLUTION}) are spaced by about 2E-6 units.
+ *
+ * The lattice coordinates are bounded, so each resolution covers a limited
+ * area around the origin, of radius 2.3E15 / sqrt(7)^resolution units (see
+ * {@link #getMaxDistance(int)}). The coordinates in degrees are covered at
+ * every resolution. The projected coordinates in metres closer than 2E7 to the
+ * origin are covered up to the resolution 19. The resolution 20 covers 8.2E6
+ * units around the origin, the resolution 25 about 63 000 units and the finest
+ * resolution about 490 units.
+ */
+public final class HexGrid {
+
+    /**
+     * Finest resolution
+     */
+    public static final int MAX_RESOLUTION = 30;
+
+    /**
+     * Distance between the centres of two neighbour cells at the resolution 0
+     */
+    public static final double BASE_SPACING = 1E7;
+
+    private static final int COORD_BITS = 29;
+    private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+    private static final int MAX_COORD = (1 << (COORD_BITS - 1)) - 1;
+    private static final double SQRT3_2 = Math.sqrt(3) / 2;
+
+    /**
+     * Lattice coordinates of the 6 neighbour directions
+     */
+    private static final int[][] UNITS = {{1, 0}, {1, 1}, {0, 1}, {-1, 0}, {-1, -1}, {0, -1}};
+
+    /**
+     * Complex scale of the lattice of each resolution
+     */
+    private static final double[] SCALE_RE = new double[MAX_RESOLUTION + 1];
+    private static final double[] SCALE_IM = new double[MAX_RESOLUTION + 1];
+
+    static {
+        // 1 / alpha = (2 - conj(omega)) / 7
+        double angle = Math.atan2(SQRT3_2, 2.5);
+        for (int res = 0; res <= MAX_RESOLUTION; res++) {
+            double spacing = BASE_SPACING / Math.pow(Math.sqrt(7), res);
+            SCALE_RE[res] = spacing * Math.cos(res * angle);
+            SCALE_IM[res] = spacing * Math.sin(res * angle);
+        }
+    }
+
+    private HexGrid() {
+    }
+
+    /**
+     * Check the resolution
+     *
+     * @param resolution resolution
+     * @throws IllegalArgumentException if the resolution is out of range
+     */
+    public static void checkResolution(int resolution) {
+        if (resolution < 0 || resolution > MAX_RESOLUTION) {
+            throw new IllegalArgumentException("The resolution must be between 0 and " + MAX_RESOLUTION);
+        }
+    }
+
+    /**
+     * Return the radius of the area covered by a resolution. The coordinates
+     * farther from the origin may be out of the grid.
+     *
+     * @param resolution resolution
+     * @return the distance to the origin under which all the coordinates
+     * have a cell
+     */
+    public static double getMaxDistance(int resolution) {
+        checkResolution(resolution);
+        // |a| and |b| are at most 2 / sqrt(3) times the distance to the
+        // origin in cells, the rounding to the nearest centre adds 2 / 3
+        return (MAX_COORD - 1) * Math.hypot(SCALE_RE[resolution], SCALE_IM[resolution]) * SQRT3_2;
+    }
+
+    /**
+     * Pack a cell identifier
+     *
+     * @param resolution resolution
+     * @param a first lattice coordinate
+     * @param b second lattice coordinate
+     * @return the cell identifier
+     * @throws IllegalArgumentException if the cell is out of the indexed area
+     */
+    public static long toCell(int resolution, long a, long b) {
+        if (Math.abs(a) > MAX_COORD || Math.abs(b) > MAX_COORD) {
+            throw new IllegalArgumentException("The location is out of the hexagonal grid at the resolution " + resolution
+                    + ", which covers the coordinates closer than " + getMaxDistance(resolution) + " to the origin");
+        }
+        return ((long) resolution << (2 * COORD_BITS)) | ((a & COORD_MASK) << COORD_BITS) | (b & COORD_MASK);
+    }
+
+    /**
+     * @param cell cell identifier
+     * @return the resolution of the cell
+     */
+    public static int getResolution(long cell) {
+        int resolution = (int) (cell >>> (2 * COORD_BITS));
+        checkResolution(resolution);
+        return resolution;
+    }
+
+    private static int getA(long cell) {
+        return (int) (((cell >>> COORD_BITS) & COORD_MASK) << (64 - COORD_BITS) >> (64 - COORD_BITS));
+    }
+
+    private static int getB(long cell) {
+        return (int) ((cell & COORD_MASK) << (64 - COORD_BITS) >> (64 - COORD_BITS));
+    }
+
+    /**
+     * Return the cell that contains a coordinate
+     *
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param resolution resolution
+     * @return the cell identifier
+     */
+    public static long getCell(double x, double y, int resolution) {
+        checkResolution(resolution);
+        // Position in the lattice, in the axial basis (1, e^(i pi/3))
+        double re = SCALE_RE[resolution];
+        double im = SCALE_IM[resolution];
+        double norm = re * re + im * im;
+        double wx = (x * re + y * im) / norm;
+        double wy = (y * re - x * im) / norm;
+        double r = wy / SQRT3_2;
+        double q = wx - r / 2;
+        // Round to the nearest hexagon with the cube coordinates
+        double s = -q - r;
+        long rq = Math.round(q);
+        long rr = Math.round(r);
+        long rs = Math.round(s);
+        double dq = Math.abs(rq - q);
+        double dr = Math.abs(rr - r);
+        double ds = Math.abs(rs - s);
+        if (dq > dr && dq > ds) {
+            rq = -rr - rs;
+        } else if (dr > ds) {
+            rr = -rq - rs;
+        }
+        return toCell(resolution, rq + rr, rr);
+    }
+
+    /**
+     * @param cell cell identifier
+     * @return the centre of the cell
+     */
+    public static Coordinate getCenter(long cell) {
+        int resolution = getResolution(cell);
+        double zx = getA(cell) - getB(cell) / 2.0;
+        double zy = getB(cell) * SQRT3_2;
+        return new Coordinate(zx * SCALE_RE[resolution] - zy * SCALE_IM[resolution],
+                zx * SCALE_IM[resolution] + zy * SCALE_RE[resolution]);
+    }
+
+    /**
+     * @param cell cell identifier
+     * @param factory factory of the polygon
+     * @return the hexagon of the cell
+     */
+    public static Polygon getPolygon(long cell, GeometryFactory factory) {
+        int resolution = getResolution(cell);
+        Coordinate center = getCenter(cell);
+        double re = SCALE_RE[resolution];
+        double im = SCALE_IM[resolution];
+        double radius = Math.sqrt(re * re + im * im) / Math.sqrt(3);
+        double start = Math.atan2(im, re) + Math.PI / 6;
+        Coordinate[] ring = new Coordinate[7];
+        for (int k = 0; k < 6; k++) {
+            double angle = start + k * Math.PI / 3;
+            ring[k] = new Coordinate(center.x + radius * Math.cos(angle), center.y + radius * Math.sin(angle));
+        }
+        ring[6] = ring[0].copy();
+        return factory.createPolygon(ring);
+    }
+
+    /**
+     * @param cell cell identifier
+     * @return the parent cell at the previous resolution
+     */
+    public static long getParent(long cell) {
+        int resolution = getResolution(cell);
+        if (resolution == 0) {
+            throw new IllegalArgumentException("A cell of resolution 0 has no parent");
+        }
+        long a = getA(cell);
+        long b = getB(cell);
+        // Find the digit u such that z - u is divisible by alpha, then
+        // divide by alpha as (z - u) * conj(alpha) / 7 with conj(alpha) = 3 + omega
+        for (int digit = 0; digit <= UNITS.length; digit++) {
+            long ta = digit == 0 ? a : a - UNITS[digit - 1][0];
+            long tb = digit == 0 ? b : b - UNITS[digit - 1][1];
+            long ma = 3 * ta - tb;
+            long mb = ta + 3 * tb - tb;
+            if (ma % 7 == 0 && mb % 7 == 0) {
+                return toCell(resolution - 1, ma / 7, mb / 7);
+            }
+        }
+        throw new IllegalStateException("No parent found for the cell " + cell);
+    }
+
+    /**
+     * @param cell cell identifier
+     * @param resolution coarser resolution
+     * @return the ancestor of the cell at the given resolution
+     */
+    public static long getParent(long cell, int resolution) {
+        checkResolution(resolution);
+        int cellResolution = getResolution(cell);
+        if (resolution > cellResolution) {
+            throw new IllegalArgumentException("The parent resolution must be lower than the cell resolution");
+        }
+        long parent = cell;
+        for (int res = cellResolution; res > resolution; res--) {
+            parent = getParent(parent);
+        }
+        return parent;
+    }
+
+    /**
+     * @param cell cell identifier
+     * @return the 7 children of the cell at the next resolution, the central
+     * child first
+     */
+    public static long[] getChildren(long cell) {
+        int resolution = getResolution(cell);
+        if (resolution == MAX_RESOLUTION) {
+            throw new IllegalArgumentException("A cell of resolution " + MAX_RESOLUTION + " has no children");
+        }
+        long a = getA(cell);
+        long b = getB(cell);
+        // alpha * z with alpha = 2 - omega
+        long ca = 2 * a + b;
+        long cb = -a + 2 * b + b;
+        long[] children = new long[UNITS.length + 1];
+        children[0] = toCell(resolution + 1, ca, cb);
+        for (int k = 0; k < UNITS.length; k++) {
+            children[k + 1] = toCell(resolution + 1, ca + UNITS[k][0], cb + UNITS[k][1]);
+        }
+        return children;
+    }
+
+    /**
+     * @param cell cell identifier
+     * @param resolution finer resolution
+     * @return the descendants of the cell at the given resolution
+     */
+    public static List<Long> getChildren(long cell, int resolution) {
+        checkResolution(resolution);
+        if (resolution < getResolution(cell)) {
+            throw new IllegalArgumentException("The children resolution must be greater than the cell resolution");
+        }
+        List<Long> cells = new ArrayList<>();
+        cells.add(cell);
+        for (int res = getResolution(cell); res < resolution; res++) {
+            List<Long> next = new ArrayList<>(cells.size() * 7);
+            for (long parent : cells) {
+                for (long child : getChildren(parent)) {
+                    next.add(child);
+                }
+            }
+            cells = next;
+        }
+        return cells;
+    }
+
+    /**
+     * @param cell cell identifier
+     * @param k distance in cells
+     * @return the cells at most k cells away from the cell, the cell first
+     */
+    public static List<Long> getKRing(long cell, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("The distance must be positive");
+        }
+        int resolution = getResolution(cell);
+        long a = getA(cell);
+        long b = getB(cell);
+        List<Long> cells = new ArrayList<>(1 + 3 * k * (k + 1));
+        cells.add(cell);
+        // Walk the rings in the axial coordinates (q, r) = (a - b, b)
+        for (int ring = 1; ring <= k; ring++) {
+            long q = ring;
+            long r = -ring;
+            for (int side = 0; side < 6; side++) {
+                int[] direction = AXIAL_DIRECTIONS[side];
+                for (int step = 0; step < ring; step++) {
+                    cells.add(toCell(resolution, a + q + r, b + r));
+                    q += direction[0];
+                    r += direction[1];
+                }
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Axial directions used to walk around a ring, starting from the (1, -1)
+     * corner
+     */
+    private static final int[][] AXIAL_DIRECTIONS = {{0, 1}, {-1, 1}, {-1, 0}, {0, -1}, {1, -1}, {1, 0}};
+
+    /**
+     * Return the cells whose centre is in a polygonal geometry
+     *
+     * @param geometry polygonal geometry
+     * @param resolution resolution
+     * @param maxCells maximum number of tested cells
+     * @return the cells
+     */
+    public static List<Long> polyfill(Geometry geometry, int resolution, long maxCells) {
+        checkResolution(resolution);
+        List<Long> cells = new ArrayList<>();
+        Envelope envelope = geometry.getEnvelopeInternal();
+        if (envelope.isNull()) {
+            return cells;
+        }
+        // Range of the axial coordinates of the envelope corners
+        double re = SCALE_RE[resolution];
+        double im = SCALE_IM[resolution];
+        double norm = re * re + im * im;
+        double minQ = Double.POSITIVE_INFINITY, maxQ = Double.NEGATIVE_INFINITY;
+        double minR = Double.POSITIVE_INFINITY, maxR = Double.NEGATIVE_INFINITY;
+        double[] xs = {envelope.getMinX(), envelope.getMaxX()};
+        double[] ys = {envelope.getMinY(), envelope.getMaxY()};
+        for (double x : xs) {
+            for (double y : ys) {
+                double wx = (x * re + y * im) / norm;
+                double wy = (y * re - x * im) / norm;
+                double r = wy / SQRT3_2;
+                double q = wx - r / 2;
+                minQ = Math.min(minQ, q);
+                maxQ = Math.max(maxQ, q);
+                minR = Math.min(minR, r);
+                maxR = Math.max(maxR, r);
+            }
+        }
+        long q0 = (long) Math.floor(minQ) - 1, q1 = (long) Math.ceil(maxQ) + 1;
+        long r0 = (long) Math.floor(minR) - 1, r1 = (long) Math.ceil(maxR) + 1;
+        if ((double) (q1 - q0 + 1) * (r1 - r0 + 1) > maxCells) {
+            throw new IllegalArgumentException("Too many cells, use a lower resolution");
+        }
+        IndexedPointInAreaLocator locator = new IndexedPointInAreaLocator(geometry);
+        Coordinate centre = new Coordinate();
+        double zx, zy;
+        for (long r = r0; r <= r1; r++) {
+            for (long q = q0; q <= q1; q++) {
+                // Centre of (a, b) = (q + r, r)
+                zx = q + r / 2.0;
+                zy = r * SQRT3_2;
+                centre.x = zx * re - zy * im;
+                centre.y = zx * im + zy * re;
+                if (envelope.contains(centre) && locator.locate(centre) != Location.EXTERIOR) {
+                    cells.add(toCell(resolution, q + r, r));
+                }
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * @param srid SRID
+     * @return a factory of geometries with the given SRID
+     */
+    static GeometryFactory getFactory(int srid) {
+        return new GeometryFactory(new PrecisionModel(), srid);
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.hexgrid;
+
+import org.h2gis.api.DeterministicScalarFunction;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Point;
+
+/**
+ * Return the identifier of the hexagonal cell that contains a point.
+ *
+ * @see HexGrid
+ */
+public class ST_HexCell extends DeterministicScalarFunction {
+
+    public ST_HexCell() {
+        addProperty(PROP_REMARKS, "Return the identifier of the hexagonal cell that contains a point "
+                + "at a resolution between 0 and " + HexGrid.MAX_RESOLUTION + ".\n"
+                + "A geometry that is not a point is located by its centroid.\n"
+                + "The cells of the resolution 0 are spaced by " + HexGrid.BASE_SPACING + " units of the coordinates, "
+                + "each resolution divides the spacing by sqrt(7).\n"
+                + "A resolution covers the coordinates closer than 2.3E15 / sqrt(7)^resolution units to the origin, "
+                + "projected coordinates in metres closer than 2E7 to the origin are covered up to the resolution 19.");
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "getCell";
+    }
+
+    /**
+     * @param geometry Point
+     * @param resolution Resolution
+     * @return the cell identifier
+     */
+    public static Long getCell(Geometry geometry, int resolution) {
+        if (geometry == null || geometry.isEmpty()) {
+            return null;
+        }
+        Point point = geometry instanceof Point ? (Point) geometry : geometry.getCentroid();
+        return HexGrid.getCell(point.getX(), point.getY(), resolution);
+    }
+}
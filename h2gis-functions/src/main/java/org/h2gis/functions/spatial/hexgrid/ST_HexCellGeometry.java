@@ -0,0 +1,63 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.hexgrid;
+
+import org.h2gis.api.DeterministicScalarFunction;
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * Return the hexagon of a cell.
+ *
+ * @see HexGrid
+ */
+public class ST_HexCellGeometry extends DeterministicScalarFunction {
+
+    public ST_HexCellGeometry() {
+        addProperty(PROP_REMARKS, "Return the hexagon of a cell identifier.\n"
+                + "An optional SRID can be set on the polygon.");
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "getGeometry";
+    }
+
+    /**
+     * @param cell Cell identifier
+     * @return the hexagon
+     */
+    public static Geometry getGeometry(Long cell) {
+        return getGeometry(cell, 0);
+    }
+
+    /**
+     * @param cell Cell identifier
+     * @param srid SRID of the polygon
+     * @return the hexagon
+     */
+    public static Geometry getGeometry(Long cell, int srid) {
+        if (cell == null) {
+            return null;
+        }
+        return HexGrid.getPolygon(cell, HexGrid.getFactory(srid));
+    }
+}
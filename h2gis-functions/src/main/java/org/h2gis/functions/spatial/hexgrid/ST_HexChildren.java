@@ -0,0 +1,82 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.hexgrid;
+
+import org.h2gis.api.DeterministicScalarFunction;
+
+import java.sql.SQLException;
+
+/**
+ * Return the children of a hexagonal cell.
+ *
+ * @see HexGrid
+ */
+public class ST_HexChildren extends DeterministicScalarFunction {
+
+    /**
+     * Maximum number of returned cells
+     */
+    private static final long MAX_CELLS = 1_000_000L;
+
+    public ST_HexChildren() {
+        addProperty(PROP_REMARKS, "Return an array with the 7 children of a cell identifier at the next resolution "
+                + "or all its descendants at the given finer resolution.\n"
+                + "At most " + MAX_CELLS + " descendants, 7 levels, can be returned.");
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "getChildren";
+    }
+
+    /**
+     * @param cell Cell identifier
+     * @return the children at the next resolution
+     */
+    public static Long[] getChildren(Long cell) {
+        if (cell == null) {
+            return null;
+        }
+        return HexGrid.getChildren(cell, HexGrid.getResolution(cell) + 1).toArray(new Long[0]);
+    }
+
+    /**
+     * @param cell Cell identifier
+     * @param resolution Resolution of the children
+     * @return the descendants at the given resolution
+     * @throws SQLException if there are too many descendants
+     */
+    public static Long[] getChildren(Long cell, int resolution) throws SQLException {
+        if (cell == null) {
+            return null;
+        }
+        // Each level multiplies the number of cells by 7
+        long count = 1;
+        for (int res = HexGrid.getResolution(cell); res < resolution; res++) {
+            count *= 7;
+            if (count > MAX_CELLS) {
+                throw new SQLException("Too many cells, use a lower resolution");
+            }
+        }
+        return HexGrid.getChildren(cell, resolution).toArray(new Long[0]);
+    }
+}
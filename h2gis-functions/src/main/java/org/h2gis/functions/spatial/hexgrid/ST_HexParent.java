@@ -0,0 +1,65 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.hexgrid;
+
+import org.h2gis.api.DeterministicScalarFunction;
+
+/**
+ * Return the parent of a hexagonal cell.
+ *
+ * @see HexGrid
+ */
+public class ST_HexParent extends DeterministicScalarFunction {
+
+    public ST_HexParent() {
+        addProperty(PROP_REMARKS, "Return the parent of a cell identifier at the previous resolution "
+                + "or at the given coarser resolution.");
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "getParent";
+    }
+
+    /**
+     * @param cell Cell identifier
+     * @return the parent at the previous resolution
+     */
+    public static Long getParent(Long cell) {
+        if (cell == null) {
+            return null;
+        }
+        return HexGrid.getParent(cell);
+    }
+
+    /**
+     * @param cell Cell identifier
+     * @param resolution Resolution of the parent
+     * @return the parent at the given resolution
+     */
+    public static Long getParent(Long cell, int resolution) {
+        if (cell == null) {
+            return null;
+        }
+        return HexGrid.getParent(cell, resolution);
+    }
+}
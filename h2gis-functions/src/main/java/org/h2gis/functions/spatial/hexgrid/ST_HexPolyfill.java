@@ -0,0 +1,69 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.hexgrid;
+
+import org.h2gis.api.DeterministicScalarFunction;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Polygonal;
+
+import java.sql.SQLException;
+
+/**
+ * Return the hexagonal cells whose centre is in a polygon.
+ *
+ * @see HexGrid
+ */
+public class ST_HexPolyfill extends DeterministicScalarFunction {
+
+    /**
+     * Maximum number of cells tested for a single polygon
+     */
+    private static final long MAX_CELLS = 1_000_000L;
+
+    public ST_HexPolyfill() {
+        addProperty(PROP_REMARKS, "Return an array with the identifiers of the cells whose centre "
+                + "is in a polygon or on its boundary, at a resolution between 0 and " + HexGrid.MAX_RESOLUTION + ".\n"
+                + "At most " + MAX_CELLS + " cells of the envelope of the polygon are tested, "
+                + "larger polygons need a lower resolution.");
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "polyfill";
+    }
+
+    /**
+     * @param geometry Polygon or MultiPolygon
+     * @param resolution Resolution
+     * @return the cells
+     * @throws SQLException
+     */
+    public static Long[] polyfill(Geometry geometry, int resolution) throws SQLException {
+        if (geometry == null) {
+            return null;
+        }
+        if (!(geometry instanceof Polygonal)) {
+            throw new SQLException("ST_HexPolyfill accepts only polygons and multipolygons");
+        }
+        return HexGrid.polyfill(geometry, resolution, MAX_CELLS).toArray(new Long[0]);
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+package org.h2gis.functions.spatial.predicates;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.operation.distance.IndexedFacetDistance;
+
+/**
+ * A geometry stored in a spatial index with the key of its row.
+ * Its prepared version and its facet index are built on the first use, by
+ * whichever thread asks first.
+ */
+public final class IndexedGeometry {
+
+    public final long id;
+    public final Geometry geometry;
+    private volatile PreparedGeometry prepared;
+    private volatile IndexedFacetDistance facetDistance;
+
+    public IndexedGeometry(long id, Geometry geometry) {
+        this.id = id;
+        this.geometry = geometry;
+    }
+
+    /**
+     * @return the prepared geometry, shared by all the threads
+     */
+    public PreparedGeometry getPrepared() {
+        PreparedGeometry result = prepared;
+        if (result == null) {
+            synchronized (this) {
+                result = prepared;
+                if (result == null) {
+                    result = PreparedGeometryFactory.prepare(geometry);
+                    prepared = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the facet index of the geometry, shared by all the threads
+     */
+    public IndexedFacetDistance getFacetDistance() {
+        IndexedFacetDistance result = facetDistance;
+        if (result == null) {
+            synchronized (this) {
+                result = facetDistance;
+                if (result == null) {
+                    result = new IndexedFacetDistance(geometry);
+                    facetDistance = result;
+                }
+            }
+        }
+        return result;
+    }
+}
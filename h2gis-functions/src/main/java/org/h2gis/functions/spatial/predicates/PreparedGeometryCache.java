@@ -0,0 +1,279 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.predicates;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.operation.distance.IndexedFacetDistance;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Cache of {@link PreparedGeometry} shared by the spatial predicates.
+ *
+ * A query like {@code WHERE ST_Intersects(:polygon, the_geom)} calls the
+ * predicate with the same large geometry for every row. H2 gives a new
+ * geometry instance for each call, so the geometries are identified by a key
+ * made of their SRID, type and envelope, and are checked with
+ * {@link Geometry#equalsExact(Geometry)}. The last entry found by each thread
+ * is first compared by identity, so a caller giving the same instance again
+ * does not compute any key.
+ *
+ * The keys of the geometries seen once are kept in a small table of
+ * candidates. A geometry is cached and prepared the second time it is seen, so
+ * a scan of distinct geometries only overwrites the candidates and never
+ * fills the cache. The cache is bounded by a number of entries and by the
+ * total number of points of the cached geometries, the least recently used
+ * entries are evicted first.
+ *
+ * The entries are stored in a concurrent map, the lookups do not take any
+ * lock and the geometries are compared outside of the map.
+ */
+public final class PreparedGeometryCache {
+
+    /**
+     * Geometries with less points are not worth preparing
+     */
+    private static final int MIN_POINTS = 16;
+
+    private static final int MAX_ENTRIES = 64;
+
+    /**
+     * Number of slots of the table of candidates, a power of two
+     */
+    private static final int CANDIDATES_SIZE = 16;
+
+    /**
+     * Maximum number of points of all the cached geometries
+     */
+    private static final long MAX_POINTS = 2000000;
+
+    private static final Map<Key, Entry> CACHE = new ConcurrentHashMap<Key, Entry>();
+
+    private static final AtomicLong CACHED_POINTS = new AtomicLong();
+
+    /**
+     * Keys of the geometries seen once, a key replaces the one in its slot
+     */
+    private static final AtomicReferenceArray<Key> CANDIDATES = new AtomicReferenceArray<Key>(CANDIDATES_SIZE);
+
+    /**
+     * Last entry found by each thread
+     */
+    private static final ThreadLocal<Entry> LAST_ENTRY = new ThreadLocal<Entry>();
+
+    private PreparedGeometryCache() {
+    }
+
+    /**
+     * Return the prepared version of a geometry if it has already been seen by
+     * a previous call
+     *
+     * @param geometry Geometry instance
+     * @return the prepared geometry or null if the geometry is not cached yet
+     */
+    public static PreparedGeometry getPrepared(Geometry geometry) {
+        Entry entry = getEntry(geometry);
+        return entry == null ? null : entry.getPrepared();
+    }
+
+    /**
+     * Return the facet distance index of a geometry if it has already been seen
+     * by a previous call
+     *
+     * @param geometry Geometry instance
+     * @return the distance index or null if the geometry is not cached yet
+     */
+    public static IndexedFacetDistance getFacetDistance(Geometry geometry) {
+        Entry entry = getEntry(geometry);
+        return entry == null ? null : entry.getFacetDistance();
+    }
+
+    /**
+     * Remove all the cached geometries
+     */
+    public static void clear() {
+        for (Map.Entry<Key, Entry> entry : CACHE.entrySet()) {
+            remove(entry.getKey(), entry.getValue());
+        }
+        for (int i = 0; i < CANDIDATES_SIZE; i++) {
+            CANDIDATES.set(i, null);
+        }
+    }
+
+    /**
+     * Find the cache entry of a geometry, register the geometry as a candidate
+     * if it is not cached
+     *
+     * @param geometry Geometry instance
+     * @return the entry or null if it is the first time the geometry is seen
+     */
+    private static Entry getEntry(Geometry geometry) {
+        Entry last = LAST_ENTRY.get();
+        if (last != null && last.geometry == geometry && !last.removed) {
+            return last;
+        }
+        Key key = new Key(geometry);
+        Entry entry = CACHE.get(key);
+        if (entry != null && (entry.geometry == geometry || entry.geometry.equalsExact(geometry))) {
+            entry.lastUse = System.nanoTime();
+            LAST_ENTRY.set(entry);
+            return entry;
+        }
+        int numPoints = geometry.getNumPoints();
+        if (numPoints < MIN_POINTS || numPoints > MAX_POINTS) {
+            return null;
+        }
+        int hash = key.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (CANDIDATES_SIZE - 1);
+        if (!key.equals(CANDIDATES.get(slot))) {
+            CANDIDATES.set(slot, key);
+            return null;
+        }
+        // Second time the key is seen, a cached geometry with the same key
+        // but different coordinates is replaced
+        Entry added = new Entry(geometry, numPoints);
+        Entry previous = CACHE.put(key, added);
+        CACHED_POINTS.addAndGet(numPoints);
+        if (previous != null) {
+            previous.removed = true;
+            CACHED_POINTS.addAndGet(-previous.numPoints);
+        }
+        evict();
+        LAST_ENTRY.set(added);
+        return added;
+    }
+
+    /**
+     * Remove an entry and release its points
+     */
+    private static void remove(Key key, Entry entry) {
+        if (CACHE.remove(key, entry)) {
+            entry.removed = true;
+            CACHED_POINTS.addAndGet(-entry.numPoints);
+        }
+    }
+
+    /**
+     * Remove the least recently used entries until the cache fits in its
+     * bounds
+     */
+    private static void evict() {
+        while (CACHE.size() > MAX_ENTRIES || CACHED_POINTS.get() > MAX_POINTS) {
+            Map.Entry<Key, Entry> oldest = null;
+            for (Map.Entry<Key, Entry> entry : CACHE.entrySet()) {
+                if (oldest == null || entry.getValue().lastUse < oldest.getValue().lastUse) {
+                    oldest = entry;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    /**
+     * Identify a geometry without reading all its coordinates
+     */
+    private static final class Key {
+
+        private final int srid;
+        private final String geometryType;
+        private final Envelope envelope;
+
+        Key(Geometry geometry) {
+            this.srid = geometry.getSRID();
+            this.geometryType = geometry.getGeometryType();
+            this.envelope = geometry.getEnvelopeInternal();
+        }
+
+        @Override
+        public int hashCode() {
+            int result = srid;
+            result = 31 * result + geometryType.hashCode();
+            result = 31 * result + envelope.hashCode();
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return srid == other.srid && geometryType.equals(other.geometryType) && envelope.equals(other.envelope);
+        }
+    }
+
+    /**
+     * A cached geometry, its prepared version and its distance index are built
+     * on demand
+     */
+    private static final class Entry {
+
+        private final Geometry geometry;
+        private final int numPoints;
+        private volatile long lastUse = System.nanoTime();
+        private volatile boolean removed = false;
+        private volatile PreparedGeometry prepared;
+        private volatile IndexedFacetDistance facetDistance;
+
+        Entry(Geometry geometry, int numPoints) {
+            this.geometry = geometry;
+            this.numPoints = numPoints;
+        }
+
+        PreparedGeometry getPrepared() {
+            PreparedGeometry result = prepared;
+            if (result == null) {
+                synchronized (this) {
+                    result = prepared;
+                    if (result == null) {
+                        result = PreparedGeometryFactory.prepare(geometry);
+                        prepared = result;
+                    }
+                }
+            }
+            return result;
+        }
+
+        IndexedFacetDistance getFacetDistance() {
+            IndexedFacetDistance result = facetDistance;
+            if (result == null) {
+                synchronized (this) {
+                    result = facetDistance;
+                    if (result == null) {
+                        result = new IndexedFacetDistance(geometry);
+                        facetDistance = result;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}
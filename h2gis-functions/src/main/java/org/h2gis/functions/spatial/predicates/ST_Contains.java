@@ -23,6 +23,7 @@ package org.h2gis.functions.spatial.predicates;
 import java.sql.SQLException;
 import org.h2gis.api.DeterministicScalarFunction;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
 
 /**
  * Return true if Geometry A contains Geometry B.
@@ -59,6 +60,10 @@ public class ST_Contains extends DeterministicScalarFunction {
         if(surface.getSRID()!=testGeometry.getSRID()){
             throw new SQLException("Operation on mixed SRID geometries not supported");
         }
+        PreparedGeometry prepared = PreparedGeometryCache.getPrepared(surface);
+        if (prepared != null) {
+            return prepared.contains(testGeometry);
+        }
         return surface.contains(testGeometry);
     }
 }
@@ -23,6 +23,7 @@ package org.h2gis.functions.spatial.predicates;
 import java.sql.SQLException;
 import org.h2gis.api.DeterministicScalarFunction;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
 
 /**
  * ST_Covers returns true if no point in geometry B is outside geometry A.
@@ -57,6 +58,10 @@ public class ST_Covers extends DeterministicScalarFunction {
         if(geomA.getSRID()!=geomB.getSRID()){
             throw new SQLException("Operation on mixed SRID geometries not supported");
         }
+        PreparedGeometry prepared = PreparedGeometryCache.getPrepared(geomA);
+        if (prepared != null) {
+            return prepared.covers(geomB);
+        }
         return geomA.covers(geomB);
     }
 }
@@ -23,6 +23,8 @@ package org.h2gis.functions.spatial.predicates;
 import java.sql.SQLException;
 import org.h2gis.api.DeterministicScalarFunction;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.operation.distance.IndexedFacetDistance;
 
 /**
  * ST_DWithin returns true if the geometries are within the specified distance of one another.
@@ -57,6 +59,34 @@ public class ST_DWithin extends DeterministicScalarFunction {
         if(geomA.getSRID()!=geomB.getSRID()){
             throw new SQLException("Operation on mixed SRID geometries not supported");
         }
-        return geomA.isWithinDistance(geomB, distance);
+        if (geomA.isEmpty() || geomB.isEmpty()
+                || geomA.getEnvelopeInternal().distance(geomB.getEnvelopeInternal()) > distance) {
+            return geomA.isWithinDistance(geomB, distance);
+        }
+        Boolean withinDistance = isWithinDistancePrepared(geomA, geomB, distance);
+        if (withinDistance == null) {
+            withinDistance = isWithinDistancePrepared(geomB, geomA, distance);
+        }
+        return withinDistance == null ? geomA.isWithinDistance(geomB, distance) : withinDistance;
+    }
+
+    /**
+     * Use the cached indexes of the first geometry to check the distance
+     *
+     * @param cached Geometry that may be in the {@link PreparedGeometryCache}
+     * @param other Geometry B
+     * @param distance Distance
+     * @return null if the first geometry is not cached
+     */
+    private static Boolean isWithinDistancePrepared(Geometry cached, Geometry other, double distance) {
+        PreparedGeometry prepared = PreparedGeometryCache.getPrepared(cached);
+        if (prepared == null) {
+            return null;
+        }
+        if (prepared.intersects(other)) {
+            return true;
+        }
+        IndexedFacetDistance facetDistance = PreparedGeometryCache.getFacetDistance(cached);
+        return facetDistance != null && facetDistance.distance(other) <= distance;
     }
 }
@@ -0,0 +1,419 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.predicates;
+
+import org.h2.tools.SimpleResultSet;
+import org.h2.tools.SimpleRowSource;
+import org.h2gis.api.AbstractFunction;
+import org.h2gis.api.ScalarFunction;
+import org.h2gis.utilities.GeometryMetaData;
+import org.h2gis.utilities.GeometryTableUtilities;
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.ParallelUtilities;
+import org.h2gis.utilities.TableLocation;
+import org.h2gis.utilities.TableUtilities;
+import org.h2gis.utilities.Tuple;
+import org.h2gis.utilities.dbtypes.DBTypes;
+import org.h2gis.utilities.dbtypes.DBUtils;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.index.ItemVisitor;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+import static org.h2gis.utilities.TableUtilities.isColumnListConnection;
+
+/**
+ * Table function that returns the pairs of rows of two tables whose
+ * geometries satisfy a spatial predicate.
+ *
+ * The geometries of the smallest table are loaded in a packed
+ * {@link STRtree}. The other table is read by chunks of rows and each chunk is
+ * matched against the tree on a pool of worker threads. The indexed
+ * geometries are prepared on their first use, so a large polygon is only
+ * indexed once for the whole join.
+ */
+public class ST_SpatialJoin extends AbstractFunction implements ScalarFunction {
+
+    public static final String ID_A = "ID_A";
+    public static final String ID_B = "ID_B";
+
+    /**
+     * Number of rows of the probe table matched by a single task
+     */
+    private static final int CHUNK_SIZE = 2000;
+
+    /**
+     * Supported spatial predicates
+     */
+    public enum Predicate {
+        INTERSECTS, CONTAINS, WITHIN, COVERS, TOUCHES, DWITHIN
+    }
+
+    public ST_SpatialJoin() {
+        addProperty(PROP_REMARKS, "Returns the identifiers (" + ID_A + ", " + ID_B + ") of the rows of two tables "
+                + "whose geometries satisfy a spatial predicate.\n"
+                + "The supported predicates are INTERSECTS, CONTAINS, WITHIN, COVERS, TOUCHES and DWITHIN. "
+                + "The predicate is evaluated as ST_<predicate>(geomA, geomB).\n"
+                + "DWITHIN requires a distance as fourth argument.\n"
+                + "The identifiers are the integer primary keys of the tables or their _ROWID_.");
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "spatialJoin";
+    }
+
+    /**
+     * @param connection Active connection
+     * @param tableA First table
+     * @param tableB Second table
+     * @param predicate Name of the predicate
+     * @return a table of (ID_A, ID_B) pairs
+     * @throws SQLException
+     */
+    public static ResultSet spatialJoin(Connection connection, String tableA, String tableB, String predicate) throws SQLException {
+        return spatialJoin(connection, tableA, tableB, predicate, null);
+    }
+
+    /**
+     * @param connection Active connection
+     * @param tableA First table
+     * @param tableB Second table
+     * @param predicate Name of the predicate
+     * @param distance Distance used by the DWITHIN predicate
+     * @return a table of (ID_A, ID_B) pairs
+     * @throws SQLException
+     */
+    public static ResultSet spatialJoin(Connection connection, String tableA, String tableB, String predicate,
+            Double distance) throws SQLException {
+        if (isColumnListConnection(connection)) {
+            return prepareResultSet(null);
+        }
+        if (tableA == null || tableB == null || predicate == null) {
+            throw new SQLException("The table names and the predicate cannot be null");
+        }
+        Predicate op;
+        try {
+            op = Predicate.valueOf(predicate.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            throw new SQLException("Unsupported spatial predicate " + predicate);
+        }
+        double dist = 0;
+        if (op == Predicate.DWITHIN) {
+            if (distance == null || distance < 0) {
+                throw new SQLException("The DWITHIN predicate requires a positive distance");
+            }
+            dist = distance;
+        }
+        final DBTypes dbType = DBUtils.getDBType(connection);
+        JoinRowSource rowSource = new JoinRowSource(connection, new JoinTable(connection, tableA, dbType),
+                new JoinTable(connection, tableB, dbType), op, dist);
+        return prepareResultSet(rowSource);
+    }
+
+    private static SimpleResultSet prepareResultSet(SimpleRowSource rowSource) {
+        SimpleResultSet output = rowSource == null ? new SimpleResultSet() : new SimpleResultSet(rowSource);
+        output.addColumn(ID_A, Types.BIGINT, 19, 0);
+        output.addColumn(ID_B, Types.BIGINT, 19, 0);
+        return output;
+    }
+
+    /**
+     * Identifier and geometry columns of an input table
+     */
+    private static final class JoinTable {
+
+        final TableLocation location;
+        final String keyColumn;
+        final String geomColumn;
+        final int srid;
+
+        JoinTable(Connection connection, String tableName, DBTypes dbType) throws SQLException {
+            location = TableUtilities.parseInputTable(connection, tableName);
+            Tuple<String, Integer> pk = JDBCUtilities.getIntegerPrimaryKeyNameAndIndex(connection, location);
+            keyColumn = pk == null ? "_ROWID_" : TableLocation.quoteIdentifier(pk.first(), dbType);
+            Tuple<String, GeometryMetaData> geomMetadata = GeometryTableUtilities.getFirstColumnMetaData(connection, location);
+            geomColumn = TableLocation.quoteIdentifier(geomMetadata.first(), dbType);
+            srid = geomMetadata.second().getSRID();
+        }
+
+        String selectQuery() {
+            return "SELECT " + keyColumn + ", " + geomColumn + " FROM " + location
+                    + " WHERE " + geomColumn + " IS NOT NULL";
+        }
+    }
+
+    /**
+     * Evaluate the predicate between an indexed geometry and a probe geometry
+     *
+     * @param op predicate
+     * @param indexed geometry of the indexed table
+     * @param probe geometry of the probe table
+     * @param indexedIsA true if the indexed table is the first argument of the
+     * predicate
+     * @param distance distance of the DWITHIN predicate
+     * @return true if ST_op(geomA, geomB) is true
+     */
+    private static boolean evaluate(Predicate op, IndexedGeometry indexed, Geometry probe, boolean indexedIsA, double distance) {
+        switch (op) {
+            case INTERSECTS:
+                return indexed.getPrepared().intersects(probe);
+            case CONTAINS:
+                return indexedIsA ? indexed.getPrepared().contains(probe) : probe.contains(indexed.geometry);
+            case WITHIN:
+                return indexedIsA ? indexed.geometry.within(probe) : indexed.getPrepared().contains(probe);
+            case COVERS:
+                return indexedIsA ? indexed.getPrepared().covers(probe) : probe.covers(indexed.geometry);
+            case TOUCHES:
+                return indexed.getPrepared().touches(probe);
+            case DWITHIN:
+                if (indexed.geometry.getEnvelopeInternal().distance(probe.getEnvelopeInternal()) > distance) {
+                    return false;
+                }
+                return indexed.getPrepared().intersects(probe)
+                        || indexed.getFacetDistance().distance(probe) <= distance;
+            default:
+                throw new IllegalArgumentException("Unsupported spatial predicate " + op);
+        }
+    }
+
+    /**
+     * Match a chunk of probe rows against the index
+     */
+    private static final class MatchTask implements Callable<long[]> {
+
+        private final STRtree tree;
+        private final List<Long> ids;
+        private final List<Geometry> geometries;
+        private final Predicate op;
+        private final boolean indexedIsA;
+        private final double distance;
+
+        MatchTask(STRtree tree, List<Long> ids, List<Geometry> geometries, Predicate op, boolean indexedIsA, double distance) {
+            this.tree = tree;
+            this.ids = ids;
+            this.geometries = geometries;
+            this.op = op;
+            this.indexedIsA = indexedIsA;
+            this.distance = distance;
+        }
+
+        /**
+         * @return the matching pairs, stored as [idA0, idB0, idA1, idB1, ...]
+         */
+        @Override
+        public long[] call() {
+            final LongList pairs = new LongList();
+            for (int i = 0; i < ids.size(); i++) {
+                final long probeId = ids.get(i);
+                final Geometry probe = geometries.get(i);
+                Envelope envelope = probe.getEnvelopeInternal();
+                if (op == Predicate.DWITHIN) {
+                    envelope = new Envelope(envelope);
+                    envelope.expandBy(distance);
+                }
+                tree.query(envelope, new ItemVisitor() {
+                    @Override
+                    public void visitItem(Object item) {
+                        IndexedGeometry indexed = (IndexedGeometry) item;
+                        if (evaluate(op, indexed, probe, indexedIsA, distance)) {
+                            if (indexedIsA) {
+                                pairs.add(indexed.id, probeId);
+                            } else {
+                                pairs.add(probeId, indexed.id);
+                            }
+                        }
+                    }
+                });
+            }
+            return pairs.toArray();
+        }
+    }
+
+    /**
+     * Growable array of primitive long values
+     */
+    private static final class LongList {
+
+        private long[] values = new long[64];
+        private int size = 0;
+
+        void add(long a, long b) {
+            if (size + 2 > values.length) {
+                long[] grown = new long[values.length * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = a;
+            values[size++] = b;
+        }
+
+        long[] toArray() {
+            long[] result = new long[size];
+            System.arraycopy(values, 0, result, 0, size);
+            return result;
+        }
+    }
+
+    /**
+     * Produce the pairs on request.
+     * The probe table is read on the calling connection while the chunks
+     * already read are matched in parallel.
+     */
+    private static final class JoinRowSource implements SimpleRowSource {
+
+        private final Connection connection;
+        private final JoinTable tableA;
+        private final JoinTable tableB;
+        private final Predicate op;
+        private final double distance;
+
+        private STRtree tree;
+        private boolean indexedIsA;
+        private Statement probeStatement;
+        private ResultSet probeRows;
+        private final ParallelUtilities.OrderedTasks<long[]> pending = new ParallelUtilities.OrderedTasks<>("spatial join");
+        private long[] currentPairs = new long[0];
+        private int currentIndex = 0;
+        private boolean initialized = false;
+
+        JoinRowSource(Connection connection, JoinTable tableA, JoinTable tableB, Predicate op, double distance) throws SQLException {
+            if (tableA.srid != tableB.srid) {
+                throw new SQLException("Operation on mixed SRID geometries not supported");
+            }
+            this.connection = connection;
+            this.tableA = tableA;
+            this.tableB = tableB;
+            this.op = op;
+            this.distance = distance;
+        }
+
+        @Override
+        public Object[] readRow() throws SQLException {
+            if (!initialized) {
+                init();
+            }
+            while (currentIndex >= currentPairs.length) {
+                fillPending();
+                long[] next = pending.take();
+                if (next == null) {
+                    return null;
+                }
+                currentPairs = next;
+                currentIndex = 0;
+            }
+            Object[] row = new Object[]{currentPairs[currentIndex], currentPairs[currentIndex + 1]};
+            currentIndex += 2;
+            return row;
+        }
+
+        /**
+         * Load the smallest table in the index and open the other one
+         */
+        private void init() throws SQLException {
+            initialized = true;
+            int rowCountA = JDBCUtilities.getRowCount(connection, tableA.location.toString());
+            int rowCountB = JDBCUtilities.getRowCount(connection, tableB.location.toString());
+            indexedIsA = rowCountA <= rowCountB;
+            JoinTable indexedTable = indexedIsA ? tableA : tableB;
+            JoinTable probeTable = indexedIsA ? tableB : tableA;
+            tree = new STRtree();
+            try (Statement st = connection.createStatement();
+                 ResultSet rs = st.executeQuery(indexedTable.selectQuery())) {
+                while (rs.next()) {
+                    Geometry geometry = (Geometry) rs.getObject(2);
+                    if (!geometry.isEmpty()) {
+                        tree.insert(geometry.getEnvelopeInternal(), new IndexedGeometry(rs.getLong(1), geometry));
+                    }
+                }
+            }
+            // Build the tree now, the queries of the workers are read only
+            tree.build();
+            probeStatement = connection.createStatement();
+            probeRows = probeStatement.executeQuery(probeTable.selectQuery());
+        }
+
+        /**
+         * Read chunks of the probe table until enough tasks are queued
+         */
+        private void fillPending() throws SQLException {
+            while (probeRows != null && !pending.isFull()) {
+                List<Long> ids = new ArrayList<>(CHUNK_SIZE);
+                List<Geometry> geometries = new ArrayList<>(CHUNK_SIZE);
+                while (ids.size() < CHUNK_SIZE && probeRows.next()) {
+                    Geometry geometry = (Geometry) probeRows.getObject(2);
+                    if (!geometry.isEmpty()) {
+                        ids.add(probeRows.getLong(1));
+                        geometries.add(geometry);
+                    }
+                }
+                if (ids.size() < CHUNK_SIZE) {
+                    closeProbe();
+                }
+                if (!ids.isEmpty() && tree.size() > 0) {
+                    pending.submit(new MatchTask(tree, ids, geometries, op, indexedIsA, distance));
+                }
+            }
+        }
+
+        private void closeProbe() throws SQLException {
+            if (probeRows != null) {
+                probeRows.close();
+                probeRows = null;
+            }
+            if (probeStatement != null) {
+                probeStatement.close();
+                probeStatement = null;
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                closeProbe();
+            } catch (SQLException ex) {
+                throw new RuntimeException(ex);
+            } finally {
+                pending.cancel();
+                tree = null;
+            }
+        }
+
+        @Override
+        public void reset() throws SQLException {
+            close();
+            currentPairs = new long[0];
+            currentIndex = 0;
+            initialized = false;
+        }
+    }
+}
@@ -23,6 +23,7 @@ package org.h2gis.functions.spatial.predicates;
 import java.sql.SQLException;
 import org.h2gis.api.DeterministicScalarFunction;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
 
 /**
  * Return true if the geometry A touches the geometry B
@@ -56,6 +57,14 @@ public class ST_Touches extends DeterministicScalarFunction {
         if(a.getSRID()!=b.getSRID()){
             throw new SQLException("Operation on mixed SRID geometries not supported");
         }
+        PreparedGeometry prepared = PreparedGeometryCache.getPrepared(a);
+        if (prepared != null) {
+            return prepared.touches(b);
+        }
+        prepared = PreparedGeometryCache.getPrepared(b);
+        if (prepared != null) {
+            return prepared.touches(a);
+        }
         return a.touches(b);
     }
 }
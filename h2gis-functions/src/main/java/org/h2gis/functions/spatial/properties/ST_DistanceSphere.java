@@ -20,11 +20,12 @@
 
 package org.h2gis.functions.spatial.properties;
 
-import org.cts.CRSFactory;
 import org.cts.crs.CRSException;
 import org.cts.crs.CoordinateReferenceSystem;
+import org.cts.datum.Ellipsoid;
 import org.h2gis.api.DeterministicScalarFunction;
-import org.h2gis.functions.spatial.crs.SpatialRefRegistry;
+import org.h2gis.functions.spatial.crs.SpatialRefSnapshot;
+import org.h2gis.utilities.GeographyUtilities;
 import org.locationtech.jts.geom.*;
 
 import java.sql.Connection;
@@ -36,9 +37,6 @@ import java.sql.SQLException;
  */
 public class ST_DistanceSphere extends DeterministicScalarFunction {
 
-    private static CRSFactory crsf;
-    private static SpatialRefRegistry srr = new SpatialRefRegistry();
-
     /**
      * Default constructor
      */
@@ -61,35 +59,40 @@ public class ST_DistanceSphere extends DeterministicScalarFunction {
         if(a==null || b==null || (a.getSRID()!=b.getSRID())) {
             return null;
         }
+        Ellipsoid ellipsoid = getEllipsoid(connection, a.getSRID());
+        double radius = (2.0 * ellipsoid.getSemiMajorAxis() + ellipsoid.getSemiMinorAxis()) / 3.0;
+        if (a instanceof Point && b instanceof Point && !a.isEmpty() && !b.isEmpty()) {
+            return GeographyUtilities.getHaversineDistanceInMeters(a.getCoordinate(), b.getCoordinate(), radius);
+        }
+        Double distance = distanceBetweenTwoGeometries(a, b);
+        if (distance < 0.0) {
+            return null;
+        }
+        return distance * radius;
+    }
 
-        if (crsf == null) {
-            crsf = new CRSFactory();
-            crsf.getRegistryManager().addRegistry(srr);
+    /**
+     * Return the ellipsoid of a lon/lat coordinate system.
+     * The coordinate system is cached by the spatial_ref_sys snapshot.
+     *
+     * @param connection Connection instance
+     * @param srid SRID of the coordinate system, 4326 is used when the SRID is
+     * not set
+     * @return the ellipsoid of the coordinate system
+     * @throws SQLException if the SRID is unknown or is not a lon/lat coordinate system
+     */
+    public static Ellipsoid getEllipsoid(Connection connection, int srid) throws SQLException {
+        if (srid <= 0) {
+            srid = 4326;
         }
-        srr.setConnection(connection);
         try {
-            int srid = a.getSRID();
-            if (srid <= 0) {
-                srid = 4326;
-            }
-            CoordinateReferenceSystem crs = crsf.getCRS(srr.getRegistryName() + ":" + srid);
-
+            CoordinateReferenceSystem crs = SpatialRefSnapshot.get(connection).getCRS(srid);
             if (!CoordinateReferenceSystem.Type.GEOGRAPHIC2D.equals(crs.getType())) {
                 throw new SQLException("ERROR: only lon/lag coordinate system are supported in geography");
             }
-
-            Double radius =   (2.0 * crs.getDatum().getEllipsoid().getSemiMajorAxis() + crs.getDatum().getEllipsoid().getSemiMinorAxis()) / 3.0;
-            Double distance = distanceBetweenTwoGeometries(a, b);
-
-            if (distance < 0.0) {
-                return null;
-            }
-
-            return distance * radius;
+            return crs.getDatum().getEllipsoid();
         } catch (CRSException e) {
             throw new SQLException("Cannot find SRID", e);
-        } finally {
-            srr.setConnection(null);
         }
     }
 
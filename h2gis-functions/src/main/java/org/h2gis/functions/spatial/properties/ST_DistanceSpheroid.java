@@ -0,0 +1,145 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.properties;
+
+import org.cts.datum.Ellipsoid;
+import org.h2gis.api.DeterministicScalarFunction;
+import org.h2gis.utilities.GeographyUtilities;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.operation.distance.DistanceOp;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Returns the minimum distance in meters between two lon/lat geometries
+ * measured on the ellipsoid defined by their SRID.
+ *
+ * The geodesic distance is computed with the Vincenty inverse formula.
+ * For geometries other than points, the distance is measured between the
+ * closest points found in the lon/lat plane.
+ */
+public class ST_DistanceSpheroid extends DeterministicScalarFunction {
+
+    private static final int MAX_ITERATIONS = 200;
+    private static final double CONVERGENCE_THRESHOLD = 1e-12;
+
+    /**
+     * Default constructor
+     */
+    public ST_DistanceSpheroid() {
+        addProperty(PROP_REMARKS, "Returns minimum distance in meters between two lon/lat geometries. "
+                + "Uses the ellipsoid defined by the SRID");
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "distanceSpheroid";
+    }
+
+    /**
+     * @param connection Connection instance or null
+     * @param a Geometry instance or null
+     * @param b Geometry instance or null
+     * @return minimum distance in meters between two geometries
+     * @throws SQLException
+     */
+    public static Double distanceSpheroid(Connection connection, Geometry a, Geometry b) throws SQLException {
+        if (a == null || b == null || (a.getSRID() != b.getSRID())) {
+            return null;
+        }
+        if (a.isEmpty() || b.isEmpty()) {
+            return null;
+        }
+        Ellipsoid ellipsoid = ST_DistanceSphere.getEllipsoid(connection, a.getSRID());
+        Coordinate pA;
+        Coordinate pB;
+        if (a.getDimension() == 0 && b.getDimension() == 0 && a.getNumPoints() == 1 && b.getNumPoints() == 1) {
+            pA = a.getCoordinate();
+            pB = b.getCoordinate();
+        } else {
+            Coordinate[] nearestPoints = DistanceOp.nearestPoints(a, b);
+            pA = nearestPoints[0];
+            pB = nearestPoints[1];
+        }
+        return geodesicDistance(pA, pB, ellipsoid.getSemiMajorAxis(), ellipsoid.getFlattening());
+    }
+
+    /**
+     * Compute the geodesic distance between two lon/lat coordinates using the
+     * Vincenty inverse formula.
+     * Nearly antipodal points for which the formula does not converge fall back
+     * to the spherical distance with the mean radius of the ellipsoid.
+     *
+     * @param pA first coordinate, in degrees
+     * @param pB second coordinate, in degrees
+     * @param a semi major axis of the ellipsoid
+     * @param f flattening of the ellipsoid
+     * @return the distance in meters
+     */
+    public static double geodesicDistance(Coordinate pA, Coordinate pB, double a, double f) {
+        double b = a * (1 - f);
+        double L = Math.toRadians(pB.x - pA.x);
+        double U1 = Math.atan((1 - f) * Math.tan(Math.toRadians(pA.y)));
+        double U2 = Math.atan((1 - f) * Math.tan(Math.toRadians(pB.y)));
+        double sinU1 = Math.sin(U1), cosU1 = Math.cos(U1);
+        double sinU2 = Math.sin(U2), cosU2 = Math.cos(U2);
+
+        double lambda = L;
+        double sinSigma, cosSigma, sigma, cosSqAlpha, cos2SigmaM;
+        int iteration = 0;
+        while (true) {
+            double sinLambda = Math.sin(lambda);
+            double cosLambda = Math.cos(lambda);
+            double t1 = cosU2 * sinLambda;
+            double t2 = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+            sinSigma = Math.sqrt(t1 * t1 + t2 * t2);
+            if (sinSigma == 0) {
+                // Coincident points
+                return 0;
+            }
+            cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+            sigma = Math.atan2(sinSigma, cosSigma);
+            double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+            cosSqAlpha = 1 - sinAlpha * sinAlpha;
+            // Equatorial line
+            cos2SigmaM = cosSqAlpha != 0 ? cosSigma - 2 * sinU1 * sinU2 / cosSqAlpha : 0;
+            double C = f / 16 * cosSqAlpha * (4 + f * (4 - 3 * cosSqAlpha));
+            double lambdaP = lambda;
+            lambda = L + (1 - C) * f * sinAlpha
+                    * (sigma + C * sinSigma * (cos2SigmaM + C * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+            if (Math.abs(lambda - lambdaP) < CONVERGENCE_THRESHOLD) {
+                break;
+            }
+            if (++iteration >= MAX_ITERATIONS) {
+                return GeographyUtilities.getHaversineDistanceInMeters(pA, pB, (2 * a + b) / 3);
+            }
+        }
+        double uSq = cosSqAlpha * (a * a - b * b) / (b * b);
+        double A = 1 + uSq / 16384 * (4096 + uSq * (-768 + uSq * (320 - 175 * uSq)));
+        double B = uSq / 1024 * (256 + uSq * (-128 + uSq * (74 - 47 * uSq)));
+        double deltaSigma = B * sinSigma * (cos2SigmaM + B / 4 * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+                - B / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+        return b * A * (sigma - deltaSigma);
+    }
+}
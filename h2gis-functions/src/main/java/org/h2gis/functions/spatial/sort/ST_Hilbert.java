@@ -0,0 +1,54 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.sort;
+
+import org.h2gis.api.DeterministicScalarFunction;
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * Return the key of a geometry along the Hilbert curve.
+ *
+ * @see SpaceFillingCurve
+ */
+public class ST_Hilbert extends DeterministicScalarFunction {
+
+    public ST_Hilbert() {
+        addProperty(PROP_REMARKS, "Return the key of a geometry along the Hilbert curve, as a BIGINT.\n"
+                + "The centre of the envelope of the geometry is normalised to the envelope of the extent geometry "
+                + "and snapped on a grid of 2^31 x 2^31 cells.\n"
+                + "Ordering a table by this key keeps close geometries close in the table, see ST_HilbertSortTable.");
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "hilbert";
+    }
+
+    /**
+     * @param geometry Geometry
+     * @param extent Extent used to normalise the coordinates
+     * @return the key of the geometry
+     */
+    public static Long hilbert(Geometry geometry, Geometry extent) {
+        return SpaceFillingCurve.hilbert(geometry, extent);
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.sort;
+
+import org.h2gis.api.AbstractFunction;
+import org.h2gis.api.ScalarFunction;
+import org.h2gis.utilities.GeometryMetaData;
+import org.h2gis.utilities.GeometryTableUtilities;
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.TableLocation;
+import org.h2gis.utilities.TableUtilities;
+import org.h2gis.utilities.Tuple;
+import org.h2gis.utilities.dbtypes.DBTypes;
+import org.h2gis.utilities.dbtypes.DBUtils;
+import org.locationtech.jts.geom.Geometry;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrite a table in the Hilbert order of its geometries.
+ *
+ * The definition of the table is read with the SCRIPT command. The table is
+ * renamed, an empty copy is created from its definition and the rows are
+ * inserted in the order of {@link ST_Hilbert}. The ORDER BY is run by H2,
+ * which sorts the rows on disk when they do not fit in memory. The
+ * constraints and the indexes are created once the rows are inserted, so the
+ * rows are stored in the Hilbert order and not in the primary key order.
+ *
+ * The objects of other tables that depend on the table are not part of its
+ * definition and would be lost by the copy, so a table used by a view or
+ * referenced by the foreign key of another table is refused.
+ */
+public class ST_HilbertSortTable extends AbstractFunction implements ScalarFunction {
+
+    public ST_HilbertSortTable() {
+        addProperty(PROP_REMARKS, "Rewrite a table in the Hilbert order of the envelope centres of its "
+                + "first geometry column, or of the geometry column given as second argument.\n"
+                + "The constraints and the indexes of the table are kept. Geometries that are close in space are "
+                + "stored close on disk, which speeds up the spatial queries on large tables.\n"
+                + "A table used by a view or referenced by a foreign key of another table cannot be sorted.\n"
+                + "Returns false if the table is empty.");
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "sortTable";
+    }
+
+    /**
+     * Sort a table along the Hilbert curve of its first geometry column
+     *
+     * @param connection active connection to the database
+     * @param tableName name of the table
+     * @return true if the table has been sorted
+     * @throws SQLException
+     */
+    public static boolean sortTable(Connection connection, String tableName) throws SQLException {
+        return sortTable(connection, tableName, null);
+    }
+
+    /**
+     * Sort a table along the Hilbert curve of a geometry column
+     *
+     * @param connection active connection to the database
+     * @param tableName name of the table
+     * @param geometryColumnName name of the geometry column, if null the first
+     * geometry column is used
+     * @return true if the table has been sorted
+     * @throws SQLException
+     */
+    public static boolean sortTable(Connection connection, String tableName, String geometryColumnName) throws SQLException {
+        final DBTypes dbType = DBUtils.getDBType(connection);
+        if (dbType != DBTypes.H2 && dbType != DBTypes.H2GIS) {
+            throw new SQLException("ST_HilbertSortTable is only supported by H2");
+        }
+        final TableLocation tableLocation = TableUtilities.parseInputTable(connection, tableName);
+        String geomColumn;
+        if (geometryColumnName == null || geometryColumnName.isEmpty()) {
+            Tuple<String, GeometryMetaData> geomMetadata = GeometryTableUtilities.getFirstColumnMetaData(connection, tableLocation);
+            geomColumn = geomMetadata.first();
+        } else {
+            geomColumn = TableLocation.capsIdentifier(geometryColumnName, dbType);
+        }
+        // The estimated extent of a spatial index may be smaller than the data
+        Geometry extent = GeometryTableUtilities.getEnvelope(connection, tableLocation, geomColumn);
+        if (extent == null || extent.isEmpty()) {
+            return false;
+        }
+        String schema = tableLocation.getSchema().isEmpty() ? "PUBLIC" : tableLocation.getSchema();
+        checkDependencies(connection, schema, tableLocation.getTable());
+        // Identifiers are always quoted in the output of the SCRIPT command
+        String quotedTable = TableLocation.quoteIdentifier(schema) + "."
+                + TableLocation.quoteIdentifier(tableLocation.getTable());
+        String createTable = null;
+        List<String> tableObjects = new ArrayList<>();
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SCRIPT NODATA TABLE " + quotedTable)) {
+            while (rs.next()) {
+                String sql = rs.getString(1);
+                if (sql.startsWith("CREATE ") && sql.contains(" TABLE " + quotedTable)) {
+                    createTable = sql;
+                } else if (sql.startsWith("ALTER TABLE " + quotedTable + " ")
+                        || sql.startsWith("COMMENT ON COLUMN " + quotedTable + ".")
+                        || (sql.startsWith("CREATE ") && sql.contains(" ON " + quotedTable))) {
+                    tableObjects.add(sql);
+                }
+            }
+        }
+        if (createTable == null) {
+            throw new SQLException("Cannot read the definition of the table " + tableLocation);
+        }
+        TableLocation oldTable = new TableLocation("", schema, tableLocation.getTable() + "_" + System.currentTimeMillis() + "_HILBERT", dbType);
+        try (Statement st = connection.createStatement()) {
+            st.execute("ALTER TABLE " + quotedTable + " RENAME TO " + TableLocation.quoteIdentifier(oldTable.getTable()));
+            try {
+                st.execute(createTable);
+                try (PreparedStatement ps = connection.prepareStatement("INSERT INTO " + quotedTable
+                        + " SELECT * FROM " + oldTable + " ORDER BY ST_Hilbert("
+                        + TableLocation.quoteIdentifier(geomColumn) + ", ?)")) {
+                    ps.setObject(1, extent);
+                    ps.execute();
+                }
+                st.execute("DROP TABLE " + oldTable);
+            } catch (SQLException ex) {
+                // Restore the input table
+                st.execute("DROP TABLE IF EXISTS " + quotedTable);
+                st.execute("ALTER TABLE " + oldTable + " RENAME TO " + TableLocation.quoteIdentifier(tableLocation.getTable()));
+                throw ex;
+            }
+            for (String sql : tableObjects) {
+                st.execute(sql);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Refuse a table used by a view or referenced by the foreign key of
+     * another table
+     *
+     * @param connection active connection to the database
+     * @param schema schema of the table
+     * @param table name of the table
+     * @throws SQLException if an object depends on the table
+     */
+    private static void checkDependencies(Connection connection, String schema, String table) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        try (ResultSet rs = metaData.getExportedKeys(null, schema, table)) {
+            while (rs.next()) {
+                String fkSchema = rs.getString("FKTABLE_SCHEM");
+                String fkTable = rs.getString("FKTABLE_NAME");
+                if (!schema.equals(fkSchema) || !table.equals(fkTable)) {
+                    throw new SQLException("The table " + schema + "." + table + " is referenced by the foreign key "
+                            + rs.getString("FK_NAME") + " of the table " + fkSchema + "." + fkTable
+                            + ", drop the foreign key before sorting the table");
+                }
+            }
+        }
+        // The view definitions do not give their tables, the name of the
+        // table is searched as a whole identifier
+        Pattern tableName = Pattern.compile("(^|[^\\w$])\"?" + Pattern.quote(table) + "\"?([^\\w$]|$)",
+                Pattern.CASE_INSENSITIVE);
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT TABLE_SCHEMA, TABLE_NAME, VIEW_DEFINITION FROM INFORMATION_SCHEMA.VIEWS "
+                     + "WHERE TABLE_SCHEMA <> 'INFORMATION_SCHEMA'")) {
+            while (rs.next()) {
+                String definition = rs.getString(3);
+                if (definition != null && tableName.matcher(definition).find()) {
+                    throw new SQLException("The table " + schema + "." + table + " is used by the view "
+                            + rs.getString(1) + "." + rs.getString(2) + ", drop the view before sorting the table");
+                }
+            }
+        }
+    }
+}
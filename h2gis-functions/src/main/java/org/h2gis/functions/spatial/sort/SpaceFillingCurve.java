@@ -0,0 +1,148 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.sort;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * Keys of the Hilbert and Z-order (Morton) space filling curves.
+ *
+ * The centre of the envelope of a geometry is normalised to an extent and
+ * snapped on a grid of 2^31 x 2^31 cells, the key is the position of the cell
+ * along the curve. Sorting geometries by these keys keeps the geometries that
+ * are close in space close in the order, the Hilbert curve giving a better
+ * locality than the Z-order curve.
+ */
+public final class SpaceFillingCurve {
+
+    /**
+     * Number of bits of each coordinate of the grid
+     */
+    public static final int ORDER = 31;
+
+    private static final long MAX_CELL = (1L << ORDER) - 1;
+
+    private SpaceFillingCurve() {
+    }
+
+    /**
+     * Compute the Hilbert key of a geometry
+     *
+     * @param geometry the geometry
+     * @param extent extent used to normalise the coordinates
+     * @return the key or null if the geometry or the extent is null or empty
+     */
+    public static Long hilbert(Geometry geometry, Geometry extent) {
+        if (geometry == null || geometry.isEmpty() || extent == null || extent.isEmpty()) {
+            return null;
+        }
+        Envelope env = geometry.getEnvelopeInternal();
+        Envelope ext = extent.getEnvelopeInternal();
+        return hilbert(cell(env.centre().x, ext.getMinX(), ext.getWidth()),
+                cell(env.centre().y, ext.getMinY(), ext.getHeight()));
+    }
+
+    /**
+     * Compute the Z-order key of a geometry
+     *
+     * @param geometry the geometry
+     * @param extent extent used to normalise the coordinates
+     * @return the key or null if the geometry or the extent is null or empty
+     */
+    public static Long zOrder(Geometry geometry, Geometry extent) {
+        if (geometry == null || geometry.isEmpty() || extent == null || extent.isEmpty()) {
+            return null;
+        }
+        Envelope env = geometry.getEnvelopeInternal();
+        Envelope ext = extent.getEnvelopeInternal();
+        return zOrder(cell(env.centre().x, ext.getMinX(), ext.getWidth()),
+                cell(env.centre().y, ext.getMinY(), ext.getHeight()));
+    }
+
+    /**
+     * Position of a cell along the Hilbert curve
+     *
+     * @param x column of the cell, between 0 and 2^31-1
+     * @param y row of the cell, between 0 and 2^31-1
+     * @return the key, between 0 and 2^62-1
+     */
+    public static long hilbert(long x, long y) {
+        long d = 0;
+        for (long s = 1L << (ORDER - 1); s > 0; s >>= 1) {
+            long rx = (x & s) != 0 ? 1 : 0;
+            long ry = (y & s) != 0 ? 1 : 0;
+            d += s * s * ((3 * rx) ^ ry);
+            // Rotate the quadrant so that the curve keeps its orientation
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = MAX_CELL - x;
+                    y = MAX_CELL - y;
+                }
+                long t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Position of a cell along the Z-order curve, the bits of the row and of
+     * the column are interleaved
+     *
+     * @param x column of the cell, between 0 and 2^31-1
+     * @param y row of the cell, between 0 and 2^31-1
+     * @return the key, between 0 and 2^62-1
+     */
+    public static long zOrder(long x, long y) {
+        return spread(x) | (spread(y) << 1);
+    }
+
+    /**
+     * Insert a zero bit between each of the 32 lower bits of a value
+     */
+    private static long spread(long v) {
+        v &= 0xFFFFFFFFL;
+        v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+        v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+        v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | (v << 2)) & 0x3333333333333333L;
+        v = (v | (v << 1)) & 0x5555555555555555L;
+        return v;
+    }
+
+    /**
+     * Snap a coordinate on the grid, the coordinates outside of the extent are
+     * clamped to the border cells
+     */
+    private static long cell(double value, double min, double size) {
+        if (!(size > 0)) {
+            return 0;
+        }
+        double ratio = (value - min) / size;
+        if (!(ratio > 0)) {
+            return 0;
+        }
+        return Math.min(MAX_CELL, (long) (ratio * MAX_CELL));
+    }
+}
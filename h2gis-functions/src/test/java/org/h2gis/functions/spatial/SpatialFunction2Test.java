@@ -866,6 +866,164 @@ public class SpatialFunction2Test {
         assertEquals(1074360.2834168628, rs.getDouble(1),1e-8);
     }
     
+    @Test
+    public void test_ST_DistanceSpheroidPointToPoint() throws Exception {
+        Statement st = connection.createStatement();
+        ResultSet rs = st.executeQuery("SELECT ST_DistanceSpheroid('SRID=4326;POINT(0 0)'::GEOMETRY, 'SRID=4326;POINT(1 0)'::GEOMETRY), "
+                + "ST_DistanceSpheroid('SRID=4326;POINT(0 0)'::GEOMETRY, 'SRID=4326;POINT(0 1)'::GEOMETRY), "
+                + "ST_DistanceSpheroid('SRID=4326;POINT(2 47)'::GEOMETRY, 'SRID=4326;POINT(2 47)'::GEOMETRY)");
+        assertTrue(rs.next());
+        assertEquals(111319.49079327357, rs.getDouble(1), 1e-6);
+        assertEquals(110574.38855779878, rs.getDouble(2), 1e-3);
+        assertEquals(0, rs.getDouble(3), 1e-12);
+    }
+
+    @Test
+    public void test_ST_DistanceSpheroidPointToLineString() throws Exception {
+        Statement st = connection.createStatement();
+        ResultSet rs = st.executeQuery("SELECT ST_DistanceSpheroid('POINT(0 0)'::GEOMETRY, 'LINESTRING (1 -5, 1 10)'::GEOMETRY), "
+                + "ST_DistanceSpheroid('POINT(1 1)'::GEOMETRY, 'POLYGON((0 0, 10 0, 10 10, 0 10, 0 0))'::GEOMETRY)");
+        assertTrue(rs.next());
+        assertEquals(111319.49079327357, rs.getDouble(1), 1e-6);
+        assertEquals(0, rs.getDouble(2), 1e-12);
+    }
+
+    @Test
+    public void test_ST_DistanceSpheroidEpsg2375() throws Exception {
+        Statement st = connection.createStatement();
+        assertThrows(SQLException.class, () -> {
+            ResultSet rs = st.executeQuery("SELECT ST_DistanceSpheroid(ST_SetSRID('POINT(0 0)'::GEOMETRY, 2375), ST_SetSRID('POINT(-118 38)'::GEOMETRY, 2375))");
+            assertTrue(rs.next());
+        });
+    }
+
+    @Test
+    public void test_ST_KNearest() throws Exception {
+        Statement st = connection.createStatement();
+        st.execute("DROP TABLE IF EXISTS KNN_ROADS, KNN_ROADS_IDX;");
+        st.execute("CREATE TABLE KNN_ROADS(ID INT PRIMARY KEY, NAME VARCHAR, THE_GEOM GEOMETRY(LINESTRING));");
+        st.execute("INSERT INTO KNN_ROADS SELECT X, 'R' || X, ST_MakeLine(ST_MakePoint(MOD(X, 50) * 10, (X / 50) * 10), "
+                + "ST_MakePoint(MOD(X, 50) * 10 + 4, (X / 50) * 10 + 3)) FROM SYSTEM_RANGE(1, 2500);");
+        st.execute("CREATE TABLE KNN_ROADS_IDX(ID INT PRIMARY KEY, NAME VARCHAR, THE_GEOM GEOMETRY(LINESTRING));");
+        st.execute("INSERT INTO KNN_ROADS_IDX SELECT * FROM KNN_ROADS;");
+        st.execute("CREATE SPATIAL INDEX ON KNN_ROADS_IDX(THE_GEOM);");
+        String[] points = new String[]{"POINT(123 456)", "POINT(-50 -80)", "POINT(1000 20)"};
+        for (String table : new String[]{"KNN_ROADS", "KNN_ROADS_IDX"}) {
+            for (String point : points) {
+                ResultSet rs = st.executeQuery("SELECT ID, NAME, DISTANCE FROM ST_KNearest('" + table + "', '" + point + "'::GEOMETRY, 5)");
+                ResultSet expected = connection.createStatement().executeQuery("SELECT ID, ST_Distance(THE_GEOM, '" + point
+                        + "'::GEOMETRY) D FROM KNN_ROADS ORDER BY D, ID LIMIT 5");
+                for (int i = 0; i < 5; i++) {
+                    assertTrue(rs.next());
+                    assertTrue(expected.next());
+                    assertEquals(expected.getDouble(2), rs.getDouble(3), 1e-12);
+                    assertEquals("R" + rs.getInt(1), rs.getString(2));
+                }
+                assertFalse(rs.next());
+                rs.close();
+                expected.close();
+            }
+            ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM ST_KNearest('" + table + "', 'POINT(-50 -80)'::GEOMETRY, 5, 90)");
+            assertTrue(rs.next());
+            assertEquals(0, rs.getInt(1));
+            rs.close();
+            rs = st.executeQuery("SELECT COUNT(*) FROM ST_KNearest('" + table + "', 'POINT(123 456)'::GEOMETRY, 5, 4)");
+            assertTrue(rs.next());
+            assertEquals(1, rs.getInt(1));
+            rs.close();
+        }
+        st.execute("DROP TABLE KNN_ROADS, KNN_ROADS_IDX;");
+    }
+
+    @Test
+    public void test_ST_KNearestJoin() throws Exception {
+        Statement st = connection.createStatement();
+        st.execute("DROP TABLE IF EXISTS KNN_ROADS, KNN_GPS;");
+        st.execute("CREATE TABLE KNN_ROADS(ID INT PRIMARY KEY, THE_GEOM GEOMETRY(LINESTRING));");
+        st.execute("INSERT INTO KNN_ROADS SELECT X, ST_MakeLine(ST_MakePoint(MOD(X, 20) * 10, (X / 20) * 10), "
+                + "ST_MakePoint(MOD(X, 20) * 10 + 4, (X / 20) * 10 + 3)) FROM SYSTEM_RANGE(1, 400);");
+        st.execute("CREATE TABLE KNN_GPS(THE_GEOM GEOMETRY(POINT));");
+        st.execute("INSERT INTO KNN_GPS SELECT ST_MakePoint(MOD(X * 7919, 211) + 0.5, MOD(X * 104729, 197) + 0.25) FROM SYSTEM_RANGE(1, 2500);");
+        ResultSet rs = st.executeQuery("SELECT COUNT(*), COUNT(DISTINCT ID_A), MIN(RANK), MAX(RANK) FROM ST_KNearestJoin('KNN_GPS', 'KNN_ROADS', 3)");
+        assertTrue(rs.next());
+        assertEquals(7500, rs.getInt(1));
+        assertEquals(2500, rs.getInt(2));
+        assertEquals(1, rs.getInt(3));
+        assertEquals(3, rs.getInt(4));
+        rs.close();
+        // Compare the nearest road with the brute force result
+        rs = st.executeQuery("SELECT COUNT(*) FROM ST_KNearestJoin('KNN_GPS', 'KNN_ROADS', 1) K, KNN_GPS G "
+                + "WHERE G._ROWID_ = K.ID_A AND K.DISTANCE <> (SELECT MIN(ST_Distance(G.THE_GEOM, R.THE_GEOM)) FROM KNN_ROADS R)");
+        assertTrue(rs.next());
+        assertEquals(0, rs.getInt(1));
+        rs.close();
+        rs = st.executeQuery("SELECT COUNT(*) FROM ST_KNearestJoin('KNN_GPS', 'KNN_ROADS', 3, 1)");
+        assertTrue(rs.next());
+        assertTrue(rs.getInt(1) < 7500);
+        rs.close();
+        st.execute("CREATE TABLE KNN_GPS_4326(THE_GEOM GEOMETRY(POINT, 4326));");
+        assertThrows(SQLException.class, () -> st.executeQuery("SELECT * FROM ST_KNearestJoin('KNN_GPS_4326', 'KNN_ROADS', 1)"));
+        st.execute("DROP TABLE KNN_ROADS, KNN_GPS, KNN_GPS_4326;");
+    }
+
+    @Test
+    public void test_ST_ClusterDBSCAN() throws Exception {
+        Statement st = connection.createStatement();
+        st.execute("DROP TABLE IF EXISTS CLUSTER_POINTS;");
+        st.execute("CREATE TABLE CLUSTER_POINTS(ID INT PRIMARY KEY, THE_GEOM GEOMETRY(POINT));");
+        st.execute("INSERT INTO CLUSTER_POINTS VALUES (1, 'POINT(0 0)'), (2, 'POINT(1 0)'), (3, 'POINT(2 0)'), "
+                + "(4, 'POINT(3 0)'), (5, 'POINT(4 0)'), (6, 'POINT(100 100)'), (7, 'POINT(101 100)'), "
+                + "(8, 'POINT(102 100)'), (9, 'POINT(50 50)');");
+        ResultSet rs = st.executeQuery("SELECT ID, CLUSTER_ID FROM ST_ClusterDBSCAN('CLUSTER_POINTS', 1.5, 3) ORDER BY ID");
+        Integer[] expected = new Integer[]{0, 0, 0, 0, 0, 1, 1, 1, null};
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue(rs.next());
+            assertEquals(i + 1, rs.getInt(1));
+            assertEquals(expected[i], rs.getObject(2));
+        }
+        assertFalse(rs.next());
+        rs.close();
+        // The second group has no core point with 4 neighbours
+        rs = st.executeQuery("SELECT COUNT(DISTINCT CLUSTER_ID), COUNT(*) - COUNT(CLUSTER_ID) FROM ST_ClusterDBSCAN('CLUSTER_POINTS', 2.5, 4)");
+        assertTrue(rs.next());
+        assertEquals(1, rs.getInt(1));
+        assertEquals(4, rs.getInt(2));
+        rs.close();
+        st.execute("DROP TABLE CLUSTER_POINTS;");
+    }
+
+    @Test
+    public void test_ST_ClusterWithin() throws Exception {
+        Statement st = connection.createStatement();
+        st.execute("DROP TABLE IF EXISTS CLUSTER_POINTS, CLUSTER_LINES;");
+        st.execute("CREATE TABLE CLUSTER_POINTS(ID INT PRIMARY KEY, THE_GEOM GEOMETRY(POINT));");
+        st.execute("INSERT INTO CLUSTER_POINTS VALUES (1, 'POINT(0 0)'), (2, 'POINT(1 0)'), (3, 'POINT(2 0)'), "
+                + "(4, 'POINT(100 100)'), (5, 'POINT(101 100)'), (6, 'POINT(50 50)');");
+        ResultSet rs = st.executeQuery("SELECT ID, CLUSTER_ID FROM ST_ClusterWithin('CLUSTER_POINTS', 1) ORDER BY ID");
+        int[] expected = new int[]{0, 0, 0, 1, 1, 2};
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue(rs.next());
+            assertEquals(i + 1, rs.getInt(1));
+            assertEquals(expected[i], rs.getInt(2));
+        }
+        assertFalse(rs.next());
+        rs.close();
+        // Chains of lines over several chunks of rows
+        st.execute("CREATE TABLE CLUSTER_LINES(THE_GEOM GEOMETRY(LINESTRING));");
+        st.execute("INSERT INTO CLUSTER_LINES SELECT ST_MakeLine(ST_MakePoint(MOD(X, 100) * 10, (X / 100) * 20), "
+                + "ST_MakePoint(MOD(X, 100) * 10 + 9, (X / 100) * 20)) FROM SYSTEM_RANGE(0, 4999);");
+        rs = st.executeQuery("SELECT COUNT(*), COUNT(DISTINCT CLUSTER_ID) FROM ST_ClusterWithin('CLUSTER_LINES', 1)");
+        assertTrue(rs.next());
+        assertEquals(5000, rs.getInt(1));
+        assertEquals(50, rs.getInt(2));
+        rs.close();
+        rs = st.executeQuery("SELECT COUNT(DISTINCT CLUSTER_ID) FROM ST_ClusterWithin('CLUSTER_LINES', 20)");
+        assertTrue(rs.next());
+        assertEquals(1, rs.getInt(1));
+        rs.close();
+        st.execute("DROP TABLE CLUSTER_POINTS, CLUSTER_LINES;");
+    }
+
     @Test
     public void test_ST_Node1() throws Exception {
         Statement st = connection.createStatement();
@@ -427,6 +427,67 @@ public class SpatialFunctionTest {
         st.execute("DROP TABLE input_table;");
     }
 
+    @Test
+    public void test_PreparedPredicates() throws Exception {
+        st.execute("DROP TABLE IF EXISTS input_table;"
+                + "CREATE TABLE input_table(the_geom GEOMETRY(POINT));"
+                + "INSERT INTO input_table SELECT ST_MakePoint(X / 20, MOD(X, 20)) FROM SYSTEM_RANGE(0, 399);");
+        String polygon = "ST_Densify('POLYGON((2.5 3, 17 3, 17 16.5, 2.5 16.5, 2.5 3))'::GEOMETRY, 1)";
+        String[][] queries = new String[][]{
+            {"ST_Intersects(" + polygon + ", the_geom)", "NOT ST_Disjoint(" + polygon + ", the_geom)"},
+            {"ST_Intersects(the_geom, " + polygon + ")", "NOT ST_Disjoint(" + polygon + ", the_geom)"},
+            {"ST_Contains(" + polygon + ", the_geom)", "ST_Relate(" + polygon + ", the_geom, 'T*****FF*')"},
+            {"ST_Within(the_geom, " + polygon + ")", "ST_Relate(" + polygon + ", the_geom, 'T*****FF*')"},
+            {"ST_Covers(" + polygon + ", the_geom)", "ST_Relate(" + polygon + ", the_geom, '******FF*')"},
+            {"ST_Touches(" + polygon + ", the_geom)", "ST_Relate(" + polygon + ", the_geom, 'F**T*****')"},
+            {"ST_DWithin(" + polygon + ", the_geom, 1)", "ST_Distance(" + polygon + ", the_geom) <= 1"},
+            {"ST_DWithin(the_geom, " + polygon + ", 0)", "ST_Distance(" + polygon + ", the_geom) <= 0"}};
+        for (String[] query : queries) {
+            ResultSet rs = st.executeQuery("SELECT COUNT(*) FILTER (WHERE " + query[0] + "), "
+                    + "COUNT(*) FILTER (WHERE " + query[1] + ") FROM input_table;");
+            assertTrue(rs.next());
+            assertTrue(rs.getInt(1) > 0, query[0]);
+            assertEquals(rs.getInt(2), rs.getInt(1), query[0]);
+            rs.close();
+        }
+        st.execute("DROP TABLE input_table;");
+    }
+
+    @Test
+    public void test_ST_SpatialJoin() throws Exception {
+        st.execute("DROP TABLE IF EXISTS zones, pts;"
+                + "CREATE TABLE zones(id INT PRIMARY KEY, the_geom GEOMETRY(POLYGON));"
+                + "INSERT INTO zones SELECT X, ST_Densify(ST_MakeEnvelope(X * 10, 0, X * 10 + 7.5, 50), 1) FROM SYSTEM_RANGE(0, 9);"
+                + "CREATE TABLE pts(the_geom GEOMETRY(POINT));"
+                + "INSERT INTO pts SELECT ST_MakePoint(MOD(X, 101), X / 101) FROM SYSTEM_RANGE(0, 5049);");
+        String[][] queries = new String[][]{
+            {"'zones', 'pts', 'intersects'", "ST_Intersects(a.the_geom, b.the_geom)"},
+            {"'pts', 'zones', 'INTERSECTS'", "ST_Intersects(b.the_geom, a.the_geom)"},
+            {"'zones', 'pts', 'contains'", "ST_Contains(a.the_geom, b.the_geom)"},
+            {"'pts', 'zones', 'within'", "ST_Within(b.the_geom, a.the_geom)"},
+            {"'zones', 'pts', 'covers'", "ST_Covers(a.the_geom, b.the_geom)"},
+            {"'pts', 'zones', 'touches'", "ST_Touches(b.the_geom, a.the_geom)"},
+            {"'zones', 'pts', 'dwithin', 1.5", "ST_DWithin(a.the_geom, b.the_geom, 1.5)"}};
+        for (String[] query : queries) {
+            boolean pointsFirst = query[0].startsWith("'pts'");
+            String idA = pointsFirst ? "b._ROWID_" : "a.id";
+            String idB = pointsFirst ? "a.id" : "b._ROWID_";
+            ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM (SELECT ID_A, ID_B FROM ST_SpatialJoin(" + query[0] + ") "
+                    + "EXCEPT SELECT " + idA + ", " + idB + " FROM zones a, pts b WHERE " + query[1] + ")");
+            assertTrue(rs.next());
+            assertEquals(0, rs.getInt(1), query[0]);
+            rs.close();
+            rs = st.executeQuery("SELECT (SELECT COUNT(*) FROM ST_SpatialJoin(" + query[0] + ")), "
+                    + "(SELECT COUNT(*) FROM zones a, pts b WHERE " + query[1] + ")");
+            assertTrue(rs.next());
+            assertTrue(rs.getInt(2) > 0, query[0]);
+            assertEquals(rs.getInt(2), rs.getInt(1), query[0]);
+            rs.close();
+        }
+        assertThrows(SQLException.class, () -> st.execute("SELECT * FROM ST_SpatialJoin('zones', 'pts', 'overlaps')"));
+        st.execute("DROP TABLE zones, pts;");
+    }
+
     @Test
     public void test_ST_XYZMinMax() throws Exception {
         st.execute("DROP TABLE IF EXISTS input_table;"
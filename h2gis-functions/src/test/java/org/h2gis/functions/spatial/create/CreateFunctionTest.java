@@ -573,6 +573,140 @@ public class CreateFunctionTest {
         st.execute("DROP TABLE input_table, grid;");
     }
 
+    @Test
+    public void test_ST_MakeGridLarge() throws Exception {
+        ResultSet rs = st.executeQuery("SELECT COUNT(*), COUNT(DISTINCT ID), MIN(ID), MAX(ID), MAX(ID_COL), MAX(ID_ROW), SUM(ST_Area(THE_GEOM)) "
+                + "FROM ST_MakeGrid('POLYGON((0 0, 300 0, 300 200, 0 0))'::GEOMETRY, 1, 1)");
+        assertTrue(rs.next());
+        assertEquals(60000, rs.getInt(1));
+        assertEquals(60000, rs.getInt(2));
+        assertEquals(0, rs.getInt(3));
+        assertEquals(59999, rs.getInt(4));
+        assertEquals(300, rs.getInt(5));
+        assertEquals(200, rs.getInt(6));
+        assertEquals(60000, rs.getDouble(7), 1e-6);
+        rs.close();
+        rs = st.executeQuery("SELECT ID_COL, ID_ROW, THE_GEOM FROM ST_MakeGridPoints('POLYGON((0 0, 300 0, 300 200, 0 0))'::GEOMETRY, 1, 1) WHERE ID = 45123");
+        assertTrue(rs.next());
+        assertEquals(124, rs.getInt(1));
+        assertEquals(151, rs.getInt(2));
+        assertGeometryEquals("POINT(123.5 150.5)", rs.getObject(3));
+        rs.close();
+        // Two grids read at the same time
+        rs = st.executeQuery("SELECT COUNT(*) FROM ST_MakeGrid('POLYGON((0 0, 3 0, 3 3, 0 0))'::GEOMETRY, 1, 1) A, "
+                + "ST_MakeGrid('POLYGON((0 0, 2 0, 2 2, 0 0))'::GEOMETRY, 1, 1) B WHERE A.ID_COL = B.ID_COL");
+        assertTrue(rs.next());
+        assertEquals(12, rs.getInt(1));
+        rs.close();
+    }
+
+    @Test
+    public void test_ST_MakeGridIndexedTable() throws Exception {
+        // The float keys of the spatial index round the extent of these points
+        st.execute("DROP TABLE IF EXISTS grid_points, grid_cells;"
+                + "CREATE TABLE grid_points(the_geom GEOMETRY(POINT, 2154));"
+                + "INSERT INTO grid_points SELECT ST_SetSRID(ST_MakePoint(654321.15 + X * 0.0101, 6801234.53 + X * 0.0103), 2154) "
+                + "FROM SYSTEM_RANGE(1, 1000);"
+                + "CREATE SPATIAL INDEX ON grid_points(the_geom);"
+                + "CREATE TABLE grid_cells AS SELECT * FROM ST_MakeGrid('grid_points', 1, 1);");
+        ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM grid_points P WHERE NOT EXISTS(SELECT 1 FROM grid_cells C "
+                + "WHERE ST_Intersects(P.the_geom, C.the_geom))");
+        assertTrue(rs.next());
+        assertEquals(0, rs.getInt(1));
+        rs.close();
+        st.execute("DROP TABLE grid_points, grid_cells;");
+    }
+
+    @Test
+    public void test_ST_GridAggregateIndexedTable() throws Exception {
+        st.execute("DROP TABLE IF EXISTS grid_points;"
+                + "CREATE TABLE grid_points(the_geom GEOMETRY(POINT, 2154));"
+                + "INSERT INTO grid_points SELECT ST_SetSRID(ST_MakePoint(654321.15 + X * 0.0101, 6801234.53 + X * 0.0103), 2154) "
+                + "FROM SYSTEM_RANGE(1, 1000);"
+                + "CREATE SPATIAL INDEX ON grid_points(the_geom);");
+        ResultSet rs = st.executeQuery("SELECT SUM(COUNT) FROM ST_GridAggregate('grid_points', 1, 1)");
+        assertTrue(rs.next());
+        assertEquals(1000, rs.getLong(1));
+        rs.close();
+        // The points on the upper and right borders are in the last cells
+        rs = st.executeQuery("SELECT SUM(COUNT), MAX(ID_COL), MAX(ID_ROW) FROM ST_GridAggregate('grid_points', 7, 3, true)");
+        assertTrue(rs.next());
+        assertEquals(1000, rs.getLong(1));
+        assertEquals(7, rs.getInt(2));
+        assertEquals(3, rs.getInt(3));
+        rs.close();
+        st.execute("DROP TABLE grid_points;");
+    }
+
+    @Test
+    public void test_ST_GridAggregateLargeGrid() throws Exception {
+        st.execute("DROP TABLE IF EXISTS grid_points;"
+                + "CREATE TABLE grid_points(the_geom GEOMETRY(POINT, 2154));"
+                + "INSERT INTO grid_points VALUES ('SRID=2154;POINT(0 0)'), ('SRID=2154;POINT(100000 100000)');");
+        // 1e16 cells, only the non empty cells are returned
+        ResultSet rs = st.executeQuery("SELECT ID, ID_COL, ID_ROW FROM ST_GridAggregate('grid_points', 0.001, 0.001) ORDER BY ID");
+        assertTrue(rs.next());
+        assertEquals(0, rs.getLong(1));
+        assertTrue(rs.next());
+        assertEquals(100000000L * 100000000L - 1, rs.getLong(1));
+        assertEquals(100000000, rs.getInt(2));
+        assertEquals(100000000, rs.getInt(3));
+        assertFalse(rs.next());
+        rs.close();
+        // The cells of ST_MakeGrid are numbered by an INTEGER
+        assertThrows(SQLException.class, () -> {
+            st.executeQuery("SELECT COUNT(*) FROM ST_MakeGrid('grid_points', 0.001, 0.001)");
+        });
+        st.execute("DROP TABLE grid_points;");
+    }
+
+    @Test
+    public void test_ST_GridAggregate() throws Exception {
+        st.execute("DROP TABLE IF EXISTS grid_points, grid_cells;"
+                + "CREATE TABLE grid_points(the_geom GEOMETRY(POINT, 2154), speed DOUBLE);"
+                + "INSERT INTO grid_points SELECT ST_SetSRID(ST_MakePoint(MOD(X * 7919, 1000) / 10.0, MOD(X * 104729, 613) / 10.0), 2154), "
+                + "CASEWHEN(MOD(X, 7) = 0, NULL, MOD(X, 50)) FROM SYSTEM_RANGE(1, 30000);");
+        ResultSet rs = st.executeQuery("SELECT COUNT(*), SUM(COUNT), MIN(ST_SRID(THE_GEOM)) FROM ST_GridAggregate('grid_points', 10, 10)");
+        assertTrue(rs.next());
+        assertEquals(70, rs.getInt(1));
+        assertEquals(30000, rs.getLong(2));
+        assertEquals(2154, rs.getInt(3));
+        rs.close();
+        // Same result as a spatial join on the grid built by ST_MakeGrid
+        st.execute("CREATE TABLE grid_cells AS SELECT * FROM ST_MakeGrid('grid_points', 10, 10);");
+        rs = st.executeQuery("SELECT COUNT(*) FROM ST_GridAggregate('grid_points', 10, 10, 'mean', 'speed') A, grid_cells C "
+                + "WHERE A.ID = C.ID AND (NOT ST_Equals(A.THE_GEOM, C.THE_GEOM) OR A.ID_COL <> C.ID_COL OR A.ID_ROW <> C.ID_ROW "
+                + "OR ABS(A.MEAN - (SELECT AVG(P.speed) FROM grid_points P WHERE ST_Intersects(P.the_geom, C.THE_GEOM) "
+                + "AND ST_X(P.the_geom) < ST_XMax(C.THE_GEOM) AND ST_Y(P.the_geom) < ST_YMax(C.THE_GEOM))) > 1e-9)");
+        assertTrue(rs.next());
+        assertEquals(0, rs.getInt(1));
+        rs.close();
+        rs = st.executeQuery("SELECT MIN(MIN), MAX(MAX), SUM(SUM) FROM (SELECT * FROM ST_GridAggregate('grid_points', 10, 10, 'MIN', 'SPEED')) A, "
+                + "(SELECT * FROM ST_GridAggregate('grid_points', 10, 10, 'MAX', 'SPEED')) B, "
+                + "(SELECT * FROM ST_GridAggregate('grid_points', 10, 10, 'SUM', 'SPEED')) C WHERE A.ID = B.ID AND A.ID = C.ID");
+        assertTrue(rs.next());
+        assertEquals(0, rs.getDouble(1), 0);
+        assertEquals(49, rs.getDouble(2), 0);
+        rs.close();
+        rs = st.executeQuery("SELECT SUM(speed) FROM grid_points");
+        assertTrue(rs.next());
+        double sum = rs.getDouble(1);
+        rs.close();
+        rs = st.executeQuery("SELECT SUM(SUM) FROM ST_GridAggregate('grid_points', 10, 10, 'SUM', 'SPEED')");
+        assertTrue(rs.next());
+        assertEquals(sum, rs.getDouble(1), 1e-6);
+        rs.close();
+        // Number of columns and rows
+        rs = st.executeQuery("SELECT COUNT(*), SUM(COUNT), MAX(ID_COL), MAX(ID_ROW) FROM ST_GridAggregate('grid_points', 2, 3, true)");
+        assertTrue(rs.next());
+        assertEquals(6, rs.getInt(1));
+        assertEquals(30000, rs.getLong(2));
+        assertEquals(2, rs.getInt(3));
+        assertEquals(3, rs.getInt(4));
+        rs.close();
+        st.execute("DROP TABLE grid_points, grid_cells;");
+    }
+
     @Test
     public void test_ST_MakeGridSRID() throws Exception {
         st.execute("DROP TABLE IF EXISTS input_table,grid;"
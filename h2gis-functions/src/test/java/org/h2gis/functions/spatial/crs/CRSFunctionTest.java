@@ -31,12 +31,17 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import org.h2.value.ValueGeometry;
 
 import static org.h2gis.unitTest.GeometryAsserts.assertGeometryBarelyEquals;
+import static org.h2gis.unitTest.GeometryAsserts.assertGeometryEquals;
 
 import org.h2gis.utilities.JDBCUtilities;
 import org.h2gis.utilities.GeographyUtilities;
+import org.h2gis.utilities.GeometryTableUtilities;
+import org.h2gis.utilities.TableLocation;
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -103,6 +108,48 @@ public class CRSFunctionTest {
         checkWithTolerance(rs, "SRID=310024140;POINT(619119.4605077105 7102502.9794769)", 10E-3);
     }
 
+    @Test
+    public void testST_Transform4326to3857() throws Exception {
+        checkProjectedGeom("SRID=4326;POINT(2.114551393 50.345609791)",
+                "SRID=3857;POINT(235390.78432496733 6506345.905789861)", 10E-6);
+        checkProjectedGeom("SRID=3857;POINT(235390.78432496733 6506345.905789861)",
+                "SRID=4326;POINT(2.114551393 50.345609791)", 10E-9);
+    }
+
+    @Test
+    public void testST_Transform4326toUTM() throws Exception {
+        checkProjectedGeom("SRID=4326;LINESTRING(3 45, 0 0)",
+                "SRID=32631;LINESTRING(500000 4982950.400226553, 166021.44308053795 0)", 10E-6);
+        checkProjectedGeom("SRID=32731;POINT(733041.0921692782 6323755.706620954)",
+                "SRID=4326;POINT(5.5 -33.2)", 10E-9);
+    }
+
+    @Test
+    public void testST_Transform4326to3857Poles() throws Exception {
+        checkProjectedGeom("SRID=4326;LINESTRING(0 90, 0 -90)",
+                "SRID=3857;LINESTRING(0 20037508.342789244, 0 -20037508.342789244)", 10E-3);
+    }
+
+    @Test
+    public void testFastCRSTransformRegistry() throws Exception {
+        SpatialRefSnapshot snapshot = SpatialRefSnapshot.get(connection);
+        assertNotNull(FastCRSTransform.get(snapshot, 4326, 3857));
+        assertNotNull(FastCRSTransform.get(snapshot, 32631, 4326));
+        assertNotNull(FastCRSTransform.get(snapshot, 4326, 32731));
+        assertNull(FastCRSTransform.get(snapshot, 4326, 2154));
+        try {
+            st.execute("UPDATE SPATIAL_REF_SYS SET PROJ4TEXT = REPLACE(PROJ4TEXT, '+x_0=0.0', '+x_0=1000.0') "
+                    + "WHERE SRID = 3857");
+            // A redefined SRID is transformed by CTS
+            assertNull(FastCRSTransform.get(SpatialRefSnapshot.get(connection), 4326, 3857));
+            checkProjectedGeom("SRID=4326;POINT(2.114551393 50.345609791)",
+                    "SRID=3857;POINT(236390.78432496733 6506345.905789861)", 10E-6);
+        } finally {
+            st.execute("UPDATE SPATIAL_REF_SYS SET PROJ4TEXT = REPLACE(PROJ4TEXT, '+x_0=1000.0', '+x_0=0.0') "
+                    + "WHERE SRID = 3857");
+        }
+    }
+
     @Test
     public void testST_TransformAsIdentity() throws Exception {
         checkProjectedGeom("SRID=2154;POINT(565767.906 2669005.730)",
@@ -207,11 +254,223 @@ public class CRSFunctionTest {
     }
 
 
+    @Test
+    public void test_ST_TransformTable() throws Exception {
+        st.execute("DROP TABLE IF EXISTS WGS84_TABLE, L93_TABLE;");
+        st.execute("CREATE TABLE WGS84_TABLE(ID INT PRIMARY KEY, NAME VARCHAR, THE_GEOM GEOMETRY(POINT, 4326));");
+        st.execute("INSERT INTO WGS84_TABLE SELECT X, 'P' || X, ST_SETSRID(ST_MAKEPOINT(2.11 + X * 0.001, 50.34), 4326) "
+                + "FROM SYSTEM_RANGE(1, 25000);");
+        st.execute("INSERT INTO WGS84_TABLE VALUES(0, 'EMPTY', null);");
+        st.execute("CREATE INDEX ON WGS84_TABLE(NAME);");
+        st.execute("CREATE SPATIAL INDEX ON WGS84_TABLE(THE_GEOM);");
+        ResultSet rs = st.executeQuery("SELECT ST_TransformTable('WGS84_TABLE', 2154, 'L93_TABLE')");
+        assertTrue(rs.next());
+        assertTrue(rs.getBoolean(1));
+        rs.close();
+        // The primary key and the indexes are created on the output table
+        rs = connection.getMetaData().getPrimaryKeys(null, "PUBLIC", "L93_TABLE");
+        assertTrue(rs.next());
+        assertEquals("ID", rs.getString("COLUMN_NAME"));
+        rs.close();
+        rs = connection.getMetaData().getIndexInfo(null, "PUBLIC", "L93_TABLE", false, true);
+        List<String> indexedColumns = new ArrayList<>();
+        while (rs.next()) {
+            indexedColumns.add(rs.getString("COLUMN_NAME"));
+        }
+        rs.close();
+        assertTrue(indexedColumns.contains("NAME"));
+        assertTrue(indexedColumns.contains("THE_GEOM"));
+        assertEquals(2154, GeometryTableUtilities.getSRID(connection, TableLocation.parse("L93_TABLE")));
+        assertEquals(4326, GeometryTableUtilities.getSRID(connection, TableLocation.parse("WGS84_TABLE")));
+        rs = st.executeQuery("SELECT COUNT(*), COUNT(THE_GEOM) FROM L93_TABLE");
+        assertTrue(rs.next());
+        assertEquals(25001, rs.getInt(1));
+        assertEquals(25000, rs.getInt(2));
+        rs.close();
+        rs = st.executeQuery("SELECT COUNT(*) FROM WGS84_TABLE A, L93_TABLE B WHERE A.ID = B.ID "
+                + "AND ST_DISTANCE(ST_TRANSFORM(A.THE_GEOM, 2154), B.THE_GEOM) < 10E-6");
+        assertTrue(rs.next());
+        assertEquals(25000, rs.getInt(1));
+        rs.close();
+        rs = st.executeQuery("SELECT NAME FROM L93_TABLE WHERE ID = 25000");
+        assertTrue(rs.next());
+        assertEquals("P25000", rs.getString(1));
+        rs.close();
+        // In place
+        rs = st.executeQuery("SELECT ST_TransformTable('WGS84_TABLE', 2154)");
+        assertTrue(rs.next());
+        assertTrue(rs.getBoolean(1));
+        rs.close();
+        assertEquals(2154, GeometryTableUtilities.getSRID(connection, TableLocation.parse("WGS84_TABLE")));
+        rs = st.executeQuery("SELECT COUNT(*) FROM WGS84_TABLE A, L93_TABLE B WHERE A.ID = B.ID AND ST_EQUALS(A.THE_GEOM, B.THE_GEOM)");
+        assertTrue(rs.next());
+        assertEquals(25000, rs.getInt(1));
+        rs.close();
+        st.execute("DROP TABLE IF EXISTS WGS84_TABLE, L93_TABLE;");
+    }
+
+    @Test
+    public void test_ST_TransformTableSchema() throws Exception {
+        st.execute("DROP SCHEMA IF EXISTS TRANSFORM_SCHEMA CASCADE;");
+        st.execute("CREATE SCHEMA TRANSFORM_SCHEMA;");
+        st.execute("CREATE TABLE TRANSFORM_SCHEMA.POINTS(ID INT PRIMARY KEY, THE_GEOM GEOMETRY(POINT, 4326));");
+        st.execute("INSERT INTO TRANSFORM_SCHEMA.POINTS VALUES (1, 'SRID=4326;POINT(3 45)');");
+        try {
+            ResultSet rs = st.executeQuery("SELECT ST_TransformTable('TRANSFORM_SCHEMA.POINTS', 32631, "
+                    + "'TRANSFORM_SCHEMA.POINTS_UTM')");
+            assertTrue(rs.next());
+            assertTrue(rs.getBoolean(1));
+            rs.close();
+            rs = st.executeQuery("SELECT THE_GEOM FROM TRANSFORM_SCHEMA.POINTS_UTM");
+            assertTrue(rs.next());
+            assertGeometryBarelyEquals("SRID=32631;POINT (500000 4982950.400226553)", rs.getObject(1), 10E-6);
+            rs.close();
+            rs = st.executeQuery("SELECT ST_TransformTable('TRANSFORM_SCHEMA.POINTS', 32631)");
+            assertTrue(rs.next());
+            assertTrue(rs.getBoolean(1));
+            rs.close();
+            rs = st.executeQuery("SELECT THE_GEOM FROM TRANSFORM_SCHEMA.POINTS");
+            assertTrue(rs.next());
+            assertGeometryBarelyEquals("SRID=32631;POINT (500000 4982950.400226553)", rs.getObject(1), 10E-6);
+            rs.close();
+            // The staging table has been created and dropped in the same schema
+            rs = st.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = 'TRANSFORM_SCHEMA'");
+            assertTrue(rs.next());
+            assertEquals(2, rs.getInt(1));
+            rs.close();
+        } finally {
+            st.execute("DROP SCHEMA IF EXISTS TRANSFORM_SCHEMA CASCADE;");
+        }
+    }
+
+    @Test
+    public void test_ST_TransformTableNoPrimaryKey() throws Exception {
+        st.execute("DROP TABLE IF EXISTS WGS84_NOPK;");
+        st.execute("CREATE TABLE WGS84_NOPK(THE_GEOM GEOMETRY(POINT, 4326));");
+        st.execute("INSERT INTO WGS84_NOPK VALUES ('SRID=4326;POINT(3 45)'), ('SRID=4326;POINT(3 46)');");
+        ResultSet rs = st.executeQuery("SELECT ST_TransformTable('WGS84_NOPK', 32631)");
+        assertTrue(rs.next());
+        assertTrue(rs.getBoolean(1));
+        rs.close();
+        assertEquals(32631, GeometryTableUtilities.getSRID(connection, TableLocation.parse("WGS84_NOPK")));
+        rs = st.executeQuery("SELECT THE_GEOM FROM WGS84_NOPK ORDER BY ST_Y(THE_GEOM)");
+        assertTrue(rs.next());
+        assertGeometryBarelyEquals("SRID=32631;POINT (500000 4982950.400226553)", rs.getObject(1), 10E-6);
+        rs.close();
+        st.execute("DROP TABLE IF EXISTS WGS84_NOPK;");
+    }
+
+    @Test
+    public void test_ST_TransformTableSparseKeys() throws Exception {
+        st.execute("DROP TABLE IF EXISTS WGS84_SPARSE;");
+        st.execute("CREATE TABLE WGS84_SPARSE(ID BIGINT PRIMARY KEY, THE_GEOM GEOMETRY(POINT, 4326));");
+        st.execute("INSERT INTO WGS84_SPARSE SELECT X * 1000000000000 - 9000000000000000000, "
+                + "ST_SETSRID(ST_MAKEPOINT(2.11 + X * 0.001, 50.34), 4326) FROM SYSTEM_RANGE(1, 15000);");
+        ResultSet rs = st.executeQuery("SELECT ST_TransformTable('WGS84_SPARSE', 2154)");
+        assertTrue(rs.next());
+        assertTrue(rs.getBoolean(1));
+        rs.close();
+        rs = st.executeQuery("SELECT COUNT(*) FROM WGS84_SPARSE WHERE ST_SRID(THE_GEOM) = 2154 AND ST_X(THE_GEOM) > 600000");
+        assertTrue(rs.next());
+        assertEquals(15000, rs.getInt(1));
+        rs.close();
+        st.execute("DROP TABLE IF EXISTS WGS84_SPARSE;");
+    }
+
+    @Test
+    public void test_ST_TransformTableFailedUpdate() throws Exception {
+        st.execute("DROP TABLE IF EXISTS WGS84_CHECK;");
+        st.execute("CREATE TABLE WGS84_CHECK(ID INT PRIMARY KEY, THE_GEOM GEOMETRY(POINT, 4326) CHECK (ST_X(THE_GEOM) < 180));");
+        st.execute("INSERT INTO WGS84_CHECK VALUES (1, 'SRID=4326;POINT(3 45)'), (2, 'SRID=4326;POINT(3 46)');");
+        // The transformed geometries break the check constraint
+        assertThrows(SQLException.class, () -> st.execute("SELECT ST_TransformTable('WGS84_CHECK', 2154)"));
+        // The SRID constraint is restored and the geometries are unchanged
+        assertEquals(4326, GeometryTableUtilities.getSRID(connection, TableLocation.parse("WGS84_CHECK")));
+        ResultSet rs = st.executeQuery("SELECT THE_GEOM FROM WGS84_CHECK ORDER BY ID");
+        assertTrue(rs.next());
+        assertGeometryEquals("SRID=4326;POINT(3 45)", rs.getObject(1));
+        assertTrue(rs.next());
+        assertGeometryEquals("SRID=4326;POINT(3 46)", rs.getObject(1));
+        rs.close();
+        st.execute("DROP TABLE IF EXISTS WGS84_CHECK;");
+    }
+
+    @Test
+    public void testSpatialRefSysChanges() throws Exception {
+        st.execute("DELETE FROM SPATIAL_REF_SYS WHERE SRID = 992154");
+        st.execute("INSERT INTO SPATIAL_REF_SYS SELECT 992154, 'TEST', 992154, SRTEXT, PROJ4TEXT "
+                + "FROM SPATIAL_REF_SYS WHERE SRID = 2154");
+        checkProjectedGeom("SRID=4326;POINT(2.114551393 50.345609791)",
+                "SRID=992154;POINT(636890.7403214505 7027895.263449971)", 10E-3);
+        st.execute("UPDATE SPATIAL_REF_SYS SET PROJ4TEXT = REPLACE(PROJ4TEXT, '+x_0=700000', '+x_0=800000') "
+                + "WHERE SRID = 992154");
+        checkProjectedGeom("SRID=4326;POINT(2.114551393 50.345609791)",
+                "SRID=992154;POINT(736890.7403214505 7027895.263449971)", 10E-3);
+        st.execute("DELETE FROM SPATIAL_REF_SYS WHERE SRID = 992154");
+        assertThrows(SQLException.class, () -> st.execute("SELECT ST_TRANSFORM('SRID=4326;POINT(2 50)'::GEOMETRY, 992154)"));
+    }
+
+    @Test
+    public void testSpatialRefSysUncommittedChanges() throws Exception {
+        String transform = "SELECT ST_TRANSFORM('SRID=4326;POINT(2 50)'::GEOMETRY, 992155)";
+        st.execute("DELETE FROM SPATIAL_REF_SYS WHERE SRID = 992155");
+        try (Connection other = H2GISDBFactory.openSpatialDataBase(DB_NAME);
+             Statement otherSt = other.createStatement()) {
+            other.setAutoCommit(false);
+            otherSt.execute("INSERT INTO SPATIAL_REF_SYS SELECT 992155, 'TEST', 992155, SRTEXT, PROJ4TEXT "
+                    + "FROM SPATIAL_REF_SYS WHERE SRID = 2154");
+            // Only the session holding the uncommitted row sees the new SRID
+            try (ResultSet rs = otherSt.executeQuery(transform)) {
+                assertTrue(rs.next());
+                assertEquals(992155, ((Geometry) rs.getObject(1)).getSRID());
+            }
+            assertThrows(SQLException.class, () -> st.execute(transform));
+            other.rollback();
+            assertThrows(SQLException.class, () -> otherSt.execute(transform));
+            assertThrows(SQLException.class, () -> st.execute(transform));
+            otherSt.execute("INSERT INTO SPATIAL_REF_SYS SELECT 992155, 'TEST', 992155, SRTEXT, PROJ4TEXT "
+                    + "FROM SPATIAL_REF_SYS WHERE SRID = 2154");
+            other.commit();
+            try (ResultSet rs = st.executeQuery(transform)) {
+                assertTrue(rs.next());
+                assertEquals(992155, ((Geometry) rs.getObject(1)).getSRID());
+            }
+        } finally {
+            st.execute("DELETE FROM SPATIAL_REF_SYS WHERE SRID = 992155");
+        }
+    }
+
+    @Test
+    public void testSpatialRefSysByDatabase() throws Exception {
+        String transform = "SELECT ST_TRANSFORM('SRID=4326;POINT(2.114551393 50.345609791)'::GEOMETRY, 992156)";
+        st.execute("DELETE FROM SPATIAL_REF_SYS WHERE SRID = 992156");
+        st.execute("INSERT INTO SPATIAL_REF_SYS SELECT 992156, 'TEST', 992156, SRTEXT, PROJ4TEXT "
+                + "FROM SPATIAL_REF_SYS WHERE SRID = 2154");
+        try (Connection other = H2GISDBFactory.createSpatialDataBase(DB_NAME + "_other");
+             Statement otherSt = other.createStatement()) {
+            otherSt.execute("INSERT INTO SPATIAL_REF_SYS SELECT 992156, 'TEST', 992156, SRTEXT, "
+                    + "REPLACE(PROJ4TEXT, '+x_0=700000', '+x_0=800000') FROM SPATIAL_REF_SYS WHERE SRID = 2154");
+            // Each database keeps its own definition of the SRID
+            for (int i = 0; i < 2; i++) {
+                try (ResultSet rs = st.executeQuery(transform)) {
+                    assertTrue(rs.next());
+                    assertEquals(636890.74, ((Geometry) rs.getObject(1)).getCoordinate().x, 10E-3);
+                }
+                try (ResultSet rs = otherSt.executeQuery(transform)) {
+                    assertTrue(rs.next());
+                    assertEquals(736890.74, ((Geometry) rs.getObject(1)).getCoordinate().x, 10E-3);
+                }
+            }
+        } finally {
+            st.execute("DELETE FROM SPATIAL_REF_SYS WHERE SRID = 992156");
+        }
+    }
+
     /**
      * Check the projected geometry using the POSTGIS EWKT style
      * @param inputGeom
      * @param expectedGeom
-     * @throws SQLException 
+     * @throws SQLException
      */
     private void checkProjectedGeom(String inputGeom, String expectedGeom) throws SQLException {
         int outPutSRID = ValueGeometry.get(expectedGeom).getSRID();
@@ -0,0 +1,176 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.hexgrid;
+
+import org.h2gis.functions.factory.H2GISDBFactory;
+import org.junit.jupiter.api.*;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HexGridFunctionTest {
+
+    private static Connection connection;
+    private Statement st;
+
+    @BeforeAll
+    public static void tearUp() throws Exception {
+        // Keep a connection alive to not close the DataBase on each unit test
+        connection = H2GISDBFactory.createSpatialDataBase(HexGridFunctionTest.class.getSimpleName());
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        connection.close();
+    }
+
+    @BeforeEach
+    public void setUpStatement() throws Exception {
+        st = connection.createStatement();
+    }
+
+    @AfterEach
+    public void tearDownStatement() throws Exception {
+        st.close();
+    }
+
+    @Test
+    public void test_ST_HexCell() throws Exception {
+        st.execute("DROP TABLE IF EXISTS hex_points;"
+                + "CREATE TABLE hex_points AS SELECT X ID, ST_MakePoint(MOD(X * 7919, 1000) / 3.0 - 100, MOD(X * 104729, 997) / 7.0 + 5000) THE_GEOM "
+                + "FROM SYSTEM_RANGE(1, 2000);");
+        // Each point is in the hexagon of its cell, at several resolutions
+        ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM hex_points, SYSTEM_RANGE(10, 16) R "
+                + "WHERE NOT ST_Intersects(ST_HexCellGeometry(ST_HexCell(THE_GEOM, R.X)), THE_GEOM)");
+        assertTrue(rs.next());
+        assertEquals(0, rs.getInt(1));
+        rs.close();
+        // The centre of a cell is in the cell
+        rs = st.executeQuery("SELECT COUNT(*) FROM (SELECT ST_HexCell(THE_GEOM, 14) C FROM hex_points) "
+                + "WHERE ST_HexCell(ST_Centroid(ST_HexCellGeometry(C)), 14) <> C");
+        assertTrue(rs.next());
+        assertEquals(0, rs.getInt(1));
+        rs.close();
+        rs = st.executeQuery("SELECT ST_HexCell(NULL, 3), ST_HexCell('POINT EMPTY'::GEOMETRY, 3), "
+                + "ST_SRID(ST_HexCellGeometry(ST_HexCell('POINT(1 1)'::GEOMETRY, 3), 2154))");
+        assertTrue(rs.next());
+        assertNull(rs.getObject(1));
+        assertNull(rs.getObject(2));
+        assertEquals(2154, rs.getInt(3));
+        rs.close();
+        assertThrows(Exception.class, () -> st.executeQuery("SELECT ST_HexCell('POINT(1 1)'::GEOMETRY, 31)"));
+        // The metric coordinates are covered up to the resolution 19
+        rs = st.executeQuery("SELECT ST_HexCell('POINT(-2E7 0)'::GEOMETRY, 19), ST_HexCell('POINT(400 300)'::GEOMETRY, 30)");
+        assertTrue(rs.next());
+        assertNotNull(rs.getObject(1));
+        assertNotNull(rs.getObject(2));
+        rs.close();
+        assertThrows(Exception.class, () -> st.executeQuery("SELECT ST_HexCell('POINT(-2E7 0)'::GEOMETRY, 21)"));
+        st.execute("DROP TABLE hex_points;");
+    }
+
+    @Test
+    public void test_ST_HexParentChildren() throws Exception {
+        ResultSet rs = st.executeQuery("SELECT ST_HexCell('POINT(123.4 567.8)'::GEOMETRY, 14)");
+        assertTrue(rs.next());
+        long cell = rs.getLong(1);
+        rs.close();
+        rs = st.executeQuery("SELECT ARRAY_CONTAINS(ST_HexChildren(ST_HexParent(" + cell + ")), CAST(" + cell + " AS BIGINT)), "
+                + "CARDINALITY(ST_HexChildren(" + cell + ")), "
+                + "ST_HexParent(" + cell + ", 10) = ST_HexParent(ST_HexParent(ST_HexParent(ST_HexParent(" + cell + ")))), "
+                + "ST_HexChildren(" + cell + ")[1], "
+                + "ST_HexParent(ST_HexChildren(" + cell + ")[5])");
+        assertTrue(rs.next());
+        assertTrue(rs.getBoolean(1));
+        assertEquals(7, rs.getInt(2));
+        assertTrue(rs.getBoolean(3));
+        // The central child has the same centre as its parent
+        long center = rs.getLong(4);
+        assertEquals(cell, rs.getLong(5));
+        rs.close();
+        rs = st.executeQuery("SELECT ST_Distance(ST_Centroid(ST_HexCellGeometry(" + center + ")), "
+                + "ST_Centroid(ST_HexCellGeometry(" + cell + ")))");
+        assertTrue(rs.next());
+        assertEquals(0, rs.getDouble(1), 1e-6);
+        rs.close();
+        // The 49 grand children are distinct and cover about the same area as the cell
+        rs = st.executeQuery("SELECT COUNT(DISTINCT C), SUM(ST_Area(ST_HexCellGeometry(C))) / ST_Area(ST_HexCellGeometry(" + cell + ")), "
+                + "COUNT(*) FILTER (WHERE ST_HexParent(C, 14) <> " + cell + ") "
+                + "FROM UNNEST(ST_HexChildren(" + cell + ", 16)) T(C)");
+        assertTrue(rs.next());
+        assertEquals(49, rs.getInt(1));
+        assertEquals(1, rs.getDouble(2), 1e-9);
+        assertEquals(0, rs.getInt(3));
+        rs.close();
+        assertThrows(SQLException.class, () -> st.executeQuery("SELECT ST_HexChildren(" + cell + ", 30)"));
+    }
+
+    @Test
+    public void test_ST_HexKRing() throws Exception {
+        ResultSet rs = st.executeQuery("SELECT ST_HexCell('POINT(-5.5 17.25)'::GEOMETRY, 15)");
+        assertTrue(rs.next());
+        long cell = rs.getLong(1);
+        rs.close();
+        rs = st.executeQuery("SELECT CARDINALITY(ST_HexKRing(" + cell + ", 0)), CARDINALITY(ST_HexKRing(" + cell + ", 2)), "
+                + "ST_HexKRing(" + cell + ", 1)[1]");
+        assertTrue(rs.next());
+        assertEquals(1, rs.getInt(1));
+        assertEquals(19, rs.getInt(2));
+        assertEquals(cell, rs.getLong(3));
+        rs.close();
+        // The first ring touches the cell, the second ring does not
+        rs = st.executeQuery("SELECT COUNT(DISTINCT C), COUNT(*) FILTER (WHERE ST_Distance(ST_HexCellGeometry(C), ST_HexCellGeometry(" + cell + ")) < 1e-9) "
+                + "FROM UNNEST(ST_HexKRing(" + cell + ", 2)) T(C)");
+        assertTrue(rs.next());
+        assertEquals(19, rs.getInt(1));
+        assertEquals(7, rs.getInt(2));
+        rs.close();
+    }
+
+    @Test
+    public void test_ST_HexPolyfill() throws Exception {
+        ResultSet rs = st.executeQuery("SELECT COUNT(DISTINCT C), SUM(ST_Area(ST_HexCellGeometry(C))), "
+                + "COUNT(*) FILTER (WHERE NOT ST_Intersects(ST_Centroid(ST_HexCellGeometry(C)), 'POLYGON((0 0, 1000 0, 1000 600, 0 0))'::GEOMETRY)) "
+                + "FROM UNNEST(ST_HexPolyfill('POLYGON((0 0, 1000 0, 1000 600, 0 0))'::GEOMETRY, 15)) T(C)");
+        assertTrue(rs.next());
+        assertTrue(rs.getInt(1) > 1000);
+        assertEquals(300000, rs.getDouble(2), 300000 * 0.02);
+        assertEquals(0, rs.getInt(3));
+        rs.close();
+        // Point in polygon join with an equality on the cell identifiers
+        st.execute("DROP TABLE IF EXISTS hex_points, hex_areas;"
+                + "CREATE TABLE hex_points AS SELECT X ID, ST_MakePoint(MOD(X * 7919, 1000), MOD(X * 104729, 1000)) THE_GEOM FROM SYSTEM_RANGE(1, 5000);"
+                + "CREATE TABLE hex_areas AS SELECT CAST(C AS BIGINT) CELL FROM UNNEST(ST_HexPolyfill('POLYGON((0 0, 1000 0, 1000 600, 0 0))'::GEOMETRY, 15)) T(C);"
+                + "CREATE INDEX ON hex_areas(CELL);");
+        rs = st.executeQuery("SELECT COUNT(*) FROM hex_points P, hex_areas A WHERE ST_HexCell(P.THE_GEOM, 15) = A.CELL "
+                + "AND NOT ST_Intersects(ST_HexCellGeometry(A.CELL), P.THE_GEOM)");
+        assertTrue(rs.next());
+        assertEquals(0, rs.getInt(1));
+        rs.close();
+        assertThrows(Exception.class, () -> st.executeQuery("SELECT ST_HexPolyfill('LINESTRING(0 0, 1 1)'::GEOMETRY, 10)"));
+        st.execute("DROP TABLE hex_points, hex_areas;");
+    }
+}
@@ -84,6 +84,37 @@ public class OGCSpatialFunctionTest {
         rs.close();
     }
 
+    @Test
+    public void test_ST_UnionAgg() throws Exception {
+        Statement st = connection.createStatement();
+        ResultSet rs = st.executeQuery("SELECT ST_Area(ST_UnionAgg(footprint)), ST_SRID(ST_UnionAgg(footprint)) FROM buildings GROUP BY SUBSTRING(address,4)");
+        assertTrue(rs.next());
+        assertEquals(16, rs.getDouble(1), 1e-8);
+        assertEquals(101, rs.getInt(2));
+        rs.close();
+        // Several buckets by group
+        rs = st.executeQuery("SELECT MOD(X / 100, 2) G, ST_Area(ST_UnionAgg(ST_MakeEnvelope(MOD(X, 100), X / 100, MOD(X, 100) + 1, X / 100 + 1))), "
+                + "ST_NumGeometries(ST_UnionAgg(ST_MakeEnvelope(MOD(X, 100), X / 100, MOD(X, 100) + 1, X / 100 + 1))) "
+                + "FROM SYSTEM_RANGE(0, 9999) GROUP BY G ORDER BY G");
+        assertTrue(rs.next());
+        assertEquals(5000, rs.getDouble(2), 1e-8);
+        assertEquals(50, rs.getInt(3));
+        assertTrue(rs.next());
+        assertEquals(5000, rs.getDouble(2), 1e-8);
+        assertEquals(50, rs.getInt(3));
+        assertFalse(rs.next());
+        rs.close();
+        rs = st.executeQuery("SELECT ST_Equals(ST_UnionAgg(ST_MakeEnvelope(X, 0, X + 1, 1)), "
+                + "'POLYGON ((0 0, 10000 0, 10000 1, 0 1, 0 0))') FROM SYSTEM_RANGE(0, 9999)");
+        assertTrue(rs.next());
+        assertTrue(rs.getBoolean(1));
+        rs.close();
+        rs = st.executeQuery("SELECT ST_UnionAgg(footprint) FROM buildings WHERE 1 = 0");
+        assertTrue(rs.next());
+        assertNull(rs.getObject(1));
+        rs.close();
+    }
+
     @Test
     public void test_ST_UnionSimple() throws Exception {
         Statement st = connection.createStatement();
@@ -124,6 +155,31 @@ public class OGCSpatialFunctionTest {
         rs.close();
     }
 
+    @Test
+    public void test_ST_AccumSpill() throws Exception {
+        Statement st = connection.createStatement();
+        String spillThreshold = System.setProperty("h2gis.aggregate.spillThreshold", "8192");
+        try {
+            ResultSet rs = st.executeQuery("SELECT ST_NumGeometries(G), ST_Z(ST_GeometryN(G, 2000)), ST_SRID(G) FROM "
+                    + "(SELECT ST_Accum(ST_SetSRID(ST_MakePoint(X, X, X * 2), 4326)) G FROM SYSTEM_RANGE(1, 2000))");
+            assertTrue(rs.next());
+            assertEquals(2000, rs.getInt(1));
+            assertEquals(4000, rs.getDouble(2), 0);
+            assertEquals(4326, rs.getInt(3));
+            rs.close();
+            rs = st.executeQuery("SELECT ST_Area(ST_Collect(footprint)) FROM buildings GROUP BY SUBSTRING(address,4)");
+            assertTrue(rs.next());
+            assertEquals(16, rs.getDouble(1), 1e-8);
+            rs.close();
+        } finally {
+            if (spillThreshold == null) {
+                System.clearProperty("h2gis.aggregate.spillThreshold");
+            } else {
+                System.setProperty("h2gis.aggregate.spillThreshold", spillThreshold);
+            }
+        }
+    }
+
     @Test
     public void test_ST_AccumPoint() throws Exception {
         Statement st = connection.createStatement();
@@ -0,0 +1,147 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.functions.spatial.sort;
+
+import org.h2gis.functions.factory.H2GISDBFactory;
+import org.junit.jupiter.api.*;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SortFunctionTest {
+
+    private static Connection connection;
+    private Statement st;
+
+    @BeforeAll
+    public static void tearUp() throws Exception {
+        // Keep a connection alive to not close the DataBase on each unit test
+        connection = H2GISDBFactory.createSpatialDataBase(SortFunctionTest.class.getSimpleName());
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        connection.close();
+    }
+
+    @BeforeEach
+    public void setUpStatement() throws Exception {
+        st = connection.createStatement();
+    }
+
+    @AfterEach
+    public void tearDownStatement() throws Exception {
+        st.close();
+    }
+
+    private static List<Integer> readIds(ResultSet rs) throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        while (rs.next()) {
+            ids.add(rs.getInt(1));
+        }
+        rs.close();
+        return ids;
+    }
+
+    @Test
+    public void test_ST_Hilbert() throws Exception {
+        String quadrants = "(VALUES (1, 'POINT(0.25 0.25)'), (2, 'POINT(0.75 0.25)'), (3, 'POINT(0.25 0.75)'), "
+                + "(4, 'POINT(0.75 0.75)')) T(ID, G)";
+        String extent = "'POLYGON((0 0, 1 0, 1 1, 0 1, 0 0))'";
+        // The Hilbert curve goes up, right then down
+        ResultSet rs = st.executeQuery("SELECT ID FROM " + quadrants + " ORDER BY ST_Hilbert(G, " + extent + ")");
+        List<Integer> ids = readIds(rs);
+        assertArrayEquals(new Integer[]{1, 3, 4, 2}, ids.toArray());
+        // The Z-order goes right, up-left then right
+        rs = st.executeQuery("SELECT ID FROM " + quadrants + " ORDER BY ST_ZOrder(G, " + extent + ")");
+        ids = readIds(rs);
+        assertArrayEquals(new Integer[]{1, 2, 3, 4}, ids.toArray());
+        rs = st.executeQuery("SELECT ST_Hilbert('POINT(0 0)', " + extent + "), ST_Hilbert('POINT(1 0)', " + extent + "), "
+                + "ST_ZOrder('POINT(1 1)', " + extent + "), ST_Hilbert(NULL, " + extent + ")");
+        assertTrue(rs.next());
+        assertEquals(0, rs.getLong(1));
+        // The Hilbert curve ends in the bottom right cell, the Z-order in the top right cell
+        assertEquals((1L << 62) - 1, rs.getLong(2));
+        assertEquals((1L << 62) - 1, rs.getLong(3));
+        assertNull(rs.getObject(4));
+        rs.close();
+    }
+
+    @Test
+    public void test_ST_HilbertSortTable() throws Exception {
+        st.execute("DROP TABLE IF EXISTS sort_points;"
+                + "CREATE TABLE sort_points(PK INTEGER PRIMARY KEY, THE_GEOM GEOMETRY(POINT) NOT NULL, "
+                + "NAME VARCHAR DEFAULT 'none', CHECK (PK > 0));"
+                + "INSERT INTO sort_points(PK, THE_GEOM) SELECT X, "
+                + "ST_MakePoint(MOD(X * 7919, 1000), MOD(X * 104729, 997)) FROM SYSTEM_RANGE(1, 5000);"
+                + "CREATE SPATIAL INDEX ON sort_points(THE_GEOM);"
+                + "CREATE INDEX sort_points_name ON sort_points(NAME);");
+        ResultSet rs = st.executeQuery("SELECT ST_HilbertSortTable('sort_points')");
+        assertTrue(rs.next());
+        assertTrue(rs.getBoolean(1));
+        rs.close();
+        rs = st.executeQuery("SELECT COUNT(*), SUM(PK) FROM sort_points");
+        assertTrue(rs.next());
+        assertEquals(5000, rs.getInt(1));
+        assertEquals(5000L * 5001 / 2, rs.getLong(2));
+        rs.close();
+        // The rows are stored along the Hilbert curve
+        List<Integer> stored = readIds(st.executeQuery("SELECT PK FROM sort_points ORDER BY _ROWID_"));
+        List<Integer> hilbert = readIds(st.executeQuery("SELECT PK FROM sort_points "
+                + "ORDER BY ST_Hilbert(THE_GEOM, (SELECT ST_Extent(THE_GEOM) FROM sort_points))"));
+        assertEquals(hilbert, stored);
+        // The constraints and the indexes are restored
+        rs = st.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.INDEXES WHERE TABLE_NAME = 'SORT_POINTS'");
+        assertTrue(rs.next());
+        assertEquals(3, rs.getInt(1));
+        rs.close();
+        assertThrows(Exception.class, () -> st.execute("INSERT INTO sort_points(PK, THE_GEOM) VALUES (1, 'POINT(0 0)')"));
+        assertThrows(Exception.class, () -> st.execute("INSERT INTO sort_points(PK, THE_GEOM) VALUES (-1, 'POINT(0 0)')"));
+        st.execute("INSERT INTO sort_points(PK, THE_GEOM) VALUES (5001, 'POINT(0 0)')");
+        rs = st.executeQuery("SELECT NAME FROM sort_points WHERE PK = 5001");
+        assertTrue(rs.next());
+        assertEquals("none", rs.getString(1));
+        rs.close();
+        rs = st.executeQuery("SELECT COUNT(*) FROM sort_points WHERE THE_GEOM && ST_Buffer('POINT(500 500)', 20)");
+        assertTrue(rs.next());
+        assertTrue(rs.getInt(1) > 0);
+        rs.close();
+        // The views and the foreign keys of other tables would be lost
+        st.execute("CREATE VIEW sort_points_view AS SELECT PK FROM sort_points WHERE PK > 10;");
+        assertThrows(SQLException.class, () -> st.executeQuery("SELECT ST_HilbertSortTable('sort_points')"));
+        st.execute("DROP VIEW sort_points_view;"
+                + "CREATE TABLE sort_points_child(ID INTEGER PRIMARY KEY, PK INTEGER REFERENCES sort_points(PK));");
+        assertThrows(SQLException.class, () -> st.executeQuery("SELECT ST_HilbertSortTable('sort_points')"));
+        st.execute("DROP TABLE sort_points_child;");
+        rs = st.executeQuery("SELECT ST_HilbertSortTable('sort_points')");
+        assertTrue(rs.next());
+        assertTrue(rs.getBoolean(1));
+        rs.close();
+        st.execute("DROP TABLE sort_points;");
+    }
+}
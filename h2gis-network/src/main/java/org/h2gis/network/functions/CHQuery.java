@@ -0,0 +1,271 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+package org.h2gis.network.functions;
+
+import org.h2gis.utilities.IntList;
+
+import java.util.Arrays;
+
+/**
+ * Shortest path queries on a {@link ContractionHierarchy}.
+ *
+ * A query runs a search from the source on the arcs going up the hierarchy
+ * and a search from the target on the arcs coming down, the shortest path
+ * goes through the vertex where the sum of the two distances is the
+ * smallest. The many-to-many query runs one backward search per target,
+ * whose distances are stored in buckets on the vertices they reach, then
+ * one forward search per source which scans these buckets.
+ *
+ * An instance is not thread safe, each thread must use its own instance on
+ * the shared hierarchy.
+ */
+public final class CHQuery {
+
+    private final ContractionHierarchy hierarchy;
+    private final Search forward;
+    private final Search backward;
+    private int meeting = -1;
+    // Buckets of the many-to-many query, a linked list of entries per vertex
+    private int[] bucketHead;
+    private int[] entryNext = new int[0];
+    private int[] entryTarget = new int[0];
+    private double[] entryDistance = new double[0];
+
+    /**
+     * @param hierarchy The contraction hierarchy
+     */
+    public CHQuery(ContractionHierarchy hierarchy) {
+        this.hierarchy = hierarchy;
+        forward = new Search(hierarchy, true);
+        backward = new Search(hierarchy, false);
+    }
+
+    /**
+     * Compute the distance between two vertices.
+     *
+     * @param source Source vertex index
+     * @param target Target vertex index
+     * @return The distance, or infinity if the target cannot be reached
+     */
+    public double oneToOne(int source, int target) {
+        forward.start(source);
+        backward.start(target);
+        double best = Double.POSITIVE_INFINITY;
+        meeting = -1;
+        if (source == target) {
+            meeting = source;
+            best = 0;
+        }
+        while (true) {
+            final boolean forwardDone = forward.isDone(best);
+            final boolean backwardDone = backward.isDone(best);
+            if (forwardDone && backwardDone) {
+                break;
+            }
+            final Search search = backwardDone || (!forwardDone && forward.nextDistance() <= backward.nextDistance())
+                    ? forward : backward;
+            final Search other = search == forward ? backward : forward;
+            final int v = search.settleNext();
+            final double d = search.distance[v] + other.distance[v];
+            if (d < best) {
+                best = d;
+                meeting = v;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return the arcs of the graph on the shortest path found by the last
+     * {@link #oneToOne} query, the shortcuts being unpacked.
+     *
+     * @return The arc indexes of the hierarchy from the source to the
+     * target, null if the target cannot be reached
+     */
+    public int[] getPathArcs() {
+        if (meeting == -1) {
+            return null;
+        }
+        int count = 0;
+        for (int v = meeting; forward.predecessorArc[v] != -1; v = hierarchy.getSource(forward.predecessorArc[v])) {
+            count++;
+        }
+        final int[] up = new int[count];
+        for (int v = meeting; forward.predecessorArc[v] != -1; v = hierarchy.getSource(forward.predecessorArc[v])) {
+            up[--count] = forward.predecessorArc[v];
+        }
+        final IntList arcs = new IntList();
+        for (int arc : up) {
+            unpack(arc, arcs);
+        }
+        for (int v = meeting; backward.predecessorArc[v] != -1; v = hierarchy.getTarget(backward.predecessorArc[v])) {
+            unpack(backward.predecessorArc[v], arcs);
+        }
+        return arcs.toArray();
+    }
+
+    /**
+     * Append the arcs of the graph represented by an arc of the hierarchy.
+     */
+    private void unpack(int arc, IntList arcs) {
+        final IntList stack = new IntList();
+        stack.add(arc);
+        while (stack.size() > 0) {
+            final int a = stack.removeLast();
+            if (hierarchy.isShortcut(a)) {
+                // The second arc is unpacked after the first one
+                stack.add(hierarchy.getSecondArc(a));
+                stack.add(hierarchy.getFirstArc(a));
+            } else {
+                arcs.add(a);
+            }
+        }
+    }
+
+    /**
+     * Compute the distances between all the sources and all the targets.
+     *
+     * @param sources Source vertex indexes
+     * @param targets Target vertex indexes
+     * @return The distances, indexed by the source then by the target,
+     * infinity when a target cannot be reached
+     */
+    public double[][] manyToMany(int[] sources, int[] targets) {
+        if (bucketHead == null) {
+            bucketHead = new int[hierarchy.getVertexCount()];
+            Arrays.fill(bucketHead, -1);
+        }
+        final IntList filled = new IntList();
+        int entryCount = 0;
+        for (int j = 0; j < targets.length; j++) {
+            backward.start(targets[j]);
+            while (!backward.isDone(Double.POSITIVE_INFINITY)) {
+                final int v = backward.settleNext();
+                if (entryCount == entryNext.length) {
+                    final int capacity = Math.max(16, 2 * entryCount);
+                    entryNext = Arrays.copyOf(entryNext, capacity);
+                    entryTarget = Arrays.copyOf(entryTarget, capacity);
+                    entryDistance = Arrays.copyOf(entryDistance, capacity);
+                }
+                if (bucketHead[v] == -1) {
+                    filled.add(v);
+                }
+                entryNext[entryCount] = bucketHead[v];
+                entryTarget[entryCount] = j;
+                entryDistance[entryCount] = backward.distance[v];
+                bucketHead[v] = entryCount++;
+            }
+        }
+        final double[][] result = new double[sources.length][targets.length];
+        for (int i = 0; i < sources.length; i++) {
+            final double[] row = result[i];
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+            forward.start(sources[i]);
+            while (!forward.isDone(Double.POSITIVE_INFINITY)) {
+                final int v = forward.settleNext();
+                final double d = forward.distance[v];
+                for (int e = bucketHead[v]; e != -1; e = entryNext[e]) {
+                    final double total = d + entryDistance[e];
+                    if (total < row[entryTarget[e]]) {
+                        row[entryTarget[e]] = total;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < filled.size(); i++) {
+            bucketHead[filled.get(i)] = -1;
+        }
+        meeting = -1;
+        return result;
+    }
+
+    /**
+     * A Dijkstra search going up the hierarchy, from the source on the
+     * upward arcs or from the target on the downward arcs.
+     */
+    private static final class Search {
+
+        private final ContractionHierarchy hierarchy;
+        private final boolean isForward;
+        private final double[] distance;
+        private final int[] predecessorArc;
+        private final int[] reached;
+        private int reachedCount = 0;
+        private final IndexedHeap heap;
+
+        Search(ContractionHierarchy hierarchy, boolean isForward) {
+            this.hierarchy = hierarchy;
+            this.isForward = isForward;
+            final int n = hierarchy.getVertexCount();
+            distance = new double[n];
+            predecessorArc = new int[n];
+            reached = new int[n];
+            heap = new IndexedHeap(n);
+            Arrays.fill(distance, Double.POSITIVE_INFINITY);
+            Arrays.fill(predecessorArc, -1);
+        }
+
+        void start(int source) {
+            for (int i = 0; i < reachedCount; i++) {
+                distance[reached[i]] = Double.POSITIVE_INFINITY;
+                predecessorArc[reached[i]] = -1;
+            }
+            reachedCount = 0;
+            heap.clear();
+            distance[source] = 0;
+            reached[reachedCount++] = source;
+            heap.push(source, 0);
+        }
+
+        /**
+         * @param best Length of the best path found so far
+         * @return True if the search cannot improve this path
+         */
+        boolean isDone(double best) {
+            return heap.isEmpty() || heap.peekKey() >= best;
+        }
+
+        double nextDistance() {
+            return heap.peekKey();
+        }
+
+        int settleNext() {
+            final int v = heap.poll();
+            final double d = distance[v];
+            final int first = isForward ? hierarchy.getFirstUpArc(v) : hierarchy.getFirstDownArc(v);
+            final int last = isForward ? hierarchy.getLastUpArc(v) : hierarchy.getLastDownArc(v);
+            for (int i = first; i < last; i++) {
+                final int arc = isForward ? hierarchy.getUpArc(i) : hierarchy.getDownArc(i);
+                final int w = isForward ? hierarchy.getTarget(arc) : hierarchy.getSource(arc);
+                final double dw = d + hierarchy.getWeight(arc);
+                if (dw < distance[w]) {
+                    if (distance[w] == Double.POSITIVE_INFINITY) {
+                        reached[reachedCount++] = w;
+                    }
+                    distance[w] = dw;
+                    predecessorArc[w] = arc;
+                    heap.push(w, dw);
+                }
+            }
+            return v;
+        }
+    }
+}
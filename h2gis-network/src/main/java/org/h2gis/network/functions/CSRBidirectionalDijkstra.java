@@ -0,0 +1,128 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+package org.h2gis.network.functions;
+
+/**
+ * Bidirectional Dijkstra's algorithm on a {@link CSRGraph}: a search from the
+ * source on the graph and a search from the target on the reversed graph are
+ * run alternately until they meet.
+ *
+ * It needs no coordinates, and settles about half the vertices of a one way
+ * search on road-like networks. An instance is not thread safe.
+ */
+public final class CSRBidirectionalDijkstra {
+
+    private final CSRDijkstra forward;
+    private final CSRDijkstra backward;
+    private double best;
+    /**
+     * Arc joining the two searches on the best path, and the graph it
+     * belongs to
+     */
+    private int meetingArc;
+    private boolean meetingForward;
+    private int source;
+    private int target;
+
+    /**
+     * @param graph The graph
+     */
+    public CSRBidirectionalDijkstra(CSRGraph graph) {
+        forward = new CSRDijkstra(graph);
+        backward = new CSRDijkstra(graph.getReversed());
+    }
+
+    /**
+     * Compute the distance between two vertices.
+     *
+     * @param source Source vertex index
+     * @param target Target vertex index
+     * @return The distance, or infinity if the target cannot be reached
+     */
+    public double oneToOne(int source, int target) {
+        this.source = source;
+        this.target = target;
+        forward.start(source);
+        backward.start(target);
+        meetingArc = -1;
+        best = source == target ? 0 : Double.POSITIVE_INFINITY;
+        while (true) {
+            final double f = forward.getNextDistance();
+            final double b = backward.getNextDistance();
+            // No path through an unsettled vertex can be shorter
+            if (f == Double.POSITIVE_INFINITY || b == Double.POSITIVE_INFINITY || f + b >= best) {
+                break;
+            }
+            if (f <= b) {
+                scan(forward, backward, true);
+            } else {
+                scan(backward, forward, false);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Settle the next vertex of a search and look for a shorter path through
+     * its arcs toward the vertices reached by the other search.
+     */
+    private void scan(CSRDijkstra search, CSRDijkstra other, boolean isForward) {
+        final int v = search.settleNext();
+        final CSRGraph graph = search.getGraph();
+        final double d = search.getDistance(v);
+        for (int arc = graph.getFirstArc(v), last = graph.getLastArc(v); arc < last; arc++) {
+            final double length = d + graph.getWeight(arc) + other.getDistance(graph.getTarget(arc));
+            if (length < best) {
+                best = length;
+                meetingArc = arc;
+                meetingForward = isForward;
+            }
+        }
+    }
+
+    /**
+     * Return the arcs of the shortest path found by the last search.
+     *
+     * @return The arc indexes in the graph from the source to the target,
+     * null if the target cannot be reached
+     */
+    public int[] getPathArcs() {
+        if (source == target) {
+            return new int[0];
+        }
+        if (meetingArc == -1) {
+            return null;
+        }
+        final CSRGraph graph = forward.getGraph();
+        final CSRGraph reversed = backward.getGraph();
+        final int arc = meetingForward ? meetingArc : reversed.getReversedArc(meetingArc);
+        final int[] head = forward.getPathArcs(graph.getSource(arc));
+        final int[] tail = backward.getPathArcs(graph.getTarget(arc));
+        final int[] arcs = new int[head.length + 1 + tail.length];
+        System.arraycopy(head, 0, arcs, 0, head.length);
+        arcs[head.length] = arc;
+        // The backward path goes from the target to the meeting vertex
+        for (int i = 0; i < tail.length; i++) {
+            arcs[arcs.length - 1 - i] = reversed.getReversedArc(tail[i]);
+        }
+        return arcs;
+    }
+}
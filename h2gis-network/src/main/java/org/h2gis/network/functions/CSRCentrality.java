@@ -0,0 +1,412 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+package org.h2gis.network.functions;
+
+import org.h2gis.utilities.ParallelUtilities;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * Closeness and betweenness centrality of the vertices, and betweenness
+ * centrality of the edges of a {@link CSRGraph}, with Brandes' algorithm.
+ *
+ * The shortest path searches are split between a pool of worker threads,
+ * each worker keeps its own search state and accumulators which are summed
+ * once all the searches are done. The betweenness values are normalized
+ * between 0 and 1, the closeness of a vertex is the inverse of its average
+ * distance to the other vertices, or 0 if it cannot reach all of them.
+ *
+ * The centrality may also be estimated from the searches of a sample of
+ * pivot vertices, see {@link #estimate(CSRGraph, CSRGraph, int, Random)}.
+ */
+final class CSRCentrality {
+
+    /**
+     * Two path lengths closer than this are considered equal, so that all
+     * the shortest paths are counted despite rounding errors
+     */
+    private static final double TIE_TOLERANCE = 1e-9;
+
+    private final double[] betweenness;
+    private final double[] closeness;
+    private final int[] edgeIds;
+    private final double[] edgeBetweenness;
+
+    private CSRCentrality(double[] betweenness, double[] closeness,
+                          int[] edgeIds, double[] edgeBetweenness) {
+        this.betweenness = betweenness;
+        this.closeness = closeness;
+        this.edgeIds = edgeIds;
+        this.edgeBetweenness = edgeBetweenness;
+    }
+
+    /**
+     * Compute the exact centrality, with a search from every vertex.
+     *
+     * @param graph The graph
+     * @return The centrality
+     * @throws SQLException if the computation fails or is interrupted
+     */
+    static CSRCentrality compute(CSRGraph graph) throws SQLException {
+        final int n = graph.getVertexCount();
+        final int[] sources = new int[n];
+        for (int i = 0; i < n; i++) {
+            sources[i] = i;
+        }
+        final double[] closeness = new double[n];
+        final Worker total = run(graph, null, sources, closeness);
+        return new CSRCentrality(normalize(total.betweenness), closeness,
+                edgeIds(graph), normalize(edgeBetweenness(graph, total.arcBetweenness)));
+    }
+
+    /**
+     * Estimate the centrality from the searches of randomly chosen pivots.
+     *
+     * The betweenness sums the dependencies of the vertices and edges on the
+     * pivots only, the normalization removes the n / k scale factor. The
+     * average distance of a vertex is estimated from its distances to the
+     * pivots, n / (k (n - 1)) times their sum. A vertex which cannot be
+     * reached from a pivot has a closeness of 0.
+     *
+     * @param graph      The graph
+     * @param reversed   The reversed graph, used to compute the distances to
+     *                   the pivots. The graph itself if it is undirected
+     * @param pivotCount Number of pivots, all the vertices are used if it is
+     *                   not smaller than their number
+     * @param random     Random generator choosing the pivots
+     * @return The centrality
+     * @throws SQLException if the computation fails or is interrupted
+     */
+    static CSRCentrality estimate(CSRGraph graph, CSRGraph reversed,
+                                  int pivotCount, Random random) throws SQLException {
+        final int n = graph.getVertexCount();
+        if (pivotCount >= n) {
+            return compute(graph);
+        }
+        // Partial Fisher-Yates shuffle
+        final int[] vertices = new int[n];
+        for (int i = 0; i < n; i++) {
+            vertices[i] = i;
+        }
+        for (int i = 0; i < pivotCount; i++) {
+            final int j = i + random.nextInt(n - i);
+            final int v = vertices[j];
+            vertices[j] = vertices[i];
+            vertices[i] = v;
+        }
+        final int[] pivots = Arrays.copyOf(vertices, pivotCount);
+        final Worker total = run(graph, reversed, pivots, null);
+        final double[] closeness = new double[n];
+        for (int v = 0; v < n; v++) {
+            if (total.reachCount[v] == pivotCount && total.distanceSum[v] > 0) {
+                final double average = n * total.distanceSum[v] / ((double) pivotCount * (n - 1));
+                closeness[v] = 1 / average;
+            }
+        }
+        return new CSRCentrality(normalize(total.betweenness), closeness,
+                edgeIds(graph), normalize(edgeBetweenness(graph, total.arcBetweenness)));
+    }
+
+    /**
+     * @return The betweenness of the vertices, by vertex index
+     */
+    double[] getBetweenness() {
+        return betweenness;
+    }
+
+    /**
+     * @return The closeness of the vertices, by vertex index
+     */
+    double[] getCloseness() {
+        return closeness;
+    }
+
+    /**
+     * @return The distinct edge ids of the arcs, sorted
+     */
+    int[] getEdgeIds() {
+        return edgeIds;
+    }
+
+    /**
+     * @return The betweenness of the edges, in the order of {@link #getEdgeIds()}
+     */
+    double[] getEdgeBetweenness() {
+        return edgeBetweenness;
+    }
+
+    /**
+     * Run the searches from the sources on the shared pool of worker threads
+     * and sum their accumulators.
+     */
+    private static Worker run(CSRGraph graph, CSRGraph reversed, int[] sources,
+                              double[] closeness) throws SQLException {
+        final int threadCount = Math.max(1, Math.min(sources.length, ParallelUtilities.getThreadCount()));
+        // Sources are dealt round-robin so that the sums do not depend
+        // on the scheduling of the threads
+        List<Worker> workers = new ArrayList<Worker>(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            workers.add(new Worker(graph, reversed, sources, t, threadCount, closeness));
+        }
+        Worker total = null;
+        for (Worker worker : ParallelUtilities.invokeAll(workers, "centrality computation")) {
+            if (total == null) {
+                total = worker;
+            } else {
+                total.add(worker);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return The distinct edge ids of the arcs of the graph, sorted
+     */
+    private static int[] edgeIds(CSRGraph graph) {
+        final int m = graph.getArcCount();
+        final int[] ids = new int[m];
+        for (int arc = 0; arc < m; arc++) {
+            ids[arc] = graph.getEdgeId(arc);
+        }
+        Arrays.sort(ids);
+        int count = 0;
+        for (int i = 0; i < m; i++) {
+            if (count == 0 || ids[i] != ids[count - 1]) {
+                ids[count++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Sum the betweenness of the arcs by edge id, the two arcs of an
+     * undirected edge share its id.
+     */
+    private static double[] edgeBetweenness(CSRGraph graph, double[] arcBetweenness) {
+        final int[] ids = edgeIds(graph);
+        final double[] result = new double[ids.length];
+        for (int arc = 0; arc < arcBetweenness.length; arc++) {
+            result[Arrays.binarySearch(ids, graph.getEdgeId(arc))] += arcBetweenness[arc];
+        }
+        return result;
+    }
+
+    /**
+     * Scale the values between 0 and 1, they are kept as is if they are all
+     * equal.
+     */
+    private static double[] normalize(double[] values) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : values) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        final double range = max - min;
+        if (range > 0) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = (values[i] - min) / range;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Searches from a share of the sources, with the accumulators of their
+     * dependencies
+     */
+    private static final class Worker implements Callable<Worker> {
+
+        private final CSRGraph graph;
+        private final int[] sources;
+        private final int first;
+        private final int step;
+        /**
+         * Closeness by source index, filled by the exact computation only
+         */
+        private final double[] closeness;
+        private final CSRDijkstra dijkstra;
+        /**
+         * Search of the distances to the source, for the estimated closeness.
+         * The forward search itself on an undirected graph
+         */
+        private final CSRDijkstra reversedDijkstra;
+        private final int[] order;
+        private final int[] rank;
+        private final double[] sigma;
+        private final double[] delta;
+        /**
+         * Dependency of the source on the arcs of the shortest paths going
+         * through a vertex
+         */
+        private final double[] arcDelta;
+        /**
+         * Marks the successors of the vertex whose dependency is accumulated
+         */
+        private final int[] successor;
+        private final double[] betweenness;
+        private final double[] arcBetweenness;
+        private final double[] distanceSum;
+        private final int[] reachCount;
+
+        Worker(CSRGraph graph, CSRGraph reversed, int[] sources, int first, int step,
+               double[] closeness) {
+            this.graph = graph;
+            this.sources = sources;
+            this.first = first;
+            this.step = step;
+            this.closeness = closeness;
+            final int n = graph.getVertexCount();
+            dijkstra = new CSRDijkstra(graph);
+            order = new int[n];
+            rank = new int[n];
+            sigma = new double[n];
+            delta = new double[n];
+            arcDelta = new double[n];
+            successor = new int[n];
+            Arrays.fill(successor, -1);
+            betweenness = new double[n];
+            arcBetweenness = new double[graph.getArcCount()];
+            if (reversed != null) {
+                reversedDijkstra = reversed == graph ? dijkstra : new CSRDijkstra(reversed);
+                distanceSum = new double[n];
+                reachCount = new int[n];
+            } else {
+                reversedDijkstra = null;
+                distanceSum = null;
+                reachCount = null;
+            }
+        }
+
+        @Override
+        public Worker call() {
+            for (int i = first; i < sources.length; i += step) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                accumulate(sources[i]);
+            }
+            return this;
+        }
+
+        private void accumulate(int source) {
+            // Settle all the reachable vertices, in order of distance
+            dijkstra.start(source);
+            int count = 0;
+            while (dijkstra.getNextDistance() < Double.POSITIVE_INFINITY) {
+                final int v = dijkstra.settleNext();
+                order[count] = v;
+                rank[v] = count;
+                sigma[v] = 0;
+                delta[v] = 0;
+                arcDelta[v] = 0;
+                count++;
+            }
+            // Count the shortest paths
+            sigma[source] = 1;
+            for (int i = 0; i < count; i++) {
+                final int v = order[i];
+                for (int arc = graph.getFirstArc(v), last = graph.getLastArc(v); arc < last; arc++) {
+                    final int w = graph.getTarget(arc);
+                    if (isShortestPathArc(v, arc, w)) {
+                        sigma[w] += sigma[v];
+                    }
+                }
+            }
+            // Accumulate the dependencies from the farthest vertices. The
+            // shortest paths through parallel arcs are counted separately,
+            // but the dependency of a vertex on a successor is counted once
+            for (int i = count - 1; i >= 0; i--) {
+                final int v = order[i];
+                final int first = graph.getFirstArc(v);
+                final int last = graph.getLastArc(v);
+                for (int arc = first; arc < last; arc++) {
+                    final int w = graph.getTarget(arc);
+                    if (isShortestPathArc(v, arc, w)) {
+                        final double ratio = sigma[v] / sigma[w];
+                        if (successor[w] != v) {
+                            successor[w] = v;
+                            delta[v] += ratio * (1 + delta[w]);
+                        }
+                        final double dependency = ratio * (1 + arcDelta[w]);
+                        arcDelta[v] += dependency;
+                        arcBetweenness[arc] += dependency;
+                    }
+                }
+                for (int arc = first; arc < last; arc++) {
+                    successor[graph.getTarget(arc)] = -1;
+                }
+                if (v != source) {
+                    betweenness[v] += delta[v];
+                }
+            }
+            if (reversedDijkstra == null) {
+                double sum = 0;
+                for (int i = 1; i < count; i++) {
+                    sum += dijkstra.getDistance(order[i]);
+                }
+                final int n = graph.getVertexCount();
+                if (count == n && sum > 0) {
+                    closeness[source] = 1 / (sum / (n - 1));
+                }
+            } else {
+                if (reversedDijkstra != dijkstra) {
+                    reversedDijkstra.calculate(source);
+                }
+                for (int i = 0, reached = reversedDijkstra.getReachedCount(); i < reached; i++) {
+                    final int v = reversedDijkstra.getReached(i);
+                    distanceSum[v] += reversedDijkstra.getDistance(v);
+                    reachCount[v]++;
+                }
+            }
+        }
+
+        /**
+         * @return True if the arc from v to w is on a shortest path from the
+         * source, the rank check ignores the arcs of null weight going back
+         */
+        private boolean isShortestPathArc(int v, int arc, int w) {
+            return dijkstra.isSettled(w) && rank[w] > rank[v]
+                    && Math.abs(dijkstra.getDistance(v) + graph.getWeight(arc)
+                    - dijkstra.getDistance(w)) < TIE_TOLERANCE;
+        }
+
+        private void add(Worker other) {
+            for (int v = 0; v < betweenness.length; v++) {
+                betweenness[v] += other.betweenness[v];
+            }
+            for (int arc = 0; arc < arcBetweenness.length; arc++) {
+                arcBetweenness[arc] += other.arcBetweenness[arc];
+            }
+            if (distanceSum != null) {
+                for (int v = 0; v < distanceSum.length; v++) {
+                    distanceSum[v] += other.distanceSum[v];
+                    reachCount[v] += other.reachCount[v];
+                }
+            }
+        }
+    }
+}
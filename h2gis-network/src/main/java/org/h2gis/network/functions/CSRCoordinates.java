@@ -0,0 +1,115 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+package org.h2gis.network.functions;
+
+/**
+ * Coordinates of the vertices of a {@link CSRGraph}, used as lower bounds of
+ * the distances by the goal directed searches.
+ *
+ * The lower bound between two vertices is their straight line distance
+ * multiplied by the smallest ratio between the weight of an arc and the
+ * straight line distance between its vertices. It is therefore a valid
+ * bound for any weight column, and the search stays exact. The great circle
+ * distance is used for geographic coordinates.
+ *
+ * The coordinates are immutable and can be shared by several threads.
+ */
+public final class CSRCoordinates {
+
+    /**
+     * Mean radius of the earth in meters
+     */
+    private static final double EARTH_RADIUS = 6371008.8;
+
+    private final double[] x;
+    private final double[] y;
+    private final boolean geographic;
+    private final double scale;
+
+    /**
+     * @param graph      The graph
+     * @param x          X (or longitude) of each vertex index, NaN when unknown
+     * @param y          Y (or latitude) of each vertex index, NaN when unknown
+     * @param geographic True if the coordinates are longitudes and latitudes
+     *                   in degrees
+     */
+    public CSRCoordinates(CSRGraph graph, double[] x, double[] y, boolean geographic) {
+        this.x = x;
+        this.y = y;
+        this.geographic = geographic;
+        this.scale = computeScale(graph);
+    }
+
+    /**
+     * The smallest weight per distance unit of the arcs, reduced a little to
+     * absorb the rounding errors. It is 0, hence no bound, if a vertex has no
+     * coordinates.
+     */
+    private double computeScale(CSRGraph graph) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int v = 0; v < graph.getVertexCount(); v++) {
+            if (Double.isNaN(x[v]) || Double.isNaN(y[v])) {
+                return 0;
+            }
+            for (int arc = graph.getFirstArc(v), last = graph.getLastArc(v); arc < last; arc++) {
+                final double d = distance(v, graph.getTarget(arc));
+                if (d > 0) {
+                    min = Math.min(min, graph.getWeight(arc) / d);
+                }
+            }
+        }
+        if (min == Double.POSITIVE_INFINITY || !(min > 0)) {
+            return 0;
+        }
+        return min * (1 - 1e-9);
+    }
+
+    /**
+     * @return The smallest weight per distance unit of the arcs, 0 if the
+     * coordinates give no bound
+     */
+    public double getScale() {
+        return scale;
+    }
+
+    /**
+     * @param v Vertex index
+     * @param w Vertex index
+     * @return A lower bound of the distance between the two vertices
+     */
+    public double lowerBound(int v, int w) {
+        return scale == 0 ? 0 : scale * distance(v, w);
+    }
+
+    private double distance(int v, int w) {
+        if (geographic) {
+            final double lat1 = Math.toRadians(y[v]);
+            final double lat2 = Math.toRadians(y[w]);
+            final double sinLat = Math.sin((lat2 - lat1) / 2);
+            final double sinLon = Math.sin(Math.toRadians(x[w] - x[v]) / 2);
+            final double h = sinLat * sinLat + Math.cos(lat1) * Math.cos(lat2) * sinLon * sinLon;
+            return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+        }
+        final double dx = x[w] - x[v];
+        final double dy = y[w] - y[v];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,347 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+package org.h2gis.network.functions;
+
+import java.util.Arrays;
+
+/**
+ * Dijkstra's algorithm on a {@link CSRGraph}, with an {@link IndexedHeap} of
+ * the vertices. The one-to-one search can be goal directed (A*) with the
+ * lower bounds given by {@link CSRCoordinates}.
+ *
+ * The distances and the predecessors are kept in arrays sized to the graph,
+ * only the vertices reached by the previous search are reset, so an instance
+ * is cheap to reuse for many searches. An instance is not thread safe, each
+ * thread must use its own instance on the shared graph.
+ */
+public final class CSRDijkstra {
+
+    private final CSRGraph graph;
+    private final double[] distance;
+    private final int[] predecessorArc;
+    /**
+     * Vertices reached but not settled, their key is the distance plus the
+     * lower bound to the goal of an A* search
+     */
+    private final IndexedHeap heap;
+    private final int[] reached;
+    private int reachedCount = 0;
+    /**
+     * Marks the targets of the current oneToMany search
+     */
+    private int[] targetStamp;
+    private int stamp = 0;
+    /**
+     * Lower bounds and goal of the current A* search, null for Dijkstra
+     */
+    private CSRCoordinates coordinates;
+    private int goal;
+
+    /**
+     * @param graph The graph
+     */
+    public CSRDijkstra(CSRGraph graph) {
+        this.graph = graph;
+        final int n = graph.getVertexCount();
+        distance = new double[n];
+        predecessorArc = new int[n];
+        heap = new IndexedHeap(n);
+        reached = new int[n];
+        Arrays.fill(distance, Double.POSITIVE_INFINITY);
+        Arrays.fill(predecessorArc, -1);
+    }
+
+    /**
+     * @return The graph
+     */
+    public CSRGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Compute the shortest paths from a source to all the vertices closer
+     * than a limit.
+     *
+     * @param source Source vertex index
+     * @param limit  Maximum distance, the vertices farther are not reached
+     */
+    public void calculate(int source, double limit) {
+        start(source);
+        while (!heap.isEmpty()) {
+            if (heap.peekKey() > limit) {
+                break;
+            }
+            relax(heap.poll());
+        }
+        clearFartherThan(limit);
+    }
+
+    /**
+     * Compute the shortest paths from a source to all the vertices.
+     *
+     * @param source Source vertex index
+     */
+    public void calculate(int source) {
+        calculate(source, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Compute the distance between two vertices, the search stops when the
+     * target is reached.
+     *
+     * @param source Source vertex index
+     * @param target Target vertex index
+     * @return The distance, or infinity if the target cannot be reached
+     */
+    public double oneToOne(int source, int target) {
+        start(source);
+        return searchTarget(target);
+    }
+
+    /**
+     * Compute the distance between two vertices with the A* algorithm, the
+     * vertices are visited in the order of their distance to the source plus
+     * their lower bound to the target.
+     *
+     * @param source      Source vertex index
+     * @param target      Target vertex index
+     * @param coordinates Lower bounds of the distances between the vertices
+     * @return The distance, or infinity if the target cannot be reached
+     */
+    public double oneToOne(int source, int target, CSRCoordinates coordinates) {
+        init(source);
+        this.coordinates = coordinates;
+        this.goal = target;
+        heap.push(source, coordinates.lowerBound(source, target));
+        return searchTarget(target);
+    }
+
+    private double searchTarget(int target) {
+        while (!heap.isEmpty()) {
+            final int v = heap.poll();
+            if (v == target) {
+                break;
+            }
+            relax(v);
+        }
+        return distance[target];
+    }
+
+    /**
+     * Compute the distances from a source to several targets, the search
+     * stops when all the targets are reached.
+     *
+     * @param source  Source vertex index
+     * @param targets Target vertex indexes
+     * @return The distances to the targets, infinity for a target that cannot
+     * be reached
+     */
+    public double[] oneToMany(int source, int[] targets) {
+        start(source);
+        if (targetStamp == null) {
+            targetStamp = new int[graph.getVertexCount()];
+        }
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(targetStamp, 0);
+            stamp = 0;
+        }
+        stamp++;
+        // The targets are counted once even if they are repeated
+        int remaining = 0;
+        for (int t : targets) {
+            if (targetStamp[t] != stamp) {
+                targetStamp[t] = stamp;
+                remaining++;
+            }
+        }
+        while (!heap.isEmpty()) {
+            final int v = heap.poll();
+            if (targetStamp[v] == stamp && --remaining == 0) {
+                break;
+            }
+            relax(v);
+        }
+        final double[] result = new double[targets.length];
+        for (int i = 0; i < targets.length; i++) {
+            result[i] = distance[targets[i]];
+        }
+        return result;
+    }
+
+    /**
+     * @param vertex Vertex index
+     * @return The distance of the vertex to the source of the last search,
+     * infinity if it was not reached. The distance is the shortest one only
+     * if the vertex is settled
+     */
+    public double getDistance(int vertex) {
+        return distance[vertex];
+    }
+
+    /**
+     * @param vertex Vertex index
+     * @return The arc used to reach the vertex during the last search, -1 for
+     * the source and for the vertices that were not reached
+     */
+    public int getPredecessorArc(int vertex) {
+        return predecessorArc[vertex];
+    }
+
+    /**
+     * @param vertex Vertex index
+     * @return True if the shortest path to the vertex is known
+     */
+    public boolean isSettled(int vertex) {
+        return distance[vertex] != Double.POSITIVE_INFINITY && !heap.contains(vertex);
+    }
+
+    /**
+     * Return the arcs of the shortest path found by the last search.
+     *
+     * @param vertex Settled vertex index
+     * @return The arc indexes from the source to the vertex
+     */
+    public int[] getPathArcs(int vertex) {
+        int count = 0;
+        for (int v = vertex; predecessorArc[v] != -1; v = graph.getSource(predecessorArc[v])) {
+            count++;
+        }
+        final int[] arcs = new int[count];
+        for (int v = vertex; predecessorArc[v] != -1; v = graph.getSource(predecessorArc[v])) {
+            arcs[--count] = predecessorArc[v];
+        }
+        return arcs;
+    }
+
+    /**
+     * @return The number of vertices reached by the last search
+     */
+    public int getReachedCount() {
+        return reachedCount;
+    }
+
+    /**
+     * @param i Index between 0 and {@link #getReachedCount()} (exclusive)
+     * @return A vertex reached by the last search
+     */
+    public int getReached(int i) {
+        return reached[i];
+    }
+
+    /**
+     * Start a Dijkstra search, the vertices are then settled one by one with
+     * {@link #settleNext()}.
+     *
+     * @param source Source vertex index
+     */
+    void start(int source) {
+        init(source);
+        heap.push(source, 0);
+    }
+
+    /**
+     * Start a Dijkstra search from several sources at distance 0, each vertex
+     * is then settled from its closest source.
+     *
+     * @param sources Source vertex indexes, at least one
+     */
+    void start(int[] sources) {
+        start(sources[0]);
+        for (int i = 1; i < sources.length; i++) {
+            final int source = sources[i];
+            if (!heap.contains(source)) {
+                distance[source] = 0;
+                reached[reachedCount++] = source;
+                heap.push(source, 0);
+            }
+        }
+    }
+
+    /**
+     * @return The distance of the next vertex to settle, infinity if the
+     * search is over
+     */
+    double getNextDistance() {
+        return heap.isEmpty() ? Double.POSITIVE_INFINITY : heap.peekKey();
+    }
+
+    /**
+     * Settle the closest vertex of the heap and relax its arcs.
+     *
+     * @return The settled vertex index
+     */
+    int settleNext() {
+        final int v = heap.poll();
+        relax(v);
+        return v;
+    }
+
+    private void init(int source) {
+        for (int i = 0; i < reachedCount; i++) {
+            final int v = reached[i];
+            distance[v] = Double.POSITIVE_INFINITY;
+            predecessorArc[v] = -1;
+        }
+        reachedCount = 0;
+        heap.clear();
+        coordinates = null;
+        distance[source] = 0;
+        reached[reachedCount++] = source;
+    }
+
+    private void relax(int v) {
+        final double d = distance[v];
+        for (int arc = graph.getFirstArc(v), last = graph.getLastArc(v); arc < last; arc++) {
+            final int w = graph.getTarget(arc);
+            final double dw = d + graph.getWeight(arc);
+            if (dw < distance[w]) {
+                if (distance[w] == Double.POSITIVE_INFINITY) {
+                    reached[reachedCount++] = w;
+                } else if (!heap.contains(w)) {
+                    // Settled
+                    continue;
+                }
+                distance[w] = dw;
+                predecessorArc[w] = arc;
+                heap.push(w, coordinates == null ? dw : dw + coordinates.lowerBound(w, goal));
+            }
+        }
+    }
+
+    /**
+     * Forget the vertices reached farther than the limit, they stay in the
+     * heap when the search stops
+     */
+    private void clearFartherThan(double limit) {
+        int kept = 0;
+        for (int i = 0; i < reachedCount; i++) {
+            final int v = reached[i];
+            if (distance[v] > limit) {
+                distance[v] = Double.POSITIVE_INFINITY;
+                predecessorArc[v] = -1;
+            } else {
+                reached[kept++] = v;
+            }
+        }
+        reachedCount = kept;
+        heap.clear();
+    }
+}
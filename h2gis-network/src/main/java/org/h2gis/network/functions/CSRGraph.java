@@ -0,0 +1,313 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+package org.h2gis.network.functions;
+
+import java.util.Arrays;
+
+/**
+ * A graph stored in compressed sparse row arrays.
+ *
+ * The vertices are numbered from 0 to n-1 in the order of their ids. The arcs
+ * leaving the vertex v are numbered from {@link #getFirstArc(int)} to
+ * {@link #getLastArc(int)} (exclusive), each arc has a target vertex, a
+ * weight and the id of its edge. As in the JGraphT graphs built by
+ * {@link GraphCreator}, an undirected edge of a directed graph is stored as
+ * two arcs, the reversed one having the opposite edge id.
+ *
+ * The graph is immutable and can be shared by several threads.
+ */
+public final class CSRGraph {
+
+    private final int[] vertexIds;
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+    private final int[] edgeIds;
+    /**
+     * Index of the vertex id - minId, or null when the ids are too sparse
+     * and are looked up by a binary search in vertexIds
+     */
+    private final int[] denseIndex;
+    private final int minId;
+    private CSRGraph reversed;
+    /**
+     * Index of each arc in the reversed graph
+     */
+    private int[] reversedArcs;
+
+    private CSRGraph(int[] vertexIds, int[] offsets, int[] targets, double[] weights, int[] edgeIds) {
+        this.vertexIds = vertexIds;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.edgeIds = edgeIds;
+        final int n = vertexIds.length;
+        if (n > 0 && (long) vertexIds[n - 1] - vertexIds[0] < 4L * n + 16) {
+            minId = vertexIds[0];
+            denseIndex = new int[vertexIds[n - 1] - minId + 1];
+            Arrays.fill(denseIndex, -1);
+            for (int i = 0; i < n; i++) {
+                denseIndex[vertexIds[i] - minId] = i;
+            }
+        } else {
+            minId = 0;
+            denseIndex = null;
+        }
+    }
+
+    /**
+     * @return The number of vertices
+     */
+    public int getVertexCount() {
+        return vertexIds.length;
+    }
+
+    /**
+     * @return The number of arcs
+     */
+    public int getArcCount() {
+        return targets.length;
+    }
+
+    /**
+     * Return the index of a vertex.
+     *
+     * @param id Vertex id
+     * @return The index of the vertex, or -1 if the graph does not contain
+     * this vertex
+     */
+    public int getIndex(int id) {
+        if (denseIndex != null) {
+            final long i = (long) id - minId;
+            return i < 0 || i >= denseIndex.length ? -1 : denseIndex[(int) i];
+        }
+        final int i = Arrays.binarySearch(vertexIds, id);
+        return i < 0 ? -1 : i;
+    }
+
+    /**
+     * Return the index of a vertex that must be in the graph.
+     *
+     * @param id Vertex id
+     * @return The index of the vertex
+     * @throws IllegalArgumentException if the graph does not contain the vertex
+     */
+    public int getExistingIndex(int id) {
+        final int index = getIndex(id);
+        if (index == -1) {
+            throw new IllegalArgumentException("The graph does not contain vertex " + id);
+        }
+        return index;
+    }
+
+    /**
+     * @param index Vertex index
+     * @return The id of the vertex
+     */
+    public int getId(int index) {
+        return vertexIds[index];
+    }
+
+    /**
+     * @param vertex Vertex index
+     * @return The first arc leaving the vertex
+     */
+    public int getFirstArc(int vertex) {
+        return offsets[vertex];
+    }
+
+    /**
+     * @param vertex Vertex index
+     * @return The arc following the last arc leaving the vertex
+     */
+    public int getLastArc(int vertex) {
+        return offsets[vertex + 1];
+    }
+
+    /**
+     * @param arc Arc index
+     * @return The index of the source vertex of the arc
+     */
+    public int getSource(int arc) {
+        // Last vertex whose first arc is not after the arc
+        int low = 0;
+        int high = vertexIds.length - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= arc) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param arc Arc index
+     * @return The index of the target vertex of the arc
+     */
+    public int getTarget(int arc) {
+        return targets[arc];
+    }
+
+    /**
+     * @param arc Arc index
+     * @return The weight of the arc
+     */
+    public double getWeight(int arc) {
+        return weights[arc];
+    }
+
+    /**
+     * @param arc Arc index
+     * @return The id of the edge of the arc
+     */
+    public int getEdgeId(int arc) {
+        return edgeIds[arc];
+    }
+
+    /**
+     * Return the graph with all the arcs reversed, the edge ids are kept and
+     * the vertices have the same indexes. The reversed graph is built once.
+     *
+     * @return The reversed graph
+     */
+    public synchronized CSRGraph getReversed() {
+        if (reversed == null) {
+            final int n = vertexIds.length;
+            final int m = targets.length;
+            final int[] rOffsets = new int[n + 1];
+            for (int arc = 0; arc < m; arc++) {
+                rOffsets[targets[arc] + 1]++;
+            }
+            for (int v = 0; v < n; v++) {
+                rOffsets[v + 1] += rOffsets[v];
+            }
+            final int[] next = Arrays.copyOf(rOffsets, n);
+            final int[] rTargets = new int[m];
+            final double[] rWeights = new double[m];
+            final int[] rEdgeIds = new int[m];
+            final int[] arcs = new int[m];
+            final int[] rArcs = new int[m];
+            for (int v = 0; v < n; v++) {
+                for (int arc = offsets[v]; arc < offsets[v + 1]; arc++) {
+                    final int pos = next[targets[arc]]++;
+                    rTargets[pos] = v;
+                    rWeights[pos] = weights[arc];
+                    rEdgeIds[pos] = edgeIds[arc];
+                    rArcs[arc] = pos;
+                    arcs[pos] = arc;
+                }
+            }
+            final CSRGraph graph = new CSRGraph(vertexIds, rOffsets, rTargets, rWeights, rEdgeIds);
+            graph.reversedArcs = arcs;
+            graph.reversed = this;
+            reversedArcs = rArcs;
+            reversed = graph;
+        }
+        return reversed;
+    }
+
+    /**
+     * @param arc Arc index
+     * @return The index of the same arc in {@link #getReversed()}
+     */
+    public synchronized int getReversedArc(int arc) {
+        getReversed();
+        return reversedArcs[arc];
+    }
+
+    /**
+     * Collects the arcs of a graph and builds its arrays.
+     */
+    public static final class Builder {
+
+        private int[] sources = new int[1024];
+        private int[] destinations = new int[1024];
+        private double[] arcWeights = new double[1024];
+        private int[] arcEdgeIds = new int[1024];
+        private int size = 0;
+
+        /**
+         * Add an arc to the graph, the vertices are added if needed.
+         *
+         * @param source      Source vertex id
+         * @param destination Destination vertex id
+         * @param weight      Weight
+         * @param edgeId      Edge id
+         */
+        public void addArc(int source, int destination, double weight, int edgeId) {
+            if (size == sources.length) {
+                final int capacity = size + (size >> 1);
+                sources = Arrays.copyOf(sources, capacity);
+                destinations = Arrays.copyOf(destinations, capacity);
+                arcWeights = Arrays.copyOf(arcWeights, capacity);
+                arcEdgeIds = Arrays.copyOf(arcEdgeIds, capacity);
+            }
+            sources[size] = source;
+            destinations[size] = destination;
+            arcWeights[size] = weight;
+            arcEdgeIds[size] = edgeId;
+            size++;
+        }
+
+        /**
+         * @return The graph containing the added arcs
+         */
+        public CSRGraph build() {
+            // Sorted distinct vertex ids
+            int[] ids = new int[2 * size];
+            System.arraycopy(sources, 0, ids, 0, size);
+            System.arraycopy(destinations, 0, ids, size, size);
+            Arrays.sort(ids);
+            int n = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (n == 0 || ids[i] != ids[n - 1]) {
+                    ids[n++] = ids[i];
+                }
+            }
+            final int[] vertexIds = Arrays.copyOf(ids, n);
+            ids = null;
+            // Counting sort of the arcs by source vertex
+            final CSRGraph index = new CSRGraph(vertexIds, null, null, null, null);
+            final int[] offsets = new int[n + 1];
+            for (int i = 0; i < size; i++) {
+                sources[i] = index.getIndex(sources[i]);
+                offsets[sources[i] + 1]++;
+            }
+            for (int v = 0; v < n; v++) {
+                offsets[v + 1] += offsets[v];
+            }
+            final int[] next = Arrays.copyOf(offsets, n);
+            final int[] targets = new int[size];
+            final double[] weights = new double[size];
+            final int[] edgeIds = new int[size];
+            for (int i = 0; i < size; i++) {
+                final int pos = next[sources[i]]++;
+                targets[pos] = index.getIndex(destinations[i]);
+                weights[pos] = arcWeights[i];
+                edgeIds[pos] = arcEdgeIds[i];
+            }
+            return new CSRGraph(vertexIds, offsets, targets, weights, edgeIds);
+        }
+    }
+}
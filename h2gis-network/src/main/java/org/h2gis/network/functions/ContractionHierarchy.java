@@ -0,0 +1,526 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+package org.h2gis.network.functions;
+
+import java.util.Arrays;
+
+/**
+ * A contraction hierarchy of a {@link CSRGraph}.
+ *
+ * The vertices are contracted one by one in the order of their rank. When a
+ * vertex is contracted, a shortcut arc replaces each shortest path going
+ * through it between two of its remaining neighbours. A shortest path of the
+ * graph is then an upward path followed by a downward path in the hierarchy,
+ * which {@link CHQuery} finds by two small searches toward the higher ranks.
+ *
+ * The arcs are the arcs of the graph (the loops excepted) followed by the
+ * shortcuts. A shortcut has no edge id, it is made of a first and a second
+ * arc which are unpacked to recover the edges of a path.
+ *
+ * The hierarchy is immutable and can be shared by several threads.
+ */
+public final class ContractionHierarchy {
+
+    /**
+     * Maximum number of vertices settled by a witness search, a shortcut is
+     * added when no witness path is found within this limit
+     */
+    private static final int WITNESS_SETTLED_LIMIT = 500;
+
+    /**
+     * Maximum number of vertices settled by the witness searches that only
+     * estimate the priority of a vertex
+     */
+    private static final int SIMULATION_SETTLED_LIMIT = 50;
+
+    private final int[] vertexIds;
+    private final int[] rank;
+    private final int[] arcSource;
+    private final int[] arcTarget;
+    private final double[] arcWeight;
+    private final int[] arcEdgeId;
+    private final int[] firstArc;
+    private final int[] secondArc;
+    /**
+     * Arcs leaving each vertex toward a higher rank
+     */
+    private final int[] upOffsets;
+    private final int[] upArcs;
+    /**
+     * Arcs entering each vertex from a higher rank
+     */
+    private final int[] downOffsets;
+    private final int[] downArcs;
+
+    /**
+     * @param vertexIds Sorted vertex ids
+     * @param rank      Rank of each vertex index, a permutation of 0 to n-1
+     * @param arcSource Source vertex index of each arc
+     * @param arcTarget Target vertex index of each arc
+     * @param arcWeight Weight of each arc
+     * @param arcEdgeId Edge id of each arc, 0 for the shortcuts
+     * @param firstArc  First arc of each shortcut, -1 for the arcs of the graph
+     * @param secondArc Second arc of each shortcut, -1 for the arcs of the graph
+     */
+    public ContractionHierarchy(int[] vertexIds, int[] rank, int[] arcSource, int[] arcTarget,
+                                double[] arcWeight, int[] arcEdgeId, int[] firstArc, int[] secondArc) {
+        this.vertexIds = vertexIds;
+        this.rank = rank;
+        this.arcSource = arcSource;
+        this.arcTarget = arcTarget;
+        this.arcWeight = arcWeight;
+        this.arcEdgeId = arcEdgeId;
+        this.firstArc = firstArc;
+        this.secondArc = secondArc;
+        final int n = vertexIds.length;
+        upOffsets = new int[n + 1];
+        downOffsets = new int[n + 1];
+        for (int arc = 0; arc < arcSource.length; arc++) {
+            final int s = arcSource[arc];
+            final int t = arcTarget[arc];
+            if (rank[s] < rank[t]) {
+                upOffsets[s + 1]++;
+            } else if (rank[s] > rank[t]) {
+                downOffsets[t + 1]++;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            upOffsets[v + 1] += upOffsets[v];
+            downOffsets[v + 1] += downOffsets[v];
+        }
+        upArcs = new int[upOffsets[n]];
+        downArcs = new int[downOffsets[n]];
+        final int[] nextUp = Arrays.copyOf(upOffsets, n);
+        final int[] nextDown = Arrays.copyOf(downOffsets, n);
+        for (int arc = 0; arc < arcSource.length; arc++) {
+            final int s = arcSource[arc];
+            final int t = arcTarget[arc];
+            if (rank[s] < rank[t]) {
+                upArcs[nextUp[s]++] = arc;
+            } else if (rank[s] > rank[t]) {
+                downArcs[nextDown[t]++] = arc;
+            }
+        }
+    }
+
+    /**
+     * Build the contraction hierarchy of a graph.
+     *
+     * @param graph The graph
+     * @return The contraction hierarchy
+     */
+    public static ContractionHierarchy contract(CSRGraph graph) {
+        return new Contraction(graph).contract();
+    }
+
+    /**
+     * @return The number of vertices
+     */
+    public int getVertexCount() {
+        return vertexIds.length;
+    }
+
+    /**
+     * @return The number of arcs, shortcuts included
+     */
+    public int getArcCount() {
+        return arcSource.length;
+    }
+
+    /**
+     * @param id Vertex id
+     * @return The index of the vertex, or -1 if the hierarchy does not
+     * contain this vertex
+     */
+    public int getIndex(int id) {
+        final int i = Arrays.binarySearch(vertexIds, id);
+        return i < 0 ? -1 : i;
+    }
+
+    /**
+     * @param id Vertex id
+     * @return The index of the vertex
+     * @throws IllegalArgumentException if the hierarchy does not contain the
+     * vertex
+     */
+    public int getExistingIndex(int id) {
+        final int index = getIndex(id);
+        if (index == -1) {
+            throw new IllegalArgumentException("The graph does not contain vertex " + id);
+        }
+        return index;
+    }
+
+    /**
+     * @param index Vertex index
+     * @return The id of the vertex
+     */
+    public int getId(int index) {
+        return vertexIds[index];
+    }
+
+    /**
+     * @param index Vertex index
+     * @return The rank of the vertex, the vertices of low rank were
+     * contracted first
+     */
+    public int getRank(int index) {
+        return rank[index];
+    }
+
+    /**
+     * @param arc Arc index
+     * @return The index of the source vertex of the arc
+     */
+    public int getSource(int arc) {
+        return arcSource[arc];
+    }
+
+    /**
+     * @param arc Arc index
+     * @return The index of the target vertex of the arc
+     */
+    public int getTarget(int arc) {
+        return arcTarget[arc];
+    }
+
+    /**
+     * @param arc Arc index
+     * @return The weight of the arc
+     */
+    public double getWeight(int arc) {
+        return arcWeight[arc];
+    }
+
+    /**
+     * @param arc Arc index
+     * @return The id of the edge of the arc, 0 for a shortcut
+     */
+    public int getEdgeId(int arc) {
+        return arcEdgeId[arc];
+    }
+
+    /**
+     * @param arc Arc index
+     * @return True if the arc is a shortcut
+     */
+    public boolean isShortcut(int arc) {
+        return firstArc[arc] != -1;
+    }
+
+    /**
+     * @param arc Shortcut index
+     * @return The first arc of the shortcut, -1 for an arc of the graph
+     */
+    public int getFirstArc(int arc) {
+        return firstArc[arc];
+    }
+
+    /**
+     * @param arc Shortcut index
+     * @return The second arc of the shortcut, -1 for an arc of the graph
+     */
+    public int getSecondArc(int arc) {
+        return secondArc[arc];
+    }
+
+    int getFirstUpArc(int vertex) {
+        return upOffsets[vertex];
+    }
+
+    int getLastUpArc(int vertex) {
+        return upOffsets[vertex + 1];
+    }
+
+    int getUpArc(int i) {
+        return upArcs[i];
+    }
+
+    int getFirstDownArc(int vertex) {
+        return downOffsets[vertex];
+    }
+
+    int getLastDownArc(int vertex) {
+        return downOffsets[vertex + 1];
+    }
+
+    int getDownArc(int i) {
+        return downArcs[i];
+    }
+
+    /**
+     * Contraction of the vertices in the order of their edge difference,
+     * the number of shortcuts added minus the number of arcs removed, plus
+     * the number of their contracted neighbours and their level in the
+     * hierarchy to spread the contraction evenly. The priorities are updated
+     * lazily.
+     */
+    private static final class Contraction {
+
+        private final CSRGraph graph;
+        private final int n;
+        private int arcCount = 0;
+        private int[] source;
+        private int[] target;
+        private double[] weight;
+        private int[] edgeId;
+        private int[] first;
+        private int[] second;
+        private final int[][] out;
+        private final int[] outCount;
+        private final int[][] in;
+        private final int[] inCount;
+        private final boolean[] contracted;
+        private final int[] contractedNeighbours;
+        private final int[] level;
+        // Witness search
+        private final double[] distance;
+        private final int[] touched;
+        private int touchedCount = 0;
+        private final IndexedHeap witnessHeap;
+
+        Contraction(CSRGraph graph) {
+            this.graph = graph;
+            n = graph.getVertexCount();
+            final int m = graph.getArcCount();
+            source = new int[m + 16];
+            target = new int[m + 16];
+            weight = new double[m + 16];
+            edgeId = new int[m + 16];
+            first = new int[m + 16];
+            second = new int[m + 16];
+            out = new int[n][];
+            outCount = new int[n];
+            in = new int[n][];
+            inCount = new int[n];
+            for (int v = 0; v < n; v++) {
+                out[v] = new int[Math.max(2, graph.getLastArc(v) - graph.getFirstArc(v))];
+                in[v] = new int[2];
+            }
+            contracted = new boolean[n];
+            contractedNeighbours = new int[n];
+            level = new int[n];
+            distance = new double[n];
+            Arrays.fill(distance, Double.POSITIVE_INFINITY);
+            touched = new int[n];
+            witnessHeap = new IndexedHeap(n);
+            for (int v = 0; v < n; v++) {
+                for (int arc = graph.getFirstArc(v), last = graph.getLastArc(v); arc < last; arc++) {
+                    final int w = graph.getTarget(arc);
+                    // The loops are never part of a shortest path
+                    if (w != v) {
+                        addArc(v, w, graph.getWeight(arc), graph.getEdgeId(arc), -1, -1);
+                    }
+                }
+            }
+        }
+
+        ContractionHierarchy contract() {
+            final int[] rank = new int[n];
+            final IndexedHeap queue = new IndexedHeap(n);
+            for (int v = 0; v < n; v++) {
+                queue.push(v, priority(v));
+            }
+            int nextRank = 0;
+            while (!queue.isEmpty()) {
+                final int v = queue.poll();
+                final double p = priority(v);
+                if (!queue.isEmpty() && p > queue.peekKey()) {
+                    queue.push(v, p);
+                    continue;
+                }
+                shortcuts(v, true);
+                contracted[v] = true;
+                rank[v] = nextRank++;
+                for (int i = 0; i < outCount[v]; i++) {
+                    prune(target[out[v][i]]);
+                }
+                for (int i = 0; i < inCount[v]; i++) {
+                    prune(source[in[v][i]]);
+                }
+                for (int i = 0; i < outCount[v]; i++) {
+                    updateNeighbour(queue, v, target[out[v][i]]);
+                }
+                for (int i = 0; i < inCount[v]; i++) {
+                    updateNeighbour(queue, v, source[in[v][i]]);
+                }
+            }
+            final int[] vertexIds = new int[n];
+            for (int v = 0; v < n; v++) {
+                vertexIds[v] = graph.getId(v);
+            }
+            return new ContractionHierarchy(vertexIds, rank,
+                    Arrays.copyOf(source, arcCount), Arrays.copyOf(target, arcCount),
+                    Arrays.copyOf(weight, arcCount), Arrays.copyOf(edgeId, arcCount),
+                    Arrays.copyOf(first, arcCount), Arrays.copyOf(second, arcCount));
+        }
+
+        private void updateNeighbour(IndexedHeap queue, int v, int neighbour) {
+            if (!contracted[neighbour] && queue.contains(neighbour)) {
+                contractedNeighbours[neighbour]++;
+                level[neighbour] = Math.max(level[neighbour], level[v] + 1);
+                queue.push(neighbour, priority(neighbour));
+            }
+        }
+
+        private double priority(int v) {
+            return 2 * (shortcuts(v, false) - outCount[v] - inCount[v]) + contractedNeighbours[v] + level[v];
+        }
+
+        /**
+         * Remove the arcs of a vertex that lead to, or come from, a
+         * contracted vertex. The arcs stay in the hierarchy, the remaining
+         * graph just no longer scans them.
+         */
+        private void prune(int x) {
+            if (contracted[x]) {
+                return;
+            }
+            int kept = 0;
+            for (int i = 0; i < outCount[x]; i++) {
+                if (!contracted[target[out[x][i]]]) {
+                    out[x][kept++] = out[x][i];
+                }
+            }
+            outCount[x] = kept;
+            kept = 0;
+            for (int i = 0; i < inCount[x]; i++) {
+                if (!contracted[source[in[x][i]]]) {
+                    in[x][kept++] = in[x][i];
+                }
+            }
+            inCount[x] = kept;
+        }
+
+        /**
+         * Count, and add if asked, the shortcuts needed to contract a vertex.
+         */
+        private int shortcuts(int v, boolean add) {
+            int count = 0;
+            for (int i = 0; i < inCount[v]; i++) {
+                final int inArc = in[v][i];
+                final int u = source[inArc];
+                if (contracted[u]) {
+                    continue;
+                }
+                double maxOut = -1;
+                for (int j = 0; j < outCount[v]; j++) {
+                    final int w = target[out[v][j]];
+                    if (!contracted[w] && w != u) {
+                        maxOut = Math.max(maxOut, weight[out[v][j]]);
+                    }
+                }
+                if (maxOut < 0) {
+                    continue;
+                }
+                witnessSearch(u, v, weight[inArc] + maxOut,
+                        add ? WITNESS_SETTLED_LIMIT : SIMULATION_SETTLED_LIMIT);
+                for (int j = 0; j < outCount[v]; j++) {
+                    final int outArc = out[v][j];
+                    final int w = target[outArc];
+                    if (contracted[w] || w == u) {
+                        continue;
+                    }
+                    final double via = weight[inArc] + weight[outArc];
+                    if (via < distance[w]) {
+                        count++;
+                        // A parallel arc to the same vertex needs no other shortcut
+                        if (distance[w] == Double.POSITIVE_INFINITY) {
+                            touched[touchedCount++] = w;
+                        }
+                        distance[w] = via;
+                        if (add) {
+                            addArc(u, w, via, 0, inArc, outArc);
+                        }
+                    }
+                }
+            }
+            resetWitness();
+            return count;
+        }
+
+        /**
+         * Dijkstra from u on the remaining graph without v, up to a distance
+         */
+        private void witnessSearch(int u, int v, double limit, int settledLimit) {
+            resetWitness();
+            distance[u] = 0;
+            touched[touchedCount++] = u;
+            witnessHeap.push(u, 0);
+            int settled = 0;
+            while (!witnessHeap.isEmpty() && witnessHeap.peekKey() <= limit
+                    && settled < settledLimit) {
+                final int x = witnessHeap.poll();
+                settled++;
+                for (int i = 0; i < outCount[x]; i++) {
+                    final int arc = out[x][i];
+                    final int y = target[arc];
+                    if (contracted[y] || y == v) {
+                        continue;
+                    }
+                    final double d = distance[x] + weight[arc];
+                    if (d < distance[y]) {
+                        if (distance[y] == Double.POSITIVE_INFINITY) {
+                            touched[touchedCount++] = y;
+                        }
+                        distance[y] = d;
+                        witnessHeap.push(y, d);
+                    }
+                }
+            }
+            witnessHeap.clear();
+        }
+
+        private void resetWitness() {
+            for (int i = 0; i < touchedCount; i++) {
+                distance[touched[i]] = Double.POSITIVE_INFINITY;
+            }
+            touchedCount = 0;
+        }
+
+        private void addArc(int u, int w, double arcWeight, int arcEdgeId, int firstArc, int secondArc) {
+            if (arcCount == source.length) {
+                final int capacity = arcCount + (arcCount >> 1);
+                source = Arrays.copyOf(source, capacity);
+                target = Arrays.copyOf(target, capacity);
+                weight = Arrays.copyOf(weight, capacity);
+                edgeId = Arrays.copyOf(edgeId, capacity);
+                first = Arrays.copyOf(first, capacity);
+                second = Arrays.copyOf(second, capacity);
+            }
+            source[arcCount] = u;
+            target[arcCount] = w;
+            weight[arcCount] = arcWeight;
+            edgeId[arcCount] = arcEdgeId;
+            first[arcCount] = firstArc;
+            second[arcCount] = secondArc;
+            if (outCount[u] == out[u].length) {
+                out[u] = Arrays.copyOf(out[u], 2 * outCount[u]);
+            }
+            out[u][outCount[u]++] = arcCount;
+            if (inCount[w] == in[w].length) {
+                in[w] = Arrays.copyOf(in[w], 2 * inCount[w]);
+            }
+            in[w][inCount[w]++] = arcCount;
+            arcCount++;
+        }
+    }
+}
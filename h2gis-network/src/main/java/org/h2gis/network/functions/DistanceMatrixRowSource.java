@@ -0,0 +1,150 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+package org.h2gis.network.functions;
+
+import org.h2.tools.SimpleRowSource;
+import org.h2gis.utilities.ParallelUtilities;
+
+import java.sql.SQLException;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Produce the (SOURCE, DESTINATION, DISTANCE) rows of a distance matrix.
+ *
+ * The sources are split in chunks searched on the shared pool of worker
+ * threads, ahead of the reads and in the order of the sources. The tasks share
+ * the read-only graph and borrow a {@link CSRDijkstra} from a pool of
+ * searches, so there are no more searches than concurrent tasks. Only the
+ * chunks waiting to be read are kept in memory.
+ */
+final class DistanceMatrixRowSource implements SimpleRowSource {
+
+    /**
+     * Number of sources searched by a single task
+     */
+    private static final int CHUNK_SIZE = 16;
+
+    private final CSRGraph graph;
+    private final int[] sources;
+    private final int[][] targets;
+    private final Queue<CSRDijkstra> searches = new ConcurrentLinkedQueue<CSRDijkstra>();
+    // Cursor of the chunks
+    private int nextChunkStart = 0;
+    private Object[][] currentChunk = new Object[0][];
+    private int currentIndex = 0;
+    private final ParallelUtilities.OrderedTasks<Object[][]> pending =
+            new ParallelUtilities.OrderedTasks<Object[][]>("distance computation");
+
+    /**
+     * @param graph   Graph
+     * @param sources Source vertex indexes
+     * @param targets Target vertex indexes of each source, the sources may
+     *                share the same array
+     */
+    DistanceMatrixRowSource(CSRGraph graph, int[] sources, int[][] targets) {
+        this.graph = graph;
+        this.sources = sources;
+        this.targets = targets;
+    }
+
+    @Override
+    public Object[] readRow() throws SQLException {
+        while (currentIndex >= currentChunk.length) {
+            if (nextChunkStart >= sources.length && pending.isEmpty()) {
+                close();
+                return null;
+            }
+            currentChunk = nextChunk();
+            currentIndex = 0;
+        }
+        return currentChunk[currentIndex++];
+    }
+
+    /**
+     * Return the rows of the next chunk of sources. The first chunk and the
+     * small matrices are computed on the calling thread.
+     */
+    private Object[][] nextChunk() throws SQLException {
+        if (nextChunkStart == 0 || sources.length <= CHUNK_SIZE) {
+            final int start = nextChunkStart;
+            nextChunkStart = Math.min(sources.length, start + CHUNK_SIZE);
+            return search(start, nextChunkStart);
+        }
+        while (nextChunkStart < sources.length && !pending.isFull()) {
+            final int start = nextChunkStart;
+            final int end = Math.min(sources.length, start + CHUNK_SIZE);
+            pending.submit(new Callable<Object[][]>() {
+                @Override
+                public Object[][] call() {
+                    return search(start, end);
+                }
+            });
+            nextChunkStart = end;
+        }
+        return pending.take();
+    }
+
+    /**
+     * Compute the rows of a range of sources
+     *
+     * @param start index of the first source
+     * @param end   index after the last source
+     * @return the rows
+     */
+    private Object[][] search(int start, int end) {
+        CSRDijkstra search = searches.poll();
+        if (search == null) {
+            search = new CSRDijkstra(graph);
+        }
+        int rowCount = 0;
+        for (int i = start; i < end; i++) {
+            rowCount += targets[i].length;
+        }
+        final Object[][] rows = new Object[rowCount][];
+        int row = 0;
+        for (int i = start; i < end; i++) {
+            final int[] sourceTargets = targets[i];
+            final double[] distances = search.oneToMany(sources[i], sourceTargets);
+            final Integer sourceId = graph.getId(sources[i]);
+            for (int j = 0; j < sourceTargets.length; j++) {
+                rows[row++] = new Object[]{sourceId, graph.getId(sourceTargets[j]), distances[j]};
+            }
+        }
+        searches.add(search);
+        return rows;
+    }
+
+    @Override
+    public void close() {
+        pending.cancel();
+        searches.clear();
+    }
+
+    @Override
+    public void reset() throws SQLException {
+        close();
+        nextChunkStart = 0;
+        currentChunk = new Object[0][];
+        currentIndex = 0;
+    }
+}
@@ -0,0 +1,331 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+package org.h2gis.network.functions;
+
+import org.h2.tools.SimpleRowSource;
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.TableLocation;
+import org.locationtech.jts.geom.Geometry;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.h2gis.network.functions.GraphConstants.EDGE_ID;
+
+/**
+ * Produce the rows of the edges of a path or of a tree. The rows start with
+ * the edge id, the geometry of the edge is put in front of them when the
+ * input table has a geometry field.
+ *
+ * The rows are built on request from a {@link Rows} source. When there is a
+ * geometry field, the rows are read by chunks and the geometries of the edges
+ * of a chunk are fetched at once, so only one chunk of rows and geometries
+ * is kept in memory.
+ *
+ * The geometries are fetched with an IN list of edge ids when EDGE_ID is
+ * indexed, it is the primary key of the tables made by ST_Graph. Otherwise
+ * the input table is scanned once for each chunk, the chunks are then much
+ * larger to limit the number of scans.
+ */
+final class EdgeRowSource implements SimpleRowSource {
+
+    /**
+     * Number of rows of a chunk when EDGE_ID is indexed
+     */
+    static final int CHUNK_SIZE = 1024;
+
+    /**
+     * Number of rows of a chunk when the input table is scanned
+     */
+    static final int SCAN_CHUNK_SIZE = 65536;
+
+    /**
+     * Number of edge ids of an IN list
+     */
+    private static final int BATCH_SIZE = 128;
+
+    private final Connection connection;
+    private final TableLocation tableName;
+    private final String geometryField;
+    private final Rows rows;
+    private Boolean indexed;
+    private Object[][] chunk;
+    private Map<Integer, Geometry> edgeGeometryMap;
+    private int chunkSize = 0;
+    private int index = 0;
+
+    /**
+     * @param connection    Connection
+     * @param tableName     Input table
+     * @param geometryField Geometry field of the input table, null if there
+     *                      is none
+     * @param rows          Rows without geometry, starting with the edge id
+     */
+    EdgeRowSource(Connection connection, TableLocation tableName, String geometryField, Rows rows) {
+        this.connection = connection;
+        this.tableName = tableName;
+        this.geometryField = geometryField;
+        this.rows = rows;
+    }
+
+    @Override
+    public Object[] readRow() throws SQLException {
+        if (geometryField == null) {
+            return rows.next();
+        }
+        if (index >= chunkSize && !readChunk()) {
+            return null;
+        }
+        final Object[] row = chunk[index];
+        chunk[index++] = null;
+        final Object[] geometryRow = new Object[row.length + 1];
+        geometryRow[0] = edgeGeometryMap.get(Math.abs((Integer) row[0]));
+        System.arraycopy(row, 0, geometryRow, 1, row.length);
+        return geometryRow;
+    }
+
+    /**
+     * Read the next chunk of rows and the geometries of their edges
+     *
+     * @return false if there are no more rows
+     */
+    private boolean readChunk() throws SQLException {
+        if (indexed == null) {
+            indexed = isEdgeIdIndexed(connection, tableName);
+            chunk = new Object[indexed ? CHUNK_SIZE : SCAN_CHUNK_SIZE][];
+        }
+        final BitSet edgeIds = new BitSet();
+        chunkSize = 0;
+        index = 0;
+        Object[] row;
+        while (chunkSize < chunk.length && (row = rows.next()) != null) {
+            chunk[chunkSize++] = row;
+            edgeIds.set(Math.abs((Integer) row[0]));
+        }
+        if (chunkSize == 0) {
+            edgeGeometryMap = null;
+            return false;
+        }
+        edgeGeometryMap = indexed
+                ? getEdgeGeometryMapByIds(connection, tableName, geometryField, edgeIds)
+                : getEdgeGeometryMap(connection, tableName, geometryField, edgeIds);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        chunk = null;
+        edgeGeometryMap = null;
+    }
+
+    @Override
+    public void reset() throws SQLException {
+        rows.reset();
+        if (chunk != null) {
+            Arrays.fill(chunk, null);
+        }
+        edgeGeometryMap = null;
+        chunkSize = 0;
+        index = 0;
+    }
+
+    /**
+     * @return true if the EDGE_ID column of the input table is indexed
+     */
+    private static boolean isEdgeIdIndexed(Connection connection, TableLocation tableName) {
+        try {
+            return JDBCUtilities.isIndexed(connection, tableName, EDGE_ID);
+        } catch (SQLException ex) {
+            // The indexes cannot be read, the table is scanned
+            return false;
+        }
+    }
+
+    /**
+     * Return a map of the given edge ids to their geometries, using the index
+     * on the edge ids. The edges are fetched by batches of {@link #BATCH_SIZE}.
+     *
+     * @param connection    Connection
+     * @param tableName     TableLocation
+     * @param geometryField Geometry field
+     * @param edgeIds       Edge ids
+     * @return A map of edge ids to edge geometries
+     * @throws SQLException
+     */
+    static Map<Integer, Geometry> getEdgeGeometryMapByIds(Connection connection,
+                                                          TableLocation tableName,
+                                                          String geometryField,
+                                                          BitSet edgeIds) throws SQLException {
+        final int edgeCount = edgeIds.cardinality();
+        final Map<Integer, Geometry> edgeGeomMap = new HashMap<Integer, Geometry>(2 * edgeCount);
+        if (edgeCount == 0) {
+            return edgeGeomMap;
+        }
+        final int batchSize = Math.min(edgeCount, BATCH_SIZE);
+        final StringBuilder query = new StringBuilder("SELECT ").append(EDGE_ID).append(", ")
+                .append(geometryField).append(" FROM ").append(tableName)
+                .append(" WHERE ").append(EDGE_ID).append(" IN (?");
+        for (int i = 1; i < batchSize; i++) {
+            query.append(", ?");
+        }
+        query.append(')');
+        final PreparedStatement ps = connection.prepareStatement(query.toString());
+        try {
+            int edgeId = edgeIds.nextSetBit(0);
+            while (edgeId >= 0) {
+                final int first = edgeId;
+                for (int i = 1; i <= batchSize; i++) {
+                    // The last batch is completed with the first id of the batch
+                    ps.setInt(i, edgeId >= 0 ? edgeId : first);
+                    if (edgeId >= 0) {
+                        edgeId = edgeIds.nextSetBit(edgeId + 1);
+                    }
+                }
+                final ResultSet resultSet = ps.executeQuery();
+                try {
+                    while (resultSet.next()) {
+                        edgeGeomMap.put(resultSet.getInt(1), (Geometry) resultSet.getObject(2));
+                    }
+                } finally {
+                    resultSet.close();
+                }
+            }
+            return edgeGeomMap;
+        } finally {
+            ps.close();
+        }
+    }
+
+    /**
+     * Return a map of the given edge ids to their geometries. The input table
+     * is read once, without any index on the edge ids, and only the
+     * geometries of the given edges are kept.
+     *
+     * @param connection    Connection
+     * @param tableName     TableLocation
+     * @param geometryField Geometry field
+     * @param edgeIds       Edge ids
+     * @return A map of edge ids to edge geometries
+     * @throws SQLException
+     */
+    static Map<Integer, Geometry> getEdgeGeometryMap(Connection connection,                                                     TableLocation tableName,
+                                                     String geometryField,
+                                                     BitSet edgeIds) throws SQLException {
+        final int edgeCount = edgeIds.cardinality();
+        final Map<Integer, Geometry> edgeGeomMap = new HashMap<Integer, Geometry>(2 * edgeCount);
+        if (edgeCount == 0) {
+            return edgeGeomMap;
+        }
+        final Statement st = connection.createStatement();
+        try {
+            final ResultSet resultSet = st.executeQuery("SELECT " + EDGE_ID + ", " + geometryField +
+                    " FROM " + tableName);
+            try {
+                while (edgeGeomMap.size() < edgeCount && resultSet.next()) {
+                    final int edgeId = resultSet.getInt(1);
+                    if (edgeId >= 0 && edgeIds.get(edgeId)) {
+                        edgeGeomMap.put(edgeId, (Geometry) resultSet.getObject(2));
+                    }
+                }
+            } finally {
+                resultSet.close();
+            }
+            return edgeGeomMap;
+        } finally {
+            st.close();
+        }
+    }
+
+    /**
+     * Source of the rows without geometry
+     */
+    abstract static class Rows {
+
+        /**
+         * @return the next row, starting with the edge id, or null at the end
+         */
+        abstract Object[] next();
+
+        /**
+         * Go back to the first row
+         */
+        abstract void reset();
+    }
+
+    /**
+     * Rows of the edges of one or more paths, stored in primitive arrays.
+     * The row objects are only created when they are read.
+     */
+    static final class PathRows extends Rows {
+
+        private int[] edgeIds = new int[16];
+        private int[] pathIds = new int[16];
+        private int[] localIds = new int[16];
+        private int[] sources = new int[16];
+        private int[] destinations = new int[16];
+        private double[] weights = new double[16];
+        private int size = 0;
+        private int index = 0;
+
+        /**
+         * Add the row of a path edge
+         */
+        void add(int edgeId, int pathId, int localId, int source, int destination, double weight) {
+            if (size == edgeIds.length) {
+                final int capacity = 2 * size;
+                edgeIds = Arrays.copyOf(edgeIds, capacity);
+                pathIds = Arrays.copyOf(pathIds, capacity);
+                localIds = Arrays.copyOf(localIds, capacity);
+                sources = Arrays.copyOf(sources, capacity);
+                destinations = Arrays.copyOf(destinations, capacity);
+                weights = Arrays.copyOf(weights, capacity);
+            }
+            edgeIds[size] = edgeId;
+            pathIds[size] = pathId;
+            localIds[size] = localId;
+            sources[size] = source;
+            destinations[size] = destination;
+            weights[size] = weight;
+            size++;
+        }
+
+        @Override
+        Object[] next() {
+            if (index >= size) {
+                return null;
+            }
+            final int i = index++;
+            return new Object[]{edgeIds[i], pathIds[i], localIds[i], sources[i], destinations[i], weights[i]};
+        }
+
+        @Override
+        void reset() {
+            index = 0;
+        }
+    }
+}
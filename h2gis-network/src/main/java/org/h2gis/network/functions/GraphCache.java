@@ -0,0 +1,204 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+package org.h2gis.network.functions;
+
+import org.h2gis.utilities.TableLocation;
+import org.javanetworkanalyzer.model.KeyedGraph;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the graphs loaded by {@link GraphCreator}, shared by the calls of
+ * the graph functions.
+ *
+ * A graph is identified by its database, its edges table, its orientation,
+ * its weight column and its vertex and edge classes. It stays valid as long
+ * as the LAST_MODIFICATION of the edges table does not change.
+ *
+ * LAST_MODIFICATION changes on uncommitted writes too, and again on commit or
+ * rollback. While a session holds uncommitted changes its view of the table
+ * differs from the one of the other sessions, so such a session neither reads
+ * nor fills the cache.
+ *
+ * The JGraphT graph algorithms store their state in the vertices, so a
+ * cached JGraphT graph is lent to a single call at a time: {@link #acquire}
+ * removes it from the cache and {@link #release} puts it back once the call
+ * is done. The immutable {@link CSRGraph} are shared by all the calls with
+ * {@link #getShared} and {@link #putShared}.
+ */
+final class GraphCache {
+
+    /**
+     * System property giving the maximum number of graphs kept in the cache,
+     * 0 disables the cache
+     */
+    static final String CACHE_SIZE_PROPERTY = "h2gis.network.graphCacheSize";
+
+    private static final int DEFAULT_CACHE_SIZE = 4;
+
+    private static final Map<String, Entry> CACHE = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > getCacheSize();
+        }
+    };
+
+    private static final Map<Object, Entry> LENT = new IdentityHashMap<Object, Entry>();
+
+    private GraphCache() {
+    }
+
+    private static int getCacheSize() {
+        return Integer.getInteger(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Return the cache key of a graph and the modification id of its edges
+     * table.
+     *
+     * @param connection Connection
+     * @param table      Edges table
+     * @param graphKey   Orientation, weight and classes of the graph
+     * @return The key and the modification id, or null if the graph cannot be
+     * cached, e.g. when the session has uncommitted changes
+     */
+    static Entry getEntry(Connection connection, TableLocation table, String graphKey) {
+        if (getCacheSize() <= 0) {
+            return null;
+        }
+        try {
+            String schema = table.getSchema().isEmpty() ? connection.getSchema() : table.getSchema();
+            try (PreparedStatement ps = connection.prepareStatement("SELECT DATABASE(), DATABASE_PATH(), " +
+                    "LAST_MODIFICATION, (SELECT CONTAINS_UNCOMMITTED FROM INFORMATION_SCHEMA.SESSIONS " +
+                    "WHERE SESSION_ID = SESSION_ID()) FROM INFORMATION_SCHEMA.TABLES " +
+                    "WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ?")) {
+                ps.setString(1, schema);
+                ps.setString(2, table.getTable());
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next() && !rs.getBoolean(4)) {
+                        String key = rs.getString(1) + "\n" + rs.getString(2) + "\n" + schema + "\n"
+                                + table.getTable() + "\n" + graphKey;
+                        return new Entry(key, rs.getLong(3));
+                    }
+                }
+            }
+        } catch (SQLException ex) {
+            // Not an H2 database, the graph is not cached
+        }
+        return null;
+    }
+
+    /**
+     * Take a graph out of the cache.
+     *
+     * @param entry Key and modification id of the graph
+     * @return The graph, or null if there is no valid graph in the cache
+     */
+    static synchronized KeyedGraph<?, ?> acquire(Entry entry) {
+        Entry idle = CACHE.remove(entry.key);
+        if (idle != null && idle.modification == entry.modification && idle.graph instanceof KeyedGraph) {
+            LENT.put(idle.graph, idle);
+            return (KeyedGraph<?, ?>) idle.graph;
+        }
+        return null;
+    }
+
+    /**
+     * Return a shared graph from the cache.
+     *
+     * @param entry Key and modification id of the graph
+     * @return The graph, or null if there is no valid graph in the cache
+     */
+    static synchronized Object getShared(Entry entry) {
+        Entry cached = CACHE.get(entry.key);
+        if (cached != null && cached.modification == entry.modification) {
+            return cached.graph;
+        }
+        return null;
+    }
+
+    /**
+     * Put a shared graph in the cache.
+     *
+     * @param entry Key and modification id of the graph
+     * @param graph Immutable graph
+     */
+    static synchronized void putShared(Entry entry, Object graph) {
+        if (getCacheSize() > 0) {
+            CACHE.put(entry.key, new Entry(entry.key, entry.modification, graph));
+        }
+    }
+
+    /**
+     * Register a newly loaded graph, it will be cached when released.
+     *
+     * @param entry Key and modification id of the graph
+     * @param graph Graph
+     */
+    static synchronized void lend(Entry entry, KeyedGraph<?, ?> graph) {
+        LENT.put(graph, new Entry(entry.key, entry.modification, graph));
+    }
+
+    /**
+     * Put back a graph in the cache.
+     *
+     * @param graph Graph returned by {@link #acquire} or registered by
+     *              {@link #lend}
+     */
+    static synchronized void release(KeyedGraph<?, ?> graph) {
+        Entry entry = LENT.remove(graph);
+        if (entry != null && getCacheSize() > 0) {
+            CACHE.put(entry.key, entry);
+        }
+    }
+
+    /**
+     * Remove all the graphs from the cache.
+     */
+    static synchronized void clear() {
+        CACHE.clear();
+    }
+
+    /**
+     * A cached graph with its key and the modification id of its edges table.
+     */
+    static final class Entry {
+        private final String key;
+        private final long modification;
+        private final Object graph;
+
+        Entry(String key, long modification) {
+            this(key, modification, null);
+        }
+
+        Entry(String key, long modification, Object graph) {
+            this.key = key;
+            this.modification = modification;
+            this.graph = graph;
+        }
+    }
+}
@@ -45,4 +45,10 @@ public interface GraphConstants {
     String PATH_EDGE_ID = "PATH_EDGE_ID";
     String TREE_ID = "TREE_ID";
     String WEIGHT = "WEIGHT";
+    String NODE_RANK = "NODE_RANK";
+    String ARC_ID = "ARC_ID";
+    String FIRST_ARC = "FIRST_ARC";
+    String SECOND_ARC = "SECOND_ARC";
+    String CH_NODES_SUFFIX = "_CH_NODES";
+    String CH_ARCS_SUFFIX = "_CH_ARCS";
 }
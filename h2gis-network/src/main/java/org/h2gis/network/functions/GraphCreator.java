@@ -20,14 +20,20 @@
 package org.h2gis.network.functions;
 
 
+import org.h2gis.utilities.GeometryTableUtilities;
+import org.h2gis.utilities.TableLocation;
 import org.h2gis.utilities.TableUtilities;
 import org.javanetworkanalyzer.data.VId;
 import org.javanetworkanalyzer.model.*;
 import org.jgrapht.WeightedGraph;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.*;
+import java.util.Arrays;
 
 import static org.h2gis.network.functions.GraphConstants.*;
 import static org.h2gis.network.functions.GraphFunction.logTime;
@@ -91,6 +97,169 @@ public class GraphCreator<V extends VId, E extends Edge> {
         this.edgeClass = edgeClass;
     }
 
+    /**
+     * Constructor for the {@link CSRGraph}, which has no vertex and edge
+     * classes.
+     *
+     * @param connection                Connection
+     * @param inputTable                Name of edges table from {@link org.h2gis.functions.spatial.topology.ST_Graph}.
+     * @param globalOrientation         Global orientation
+     * @param edgeOrientationColumnName Edge orientation
+     * @param weightColumn              Weight column name
+     */
+    public GraphCreator(Connection connection,
+                        String inputTable,
+                        GraphFunctionParser.Orientation globalOrientation,
+                        String edgeOrientationColumnName,
+                        String weightColumn) {
+        this(connection, inputTable, globalOrientation, edgeOrientationColumnName, weightColumn, null, null);
+    }
+
+    /**
+     * Prepares a graph stored in compressed sparse row arrays. The arcs are
+     * the ones of the graph returned by {@link #prepareGraph()}.
+     *
+     * @return The newly prepared graph
+     *
+     * @throws java.sql.SQLException
+     */
+    protected CSRGraph prepareCSRGraph() throws SQLException {
+        LOGGER.info("Loading compact graph into memory...");
+        final long start = System.currentTimeMillis();
+        final CSRGraph.Builder builder = new CSRGraph.Builder();
+        final Statement st = connection.createStatement();
+        try {
+            final ResultSet edges = st.executeQuery("SELECT * FROM " +
+                    TableUtilities.parseInputTable(connection, inputTable));
+            try {
+                initIndices(edges);
+                while (edges.next()) {
+                    loadArcs(builder, edges);
+                }
+            } finally {
+                edges.close();
+            }
+        } finally {
+            st.close();
+        }
+        final CSRGraph graph = builder.build();
+        logTime(LOGGER, start);
+        return graph;
+    }
+
+    /**
+     * Prepares the coordinates of the vertices of a graph returned by
+     * {@link #prepareCSRGraph()}. The start and end vertices of an edge are
+     * placed at the first and last points of its geometry.
+     *
+     * @param graph The graph
+     * @return The coordinates, or null if the edges table has no geometry
+     * column
+     *
+     * @throws java.sql.SQLException
+     */
+    protected CSRCoordinates prepareCSRCoordinates(CSRGraph graph) throws SQLException {
+        final TableLocation tableName = TableUtilities.parseInputTable(connection, inputTable);
+        final String geometryField;
+        try {
+            geometryField = GeometryTableUtilities.getFirstGeometryColumnNameAndIndex(connection, tableName).first();
+        } catch (SQLException ex) {
+            return null;
+        }
+        final int n = graph.getVertexCount();
+        final double[] x = new double[n];
+        final double[] y = new double[n];
+        Arrays.fill(x, Double.NaN);
+        Arrays.fill(y, Double.NaN);
+        boolean geographic = false;
+        final Statement st = connection.createStatement();
+        try {
+            final ResultSet edges = st.executeQuery("SELECT " + START_NODE + ", " + END_NODE + ", "
+                    + TableLocation.quoteIdentifier(geometryField) + " FROM " + tableName);
+            try {
+                while (edges.next()) {
+                    final Geometry geometry = (Geometry) edges.getObject(3);
+                    if (geometry == null || geometry.isEmpty()) {
+                        continue;
+                    }
+                    geographic = geometry.getSRID() == 4326;
+                    final Coordinate[] coordinates = geometry instanceof LineString ?
+                            null : geometry.getCoordinates();
+                    final Coordinate start = coordinates == null ?
+                            ((LineString) geometry).getCoordinateN(0) : coordinates[0];
+                    final Coordinate end = coordinates == null ?
+                            ((LineString) geometry).getCoordinateN(((LineString) geometry).getNumPoints() - 1) :
+                            coordinates[coordinates.length - 1];
+                    setCoordinate(graph.getIndex(edges.getInt(1)), start, x, y);
+                    setCoordinate(graph.getIndex(edges.getInt(2)), end, x, y);
+                }
+            } finally {
+                edges.close();
+            }
+        } finally {
+            st.close();
+        }
+        return new CSRCoordinates(graph, x, y, geographic);
+    }
+
+    private static void setCoordinate(int vertex, Coordinate coordinate, double[] x, double[] y) {
+        if (vertex != -1 && Double.isNaN(x[vertex])) {
+            x[vertex] = coordinate.x;
+            y[vertex] = coordinate.y;
+        }
+    }
+
+    /**
+     * Loads the arcs of the edge of the current row, following the same
+     * orientation rules as {@link #loadEdge}.
+     */
+    private void loadArcs(CSRGraph.Builder builder, ResultSet edges) throws SQLException {
+        final int startNode = edges.getInt(startNodeIndex);
+        final int endNode = edges.getInt(endNodeIndex);
+        final int edgeID = edges.getInt(edgeIDIndex);
+        double weight = WeightedGraph.DEFAULT_EDGE_WEIGHT;
+        if (weightColumnIndex != -1) {
+            weight = edges.getDouble(weightColumnIndex);
+        }
+        if (globalOrientation.equals(GraphFunctionParser.Orientation.UNDIRECTED)) {
+            builder.addArc(startNode, endNode, weight, edgeID);
+            if (startNode != endNode) {
+                builder.addArc(endNode, startNode, weight, edgeID);
+            }
+            return;
+        }
+        int edgeOrientation = (edgeOrientationIndex == -1)
+                ? DIRECTED_EDGE
+                : edges.getInt(edgeOrientationIndex);
+        if (edges.wasNull()) {
+            throw new IllegalArgumentException("Invalid edge orientation: NULL.");
+        }
+        final boolean reversed = globalOrientation.equals(GraphFunctionParser.Orientation.REVERSED);
+        if (edgeOrientation == UNDIRECTED_EDGE) {
+            if (reversed) {
+                builder.addArc(endNode, startNode, weight, edgeID);
+                builder.addArc(startNode, endNode, weight, -edgeID);
+            } else {
+                builder.addArc(startNode, endNode, weight, edgeID);
+                builder.addArc(endNode, startNode, weight, -edgeID);
+            }
+        } else if (edgeOrientation == DIRECTED_EDGE) {
+            if (reversed) {
+                builder.addArc(endNode, startNode, weight, edgeID);
+            } else {
+                builder.addArc(startNode, endNode, weight, edgeID);
+            }
+        } else if (edgeOrientation == REVERSED_EDGE) {
+            if (reversed) {
+                builder.addArc(startNode, endNode, weight, edgeID);
+            } else {
+                builder.addArc(endNode, startNode, weight, edgeID);
+            }
+        } else {
+            throw new IllegalArgumentException("Invalid edge orientation: " + edgeOrientation);
+        }
+    }
+
     /**
      * Prepares a graph.
      *
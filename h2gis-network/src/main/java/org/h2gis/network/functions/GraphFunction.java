@@ -20,6 +20,10 @@
 package org.h2gis.network.functions;
 
 import org.h2gis.api.AbstractFunction;
+import org.h2gis.utilities.TableLocation;
+import org.h2gis.utilities.TableUtilities;
+import org.javanetworkanalyzer.data.VId;
+import org.javanetworkanalyzer.model.Edge;
 import org.javanetworkanalyzer.model.KeyedGraph;
 import org.slf4j.Logger;
 
@@ -34,9 +38,12 @@ import java.sql.SQLException;
 public class GraphFunction extends AbstractFunction {
 
     public static final String ARG_ERROR  = "Unrecognized argument: ";
+    public static final String NO_GEOM_FIELD_ERROR = "The input table must contain a geometry field.";
 
     /**
-     * Return a JGraphT graph from the input edges table.
+     * Return a JGraphT graph from the input edges table. The graphs are
+     * cached between the calls, a graph must be given back with
+     * {@link #releaseGraph} when the function is done with it.
      *
      * @param connection  Connection
      * @param inputTable  Input table name
@@ -56,11 +63,151 @@ public class GraphFunction extends AbstractFunction {
         GraphFunctionParser parser = new GraphFunctionParser();
         parser.parseWeightAndOrientation(orientation, weight);
 
-        return new GraphCreator(connection,
+        // Reuse the graph loaded by a previous call if the table did not change
+        final GraphCache.Entry entry = GraphCache.getEntry(connection,
+                TableUtilities.parseInputTable(connection, inputTable),
+                parser.getGlobalOrientation() + "\n" + parser.getEdgeOrientation() + "\n" +
+                        parser.getWeightColumn() + "\n" + vertexClass.getName() + "\n" + edgeClass.getName());
+        if (entry != null) {
+            final KeyedGraph<?, ?> graph = GraphCache.acquire(entry);
+            if (graph != null) {
+                return graph;
+            }
+        }
+        final KeyedGraph graph = new GraphCreator(connection,
                 inputTable,
                 parser.getGlobalOrientation(), parser.getEdgeOrientation(), parser.getWeightColumn(),
                 vertexClass,
                 edgeClass).prepareGraph();
+        if (entry != null && graph != null) {
+            GraphCache.lend(entry, graph);
+        }
+        return graph;
+    }
+
+    /**
+     * Return a graph stored in compressed sparse row arrays from the input
+     * edges table. The graph is immutable and is shared between the calls.
+     *
+     * @param connection  Connection
+     * @param inputTable  Input table name
+     * @param orientation Orientation string
+     * @param weight      Weight column name, null for unweighted graphs
+     * @return Graph
+     * @throws java.sql.SQLException
+     */
+    protected static CSRGraph prepareCSRGraph(Connection connection,
+                                              String inputTable,
+                                              String orientation,
+                                              String weight) throws SQLException {
+        GraphFunctionParser parser = new GraphFunctionParser();
+        parser.parseWeightAndOrientation(orientation, weight);
+
+        final GraphCache.Entry entry = GraphCache.getEntry(connection,
+                TableUtilities.parseInputTable(connection, inputTable),
+                parser.getGlobalOrientation() + "\n" + parser.getEdgeOrientation() + "\n" +
+                        parser.getWeightColumn() + "\n" + CSRGraph.class.getName());
+        if (entry != null) {
+            final Object graph = GraphCache.getShared(entry);
+            if (graph != null) {
+                return (CSRGraph) graph;
+            }
+        }
+        final CSRGraph graph = new GraphCreator<VId, Edge<?>>(connection,
+                inputTable,
+                parser.getGlobalOrientation(), parser.getEdgeOrientation(), parser.getWeightColumn())
+                .prepareCSRGraph();
+        if (entry != null) {
+            GraphCache.putShared(entry, graph);
+        }
+        return graph;
+    }
+
+    /**
+     * Return the coordinates of the vertices of a graph returned by
+     * {@link #prepareCSRGraph}, they are shared between the calls as the
+     * graph.
+     *
+     * @param connection  Connection
+     * @param inputTable  Input table name
+     * @param orientation Orientation string
+     * @param weight      Weight column name, null for unweighted graphs
+     * @param graph       Graph
+     * @return Coordinates
+     * @throws java.sql.SQLException
+     * @throws IllegalArgumentException if the input table has no geometry
+     */
+    protected static CSRCoordinates prepareCSRCoordinates(Connection connection,
+                                                          String inputTable,
+                                                          String orientation,
+                                                          String weight,
+                                                          CSRGraph graph) throws SQLException {
+        GraphFunctionParser parser = new GraphFunctionParser();
+        parser.parseWeightAndOrientation(orientation, weight);
+
+        final GraphCache.Entry entry = GraphCache.getEntry(connection,
+                TableUtilities.parseInputTable(connection, inputTable),
+                parser.getGlobalOrientation() + "\n" + parser.getEdgeOrientation() + "\n" +
+                        parser.getWeightColumn() + "\n" + CSRCoordinates.class.getName());
+        if (entry != null) {
+            final Object coordinates = GraphCache.getShared(entry);
+            if (coordinates != null) {
+                return (CSRCoordinates) coordinates;
+            }
+        }
+        final CSRCoordinates coordinates = new GraphCreator<VId, Edge<?>>(connection,
+                inputTable,
+                parser.getGlobalOrientation(), parser.getEdgeOrientation(), parser.getWeightColumn())
+                .prepareCSRCoordinates(graph);
+        if (coordinates == null) {
+            throw new IllegalArgumentException(NO_GEOM_FIELD_ERROR);
+        }
+        if (entry != null) {
+            GraphCache.putShared(entry, coordinates);
+        }
+        return coordinates;
+    }
+
+    /**
+     * Return the contraction hierarchy stored by {@link ST_ContractGraph} for
+     * the input edges table. The hierarchy is immutable and is shared
+     * between the calls.
+     *
+     * @param connection Connection
+     * @param inputTable Input table name
+     * @return Contraction hierarchy
+     * @throws java.sql.SQLException
+     */
+    protected static ContractionHierarchy prepareContractionHierarchy(Connection connection,
+                                                                      String inputTable) throws SQLException {
+        final TableLocation tableName = TableUtilities.parseInputTable(connection, inputTable);
+        final TableLocation nodesName = TableUtilities.suffixTableLocation(tableName, GraphConstants.CH_NODES_SUFFIX);
+        final TableLocation arcsName = TableUtilities.suffixTableLocation(tableName, GraphConstants.CH_ARCS_SUFFIX);
+        final GraphCache.Entry entry = GraphCache.getEntry(connection, arcsName,
+                ContractionHierarchy.class.getName());
+        if (entry != null) {
+            final Object hierarchy = GraphCache.getShared(entry);
+            if (hierarchy != null) {
+                return (ContractionHierarchy) hierarchy;
+            }
+        }
+        final ContractionHierarchy hierarchy = ST_ContractGraph.readContractionHierarchy(connection, nodesName, arcsName);
+        if (entry != null) {
+            GraphCache.putShared(entry, hierarchy);
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Give back a graph returned by {@link #prepareGraph} once the function
+     * does not use it anymore, so that the next calls can reuse it.
+     *
+     * @param graph Graph, may be null
+     */
+    protected static void releaseGraph(KeyedGraph<?, ?> graph) {
+        if (graph != null) {
+            GraphCache.release(graph);
+        }
     }
 
     /**
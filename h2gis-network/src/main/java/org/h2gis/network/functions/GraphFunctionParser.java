@@ -39,6 +39,20 @@ public class GraphFunctionParser {
         DIRECTED, REVERSED, UNDIRECTED
     }
 
+    public static final String DIJKSTRA = "dijkstra";
+    public static final String ASTAR = "astar";
+    public static final String BIDIRECTIONAL = "bidirectional";
+
+    /**
+     * Algorithms of the one-to-one shortest path searches
+     */
+    public enum Algorithm {
+        DIJKSTRA, ASTAR, BIDIRECTIONAL
+    }
+
+    public static final String ALGORITHM_ERROR =
+            "Unknown algorithm. Enter '" + DIJKSTRA + "' | '" + ASTAR + "' | '" + BIDIRECTIONAL + "'.";
+
     public static final String EDGE_ORIENTATION_COLUMN = "edge_orientation_column";
     public static final String POSSIBLE_ORIENTATIONS =
             "'" + DIRECTED + " - " + EDGE_ORIENTATION_COLUMN + "' "
@@ -83,6 +97,28 @@ public class GraphFunctionParser {
         }
     }
 
+    /**
+     * Recovers the shortest path algorithm from a string.
+     *
+     * @param v String, null for the default algorithm
+     * @return The algorithm
+     */
+    public static Algorithm parseAlgorithm(String v) {
+        if (v == null) {
+            return Algorithm.DIJKSTRA;
+        }
+        final String s = v.trim().toLowerCase();
+        if (s.equals(DIJKSTRA)) {
+            return Algorithm.DIJKSTRA;
+        } else if (s.equals(ASTAR) || s.equals("a*")) {
+            return Algorithm.ASTAR;
+        } else if (s.equals(BIDIRECTIONAL)) {
+            return Algorithm.BIDIRECTIONAL;
+        } else {
+            throw new IllegalArgumentException(ALGORITHM_ERROR);
+        }
+    }
+
     private static boolean isDirectedString(String s) {
         if (s == null) {
             return false;
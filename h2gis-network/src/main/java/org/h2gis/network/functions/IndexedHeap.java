@@ -0,0 +1,145 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+package org.h2gis.network.functions;
+
+import java.util.Arrays;
+
+/**
+ * Binary min heap of the integers 0 to n-1, each one having a key that can
+ * be changed while it is in the heap.
+ */
+final class IndexedHeap {
+
+    private final int[] heap;
+    private final int[] position;
+    private final double[] key;
+    private int size = 0;
+
+    /**
+     * @param capacity The items are between 0 and capacity - 1
+     */
+    IndexedHeap(int capacity) {
+        heap = new int[capacity];
+        position = new int[capacity];
+        key = new double[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean contains(int item) {
+        return position[item] != -1;
+    }
+
+    /**
+     * @return The smallest key, the heap must not be empty
+     */
+    double peekKey() {
+        return key[heap[0]];
+    }
+
+    /**
+     * Insert an item, or change its key if it is already in the heap.
+     *
+     * @param item Item
+     * @param k    Key
+     */
+    void push(int item, double k) {
+        key[item] = k;
+        int pos = position[item];
+        if (pos == -1) {
+            pos = size++;
+            heap[pos] = item;
+            position[item] = pos;
+        }
+        siftDown(siftUp(pos));
+    }
+
+    /**
+     * Remove the item with the smallest key.
+     *
+     * @return The item
+     */
+    int poll() {
+        final int top = heap[0];
+        position[top] = -1;
+        size--;
+        if (size > 0) {
+            final int last = heap[size];
+            heap[0] = last;
+            position[last] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    /**
+     * Remove all the items.
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private int siftUp(int pos) {
+        final int item = heap[pos];
+        final double k = key[item];
+        while (pos > 0) {
+            final int parent = (pos - 1) >>> 1;
+            final int p = heap[parent];
+            if (key[p] <= k) {
+                break;
+            }
+            heap[pos] = p;
+            position[p] = pos;
+            pos = parent;
+        }
+        heap[pos] = item;
+        position[item] = pos;
+        return pos;
+    }
+
+    private void siftDown(int pos) {
+        final int item = heap[pos];
+        final double k = key[item];
+        final int half = size >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            final int right = child + 1;
+            if (right < size && key[heap[right]] < key[heap[child]]) {
+                child = right;
+            }
+            final int c = heap[child];
+            if (k <= key[c]) {
+                break;
+            }
+            heap[pos] = c;
+            position[c] = pos;
+            pos = child;
+        }
+        heap[pos] = item;
+        position[item] = pos;
+    }
+}
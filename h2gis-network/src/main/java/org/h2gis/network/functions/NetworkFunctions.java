@@ -50,7 +50,10 @@ public class NetworkFunctions {
             new ST_GraphAnalysis(),
             new ST_ShortestPathLength(),
             new ST_ShortestPathTree(),
-            new ST_ShortestPath()
+            new ST_ShortestPath(),
+            new ST_ContractGraph(),
+            new ST_CHShortestPathLength(),
+            new ST_CHShortestPath()
                     
         };
     }
@@ -21,17 +21,13 @@ package org.h2gis.network.functions;
 
 
 import org.h2.tools.SimpleResultSet;
+import org.h2.tools.SimpleRowSource;
 import org.h2gis.api.ScalarFunction;
 import org.h2gis.utilities.TableLocation;
 import org.h2gis.utilities.TableUtilities;
-import org.javanetworkanalyzer.analyzers.AccessibilityAnalyzer;
-import org.javanetworkanalyzer.data.VAccess;
-import org.javanetworkanalyzer.model.Edge;
-import org.javanetworkanalyzer.model.KeyedGraph;
 
 import java.sql.*;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
 
 import static org.h2gis.network.functions.GraphConstants.*;
 import static org.h2gis.utilities.TableUtilities.isColumnListConnection;
@@ -40,6 +36,10 @@ import static org.h2gis.utilities.TableUtilities.isColumnListConnection;
  * Calculates, for each vertex, the closest destination among several possible
  * destinations, as well as the distance to this destination.
  *
+ * A single Dijkstra search starts from all the destinations at once, on the
+ * reversed graph for directed graphs, so its cost does not depend on the
+ * number of destinations.
+ *
  * @author Adam Gogue
  */
 public class ST_Accessibility extends GraphFunction implements ScalarFunction {
@@ -52,16 +52,21 @@ public class ST_Accessibility extends GraphFunction implements ScalarFunction {
             "* `ST_Accessibility('input_edges', 'o[ - eo]', 'dt')`\n" +
             "* `ST_Accessibility('input_edges', 'o[ - eo]', 'w', 'ds')`\n" +
             "* `ST_Accessibility('input_edges', 'o[ - eo]', 'w', 'dt')` \n" +
+            "* `ST_Accessibility('input_edges', 'o[ - eo]', 'w', 'ds', r)`\n" +
+            "* `ST_Accessibility('input_edges', 'o[ - eo]', 'w', 'dt', r)` \n" +
             "\n" +
             "where \n" +
             "* `input_edges` = Edges table produced by `ST_Graph` from table `input`\n" +
             "* `o` = Global orientation (directed, reversed or undirected)\n" +
             "* `eo` = Edge orientation (1 = directed, -1 = reversed, 0 = undirected).\n" +
             "  Required if global orientation is directed or reversed.\n" +
-            "* `w` = Name of column containing edge weights as doubles\n" +
+            "* `w` = Name of column containing edge weights as doubles, or NULL\n" +
             "* `ds` = Comma-separated Destination string ('dest1, dest2, ...')\n" +
             "* `dt` = Destination table name (must contain column containing integer vertex\n" +
-            "  ids)\n";
+            "  ids)\n" +
+            "* `r` = Maximum distance to a destination, the vertices farther than `r`\n" +
+            "  from all the destinations have no closest destination (-1) as the vertices\n" +
+            "  which cannot reach any destination\n";
 
     /**
      * Constructor
@@ -106,61 +111,155 @@ public class ST_Accessibility extends GraphFunction implements ScalarFunction {
                                              String orientation,
                                              String weight,
                                              String arg4) throws SQLException {
+        return getAccessibility(connection, inputTable, orientation, weight, arg4,
+                Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @param connection  Connection
+     * @param inputTable  Edges table produced by ST_Graph
+     * @param orientation Orientation string
+     * @param weight      Weight
+     * @param arg4        Destination string or destination table
+     * @param radius      Maximum distance to a destination
+     * @return Table with closest destination id and distance to closest
+     * destination
+     * @throws SQLException
+     */
+    public static ResultSet getAccessibility(Connection connection,
+                                             String inputTable,
+                                             String orientation,
+                                             String weight,
+                                             String arg4,
+                                             double radius) throws SQLException {
         if (isColumnListConnection(connection)) {
             return prepareResultSet();
         }
-        final KeyedGraph<VAccess, Edge> graph =
-                prepareGraph(connection, inputTable, orientation, weight, VAccess.class, Edge.class);
+        final CSRGraph graph = prepareCSRGraph(connection, inputTable, orientation, weight);
+        final int[] destinations;
         // Decide whether this is a destination string or a table string.
         if (GraphFunctionParser.isDestinationsString(arg4)) {
-            return compute(graph, prepareDestSet(graph, GraphFunctionParser.parseDestinationsString(arg4)));
+            destinations = prepareDestinations(graph, GraphFunctionParser.parseDestinationsString(arg4));
         } else {
             // arg4 is a destination table.
-            return compute(graph, prepareDestSet(connection, graph, arg4));
+            destinations = prepareDestinations(connection, graph, arg4);
         }
+        // The distances to the destinations are the distances from the
+        // destinations in the reversed graph
+        final GraphFunctionParser parser = new GraphFunctionParser();
+        parser.parseWeightAndOrientation(orientation, weight);
+        final CSRGraph searchGraph =
+                parser.getGlobalOrientation() == GraphFunctionParser.Orientation.UNDIRECTED ?
+                graph : graph.getReversed();
+        return prepareResultSet(new AccessibilityRowSource(searchGraph, destinations, radius));
     }
 
-    private static ResultSet compute(KeyedGraph<VAccess, Edge> graph,
-                                     Set<VAccess> destinations) throws SQLException {
-        SimpleResultSet output = prepareResultSet();
-        new AccessibilityAnalyzer(graph, destinations).compute();
-        for (VAccess v : graph.vertexSet()) {
-            output.addRow(v.getID(), v.getClosestDestinationId(), v.getDistanceToClosestDestination());
-        }
-        return output;
-    }
-
-    private static Set<VAccess> prepareDestSet(KeyedGraph<VAccess, Edge> graph, int[] dests) {
-        Set<VAccess> destinations = new HashSet<VAccess>();
+    private static int[] prepareDestinations(CSRGraph graph, int[] dests) {
+        final int[] destinations = new int[dests.length];
         for (int i = 0; i < dests.length; i++) {
-            destinations.add(graph.getVertex(dests[i]));
+            destinations[i] = graph.getExistingIndex(dests[i]);
         }
         return destinations;
     }
 
-    private static Set<VAccess> prepareDestSet(Connection connection,
-                                               KeyedGraph<VAccess, Edge> graph,
-                                               String destTable) throws SQLException {
+    private static int[] prepareDestinations(Connection connection,
+                                             CSRGraph graph,
+                                             String destTable) throws SQLException {
         final Statement st = connection.createStatement();
-        Set<VAccess> destinations = new HashSet<VAccess>();
+        int[] destinations = new int[16];
+        int count = 0;
         try {
             final TableLocation destinationTable = TableUtilities.parseInputTable(connection, destTable);
             final ResultSet rs = st.executeQuery(
                     "SELECT " + DESTINATION + " FROM " + destinationTable);
             while (rs.next()) {
-                destinations.add(graph.getVertex(rs.getInt(1)));
+                if (count == destinations.length) {
+                    destinations = Arrays.copyOf(destinations, 2 * count);
+                }
+                destinations[count++] = graph.getExistingIndex(rs.getInt(1));
             }
         } finally {
             st.close();
         }
-        return destinations;
+        return Arrays.copyOf(destinations, count);
     }
 
     private static SimpleResultSet prepareResultSet() {
-        SimpleResultSet output = new SimpleResultSet();
+        return prepareResultSet(null);
+    }
+
+    private static SimpleResultSet prepareResultSet(SimpleRowSource rowSource) {
+        SimpleResultSet output = rowSource == null ? new SimpleResultSet() : new SimpleResultSet(rowSource);
         output.addColumn(SOURCE, Types.INTEGER, 10, 0);
         output.addColumn(CLOSEST_DEST, Types.INTEGER, 10, 0);
         output.addColumn(DISTANCE, Types.DOUBLE, 10, 0);
         return output;
     }
+
+    /**
+     * Produce the (SOURCE, CLOSEST_DEST, DISTANCE) rows. The search from all
+     * the destinations runs on the first read, then a row is created for
+     * each vertex on request.
+     */
+    private static final class AccessibilityRowSource implements SimpleRowSource {
+
+        private final CSRGraph graph;
+        private final int[] destinations;
+        private final double radius;
+        private int[] closestDestinations;
+        private double[] distances;
+        private int next = 0;
+
+        AccessibilityRowSource(CSRGraph graph, int[] destinations, double radius) {
+            this.graph = graph;
+            this.destinations = destinations;
+            this.radius = radius;
+        }
+
+        private void compute() {
+            final int n = graph.getVertexCount();
+            closestDestinations = new int[n];
+            distances = new double[n];
+            Arrays.fill(closestDestinations, -1);
+            Arrays.fill(distances, Double.POSITIVE_INFINITY);
+            if (destinations.length == 0) {
+                return;
+            }
+            final CSRDijkstra dijkstra = new CSRDijkstra(graph);
+            dijkstra.start(destinations);
+            // The predecessor of a vertex is settled before it, and has the
+            // same closest destination
+            while (dijkstra.getNextDistance() < Double.POSITIVE_INFINITY
+                    && dijkstra.getNextDistance() <= radius) {
+                final int v = dijkstra.settleNext();
+                final int arc = dijkstra.getPredecessorArc(v);
+                closestDestinations[v] = arc == -1 ? v : closestDestinations[graph.getSource(arc)];
+                distances[v] = dijkstra.getDistance(v);
+            }
+        }
+
+        @Override
+        public Object[] readRow() {
+            if (closestDestinations == null) {
+                compute();
+            }
+            if (next >= graph.getVertexCount()) {
+                return null;
+            }
+            final int v = next++;
+            final int closest = closestDestinations[v];
+            return new Object[]{graph.getId(v), closest == -1 ? -1 : graph.getId(closest), distances[v]};
+        }
+
+        @Override
+        public void close() {
+            closestDestinations = null;
+            distances = null;
+        }
+
+        @Override
+        public void reset() {
+            next = 0;
+        }
+    }
 }
@@ -0,0 +1,111 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+package org.h2gis.network.functions;
+
+import org.h2gis.api.ScalarFunction;
+import org.h2gis.utilities.GeometryTableUtilities;
+import org.h2gis.utilities.TableLocation;
+import org.h2gis.utilities.TableUtilities;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.h2gis.utilities.TableUtilities.isColumnListConnection;
+
+/**
+ * Calculates a shortest path between two vertices with the contraction
+ * hierarchy built by {@link ST_ContractGraph}.
+ */
+public class ST_CHShortestPath extends GraphFunction implements ScalarFunction {
+
+    public static final String REMARKS =
+            "`ST_CHShortestPath` calculates a shortest path between two vertices of a graph\n" +
+            "contracted by `ST_ContractGraph`, with the orientation and weights given to\n" +
+            "`ST_ContractGraph`. The edges are returned as by `ST_ShortestPath`. Signature:\n" +
+            "* `ST_CHShortestPath('input_edges', s, d)` - One-to-One\n" +
+            "\n" +
+            "where\n" +
+            "* `input_edges` = Edges table given to `ST_ContractGraph`\n" +
+            "* `s` = Source vertex id\n" +
+            "* `d` = Destination vertex id\n";
+
+    /**
+     * Constructor
+     */
+    public ST_CHShortestPath() {
+        addProperty(PROP_REMARKS, REMARKS);
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "getShortestPath";
+    }
+
+    /**
+     * @param connection  connection
+     * @param inputTable  Edges table given to ST_ContractGraph
+     * @param source      Source vertex id
+     * @param destination Destination vertex id
+     * @return Shortest path
+     * @throws SQLException
+     */
+    public static ResultSet getShortestPath(Connection connection,
+                                            String inputTable,
+                                            int source,
+                                            int destination) throws SQLException {
+        final TableLocation tableName = TableUtilities.parseInputTable(connection, inputTable);
+        String firstGeometryField = null;
+        try {
+            firstGeometryField = GeometryTableUtilities.getFirstGeometryColumnNameAndIndex(connection, tableName).first();
+        } catch (SQLException ex) {
+        }
+        final boolean containsGeomField = firstGeometryField != null;
+        if (isColumnListConnection(connection)) {
+            return ST_ShortestPath.prepareResultSet(containsGeomField);
+        }
+        final ContractionHierarchy hierarchy = prepareContractionHierarchy(connection, inputTable);
+        final int s = hierarchy.getIndex(source);
+        if (s == -1) {
+            throw new IllegalArgumentException("Source vertex not found.");
+        }
+        final int d = hierarchy.getIndex(destination);
+        if (d == -1) {
+            throw new IllegalArgumentException("Target vertex not found.");
+        }
+        final CHQuery query = new CHQuery(hierarchy);
+        query.oneToOne(s, d);
+        final int[] arcs = query.getPathArcs();
+        final EdgeRowSource.PathRows rows = new EdgeRowSource.PathRows();
+        if (arcs != null) {
+            // The path edges are numbered from the destination
+            int localID = 1;
+            for (int i = arcs.length - 1; i >= 0; i--) {
+                final int arc = arcs[i];
+                rows.add(hierarchy.getEdgeId(arc), 1, localID,
+                        hierarchy.getId(hierarchy.getSource(arc)), hierarchy.getId(hierarchy.getTarget(arc)),
+                        hierarchy.getWeight(arc));
+                localID++;
+            }
+        }
+        return ST_ShortestPath.prepareResultSet(containsGeomField,
+                new EdgeRowSource(connection, tableName, firstGeometryField, rows));
+    }
+}
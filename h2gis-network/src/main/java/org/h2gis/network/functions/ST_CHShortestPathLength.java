@@ -0,0 +1,145 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+package org.h2gis.network.functions;
+
+import org.h2.tools.SimpleResultSet;
+import org.h2.value.Value;
+import org.h2.value.ValueInteger;
+import org.h2.value.ValueVarchar;
+import org.h2gis.api.ScalarFunction;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.h2gis.utilities.TableUtilities.isColumnListConnection;
+
+/**
+ * Calculates the length(s) of shortest path(s) between vertices with the
+ * contraction hierarchy built by {@link ST_ContractGraph}.
+ */
+public class ST_CHShortestPathLength extends GraphFunction implements ScalarFunction {
+
+    public static final String REMARKS =
+            "`ST_CHShortestPathLength` calculates the length(s) of shortest path(s) among\n" +
+            "vertices of a graph contracted by `ST_ContractGraph`, with the orientation and\n" +
+            "weights given to `ST_ContractGraph`. Possible signatures:\n" +
+            "* `ST_CHShortestPathLength('input_edges', s, d)` - One-to-One\n" +
+            "* `ST_CHShortestPathLength('input_edges', 'st', 'dt')` - Many-to-Many\n" +
+            "\n" +
+            "where\n" +
+            "* `input_edges` = Edges table given to `ST_ContractGraph`\n" +
+            "* `s` = Source vertex id\n" +
+            "* `d` = Destination vertex id\n" +
+            "* `st` = Source table name (first column containing integer vertex ids)\n" +
+            "* `dt` = Destination table name (first column containing integer vertex ids)\n";
+
+    /**
+     * Constructor
+     */
+    public ST_CHShortestPathLength() {
+        addProperty(PROP_REMARKS, REMARKS);
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "getShortestPathLength";
+    }
+
+    /**
+     * Calculate distances for
+     * <ol>
+     * <li> One-to-One: <code>(arg2, arg3) = (s, d)</code>,</li>
+     * <li> Many-to-Many: <code>(arg2, arg3) = (st, dt)</code>.</li>
+     * </ol>
+     *
+     * @param connection Connection
+     * @param inputTable Edges table given to ST_ContractGraph
+     * @param arg2       Source vertex id -OR- Source table
+     * @param arg3       Destination vertex id -OR- Destination table
+     * @return Distances table
+     * @throws SQLException
+     */
+    public static ResultSet getShortestPathLength(Connection connection,
+                                                  String inputTable,
+                                                  Value arg2,
+                                                  Value arg3) throws SQLException {
+        final SimpleResultSet output = ST_ShortestPathLength.prepareResultSet();
+        if (isColumnListConnection(connection)) {
+            return output;
+        }
+        if (arg2 instanceof ValueInteger && arg3 instanceof ValueInteger) {
+            final ContractionHierarchy hierarchy = prepareContractionHierarchy(connection, inputTable);
+            final int source = arg2.getInt();
+            final int destination = arg3.getInt();
+            final double distance = new CHQuery(hierarchy).oneToOne(
+                    hierarchy.getExistingIndex(source), hierarchy.getExistingIndex(destination));
+            output.addRow(source, destination, distance);
+        } else if (arg2 instanceof ValueVarchar && arg3 instanceof ValueVarchar) {
+            final ContractionHierarchy hierarchy = prepareContractionHierarchy(connection, inputTable);
+            final Statement st = connection.createStatement();
+            try {
+                final int[] sources = getVertices(st, hierarchy, arg2.getString());
+                final int[] destinations = getVertices(st, hierarchy, arg3.getString());
+                final double[][] distances = new CHQuery(hierarchy).manyToMany(sources, destinations);
+                for (int i = 0; i < sources.length; i++) {
+                    for (int j = 0; j < destinations.length; j++) {
+                        output.addRow(hierarchy.getId(sources[i]), hierarchy.getId(destinations[j]),
+                                distances[i][j]);
+                    }
+                }
+            } finally {
+                st.close();
+            }
+        } else {
+            throw new IllegalArgumentException(ARG_ERROR + arg2 + ", " + arg3);
+        }
+        return output;
+    }
+
+    /**
+     * Return the indexes of the distinct vertices whose ids are in the first
+     * column of a table.
+     */
+    private static int[] getVertices(Statement st, ContractionHierarchy hierarchy,
+                                     String tableName) throws SQLException {
+        final ResultSet rs = st.executeQuery("SELECT * FROM " + tableName);
+        try {
+            final Set<Integer> set = new LinkedHashSet<Integer>();
+            while (rs.next()) {
+                set.add(hierarchy.getExistingIndex(rs.getInt(1)));
+            }
+            if (set.isEmpty()) {
+                throw new IllegalArgumentException("Table " + tableName + " was empty.");
+            }
+            final int[] vertices = new int[set.size()];
+            int i = 0;
+            for (Integer v : set) {
+                vertices[i++] = v;
+            }
+            return vertices;
+        } finally {
+            rs.close();
+        }
+    }
+}
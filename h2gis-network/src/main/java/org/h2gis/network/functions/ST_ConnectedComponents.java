@@ -22,23 +22,16 @@ package org.h2gis.network.functions;
 import org.h2gis.api.ScalarFunction;
 import org.h2gis.utilities.TableLocation;
 import org.h2gis.utilities.TableUtilities;
-import org.javanetworkanalyzer.data.VUCent;
-import org.javanetworkanalyzer.model.Edge;
-import org.javanetworkanalyzer.model.KeyedGraph;
-import org.jgrapht.DirectedGraph;
-import org.jgrapht.Graph;
-import org.jgrapht.UndirectedGraph;
-import org.jgrapht.alg.ConnectivityInspector;
-import org.jgrapht.alg.GabowStrongConnectivityInspector;
+import org.h2gis.utilities.UnionFind;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.List;
-import java.util.Set;
+import java.util.Arrays;
 
 import static org.h2gis.network.functions.GraphConstants.*;
 import static org.h2gis.network.functions.GraphFunctionParser.Orientation.UNDIRECTED;
@@ -48,6 +41,10 @@ import static org.h2gis.network.functions.GraphFunctionParser.parseGlobalOrienta
  * Calculates the connected components (for undirected graphs) or strongly
  * connected components (for directed graphs) of a graph.
  *
+ * The connected components are found by a union-find over the edges, read
+ * once from the table into arrays of ids. The strongly connected components
+ * are found by an iterative Tarjan's algorithm on the {@link CSRGraph}.
+ *
  * @author Adam Gouge
  */
 public class ST_ConnectedComponents  extends GraphFunction implements ScalarFunction {
@@ -91,19 +88,23 @@ public class ST_ConnectedComponents  extends GraphFunction implements ScalarFunc
     public static boolean getConnectedComponents(Connection connection,
                                                  String inputTable,
                                                  String orientation) throws SQLException {
-        KeyedGraph graph = prepareGraph(connection, inputTable, orientation, null,
-                VUCent.class, Edge.class);
-        if (graph == null) {
-            return false;
-        }
-        final List<Set<VUCent>> componentsList = getConnectedComponents(graph, orientation);
-
         final TableLocation tableName = TableUtilities.parseInputTable(connection, inputTable);
         final TableLocation nodesName = TableUtilities.suffixTableLocation(tableName, NODE_COMP_SUFFIX);
         final TableLocation edgesName = TableUtilities.suffixTableLocation(tableName, EDGE_COMP_SUFFIX);
 
-        if (storeNodeConnectedComponents(connection, nodesName, edgesName, componentsList)) {
-            return storeEdgeConnectedComponents(connection, tableName, nodesName, edgesName);
+        LOGGER.info("Calculating connected components... ");
+        final long start = System.currentTimeMillis();
+        final Components components;
+        if (parseGlobalOrientation(orientation).equals(UNDIRECTED)) {
+            components = getConnectedComponents(connection, tableName);
+        } else {
+            components = getStronglyConnectedComponents(
+                    prepareCSRGraph(connection, inputTable, orientation, null));
+        }
+        logTime(LOGGER, start);
+
+        if (storeNodeConnectedComponents(connection, nodesName, edgesName, components)) {
+            return storeEdgeConnectedComponents(connection, nodesName, edgesName, components);
         }
         return false;
     }
@@ -124,62 +125,172 @@ public class ST_ConnectedComponents  extends GraphFunction implements ScalarFunc
         }
     }
 
-    private static List<Set<VUCent>> getConnectedComponents(Graph<VUCent, Edge> graph,
-                                                            String orientation) {
-        LOGGER.info("Calculating connected components... ");
-        final long start = System.currentTimeMillis();
-        List<Set<VUCent>> sets;
-        if (parseGlobalOrientation(orientation).equals(UNDIRECTED)) {
-            sets = new ConnectivityInspector<VUCent, Edge>(
-                    (UndirectedGraph<VUCent, Edge>) graph).connectedSets();
-        } else {
-            sets = new GabowStrongConnectivityInspector<VUCent, Edge>(
-                    (DirectedGraph) graph).stronglyConnectedSets();
+    /**
+     * Find the connected components of an undirected graph with a union-find
+     * over its edges, which are read once.
+     */
+    private static Components getConnectedComponents(Connection connection,
+                                                     TableLocation tableName) throws SQLException {
+        int[] edgeIds = new int[1024];
+        int[] startNodes = new int[1024];
+        int[] endNodes = new int[1024];
+        int m = 0;
+        final Statement st = connection.createStatement();
+        try {
+            final ResultSet edges = st.executeQuery("SELECT " + EDGE_ID + ", " + START_NODE + ", " +
+                    END_NODE + " FROM " + tableName);
+            try {
+                while (edges.next()) {
+                    if (m == edgeIds.length) {
+                        final int capacity = m + (m >> 1);
+                        edgeIds = Arrays.copyOf(edgeIds, capacity);
+                        startNodes = Arrays.copyOf(startNodes, capacity);
+                        endNodes = Arrays.copyOf(endNodes, capacity);
+                    }
+                    edgeIds[m] = edges.getInt(1);
+                    startNodes[m] = edges.getInt(2);
+                    endNodes[m] = edges.getInt(3);
+                    m++;
+                }
+            } finally {
+                edges.close();
+            }
+        } finally {
+            st.close();
         }
-        logTime(LOGGER, start);
-        return sets;
+        // Sorted distinct node ids, the nodes of the edges are replaced by
+        // their index
+        int[] ids = new int[2 * m];
+        System.arraycopy(startNodes, 0, ids, 0, m);
+        System.arraycopy(endNodes, 0, ids, m, m);
+        Arrays.sort(ids);
+        int n = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (n == 0 || ids[i] != ids[n - 1]) {
+                ids[n++] = ids[i];
+            }
+        }
+        final int[] nodeIds = Arrays.copyOf(ids, n);
+        ids = null;
+        final UnionFind unionFind = new UnionFind(n);
+        for (int e = 0; e < m; e++) {
+            startNodes[e] = Arrays.binarySearch(nodeIds, startNodes[e]);
+            endNodes[e] = Arrays.binarySearch(nodeIds, endNodes[e]);
+            unionFind.union(startNodes[e], endNodes[e]);
+        }
+        // Number the components in the order of their first node
+        final int[] nodeComponents = new int[n];
+        int count = 0;
+        for (int v = 0; v < n; v++) {
+            final int root = unionFind.find(v);
+            if (nodeComponents[root] == 0) {
+                nodeComponents[root] = ++count;
+            }
+            nodeComponents[v] = nodeComponents[root];
+        }
+        final int[] edgeComponents = new int[m];
+        for (int e = 0; e < m; e++) {
+            edgeComponents[e] = nodeComponents[startNodes[e]];
+        }
+        return new Components(nodeIds, nodeComponents, Arrays.copyOf(edgeIds, m), edgeComponents);
+    }
+
+    /**
+     * Find the strongly connected components of a directed graph with an
+     * iterative Tarjan's algorithm. An edge joining two components belongs
+     * to none.
+     */
+    private static Components getStronglyConnectedComponents(CSRGraph graph) {
+        final int n = graph.getVertexCount();
+        final int[] index = new int[n];
+        final int[] lowLink = new int[n];
+        // Component of the vertex, 0 while it is on the stack of Tarjan's
+        // algorithm or not visited yet
+        final int[] nodeComponents = new int[n];
+        final int[] stack = new int[n];
+        final int[] callStack = new int[n];
+        final int[] nextArc = new int[n];
+        Arrays.fill(index, -1);
+        int visited = 0;
+        int stackSize = 0;
+        int count = 0;
+        for (int root = 0; root < n; root++) {
+            if (index[root] != -1) {
+                continue;
+            }
+            index[root] = lowLink[root] = visited++;
+            stack[stackSize++] = root;
+            nextArc[root] = graph.getFirstArc(root);
+            int depth = 0;
+            callStack[depth++] = root;
+            while (depth > 0) {
+                final int v = callStack[depth - 1];
+                if (nextArc[v] < graph.getLastArc(v)) {
+                    final int w = graph.getTarget(nextArc[v]++);
+                    if (index[w] == -1) {
+                        index[w] = lowLink[w] = visited++;
+                        stack[stackSize++] = w;
+                        nextArc[w] = graph.getFirstArc(w);
+                        callStack[depth++] = w;
+                    } else if (nodeComponents[w] == 0) {
+                        lowLink[v] = Math.min(lowLink[v], index[w]);
+                    }
+                } else {
+                    depth--;
+                    if (depth > 0) {
+                        final int parent = callStack[depth - 1];
+                        lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+                    }
+                    if (lowLink[v] == index[v]) {
+                        count++;
+                        int w;
+                        do {
+                            w = stack[--stackSize];
+                            nodeComponents[w] = count;
+                        } while (w != v);
+                    }
+                }
+            }
+        }
+        final int[] nodeIds = new int[n];
+        int m = 0;
+        for (int v = 0; v < n; v++) {
+            nodeIds[v] = graph.getId(v);
+            for (int arc = graph.getFirstArc(v); arc < graph.getLastArc(v); arc++) {
+                // The opposite arc of an undirected edge has a negative id
+                if (graph.getEdgeId(arc) >= 0) {
+                    m++;
+                }
+            }
+        }
+        final int[] edgeIds = new int[m];
+        final int[] edgeComponents = new int[m];
+        int e = 0;
+        for (int v = 0; v < n; v++) {
+            for (int arc = graph.getFirstArc(v); arc < graph.getLastArc(v); arc++) {
+                if (graph.getEdgeId(arc) >= 0) {
+                    final int component = nodeComponents[v];
+                    edgeIds[e] = graph.getEdgeId(arc);
+                    edgeComponents[e] = component == nodeComponents[graph.getTarget(arc)] ?
+                            component : NULL_CONNECTED_COMPONENT_NUMBER;
+                    e++;
+                }
+            }
+        }
+        return new Components(nodeIds, nodeComponents, edgeIds, edgeComponents);
     }
 
     private static boolean storeNodeConnectedComponents(Connection connection,
                                                         TableLocation nodesName,
                                                         TableLocation edgesName,
-                                                        List<Set<VUCent>> componentsList)
+                                                        Components components)
             throws SQLException {
         LOGGER.info("Storing node connected components... ");
         final long start = System.currentTimeMillis();
         createNodeTable(connection, nodesName);
-        final PreparedStatement nodeSt =
-                connection.prepareStatement("INSERT INTO " + nodesName + " VALUES(?,?)");
-        try {
-            final boolean previousAutoCommit = connection.getAutoCommit();
-            connection.setAutoCommit(false);
-            int componentNumber = 0;
-            for (Set<VUCent> component : componentsList) {
-                componentNumber++;
-                int count = 0;
-                for (VUCent v : component) {
-                    nodeSt.setInt(1, v.getID());
-                    nodeSt.setInt(2, componentNumber);
-                    nodeSt.addBatch();
-                    count++;
-                    if (count >= BATCH_SIZE) {
-                        nodeSt.executeBatch();
-                        nodeSt.clearBatch();
-                        count = 0;
-                    }
-                }
-                if (count > 0) {
-                    nodeSt.executeBatch();
-                    nodeSt.clearBatch();
-                }
-                connection.commit();
-            }
-            connection.setAutoCommit(previousAutoCommit);
-        } catch (SQLException e) {
-            cancel(connection, nodesName, edgesName, e, "Could not store node connected components.");
+        if (!storeConnectedComponents(connection, nodesName, edgesName,
+                components.nodeIds, components.nodeComponents)) {
             return false;
-        } finally {
-            nodeSt.close();
         }
         logTime(LOGGER, start);
         return true;
@@ -198,60 +309,86 @@ public class ST_ConnectedComponents  extends GraphFunction implements ScalarFunc
     }
 
     private static boolean storeEdgeConnectedComponents(Connection connection,
-                                                        TableLocation tableName,
                                                         TableLocation nodesName,
-                                                        TableLocation edgesName) throws SQLException {
+                                                        TableLocation edgesName,
+                                                        Components components) throws SQLException {
         LOGGER.info("Storing edge connected components...");
         final long start = System.currentTimeMillis();
         final Statement st = connection.createStatement();
         try {
-            final String tmpName = "TMP" + System.currentTimeMillis();
-            final String startNodeCC = "SN_CC";
-            final String endNodeCC = "EN_CC";
-            st.execute(
-                // Create a temporary table containing the connected component
-                // of each start node.
-                "CREATE INDEX ON " + tableName + "(" + START_NODE + ");" +
-                "CREATE INDEX ON " + nodesName + "(" + NODE_ID + ");" +
-                "CREATE TEMPORARY TABLE " + tmpName +
-                "(" + EDGE_ID + " INT PRIMARY KEY, " + startNodeCC + " INT, " + endNodeCC + " INT) " +
-                "AS SELECT A." + EDGE_ID + ", B." + CONNECTED_COMPONENT + ", NULL " +
-                "FROM " + tableName + " A, " + nodesName + " B " +
-                "WHERE A." + START_NODE + "=B." + NODE_ID + ";" +
-                // Add indices to speed up the UPDATE.
-                "CREATE INDEX ON " + tableName + "(" + END_NODE + ");" +
-                "CREATE INDEX ON " + tableName + "(" + EDGE_ID + ");" +
-                "CREATE INDEX ON " + tmpName + "(" + EDGE_ID + ");" +
-                // Update the temporary table with the connected component
-                // of each end node.
-                "UPDATE " + tmpName + " C " +
-                "SET " + endNodeCC + "=(" +
-                "SELECT B." + CONNECTED_COMPONENT + " " +
-                "FROM " + tableName + " A, " + nodesName + " B " +
-                "WHERE A." + END_NODE + "=B." + NODE_ID + " AND C." + EDGE_ID + "=A." + EDGE_ID + ");" +
-                // Use this temporary table to deduce the connected component
-                // of each edge. If the start and end node are in the same
-                // connected component, then so is the edge. If they are in
-                // different connected components (this is only possible for
-                // directed graphs), then we consider that this edge is not in
-                // a strongly connected component and so assign a connected
-                // component id of NULL_CONNECTED_COMPONENT_NUMBER.
-                "CREATE TABLE " + edgesName +
-                "(" + EDGE_ID + " INT PRIMARY KEY, " + CONNECTED_COMPONENT + " INT) AS " +
-                "SELECT " + EDGE_ID + ", " + startNodeCC + " " +
-                "FROM " + tmpName + " WHERE " + startNodeCC + "=" + endNodeCC + "; " +
-                "INSERT INTO " + edgesName + "(" + EDGE_ID + ", " + CONNECTED_COMPONENT + ") " +
-                "SELECT " + EDGE_ID + ", " + NULL_CONNECTED_COMPONENT_NUMBER +
-                " FROM " + tmpName + " WHERE " + startNodeCC + "!=" + endNodeCC + ";" +
-                // Drop the temporary table.
-                "DROP TABLE IF EXISTS " + tmpName + ";");
+            st.execute("CREATE TABLE " + edgesName + "(" +
+                    EDGE_ID + " INT PRIMARY KEY, " +
+                    CONNECTED_COMPONENT + " INT);");
         } catch (SQLException e) {
             cancel(connection, nodesName, edgesName, e, "Could not store edge connected components.");
             return false;
         } finally {
             st.close();
         }
+        if (!storeConnectedComponents(connection, edgesName, nodesName,
+                components.edgeIds, components.edgeComponents)) {
+            return false;
+        }
         logTime(LOGGER, start);
         return true;
     }
+
+    /**
+     * Insert the (id, component) rows by batches, both tables are dropped
+     * if the insertion fails.
+     */
+    private static boolean storeConnectedComponents(Connection connection,
+                                                    TableLocation tableName,
+                                                    TableLocation otherName,
+                                                    int[] ids,
+                                                    int[] componentNumbers) throws SQLException {
+        final PreparedStatement insertSt =
+                connection.prepareStatement("INSERT INTO " + tableName + " VALUES(?,?)");
+        try {
+            final boolean previousAutoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            int count = 0;
+            for (int i = 0; i < ids.length; i++) {
+                insertSt.setInt(1, ids[i]);
+                insertSt.setInt(2, componentNumbers[i]);
+                insertSt.addBatch();
+                count++;
+                if (count >= BATCH_SIZE) {
+                    insertSt.executeBatch();
+                    insertSt.clearBatch();
+                    count = 0;
+                }
+            }
+            if (count > 0) {
+                insertSt.executeBatch();
+                insertSt.clearBatch();
+            }
+            connection.commit();
+            connection.setAutoCommit(previousAutoCommit);
+        } catch (SQLException e) {
+            cancel(connection, tableName, otherName, e, "Could not store connected components.");
+            return false;
+        } finally {
+            insertSt.close();
+        }
+        return true;
+    }
+
+    /**
+     * Component numbers of the nodes and edges
+     */
+    private static final class Components {
+
+        private final int[] nodeIds;
+        private final int[] nodeComponents;
+        private final int[] edgeIds;
+        private final int[] edgeComponents;
+
+        Components(int[] nodeIds, int[] nodeComponents, int[] edgeIds, int[] edgeComponents) {
+            this.nodeIds = nodeIds;
+            this.nodeComponents = nodeComponents;
+            this.edgeIds = edgeIds;
+            this.edgeComponents = edgeComponents;
+        }
+    }
 }
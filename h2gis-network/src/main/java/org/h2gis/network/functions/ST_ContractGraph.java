@@ -0,0 +1,319 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+package org.h2gis.network.functions;
+
+import org.h2gis.api.ScalarFunction;
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.TableLocation;
+import org.h2gis.utilities.TableUtilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Arrays;
+
+import static org.h2gis.network.functions.GraphConstants.*;
+
+/**
+ * Builds the contraction hierarchy of a graph and stores it in two tables,
+ * used by {@link ST_CHShortestPathLength} and {@link ST_CHShortestPath}.
+ */
+public class ST_ContractGraph extends GraphFunction implements ScalarFunction {
+
+    protected static final int BATCH_SIZE = 1000;
+    private static final Logger LOGGER = LoggerFactory.getLogger("gui." + ST_ContractGraph.class);
+    public static final String REMARKS =
+            "`ST_ContractGraph` builds the contraction hierarchy of a graph, which answers\n" +
+            "the shortest path queries of `ST_CHShortestPathLength` and `ST_CHShortestPath`\n" +
+            "much faster than a Dijkstra search. It produces two tables: `input_edges_CH_NODES`\n" +
+            "containing the rank of each node, and `input_edges_CH_ARCS` containing the\n" +
+            "arcs of the graph and the shortcuts added by the contraction. The tables must be\n" +
+            "built again when the edges table changes. Signatures:\n" +
+            "* `ST_ContractGraph('input_edges', 'o[ - eo]')`\n" +
+            "* `ST_ContractGraph('input_edges', 'o[ - eo]', 'w')`\n" +
+            "\n" +
+            "where\n" +
+            "* `input_edges` = Edges table produced by `ST_Graph` from table `input`\n" +
+            "* `o` = Global orientation (directed, reversed or undirected)\n" +
+            "* `eo` = Edge orientation (1 = directed, -1 = reversed, 0 = undirected).\n" +
+            "  Required if global orientation is directed or reversed.\n" +
+            "* `w` = Name of column containing edge weights as doubles\n";
+
+    /**
+     * Constructor
+     */
+    public ST_ContractGraph() {
+        addProperty(PROP_REMARKS, REMARKS);
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "contractGraph";
+    }
+
+    /**
+     * Build and store the contraction hierarchy of an unweighted graph.
+     *
+     * @param connection  Connection
+     * @param inputTable  Edges table produced by ST_Graph
+     * @param orientation Orientation string
+     * @return True if the hierarchy was stored
+     * @throws SQLException
+     */
+    public static boolean contractGraph(Connection connection,
+                                        String inputTable,
+                                        String orientation) throws SQLException {
+        return contractGraph(connection, inputTable, orientation, null);
+    }
+
+    /**
+     * Build and store the contraction hierarchy of a graph.
+     *
+     * @param connection  Connection
+     * @param inputTable  Edges table produced by ST_Graph
+     * @param orientation Orientation string
+     * @param weight      Weight column name, null for unweighted graphs
+     * @return True if the hierarchy was stored
+     * @throws SQLException
+     */
+    public static boolean contractGraph(Connection connection,
+                                        String inputTable,
+                                        String orientation,
+                                        String weight) throws SQLException {
+        final TableLocation tableName = TableUtilities.parseInputTable(connection, inputTable);
+        final TableLocation nodesName = TableUtilities.suffixTableLocation(tableName, CH_NODES_SUFFIX);
+        final TableLocation arcsName = TableUtilities.suffixTableLocation(tableName, CH_ARCS_SUFFIX);
+        final CSRGraph graph = prepareCSRGraph(connection, inputTable, orientation, weight);
+        LOGGER.info("Contracting the graph...");
+        final long start = System.currentTimeMillis();
+        final ContractionHierarchy hierarchy = ContractionHierarchy.contract(graph);
+        logTime(LOGGER, start);
+        createTables(connection, nodesName, arcsName);
+        final boolean previousAutoCommit = connection.getAutoCommit();
+        try {
+            connection.setAutoCommit(false);
+            storeNodes(connection, nodesName, hierarchy);
+            storeArcs(connection, arcsName, hierarchy);
+        } catch (SQLException e) {
+            LOGGER.error("Problem storing the contraction hierarchy.", e);
+            final Statement statement = connection.createStatement();
+            try {
+                statement.execute("DROP TABLE IF EXISTS " + nodesName);
+                statement.execute("DROP TABLE IF EXISTS " + arcsName);
+            } finally {
+                statement.close();
+            }
+            return false;
+        } finally {
+            connection.setAutoCommit(previousAutoCommit);
+        }
+        return true;
+    }
+
+    private static void createTables(Connection connection,
+                                     TableLocation nodesName,
+                                     TableLocation arcsName) throws SQLException {
+        final Statement st = connection.createStatement();
+        try {
+            st.execute("CREATE TABLE " + nodesName + "(" +
+                    NODE_ID + " INTEGER PRIMARY KEY, " +
+                    NODE_RANK + " INTEGER);");
+            st.execute("CREATE TABLE " + arcsName + "(" +
+                    ARC_ID + " INTEGER PRIMARY KEY, " +
+                    SOURCE + " INTEGER, " +
+                    DESTINATION + " INTEGER, " +
+                    WEIGHT + " DOUBLE, " +
+                    EDGE_ID + " INTEGER, " +
+                    FIRST_ARC + " INTEGER, " +
+                    SECOND_ARC + " INTEGER);");
+        } finally {
+            st.close();
+        }
+    }
+
+    private static void storeNodes(Connection connection,
+                                   TableLocation nodesName,
+                                   ContractionHierarchy hierarchy) throws SQLException {
+        final PreparedStatement nodeSt =
+                connection.prepareStatement("INSERT INTO " + nodesName + " VALUES(?,?)");
+        try {
+            int count = 0;
+            for (int v = 0; v < hierarchy.getVertexCount(); v++) {
+                nodeSt.setInt(1, hierarchy.getId(v));
+                nodeSt.setInt(2, hierarchy.getRank(v));
+                nodeSt.addBatch();
+                count++;
+                if (count >= BATCH_SIZE) {
+                    nodeSt.executeBatch();
+                    nodeSt.clearBatch();
+                    count = 0;
+                }
+            }
+            if (count > 0) {
+                nodeSt.executeBatch();
+                nodeSt.clearBatch();
+            }
+            connection.commit();
+        } finally {
+            nodeSt.close();
+        }
+    }
+
+    private static void storeArcs(Connection connection,
+                                  TableLocation arcsName,
+                                  ContractionHierarchy hierarchy) throws SQLException {
+        final PreparedStatement arcSt =
+                connection.prepareStatement("INSERT INTO " + arcsName + " VALUES(?,?,?,?,?,?,?)");
+        try {
+            int count = 0;
+            for (int arc = 0; arc < hierarchy.getArcCount(); arc++) {
+                arcSt.setInt(1, arc);
+                arcSt.setInt(2, hierarchy.getId(hierarchy.getSource(arc)));
+                arcSt.setInt(3, hierarchy.getId(hierarchy.getTarget(arc)));
+                arcSt.setDouble(4, hierarchy.getWeight(arc));
+                if (hierarchy.isShortcut(arc)) {
+                    arcSt.setNull(5, Types.INTEGER);
+                    arcSt.setInt(6, hierarchy.getFirstArc(arc));
+                    arcSt.setInt(7, hierarchy.getSecondArc(arc));
+                } else {
+                    arcSt.setInt(5, hierarchy.getEdgeId(arc));
+                    arcSt.setNull(6, Types.INTEGER);
+                    arcSt.setNull(7, Types.INTEGER);
+                }
+                arcSt.addBatch();
+                count++;
+                if (count >= BATCH_SIZE) {
+                    arcSt.executeBatch();
+                    arcSt.clearBatch();
+                    count = 0;
+                }
+            }
+            if (count > 0) {
+                arcSt.executeBatch();
+                arcSt.clearBatch();
+            }
+            connection.commit();
+        } finally {
+            arcSt.close();
+        }
+    }
+
+    /**
+     * Read the contraction hierarchy stored by {@link #contractGraph}.
+     *
+     * @param connection Connection
+     * @param nodesName  Nodes table of the hierarchy
+     * @param arcsName   Arcs table of the hierarchy
+     * @return The contraction hierarchy
+     * @throws SQLException
+     */
+    static ContractionHierarchy readContractionHierarchy(Connection connection,
+                                                         TableLocation nodesName,
+                                                         TableLocation arcsName) throws SQLException {
+        if (!JDBCUtilities.tableExists(connection, nodesName) || !JDBCUtilities.tableExists(connection, arcsName)) {
+            throw new IllegalArgumentException("The contraction hierarchy tables " + nodesName + " and "
+                    + arcsName + " were not found, build them with ST_ContractGraph.");
+        }
+        LOGGER.info("Loading the contraction hierarchy into memory...");
+        final long start = System.currentTimeMillis();
+        final Statement st = connection.createStatement();
+        try {
+            int n = 0;
+            int[] vertexIds = new int[1024];
+            int[] rank = new int[1024];
+            final ResultSet nodes = st.executeQuery("SELECT " + NODE_ID + ", " + NODE_RANK +
+                    " FROM " + nodesName + " ORDER BY " + NODE_ID);
+            try {
+                while (nodes.next()) {
+                    if (n == vertexIds.length) {
+                        vertexIds = Arrays.copyOf(vertexIds, 2 * n);
+                        rank = Arrays.copyOf(rank, 2 * n);
+                    }
+                    vertexIds[n] = nodes.getInt(1);
+                    rank[n] = nodes.getInt(2);
+                    n++;
+                }
+            } finally {
+                nodes.close();
+            }
+            vertexIds = Arrays.copyOf(vertexIds, n);
+            rank = Arrays.copyOf(rank, n);
+            int m = 0;
+            int[] source = new int[1024];
+            int[] target = new int[1024];
+            double[] weight = new double[1024];
+            int[] edgeId = new int[1024];
+            int[] first = new int[1024];
+            int[] second = new int[1024];
+            final ResultSet arcs = st.executeQuery("SELECT " + ARC_ID + ", " + SOURCE + ", " + DESTINATION + ", " +
+                    WEIGHT + ", " + EDGE_ID + ", " + FIRST_ARC + ", " + SECOND_ARC +
+                    " FROM " + arcsName + " ORDER BY " + ARC_ID);
+            try {
+                while (arcs.next()) {
+                    if (arcs.getInt(1) != m) {
+                        throw new IllegalArgumentException("The arcs of " + arcsName + " must be numbered from 0.");
+                    }
+                    if (m == source.length) {
+                        source = Arrays.copyOf(source, 2 * m);
+                        target = Arrays.copyOf(target, 2 * m);
+                        weight = Arrays.copyOf(weight, 2 * m);
+                        edgeId = Arrays.copyOf(edgeId, 2 * m);
+                        first = Arrays.copyOf(first, 2 * m);
+                        second = Arrays.copyOf(second, 2 * m);
+                    }
+                    source[m] = indexOf(vertexIds, arcs.getInt(2));
+                    target[m] = indexOf(vertexIds, arcs.getInt(3));
+                    weight[m] = arcs.getDouble(4);
+                    edgeId[m] = arcs.getInt(5);
+                    first[m] = arcs.getInt(6);
+                    if (arcs.wasNull()) {
+                        first[m] = -1;
+                        second[m] = -1;
+                    } else {
+                        second[m] = arcs.getInt(7);
+                    }
+                    m++;
+                }
+            } finally {
+                arcs.close();
+            }
+            final ContractionHierarchy hierarchy = new ContractionHierarchy(vertexIds, rank,
+                    Arrays.copyOf(source, m), Arrays.copyOf(target, m), Arrays.copyOf(weight, m),
+                    Arrays.copyOf(edgeId, m), Arrays.copyOf(first, m), Arrays.copyOf(second, m));
+            logTime(LOGGER, start);
+            return hierarchy;
+        } finally {
+            st.close();
+        }
+    }
+
+    private static int indexOf(int[] vertexIds, int id) {
+        final int index = Arrays.binarySearch(vertexIds, id);
+        if (index < 0) {
+            throw new IllegalArgumentException("The contraction hierarchy does not contain vertex " + id);
+        }
+        return index;
+    }
+}
@@ -22,25 +22,14 @@ package org.h2gis.network.functions;
 import org.h2gis.api.ScalarFunction;
 import org.h2gis.utilities.TableLocation;
 import org.h2gis.utilities.TableUtilities;
-import org.javanetworkanalyzer.analyzers.GraphAnalyzer;
-import org.javanetworkanalyzer.analyzers.UnweightedGraphAnalyzer;
-import org.javanetworkanalyzer.analyzers.WeightedGraphAnalyzer;
-import org.javanetworkanalyzer.data.VCent;
-import org.javanetworkanalyzer.data.VUCent;
-import org.javanetworkanalyzer.data.VWCent;
-import org.javanetworkanalyzer.model.EdgeCent;
-import org.javanetworkanalyzer.model.KeyedGraph;
-import org.javanetworkanalyzer.progress.DefaultProgressMonitor;
-import org.jgrapht.WeightedGraph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.InvocationTargetException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.Set;
+import java.util.Random;
 
 import static org.h2gis.network.functions.GraphConstants.*;
 
@@ -60,13 +49,22 @@ public class ST_GraphAnalysis extends GraphFunction implements ScalarFunction {
             "as well as betweenness centrality for edges. Possible signatures:\n" +
             "* `ST_GraphAnalysis('input_edges', 'o[ - eo]')`\n" +
             "* `ST_GraphAnalysis('input_edges', 'o[ - eo]', 'w')`\n" +
+            "* `ST_GraphAnalysis('input_edges', 'o[ - eo]', 'w', k)`\n" +
             "\n" +
             "where\n" +
             "* `input_edges` = Edges table produced by `ST_Graph` from table `input`\n" +
             "* `o` = Global orientation (directed, reversed or undirected)\n" +
             "* `eo` = Edge orientation (1 = directed, -1 = reversed, 0 = undirected).\n" +
             "  Required if global orientation is directed or reversed.\n" +
-            "* `w` = Name of column containing edge weights as doubles\n" +
+            "* `w` = Name of column containing edge weights as doubles, or NULL\n" +
+            "* `k` = Number of pivots of the approximate computation\n" +
+            "\n" +
+            "With `k` pivots chosen at random, the betweenness is estimated from the\n" +
+            "shortest paths starting at the pivots only and the closeness from the\n" +
+            "distances to the pivots. With a probability of 95%, the estimated average\n" +
+            "distance of every node is within e * D of the exact one, where D is the\n" +
+            "diameter of the graph and e = sqrt(ln(40 n) / (2 k)) for n nodes. The\n" +
+            "exact values are computed if `k` is not smaller than the number of nodes.\n" +
             "\n" +
             "**WARNING**: If ST_GraphAnalysis is called on a graph with more than one\n" +
             "(strongly) connected component, all closeness centrality scores will be zero.\n" +
@@ -93,16 +91,10 @@ public class ST_GraphAnalysis extends GraphFunction implements ScalarFunction {
      * @param orientation Global orientation
      * @return True if the calculation was successful
      * @throws SQLException
-     * @throws NoSuchMethodException
-     * @throws InstantiationException
-     * @throws IllegalAccessException
-     * @throws InvocationTargetException
      */
     public static boolean doGraphAnalysis(Connection connection,
                                           String inputTable,
-                                          String orientation)
-            throws SQLException, NoSuchMethodException, InstantiationException,
-            IllegalAccessException, InvocationTargetException {
+                                          String orientation) throws SQLException {
         return doGraphAnalysis(connection, inputTable, orientation, null);
     }
 
@@ -116,28 +108,46 @@ public class ST_GraphAnalysis extends GraphFunction implements ScalarFunction {
      * @param weight      Edge weight column name
      * @return True if the calculation was successful
      * @throws SQLException
-     * @throws InvocationTargetException
-     * @throws NoSuchMethodException
-     * @throws InstantiationException
-     * @throws IllegalAccessException
      */
     public static boolean doGraphAnalysis(Connection connection,
                                           String inputTable,
                                           String orientation,
-                                          String weight)
-            throws SQLException, InvocationTargetException, NoSuchMethodException,
-            InstantiationException, IllegalAccessException {
+                                          String weight) throws SQLException {
+        return doGraphAnalysis(connection, inputTable, orientation, weight, 0);
+    }
+
+    /**
+     * Estimate centrality indices on the nodes and edges of a graph
+     * constructed from the input table, from the shortest paths of randomly
+     * chosen pivots.
+     *
+     * @param connection  Connection
+     * @param inputTable  Input table
+     * @param orientation Global orientation
+     * @param weight      Edge weight column name, null for unweighted graphs
+     * @param pivotCount  Number of pivots, 0 for the exact computation
+     * @return True if the calculation was successful
+     * @throws SQLException
+     */
+    public static boolean doGraphAnalysis(Connection connection,
+                                          String inputTable,
+                                          String orientation,
+                                          String weight,
+                                          int pivotCount) throws SQLException {
+        if (pivotCount < 0) {
+            throw new IllegalArgumentException("The number of pivots must be positive.");
+        }
         final TableLocation tableName = TableUtilities.parseInputTable(connection, inputTable);
         final TableLocation nodesName = TableUtilities.suffixTableLocation(tableName, NODE_CENT_SUFFIX);
         final TableLocation edgesName = TableUtilities.suffixTableLocation(tableName, EDGE_CENT_SUFFIX);
         try {
             createTables(connection, nodesName, edgesName);
-            final KeyedGraph graph =
-                    doAnalysisAndReturnGraph(connection, inputTable, orientation, weight);
+            final CSRGraph graph = prepareCSRGraph(connection, inputTable, orientation, weight);
+            final CSRCentrality centrality = doAnalysis(graph, orientation, weight, pivotCount);
             final boolean previousAutoCommit = connection.getAutoCommit();
             connection.setAutoCommit(false);
-            storeNodeCentrality(connection, nodesName, graph);
-            storeEdgeCentrality(connection, edgesName, graph);
+            storeNodeCentrality(connection, nodesName, graph, centrality);
+            storeEdgeCentrality(connection, edgesName, centrality);
             connection.setAutoCommit(previousAutoCommit);
         } catch (SQLException e) {
             LOGGER.error("Problem creating centrality tables.");
@@ -153,20 +163,21 @@ public class ST_GraphAnalysis extends GraphFunction implements ScalarFunction {
         return true;
     }
 
-    private static KeyedGraph doAnalysisAndReturnGraph(Connection connection,
-                                                       String inputTable,
-                                                       String orientation,
-                                                       String weight)
-            throws SQLException, NoSuchMethodException, InstantiationException,
-            IllegalAccessException, InvocationTargetException {
-        final KeyedGraph graph = prepareGraph(connection, inputTable, orientation, weight,
-                (weight == null) ? VUCent.class : VWCent.class, EdgeCent.class);
-        final DefaultProgressMonitor pm = new DefaultProgressMonitor();
-        GraphAnalyzer analyzer = (weight == null) ?
-                new UnweightedGraphAnalyzer(graph, pm) :
-                new WeightedGraphAnalyzer((WeightedGraph) graph, pm);
-        analyzer.computeAll();
-        return graph;
+    private static CSRCentrality doAnalysis(CSRGraph graph, String orientation,
+                                            String weight, int pivotCount) throws SQLException {
+        final int n = graph.getVertexCount();
+        if (pivotCount == 0 || pivotCount >= n) {
+            return CSRCentrality.compute(graph);
+        }
+        final GraphFunctionParser parser = new GraphFunctionParser();
+        parser.parseWeightAndOrientation(orientation, weight);
+        final CSRGraph reversed =
+                parser.getGlobalOrientation() == GraphFunctionParser.Orientation.UNDIRECTED ?
+                graph : graph.getReversed();
+        LOGGER.info("Estimating the centrality from " + pivotCount + " pivots, the average " +
+                "distances are within " + Math.sqrt(Math.log(40. * n) / (2. * pivotCount)) +
+                " times the diameter with a probability of 95%.");
+        return CSRCentrality.estimate(graph, reversed, pivotCount, new Random());
     }
 
     private static void createTables(Connection connection,
@@ -188,15 +199,18 @@ public class ST_GraphAnalysis extends GraphFunction implements ScalarFunction {
 
     private static void storeNodeCentrality(Connection connection,
                                             TableLocation nodesName,
-                                            KeyedGraph graph) throws SQLException {
+                                            CSRGraph graph,
+                                            CSRCentrality centrality) throws SQLException {
+        final double[] betweenness = centrality.getBetweenness();
+        final double[] closeness = centrality.getCloseness();
         final PreparedStatement nodeSt =
                 connection.prepareStatement("INSERT INTO " + nodesName + " VALUES(?,?,?)");
         try {
             int count = 0;
-            for (VCent v : (Set<VCent>) graph.vertexSet()) {
-                nodeSt.setInt(1, v.getID());
-                nodeSt.setDouble(2, v.getBetweenness());
-                nodeSt.setDouble(3, v.getCloseness());
+            for (int v = 0; v < graph.getVertexCount(); v++) {
+                nodeSt.setInt(1, graph.getId(v));
+                nodeSt.setDouble(2, betweenness[v]);
+                nodeSt.setDouble(3, closeness[v]);
                 nodeSt.addBatch();
                 count++;
                 if (count >= BATCH_SIZE) {
@@ -217,14 +231,16 @@ public class ST_GraphAnalysis extends GraphFunction implements ScalarFunction {
 
     private static void storeEdgeCentrality(Connection connection,
                                             TableLocation edgesName,
-                                            KeyedGraph graph) throws SQLException {
+                                            CSRCentrality centrality) throws SQLException {
+        final int[] edgeIds = centrality.getEdgeIds();
+        final double[] betweenness = centrality.getEdgeBetweenness();
         final PreparedStatement edgeSt =
                 connection.prepareStatement("INSERT INTO " + edgesName + " VALUES(?,?)");
         try {
             int count = 0;
-            for (EdgeCent e : (Set<EdgeCent>) graph.edgeSet()) {
-                edgeSt.setInt(1, e.getID());
-                edgeSt.setDouble(2, e.getBetweenness());
+            for (int i = 0; i < edgeIds.length; i++) {
+                edgeSt.setInt(1, edgeIds[i]);
+                edgeSt.setDouble(2, betweenness[i]);
                 edgeSt.addBatch();
                 count++;
                 if (count >= BATCH_SIZE) {
@@ -20,6 +20,7 @@
 package org.h2gis.network.functions;
 
 import org.h2.tools.SimpleResultSet;
+import org.h2.tools.SimpleRowSource;
 import org.h2gis.api.ScalarFunction;
 import org.h2gis.utilities.TableLocation;
 import org.h2gis.utilities.TableUtilities;
@@ -27,11 +28,8 @@ import org.javanetworkanalyzer.alg.Dijkstra;
 import org.javanetworkanalyzer.data.VDijkstra;
 import org.javanetworkanalyzer.model.Edge;
 import org.javanetworkanalyzer.model.KeyedGraph;
-import org.locationtech.jts.geom.Geometry;
 
 import java.sql.*;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Set;
 
 import static org.h2gis.network.functions.GraphConstants.*;
@@ -40,7 +38,8 @@ import static org.h2gis.utilities.TableUtilities.isColumnListConnection;
 
 /**
  * Calculates the shortest path(s) between vertices in a JGraphT graph produced
- * from the input_edges table produced by ST_Graph.
+ * from the input_edges table produced by ST_Graph, or a single shortest path
+ * with an A* or a bidirectional search on a {@link CSRGraph}.
  *
  * @author Adam Gouge
  */
@@ -48,13 +47,13 @@ public class ST_ShortestPath extends GraphFunction implements ScalarFunction {
 
     private int globalID = 1;
 
-    public static final String NO_GEOM_FIELD_ERROR = "The input table must contain a geometry field.";
-
     public static final String REMARKS =
             "`ST_ShortestPath` calculates the shortest path(s) between vertices in a graph.\n" +
             "Possible signatures:\n" +
             "* `ST_ShortestPath('input_edges', 'o[ - eo]', s, d)`  - One-to-One\n" +
             "* `ST_ShortestPath('input_edges', 'o[ - eo]', 'w', s, d)`  - One-to-One weighted\n" +
+            "* `ST_ShortestPath('input_edges', 'o[ - eo]', 'w', s, d, 'a')`  - One-to-One with\n" +
+            "  the given algorithm, `w` may be NULL\n" +
             "\n" +
             "where\n" +
             "* `input_edges` = Edges table produced by `ST_Graph` from table `input`\n" +
@@ -63,7 +62,10 @@ public class ST_ShortestPath extends GraphFunction implements ScalarFunction {
             "  if global orientation is directed or reversed.\n" +
             "* `w` = Name of column containing edge weights as doubles\n" +
             "* `s` = Source vertex id\n" +
-            "* `d` = Destination vertex id\n";
+            "* `d` = Destination vertex id\n" +
+            "* `a` = Algorithm: `dijkstra` (default) returns all the shortest paths,\n" +
+            "  `astar` (goal directed by the edge geometries) or `bidirectional` return\n" +
+            "  a single shortest path settling fewer vertices\n";
 
     /**
      * Constructor
@@ -113,6 +115,31 @@ public class ST_ShortestPath extends GraphFunction implements ScalarFunction {
         return oneToOne(connection, inputTable, orientation, weight, source, destination);
     }
 
+    /**
+     * @param connection  connection
+     * @param inputTable  Edges table produced by ST_Graph
+     * @param orientation Orientation string
+     * @param weight      Weight, null for unweighted graphs
+     * @param source      Source vertex id
+     * @param destination Destination vertex id
+     * @param algorithm   dijkstra, astar or bidirectional
+     * @return Shortest path
+     * @throws SQLException
+     */
+    public static ResultSet getShortestPath(Connection connection,
+                                            String inputTable,
+                                            String orientation,
+                                            String weight,
+                                            int source,
+                                            int destination,
+                                            String algorithm) throws SQLException {
+        final GraphFunctionParser.Algorithm parsedAlgorithm = GraphFunctionParser.parseAlgorithm(algorithm);
+        if (parsedAlgorithm == GraphFunctionParser.Algorithm.DIJKSTRA) {
+            return oneToOne(connection, inputTable, orientation, weight, source, destination);
+        }
+        return oneToOne(connection, inputTable, orientation, weight, source, destination, parsedAlgorithm);
+    }
+
     private static ResultSet oneToOne(Connection connection,
                                       String inputTable,
                                       String orientation,
@@ -126,63 +153,104 @@ public class ST_ShortestPath extends GraphFunction implements ScalarFunction {
         } catch (SQLException ex) {
         }
         final boolean containsGeomField = firstGeometryField != null;
-        final SimpleResultSet output = prepareResultSet(containsGeomField);
         if (isColumnListConnection(connection)) {
-            return output;
+            return prepareResultSet(containsGeomField);
         }
         // Do the calculation.
         final KeyedGraph<VDijkstra, Edge> graph =
                 prepareGraph(connection, inputTable, orientation, weight,
                         VDijkstra.class, Edge.class);
-        final Dijkstra<VDijkstra, Edge> dijkstra = new Dijkstra<VDijkstra, Edge>(graph);
-        final VDijkstra vDestination = graph.getVertex(destination);
-        final double distance = dijkstra.oneToOne(graph.getVertex(source), vDestination);
+        try {
+            final Dijkstra<VDijkstra, Edge> dijkstra = new Dijkstra<VDijkstra, Edge>(graph);
+            final VDijkstra vDestination = graph.getVertex(destination);
+            final double distance = dijkstra.oneToOne(graph.getVertex(source), vDestination);
 
-        if (distance != Double.POSITIVE_INFINITY) {           
-            // Need to create an object for the globalID recursion.
-            final ST_ShortestPath f = new ST_ShortestPath();
-            if (containsGeomField) {
-                final Map<Integer, Geometry> edgeGeometryMap =
-                        getEdgeGeometryMap(connection, tableName, firstGeometryField);
-                f.addPredEdges(graph, vDestination, output, edgeGeometryMap, 1);
-            } else {
-                f.addPredEdges(graph, vDestination, output, 1);
+            final EdgeRowSource.PathRows rows = new EdgeRowSource.PathRows();
+            if (distance != Double.POSITIVE_INFINITY) {
+                // Need to create an object for the globalID recursion.
+                final ST_ShortestPath f = new ST_ShortestPath();
+                f.addPredEdges(graph, vDestination, rows, 1);
             }
+            return prepareResultSet(containsGeomField,
+                    new EdgeRowSource(connection, tableName, firstGeometryField, rows));
+        } finally {
+            releaseGraph(graph);
         }
-        return output;
     }
 
-    private void addPredEdges(KeyedGraph<VDijkstra, Edge> graph, VDijkstra dest, SimpleResultSet output,
-                              Map<Integer, Geometry> edgeGeomMap, int localID) throws SQLException {
-        // Rebuild the shortest path(s). (Yes, there could be more than
-        // one if they have the same distance!)
-        final Set<Edge> predEdges = dest.getPredecessorEdges();
-        // The only vertex with no predecessors is the source vertex, so we can
-        // start renumbering here.
-        if (predEdges.isEmpty()) {
-            globalID++;
+    /**
+     * Search a single shortest path with a goal directed or a bidirectional
+     * search on the {@link CSRGraph}.
+     */
+    private static ResultSet oneToOne(Connection connection,
+                                      String inputTable,
+                                      String orientation,
+                                      String weight,
+                                      int source,
+                                      int destination,
+                                      GraphFunctionParser.Algorithm algorithm) throws SQLException {
+        final TableLocation tableName = TableUtilities.parseInputTable(connection, inputTable);
+        String firstGeometryField = null;
+        try {
+            firstGeometryField = GeometryTableUtilities.getFirstGeometryColumnNameAndIndex(connection, tableName).first();
+        } catch (SQLException ex) {
         }
-        // Recursively add the predecessor edges.
-        for (Edge e : predEdges) {
-            final VDijkstra edgeSource = graph.getEdgeSource(e);
-            final VDijkstra edgeDestination = graph.getEdgeTarget(e);
-            final Geometry geometry = edgeGeomMap.get(Math.abs(e.getID()));
-            // Right order
-            if (edgeDestination.equals(dest)) {
-                output.addRow(geometry, e.getID(), globalID, localID,
-                        edgeSource.getID(), edgeDestination.getID(), graph.getEdgeWeight(e));
-                addPredEdges(graph, edgeSource, output, edgeGeomMap, localID + 1);
-            } // Wrong order
-            else {
-                output.addRow(geometry, e.getID(), globalID, localID,
-                        edgeDestination.getID(), edgeSource.getID(), graph.getEdgeWeight(e));
-                addPredEdges(graph, edgeDestination, output, edgeGeomMap, localID + 1);
-            }
+        final boolean containsGeomField = firstGeometryField != null;
+        if (isColumnListConnection(connection)) {
+            return prepareResultSet(containsGeomField);
+        }
+        final CSRGraph graph = prepareCSRGraph(connection, inputTable, orientation, weight);
+        final int s = graph.getIndex(source);
+        if (s == -1) {
+            throw new IllegalArgumentException("Source vertex not found.");
         }
+        final int d = graph.getIndex(destination);
+        if (d == -1) {
+            throw new IllegalArgumentException("Target vertex not found.");
+        }
+        final int[] arcs;
+        if (algorithm == GraphFunctionParser.Algorithm.ASTAR) {
+            final CSRDijkstra dijkstra = new CSRDijkstra(graph);
+            final double distance = dijkstra.oneToOne(s, d,
+                    prepareCSRCoordinates(connection, inputTable, orientation, weight, graph));
+            arcs = distance == Double.POSITIVE_INFINITY ? null : dijkstra.getPathArcs(d);
+        } else {
+            final CSRBidirectionalDijkstra dijkstra = new CSRBidirectionalDijkstra(graph);
+            dijkstra.oneToOne(s, d);
+            arcs = dijkstra.getPathArcs();
+        }
+        final EdgeRowSource.PathRows rows = getPathRows(graph, arcs);
+        return prepareResultSet(containsGeomField,
+                new EdgeRowSource(connection, tableName, firstGeometryField, rows));
     }
 
-    private void addPredEdges(KeyedGraph<VDijkstra, Edge> graph, VDijkstra dest, SimpleResultSet output,
-                              int localID) throws SQLException {
+    /**
+     * Return the rows of a single path, the edges are numbered from the
+     * destination as the ones of addPredEdges.
+     *
+     * @param graph Graph
+     * @param arcs  Arcs of the path, from the source to the destination, null
+     *              if there is no path
+     * @return The rows without geometry
+     */
+    private static EdgeRowSource.PathRows getPathRows(CSRGraph graph, int[] arcs) {
+        final EdgeRowSource.PathRows rows = new EdgeRowSource.PathRows();
+        if (arcs == null) {
+            return rows;
+        }
+        int localID = 1;
+        for (int i = arcs.length - 1; i >= 0; i--) {
+            final int arc = arcs[i];
+            rows.add(graph.getEdgeId(arc), 1, localID,
+                    graph.getId(graph.getSource(arc)), graph.getId(graph.getTarget(arc)),
+                    graph.getWeight(arc));
+            localID++;
+        }
+        return rows;
+    }
+
+    private void addPredEdges(KeyedGraph<VDijkstra, Edge> graph, VDijkstra dest, EdgeRowSource.PathRows rows,
+                              int localID) {
         // Rebuild the shortest path(s). (Yes, there could be more than
         // one if they have the same distance!)
         final Set<Edge> predEdges = dest.getPredecessorEdges();
@@ -197,69 +265,41 @@ public class ST_ShortestPath extends GraphFunction implements ScalarFunction {
             final VDijkstra edgeDestination = graph.getEdgeTarget(e);
             // Right order
             if (edgeDestination.equals(dest)) {
-                output.addRow(e.getID(), globalID, localID,
+                rows.add(e.getID(), globalID, localID,
                         edgeSource.getID(), edgeDestination.getID(), graph.getEdgeWeight(e));
-                addPredEdges(graph, edgeSource, output, localID + 1);
+                addPredEdges(graph, edgeSource, rows, localID + 1);
             } // Wrong order
             else {
-                output.addRow(e.getID(), globalID, localID,
+                rows.add(e.getID(), globalID, localID,
                         edgeDestination.getID(), edgeSource.getID(), graph.getEdgeWeight(e));
-                addPredEdges(graph, edgeDestination, output, localID + 1);
+                addPredEdges(graph, edgeDestination, rows, localID + 1);
            }
         }
     }
     
 
     /**
-     * Return a map of edge ids to edge geometries, or null if the input table
-     * contains no geometry fields.
+     * Return a new {@link org.h2.tools.SimpleResultSet} with SOURCE,
+     * DESTINATION and DISTANCE columns.
+     * @return a new {@link org.h2.tools.SimpleResultSet} with SOURCE,
+     * DESTINATION and DISTANCE columns
      *
-     * @param connection Connection
-     * @param tableName  TableLocation
-     * @param firstGeometryField
-     * @return A map of edge ids to edge geometries, or null if the input table
-     * contains no geometry fields
-     * @throws SQLException
+     * @param includeGeomColumn True if we include a Geometry column
      */
-    protected static Map<Integer, Geometry> getEdgeGeometryMap(Connection connection,
-                                                               TableLocation tableName,
-                                                               String firstGeometryField)
-            throws SQLException {
-        if (firstGeometryField == null) {
-            return null;
-        }
-        final Statement st = connection.createStatement();
-        try {
-            final ResultSet resultSet = st.executeQuery(
-                    "SELECT " + EDGE_ID + ", "
-                              + firstGeometryField +
-                    " FROM " + tableName);
-            try {
-                Map<Integer, Geometry> edgeGeomMap = new HashMap<Integer, Geometry>();
-                while (resultSet.next()) {
-                    final int edgeID = resultSet.getInt(1);
-                    final Geometry geom = (Geometry) resultSet.getObject(2);
-                    edgeGeomMap.put(edgeID, geom);
-                }
-                return edgeGeomMap;
-            } finally {
-                resultSet.close();
-            }
-        } finally {
-            st.close();
-        }
+    static SimpleResultSet prepareResultSet(boolean includeGeomColumn) {
+        return prepareResultSet(includeGeomColumn, null);
     }
 
     /**
-     * Return a new {@link org.h2.tools.SimpleResultSet} with SOURCE,
-     * DESTINATION and DISTANCE columns.
-     * @return a new {@link org.h2.tools.SimpleResultSet} with SOURCE,
-     * DESTINATION and DISTANCE columns
+     * Return a new {@link org.h2.tools.SimpleResultSet} with the path
+     * columns, whose rows are read from a row source.
      *
      * @param includeGeomColumn True if we include a Geometry column
+     * @param rowSource         Rows of the result, null for an empty result
+     * @return a new {@link org.h2.tools.SimpleResultSet} with the path columns
      */
-    private static SimpleResultSet prepareResultSet(boolean includeGeomColumn) {
-        SimpleResultSet output = new SimpleResultSet();
+    static SimpleResultSet prepareResultSet(boolean includeGeomColumn, SimpleRowSource rowSource) {
+        SimpleResultSet output = rowSource == null ? new SimpleResultSet() : new SimpleResultSet(rowSource);
         if (includeGeomColumn) {
             output.addColumn(THE_GEOM, Types.OTHER, "GEOMETRY", 0, 0);
         }
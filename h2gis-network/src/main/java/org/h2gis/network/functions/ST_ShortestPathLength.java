@@ -21,19 +21,17 @@ package org.h2gis.network.functions;
 
 
 import org.h2.tools.SimpleResultSet;
+import org.h2.tools.SimpleRowSource;
 import org.h2.value.Value;
 import org.h2.value.ValueInteger;
 import org.h2.value.ValueVarchar;
 import org.h2gis.api.ScalarFunction;
 import org.h2gis.utilities.JDBCUtilities;
-import org.javanetworkanalyzer.alg.Dijkstra;
-import org.javanetworkanalyzer.data.VDijkstra;
-import org.javanetworkanalyzer.model.Edge;
-import org.javanetworkanalyzer.model.KeyedGraph;
 
 import java.sql.*;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -41,8 +39,8 @@ import static org.h2gis.network.functions.GraphConstants.*;
 import static org.h2gis.utilities.TableUtilities.isColumnListConnection;
 
 /**
- * Calculates the length(s) of shortest path(s) between vertices in a JGraphT
- * graph produced from the input_edges table produced by ST_Graph.
+ * Calculates the length(s) of shortest path(s) between vertices in a
+ * {@link CSRGraph} produced from the input_edges table produced by ST_Graph.
  *
  * @author Adam Gouge
  */
@@ -63,6 +61,8 @@ public class ST_ShortestPathLength extends GraphFunction implements ScalarFuncti
             "* `ST_ShortestPathLength('input_edges', 'o[ - eo]', 'w', 'sdt')` - Many-to-Many weighted\n" +
             "* `ST_ShortestPathLength('input_edges', 'o[ - eo]', 'w', s, d)` - One-to-One weighted\n" +
             "* `ST_ShortestPathLength('input_edges', 'o[ - eo]', 'w', s, 'ds')` - One-to-Several weighted\n" +
+            "* `ST_ShortestPathLength('input_edges', 'o[ - eo]', 'w', s, d, 'a')` - One-to-One with the\n" +
+            "  given algorithm, `w` may be NULL\n" +
             "\n" +
             "where\n" +
             "* `input_edges` = Edges table produced by `ST_Graph` from table `input`\n" +
@@ -74,7 +74,9 @@ public class ST_ShortestPathLength extends GraphFunction implements ScalarFuncti
             "* `d` = Destination vertex id\n" +
             "* `sdt` = Source-Destination table name (must contain columns\n" +
             "  " + SOURCE + " and " + DESTINATION + " containing integer vertex ids)\n" +
-            "* `ds` = Comma-separated Destination string ('dest1, dest2, ...')\n";
+            "* `ds` = Comma-separated Destination string ('dest1, dest2, ...')\n" +
+            "* `a` = Algorithm: `dijkstra` (default), `astar` (goal directed by the edge\n" +
+            "  geometries) or `bidirectional`\n";
 
 
     /**
@@ -241,19 +243,64 @@ public class ST_ShortestPathLength extends GraphFunction implements ScalarFuncti
         }
     }
 
+    /**
+     * Calculate the distance for One-to-One with the given algorithm.
+     *
+     * @param connection  Connection
+     * @param inputTable  Edges table produced by ST_Graph
+     * @param orientation Orientation string
+     * @param weight      Weight column name, null for unweighted graphs
+     * @param source      Source vertex id
+     * @param destination Destination vertex id
+     * @param algorithm   dijkstra, astar or bidirectional
+     * @return Distances table
+     * @throws SQLException
+     */
+    public static ResultSet getShortestPathLength(Connection connection,
+                                                  String inputTable,
+                                                  String orientation,
+                                                  String weight,
+                                                  int source,
+                                                  int destination,
+                                                  String algorithm) throws SQLException {
+        if (isColumnListConnection(connection)) {
+            return prepareResultSet();
+        }
+        return oneToOne(connection, inputTable, orientation, weight, source, destination,
+                GraphFunctionParser.parseAlgorithm(algorithm));
+    }
+
     private static ResultSet oneToOne(Connection connection,
                                      String inputTable,
                                      String orientation,
                                      String weight,
                                      int source,
                                      int destination) throws SQLException {
+        return oneToOne(connection, inputTable, orientation, weight, source, destination,
+                GraphFunctionParser.Algorithm.DIJKSTRA);
+    }
+
+    private static ResultSet oneToOne(Connection connection,
+                                     String inputTable,
+                                     String orientation,
+                                     String weight,
+                                     int source,
+                                     int destination,
+                                     GraphFunctionParser.Algorithm algorithm) throws SQLException {
         final SimpleResultSet output = prepareResultSet();
-        final KeyedGraph<VDijkstra, Edge> graph =
-                prepareGraph(connection, inputTable, orientation, weight,
-                        VDijkstra.class, Edge.class);
+        final CSRGraph graph = prepareCSRGraph(connection, inputTable, orientation, weight);
+        final int s = graph.getExistingIndex(source);
+        final int d = graph.getExistingIndex(destination);
         // 7: (o, w, s, d)
-        final double distance = new Dijkstra<VDijkstra, Edge>(graph)
-                .oneToOne(graph.getVertex(source), graph.getVertex(destination));
+        final double distance;
+        if (algorithm == GraphFunctionParser.Algorithm.ASTAR) {
+            distance = new CSRDijkstra(graph).oneToOne(s, d,
+                    prepareCSRCoordinates(connection, inputTable, orientation, weight, graph));
+        } else if (algorithm == GraphFunctionParser.Algorithm.BIDIRECTIONAL) {
+            distance = new CSRBidirectionalDijkstra(graph).oneToOne(s, d);
+        } else {
+            distance = new CSRDijkstra(graph).oneToOne(s, d);
+        }
         output.addRow(source, destination, distance);
         return output;
     }
@@ -263,17 +310,9 @@ public class ST_ShortestPathLength extends GraphFunction implements ScalarFuncti
                                       String orientation,
                                       String weight,
                                       int source) throws SQLException {
-        final SimpleResultSet output = prepareResultSet();
-        final KeyedGraph<VDijkstra, Edge> graph =
-                prepareGraph(connection, inputTable, orientation, weight,
-                        VDijkstra.class, Edge.class);
+        final CSRGraph graph = prepareCSRGraph(connection, inputTable, orientation, weight);
         // 5: (o, w, s)
-        final Map<VDijkstra,Double> distances = new Dijkstra<VDijkstra, Edge>(graph)
-                        .oneToMany(graph.getVertex(source), graph.vertexSet());
-        for (Map.Entry<VDijkstra, Double> e : distances.entrySet()) {
-            output.addRow(source, e.getKey().getID(), e.getValue());
-        }
-        return output;
+        return prepareResultSet(new OneToAllRowSource(graph, graph.getExistingIndex(source)));
     }
 
     private static ResultSet manyToMany(Connection connection,
@@ -281,33 +320,24 @@ public class ST_ShortestPathLength extends GraphFunction implements ScalarFuncti
                                         String orientation,
                                         String weight,
                                         String sourceDestinationTable) throws SQLException {
-        final SimpleResultSet output = prepareResultSet();
-        final KeyedGraph<VDijkstra, Edge> graph =
-                prepareGraph(connection, inputTable, orientation, weight,
-                        VDijkstra.class, Edge.class);
+        final CSRGraph graph = prepareCSRGraph(connection, inputTable, orientation, weight);
         final Statement st = connection.createStatement();
         try {
             // Prepare the source-destination map from the source-destination table.
-            Map<VDijkstra, Set<VDijkstra>> sourceDestinationMap =
+            Map<Integer, Set<Integer>> sourceDestinationMap =
                     prepareSourceDestinationMap(st, sourceDestinationTable, graph);
-
-            // Reusable Dijkstra object.
-            final Dijkstra<VDijkstra, Edge> dijkstra = new Dijkstra<VDijkstra, Edge>(graph);
-
-            // 6: (o, w, sdt). Do One-to-Many many times and store the results.
-            for (Map.Entry<VDijkstra, Set<VDijkstra>> sourceToDestSetMap : sourceDestinationMap.entrySet()) {
-                Map<VDijkstra, Double> distances =
-                        dijkstra.oneToMany(sourceToDestSetMap.getKey(),
-                                           sourceToDestSetMap.getValue());
-                for (Map.Entry<VDijkstra, Double> destToDistMap : distances.entrySet()) {
-                    output.addRow(sourceToDestSetMap.getKey().getID(),
-                            destToDistMap.getKey().getID(), destToDistMap.getValue());
-                }
+            final int[] sources = new int[sourceDestinationMap.size()];
+            final int[][] targets = new int[sources.length][];
+            int i = 0;
+            for (Map.Entry<Integer, Set<Integer>> sourceToDestSetMap : sourceDestinationMap.entrySet()) {
+                sources[i] = sourceToDestSetMap.getKey();
+                targets[i++] = toArray(sourceToDestSetMap.getValue());
             }
+            // 6: (o, w, sdt). Do One-to-Many for each source on the worker threads.
+            return prepareResultSet(new DistanceMatrixRowSource(graph, sources, targets));
         } finally {
             st.close();
         }
-        return output;
     }
 
     private static ResultSet manyToManySeparateTables(
@@ -317,52 +347,38 @@ public class ST_ShortestPathLength extends GraphFunction implements ScalarFuncti
             String weight,
             String sourceTable,
             String destTable) throws SQLException {
-        final SimpleResultSet output = prepareResultSet();
-        final KeyedGraph<VDijkstra, Edge> graph =
-                prepareGraph(connection, inputTable, orientation, weight,
-                        VDijkstra.class, Edge.class);
+        final CSRGraph graph = prepareCSRGraph(connection, inputTable, orientation, weight);
         final Statement st = connection.createStatement();
         try {
-            final Set<VDijkstra> destSet = getSet(st, graph, destTable);
-            final Set<VDijkstra> sourceSet = getSet(st, graph, sourceTable);
-            final Dijkstra<VDijkstra, Edge> dijkstra = new Dijkstra<VDijkstra, Edge>(graph);
-            for (VDijkstra source : sourceSet) {
-                Map<VDijkstra, Double> distances =
-                        dijkstra.oneToMany(source, destSet);
-                for (Map.Entry<VDijkstra, Double> destToDistMap : distances.entrySet()) {
-                    output.addRow(source.getID(),
-                            destToDistMap.getKey().getID(), destToDistMap.getValue());
-                }
-            }
+            final int[] destSet = toArray(getSet(st, graph, destTable));
+            final int[] sourceSet = toArray(getSet(st, graph, sourceTable));
+            // All the sources share the destination array
+            final int[][] targets = new int[sourceSet.length][];
+            Arrays.fill(targets, destSet);
+            return prepareResultSet(new DistanceMatrixRowSource(graph, sourceSet, targets));
         } finally {
             st.close();
         }
-        return output;
     }
 
     /**
      * Puts the integers contained in the first column of the table in a Set of
-     * corresponding VDijkstra.
+     * corresponding vertex indexes.
      *
      * @param st        Statement
      * @param graph     Graph
      * @param tableName Table
-     * @return Set of VDijkstra
+     * @return Set of vertex indexes
      * @throws SQLException
      */
-    private static Set<VDijkstra> getSet(Statement st,
-            KeyedGraph<VDijkstra, Edge> graph, String tableName) throws SQLException {
+    private static Set<Integer> getSet(Statement st,
+            CSRGraph graph, String tableName) throws SQLException {
         final ResultSet intSet =
                 st.executeQuery("SELECT * FROM " + tableName);
         try {
-            final Set<VDijkstra> set = new HashSet<VDijkstra>();
+            final Set<Integer> set = new LinkedHashSet<Integer>();
             while (intSet.next()) {
-                final int vertexID = intSet.getInt(1);
-                final VDijkstra vertex = graph.getVertex(vertexID);
-                if (vertex == null) {
-                    throw new IllegalArgumentException("The graph does not contain vertex " + vertexID);
-                }
-                set.add(vertex);
+                set.add(graph.getExistingIndex(intSet.getInt(1)));
             }
             if (set.isEmpty()) {
                 throw new IllegalArgumentException("Table " + tableName + " was empty.");
@@ -373,48 +389,48 @@ public class ST_ShortestPathLength extends GraphFunction implements ScalarFuncti
         }
     }
 
+    private static int[] toArray(Set<Integer> set) {
+        final int[] array = new int[set.size()];
+        int i = 0;
+        for (Integer v : set) {
+            array[i++] = v;
+        }
+        return array;
+    }
+
     private static ResultSet oneToSeveral(Connection connection,
                                           String inputTable,
                                           String orientation,
                                           String weight,
                                           int source,
                                           String destString) throws SQLException {
-        final SimpleResultSet output = prepareResultSet();
-        final KeyedGraph<VDijkstra, Edge> graph =
-                prepareGraph(connection, inputTable, orientation, weight,
-                        VDijkstra.class, Edge.class);
+        final CSRGraph graph = prepareCSRGraph(connection, inputTable, orientation, weight);
 
         final int[] destIDs = GraphFunctionParser.parseDestinationsString(destString);
-        Set<VDijkstra> destSet = new HashSet<VDijkstra>();
+        Set<Integer> destSet = new LinkedHashSet<Integer>();
         for (int d : destIDs)  {
-            final VDijkstra dest = graph.getVertex(d);
-            if (dest == null) {
-                throw new IllegalArgumentException("The graph does not contain vertex " + d);
-            }
-            destSet.add(dest);
+            destSet.add(graph.getExistingIndex(d));
         }
+        final int[] targets = toArray(destSet);
         // 8: (o, w, s, ds)
-        final Map<VDijkstra, Double> distances = new Dijkstra<VDijkstra, Edge>(graph)
-                .oneToMany(graph.getVertex(source), destSet);
-        for (Map.Entry<VDijkstra, Double> e : distances.entrySet()) {
-            output.addRow(source, e.getKey().getID(), e.getValue());
-        }
-        return output;
+        return prepareResultSet(new DistanceMatrixRowSource(graph,
+                new int[]{graph.getExistingIndex(source)}, new int[][]{targets}));
     }
 
     /**
-     * Prepare the source-destination map (to which we will apply Dijkstra) from
-     * the source-destination table.
+     * Return a map of sources to their destinations from the
+     * source-destination table.
      *
-     * @param sourceDestinationTable Source-Destination table name
+     * @param st                     Statement
+     * @param sourceDestinationTable Source-destination table name
      * @param graph                  Graph
-     * @return Source-Destination map
+     * @return Source-Destination map, with the vertex indexes
      * @throws SQLException
      */
-    private static Map<VDijkstra, Set<VDijkstra>> prepareSourceDestinationMap(
+    private static Map<Integer, Set<Integer>> prepareSourceDestinationMap(
             Statement st,
             String sourceDestinationTable,
-            KeyedGraph<VDijkstra, Edge> graph) throws SQLException {
+            CSRGraph graph) throws SQLException {
         final ResultSet sourceDestinationRS =
                 st.executeQuery("SELECT " +
                         SOURCE + ", " + DESTINATION +
@@ -422,14 +438,14 @@ public class ST_ShortestPathLength extends GraphFunction implements ScalarFuncti
         try {
             // Make sure the source-destination table has columns named
             // SOURCE and DESTINATION. An SQLException is thrown if not.
-            Map<VDijkstra, Set<VDijkstra>> map = new HashMap<VDijkstra, Set<VDijkstra>>();
+            Map<Integer, Set<Integer>> map = new LinkedHashMap<Integer, Set<Integer>>();
             while (sourceDestinationRS.next()) {
-                final VDijkstra source = graph.getVertex(sourceDestinationRS.getInt(SOURCE_INDEX));
-                final VDijkstra destination = graph.getVertex(sourceDestinationRS.getInt(DESTINATION_INDEX));
-                Set<VDijkstra> targets = map.get(source);
+                final int source = graph.getExistingIndex(sourceDestinationRS.getInt(SOURCE_INDEX));
+                final int destination = graph.getExistingIndex(sourceDestinationRS.getInt(DESTINATION_INDEX));
+                Set<Integer> targets = map.get(source);
                 // Lazy initialize if the destinations set is null.
                 if (targets == null) {
-                    targets = new HashSet<VDijkstra>();
+                    targets = new LinkedHashSet<Integer>();
                     map.put(source, targets);
                 }
                 // Add the destination.
@@ -450,11 +466,63 @@ public class ST_ShortestPathLength extends GraphFunction implements ScalarFuncti
      * @return a new {@link org.h2.tools.SimpleResultSet} with SOURCE,
      * DESTINATION and DISTANCE columns
      */
-    private static SimpleResultSet prepareResultSet() {
-        SimpleResultSet output = new SimpleResultSet();
+    static SimpleResultSet prepareResultSet() {
+        return prepareResultSet(null);
+    }
+
+    /**
+     * Return a new {@link org.h2.tools.SimpleResultSet} with SOURCE,
+     * DESTINATION and DISTANCE columns, whose rows are read from a row source.
+     * @param rowSource Rows of the result, null for a result filled with addRow
+     * @return a new {@link org.h2.tools.SimpleResultSet} with SOURCE,
+     * DESTINATION and DISTANCE columns
+     */
+    static SimpleResultSet prepareResultSet(SimpleRowSource rowSource) {
+        SimpleResultSet output = rowSource == null ? new SimpleResultSet() : new SimpleResultSet(rowSource);
         output.addColumn(SOURCE, Types.INTEGER, 10, 0);
         output.addColumn(DESTINATION, Types.INTEGER, 10, 0);
         output.addColumn(DISTANCE, Types.DOUBLE, 10, 0);
         return output;
     }
+
+    /**
+     * Produce the (SOURCE, DESTINATION, DISTANCE) rows of a One-to-All
+     * search. The search runs on the first read, then a row is created for
+     * each vertex on request.
+     */
+    private static final class OneToAllRowSource implements SimpleRowSource {
+
+        private final CSRGraph graph;
+        private final int source;
+        private CSRDijkstra dijkstra;
+        private int next = 0;
+
+        OneToAllRowSource(CSRGraph graph, int source) {
+            this.graph = graph;
+            this.source = source;
+        }
+
+        @Override
+        public Object[] readRow() {
+            if (dijkstra == null) {
+                dijkstra = new CSRDijkstra(graph);
+                dijkstra.calculate(source);
+            }
+            if (next >= graph.getVertexCount()) {
+                return null;
+            }
+            final int v = next++;
+            return new Object[]{graph.getId(source), graph.getId(v), dijkstra.getDistance(v)};
+        }
+
+        @Override
+        public void close() {
+            dijkstra = null;
+        }
+
+        @Override
+        public void reset() {
+            next = 0;
+        }
+    }
 }
@@ -20,6 +20,7 @@
 package org.h2gis.network.functions;
 
 import org.h2.tools.SimpleResultSet;
+import org.h2.tools.SimpleRowSource;
 import org.h2.value.*;
 import org.h2gis.api.ScalarFunction;
 import org.h2gis.utilities.TableLocation;
@@ -29,13 +30,12 @@ import org.javanetworkanalyzer.data.VDijkstra;
 import org.javanetworkanalyzer.model.Edge;
 import org.javanetworkanalyzer.model.KeyedGraph;
 import org.javanetworkanalyzer.model.TraversalGraph;
-import org.locationtech.jts.geom.Geometry;
 
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
-import java.util.Map;
+import java.util.Iterator;
 
 import static org.h2gis.network.functions.GraphConstants.*;
 import org.h2gis.utilities.GeometryTableUtilities;
@@ -161,50 +161,71 @@ public class ST_ShortestPathTree extends GraphFunction implements ScalarFunction
         } catch (SQLException ex) {
         }
         final boolean containsGeomField = firstGeometryField != null;
-        final SimpleResultSet output = prepareResultSet(containsGeomField);
         if (isColumnListConnection(connection)) {
-            return output;
+            return prepareResultSet(containsGeomField, null);
         }
         // Do the calculation.
         final KeyedGraph<VDijkstra, Edge> graph =
                 prepareGraph(connection, inputTable, orientation, weight,
                         VDijkstra.class, Edge.class);
 
-        final Dijkstra<VDijkstra, Edge> dijkstra = new Dijkstra<VDijkstra, Edge>(graph);
-        final VDijkstra vSource = graph.getVertex(source);
-        final TraversalGraph<VDijkstra, Edge> shortestPathTree;
+        try {
+            final Dijkstra<VDijkstra, Edge> dijkstra = new Dijkstra<VDijkstra, Edge>(graph);
+            final VDijkstra vSource = graph.getVertex(source);
+            final TraversalGraph<VDijkstra, Edge> shortestPathTree;
 
-        if (radius < Double.POSITIVE_INFINITY) {
-            dijkstra.calculate(vSource, radius);
-            shortestPathTree = dijkstra.reconstructTraversalGraph(radius);
-        } else {
-            dijkstra.calculate(vSource);
-            shortestPathTree = dijkstra.reconstructTraversalGraph();
+            if (radius < Double.POSITIVE_INFINITY) {
+                dijkstra.calculate(vSource, radius);
+                shortestPathTree = dijkstra.reconstructTraversalGraph(radius);
+            } else {
+                dijkstra.calculate(vSource);
+                shortestPathTree = dijkstra.reconstructTraversalGraph();
+            }
+
+            // The tree is walked when the rows are read, the geometries of
+            // its edges are fetched by chunks
+            return prepareResultSet(containsGeomField,
+                    new EdgeRowSource(connection, tableName, firstGeometryField,
+                            new TreeRows(graph, shortestPathTree)));
+        } finally {
+            releaseGraph(graph);
         }
+    }
 
-        if (containsGeomField) {
-            final Map<Integer, Geometry> edgeGeometryMap =
-                    ST_ShortestPath.getEdgeGeometryMap(connection, tableName, firstGeometryField);
-            for (Edge e : shortestPathTree.edgeSet()) {
-                final Edge baseGraphEdge = e.getBaseGraphEdge();
-                final int id = baseGraphEdge.getID();
-                output.addRow(edgeGeometryMap.get(Math.abs(id)),
-                        id,
-                        shortestPathTree.getEdgeSource(e).getID(),
-                        shortestPathTree.getEdgeTarget(e).getID(),
-                        graph.getEdgeWeight(baseGraphEdge));
-            }
-        } else {
-            for (Edge e : shortestPathTree.edgeSet()) {
-                final Edge baseGraphEdge = e.getBaseGraphEdge();
-                final int id = baseGraphEdge.getID();
-                output.addRow(id,
-                        shortestPathTree.getEdgeSource(e).getID(),
-                        shortestPathTree.getEdgeTarget(e).getID(),
-                        graph.getEdgeWeight(baseGraphEdge));
+    /**
+     * Rows of the edges of a shortest path tree, read from the tree on
+     * request. The tree is owned by the call and only the ids and the
+     * weights of the edges are read from the shared graph.
+     */
+    private static final class TreeRows extends EdgeRowSource.Rows {
+
+        private final KeyedGraph<VDijkstra, Edge> graph;
+        private final TraversalGraph<VDijkstra, Edge> tree;
+        private Iterator<Edge> edges;
+
+        TreeRows(KeyedGraph<VDijkstra, Edge> graph, TraversalGraph<VDijkstra, Edge> tree) {
+            this.graph = graph;
+            this.tree = tree;
+            this.edges = tree.edgeSet().iterator();
+        }
+
+        @Override
+        Object[] next() {
+            if (!edges.hasNext()) {
+                return null;
             }
+            final Edge e = edges.next();
+            final Edge baseGraphEdge = e.getBaseGraphEdge();
+            return new Object[]{baseGraphEdge.getID(),
+                    tree.getEdgeSource(e).getID(),
+                    tree.getEdgeTarget(e).getID(),
+                    graph.getEdgeWeight(baseGraphEdge)};
+        }
+
+        @Override
+        void reset() {
+            edges = tree.edgeSet().iterator();
         }
-        return output;
     }
 
     /**
@@ -214,9 +235,10 @@ public class ST_ShortestPathTree extends GraphFunction implements ScalarFunction
      * DESTINATION and DISTANCE columns
      *
      * @param includeGeomColumn True if we include a Geometry column
+     * @param rowSource         Rows of the result, null for the column list
      */
-    private static SimpleResultSet prepareResultSet(boolean includeGeomColumn) {
-        SimpleResultSet output = new SimpleResultSet();
+    private static SimpleResultSet prepareResultSet(boolean includeGeomColumn, SimpleRowSource rowSource) {
+        SimpleResultSet output = rowSource == null ? new SimpleResultSet() : new SimpleResultSet(rowSource);
         if (includeGeomColumn) {
             output.addColumn(THE_GEOM, Types.OTHER, "GEOMETRY", 0, 0);
         }
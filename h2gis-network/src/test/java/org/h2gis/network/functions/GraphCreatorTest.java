@@ -20,6 +20,7 @@
 package org.h2gis.network.functions;
 
 import org.h2gis.functions.factory.H2GISDBFactory;
+import org.javanetworkanalyzer.alg.Dijkstra;
 import org.javanetworkanalyzer.data.VDijkstra;
 import org.javanetworkanalyzer.model.*;
 import org.junit.jupiter.api.BeforeAll;
@@ -28,6 +29,8 @@ import org.junit.jupiter.api.Test;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -371,6 +374,185 @@ public class GraphCreatorTest {
         assertThrows(IllegalArgumentException.class, () -> testOrientation("2"));
     }
 
+    @Test
+    public void testGraphCache() throws SQLException {
+        final Statement st = connection.createStatement();
+        st.execute("DROP TABLE IF EXISTS CACHE_EDGES; CREATE TABLE CACHE_EDGES AS SELECT * FROM CORMEN_EDGES_ALL");
+        try {
+            final KeyedGraph<VDijkstra, Edge> graph = GraphFunction.prepareGraph(connection, "CACHE_EDGES",
+                    "directed - edge_orientation", "weight", VDijkstra.class, Edge.class);
+            GraphFunction.releaseGraph(graph);
+            // The graph is reused by the next call
+            final KeyedGraph<VDijkstra, Edge> cached = GraphFunction.prepareGraph(connection, "CACHE_EDGES",
+                    "directed - edge_orientation", "weight", VDijkstra.class, Edge.class);
+            assertSame(graph, cached);
+            // A lent graph is not shared
+            final KeyedGraph<VDijkstra, Edge> other = GraphFunction.prepareGraph(connection, "CACHE_EDGES",
+                    "directed - edge_orientation", "weight", VDijkstra.class, Edge.class);
+            assertNotSame(cached, other);
+            GraphFunction.releaseGraph(other);
+            GraphFunction.releaseGraph(cached);
+            // Another orientation gives another graph
+            final KeyedGraph<VDijkstra, Edge> undirected = GraphFunction.prepareGraph(connection, "CACHE_EDGES",
+                    "undirected", "weight", VDijkstra.class, Edge.class);
+            assertNotSame(cached, undirected);
+            GraphFunction.releaseGraph(undirected);
+            // Updating the table invalidates the graph
+            st.execute("UPDATE CACHE_EDGES SET weight = 100 WHERE edge_id = 5");
+            final KeyedGraph<VDijkstra, Edge> updated = GraphFunction.prepareGraph(connection, "CACHE_EDGES",
+                    "directed - edge_orientation", "weight", VDijkstra.class, Edge.class);
+            assertNotSame(cached, updated);
+            checkEdge(updated, 5, 1, 3, 100.0);
+            GraphFunction.releaseGraph(updated);
+        } finally {
+            st.execute("DROP TABLE CACHE_EDGES");
+            st.close();
+        }
+    }
+
+    @Test
+    public void testGraphCacheUncommittedChanges() throws Exception {
+        final Statement st = connection.createStatement();
+        st.execute("DROP TABLE IF EXISTS CACHE_EDGES; CREATE TABLE CACHE_EDGES AS SELECT * FROM CORMEN_EDGES_ALL");
+        final Connection other = H2GISDBFactory.openSpatialDataBase("GraphCreatorTest");
+        try {
+            other.setAutoCommit(false);
+            other.createStatement().execute("UPDATE CACHE_EDGES SET weight = 20 WHERE edge_id = 5");
+            // The session with uncommitted changes sees them but does not
+            // share its graph
+            final KeyedGraph<VDijkstra, Edge> dirty = GraphFunction.prepareGraph(other, "CACHE_EDGES",
+                    "directed - edge_orientation", "weight", VDijkstra.class, Edge.class);
+            checkEdge(dirty, 5, 1, 3, 20.0);
+            GraphFunction.releaseGraph(dirty);
+            final KeyedGraph<VDijkstra, Edge> clean = GraphFunction.prepareGraph(connection, "CACHE_EDGES",
+                    "directed - edge_orientation", "weight", VDijkstra.class, Edge.class);
+            assertNotSame(dirty, clean);
+            checkEdge(clean, 5, 1, 3, 5.0);
+            GraphFunction.releaseGraph(clean);
+            // Nor does it use the graph of the other sessions
+            final KeyedGraph<VDijkstra, Edge> dirtyAgain = GraphFunction.prepareGraph(other, "CACHE_EDGES",
+                    "directed - edge_orientation", "weight", VDijkstra.class, Edge.class);
+            assertNotSame(clean, dirtyAgain);
+            checkEdge(dirtyAgain, 5, 1, 3, 20.0);
+            GraphFunction.releaseGraph(dirtyAgain);
+            // The rollback invalidates the graph cached before
+            other.rollback();
+            final KeyedGraph<VDijkstra, Edge> rolledBack = GraphFunction.prepareGraph(other, "CACHE_EDGES",
+                    "directed - edge_orientation", "weight", VDijkstra.class, Edge.class);
+            checkEdge(rolledBack, 5, 1, 3, 5.0);
+            GraphFunction.releaseGraph(rolledBack);
+        } finally {
+            other.close();
+            st.execute("DROP TABLE CACHE_EDGES");
+            st.close();
+        }
+    }
+
+    @Test
+    public void testCSRGraph() throws SQLException {
+        final String[][] configurations = {
+                {"directed - edge_orientation", "weight"},
+                {"reversed - edge_orientation", "weight"},
+                {"undirected", "weight"},
+                {"directed - edge_orientation", null},
+                {"undirected", null}};
+        for (String[] configuration : configurations) {
+            final KeyedGraph<VDijkstra, Edge> graph = GraphFunction.prepareGraph(connection, "CORMEN_EDGES_ALL",
+                    configuration[0], configuration[1], VDijkstra.class, Edge.class);
+            try {
+                final CSRGraph csr = GraphFunction.prepareCSRGraph(connection, "CORMEN_EDGES_ALL",
+                        configuration[0], configuration[1]);
+                assertEquals(graph.vertexSet().size(), csr.getVertexCount());
+                final int expectedArcs = configuration[0].equals("undirected") ?
+                        2 * graph.edgeSet().size() : graph.edgeSet().size();
+                assertEquals(expectedArcs, csr.getArcCount());
+                // Same distances as the JGraphT Dijkstra from every vertex
+                final CSRDijkstra csrDijkstra = new CSRDijkstra(csr);
+                final Dijkstra<VDijkstra, Edge> dijkstra = new Dijkstra<VDijkstra, Edge>(graph);
+                for (VDijkstra source : graph.vertexSet()) {
+                    final Map<VDijkstra, Double> expected = dijkstra.oneToMany(source, graph.vertexSet());
+                    csrDijkstra.calculate(csr.getIndex(source.getID()));
+                    for (Map.Entry<VDijkstra, Double> e : expected.entrySet()) {
+                        assertEquals(e.getValue(), csrDijkstra.getDistance(csr.getIndex(e.getKey().getID())), TOLERANCE);
+                    }
+                }
+                // The arcs of the reversed graph go back to their source
+                final CSRGraph reversed = csr.getReversed();
+                assertEquals(csr.getArcCount(), reversed.getArcCount());
+                final CSRDijkstra reversedDijkstra = new CSRDijkstra(reversed);
+                for (int v = 0; v < csr.getVertexCount(); v++) {
+                    reversedDijkstra.calculate(v);
+                    for (int w = 0; w < csr.getVertexCount(); w++) {
+                        assertEquals(csrDijkstra.oneToOne(w, v), reversedDijkstra.getDistance(w), TOLERANCE);
+                    }
+                }
+            } finally {
+                GraphFunction.releaseGraph(graph);
+            }
+        }
+        assertEquals(-1, GraphFunction.prepareCSRGraph(connection, "CORMEN_EDGES_ALL", "undirected", null).getIndex(9999));
+    }
+
+    @Test
+    public void testGoalDirectedSearch() {
+        // A 30x30 grid with random weights at least the length of the arcs
+        final int size = 30;
+        final Random random = new Random(42);
+        final CSRGraph.Builder builder = new CSRGraph.Builder();
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                final int v = i * size + j;
+                if (j + 1 < size) {
+                    builder.addArc(v, v + 1, 1 + random.nextDouble(), v);
+                    builder.addArc(v + 1, v, 1 + random.nextDouble(), v);
+                }
+                if (i + 1 < size) {
+                    builder.addArc(v, v + size, 1 + random.nextDouble(), -v);
+                    builder.addArc(v + size, v, 1 + random.nextDouble(), -v);
+                }
+            }
+        }
+        final CSRGraph graph = builder.build();
+        final double[] x = new double[graph.getVertexCount()];
+        final double[] y = new double[graph.getVertexCount()];
+        for (int v = 0; v < graph.getVertexCount(); v++) {
+            x[v] = graph.getId(v) % size;
+            y[v] = graph.getId(v) / size;
+        }
+        final CSRCoordinates coordinates = new CSRCoordinates(graph, x, y, false);
+        assertTrue(coordinates.getScale() > 1 && coordinates.getScale() < 1.01);
+        final CSRDijkstra dijkstra = new CSRDijkstra(graph);
+        final CSRDijkstra aStar = new CSRDijkstra(graph);
+        final CSRBidirectionalDijkstra bidirectional = new CSRBidirectionalDijkstra(graph);
+        for (int k = 0; k < 50; k++) {
+            final int source = random.nextInt(graph.getVertexCount());
+            final int target = random.nextInt(graph.getVertexCount());
+            final double expected = dijkstra.oneToOne(source, target);
+            assertEquals(expected, aStar.oneToOne(source, target, coordinates), 1e-9);
+            assertEquals(expected, pathLength(graph, aStar.getPathArcs(target), source, target), 1e-9);
+            assertEquals(expected, bidirectional.oneToOne(source, target), 1e-9);
+            assertEquals(expected, pathLength(graph, bidirectional.getPathArcs(), source, target), 1e-9);
+        }
+        // The goal directed search does not go away from the target
+        final int corner = graph.getIndex(0);
+        final int neighbour = graph.getIndex(size + 1);
+        dijkstra.oneToOne(neighbour, corner);
+        aStar.oneToOne(neighbour, corner, coordinates);
+        assertTrue(aStar.getReachedCount() < dijkstra.getReachedCount());
+    }
+
+    private static double pathLength(CSRGraph graph, int[] arcs, int source, int target) {
+        double length = 0;
+        int vertex = source;
+        for (int arc : arcs) {
+            assertEquals(vertex, graph.getSource(arc));
+            vertex = graph.getTarget(arc);
+            length += graph.getWeight(arc);
+        }
+        assertEquals(target, vertex);
+        return length;
+    }
+
     private void testOrientation(String newOrientation) throws SQLException {
         final Statement st = connection.createStatement();
         st.execute("DROP TABLE IF EXISTS COPY; CREATE TABLE COPY AS SELECT * FROM CORMEN_EDGES_ALL");
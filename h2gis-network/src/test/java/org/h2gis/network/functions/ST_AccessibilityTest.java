@@ -260,6 +260,17 @@ public class ST_AccessibilityTest {
         check(compute(DO, W, "'5'"), new int[]{5, 5, 5, 5, 5}, new double[]{7.0, 4.0, 2.0, 4.0, 0.0});
     }
 
+    @Test
+    public void WDORadius() throws Exception {
+        // SELECT * FROM ST_Accessibility('CORMEN_EDGES_ALL',
+        //     'directed - edge_orientation', 'weight', '1, 5', 3.0)
+        // Vertices 2 and 4 are at distance 4.0 of their closest destination
+        final double inf = Double.POSITIVE_INFINITY;
+        check(compute(DO, W, "'1, 5', 3.0"), new int[]{1, -1, 5, -1, 5}, new double[]{0.0, inf, 2.0, inf, 0.0});
+        check(compute(DO, W, "'dest15', 3.0"), new int[]{1, -1, 5, -1, 5}, new double[]{0.0, inf, 2.0, inf, 0.0});
+        check(compute(DO, W, "'1, 5', 4.0"), new int[]{1, 5, 5, 5, 5}, new double[]{0.0, 4.0, 2.0, 4.0, 0.0});
+    }
+
     @Test
     public void testST_AccST_SPLSingleDestEquivalence() throws Exception {
         final ResultSet sPL = st.executeQuery(
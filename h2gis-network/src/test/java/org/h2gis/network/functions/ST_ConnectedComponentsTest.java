@@ -151,6 +151,26 @@ public class ST_ConnectedComponentsTest {
                 getEdgePartition(st.executeQuery("SELECT * FROM " + name + EDGE_COMP_SUFFIX)));
     }
 
+    @Test
+    public void testLongCycle() throws Exception {
+        // The depth of the search is the length of the cycle
+        final int n = 50000;
+        st.execute("DROP TABLE IF EXISTS CYCLE, CYCLE" + NODE_COMP_SUFFIX + ", CYCLE" + EDGE_COMP_SUFFIX);
+        st.execute("CREATE TABLE CYCLE(EDGE_ID INT PRIMARY KEY, START_NODE INT, END_NODE INT, " +
+                "EDGE_ORIENTATION INT) AS SELECT X, X, MOD(X, " + n + ") + 1, 1 FROM SYSTEM_RANGE(1, " + n + ")");
+        st.execute("INSERT INTO CYCLE VALUES (" + (n + 1) + ", " + n + ", " + (n + 1) + ", 1)");
+        checkBoolean(st.executeQuery("SELECT ST_ConnectedComponents('CYCLE', " + DO + ")"));
+        final Set<Set<Integer>> partition = getOneElementPartition(n);
+        partition.add(getIntSet(n + 1));
+        assertEquals(partition,
+                getVertexPartition(st.executeQuery("SELECT * FROM CYCLE" + NODE_COMP_SUFFIX)));
+        final Map<Integer, Set<Integer>> edgeMap =
+                getCCMap(st.executeQuery("SELECT * FROM CYCLE" + EDGE_COMP_SUFFIX), GraphConstants.EDGE_ID);
+        assertEquals(getIntSet(n + 1), edgeMap.get(NULL_CONNECTED_COMPONENT_NUMBER));
+        assertEquals(2, edgeMap.size());
+        st.execute("DROP TABLE CYCLE, CYCLE" + NODE_COMP_SUFFIX + ", CYCLE" + EDGE_COMP_SUFFIX);
+    }
+
     private Set<Set<Integer>> getOneElementPartition(int n) {
         Set<Set<Integer>> p = new HashSet<Set<Integer>>();
         Set<Integer> component = new HashSet<Integer>();
@@ -0,0 +1,238 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+package org.h2gis.network.functions;
+
+import org.h2gis.functions.factory.H2GISDBFactory;
+import org.h2gis.functions.factory.H2GISFunctions;
+import org.junit.jupiter.api.*;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ST_ContractGraphTest {
+
+    private static Connection connection;
+    private Statement st;
+    private static final double TOLERANCE = 1e-12;
+    private static final String DO = "'directed - edge_orientation'";
+    private static final String RO = "'reversed - edge_orientation'";
+    private static final String U = "'undirected'";
+    private static final String W = "'weight'";
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        // Keep a connection alive to not close the DataBase on each unit test
+        connection = H2GISDBFactory.createSpatialDataBase("ST_ContractGraphTest", true);
+        final Statement st = connection.createStatement();
+        H2GISFunctions.registerFunction(st, new ST_ContractGraph(), "");
+        H2GISFunctions.registerFunction(st, new ST_CHShortestPathLength(), "");
+        H2GISFunctions.registerFunction(st, new ST_CHShortestPath(), "");
+        H2GISFunctions.registerFunction(st, new ST_ShortestPathLength(), "");
+        GraphCreatorTest.registerCormenGraph(connection);
+    }
+
+    @BeforeEach
+    public void setUpStatement() throws Exception {
+        st = connection.createStatement();
+    }
+
+    @AfterEach
+    public void tearDownStatement() throws Exception {
+        st.close();
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        connection.close();
+    }
+
+    private void contract(String orientation, String weight) throws SQLException {
+        st.execute("DROP TABLE IF EXISTS COPY_EDGES_ALL_CH_NODES, COPY_EDGES_ALL_CH_ARCS");
+        final ResultSet rs = st.executeQuery("SELECT ST_ContractGraph('COPY_EDGES_ALL', " + orientation
+                + (weight == null ? "" : ", " + weight) + ")");
+        assertTrue(rs.next());
+        assertTrue(rs.getBoolean(1));
+        rs.close();
+    }
+
+    private double distance(String query) throws SQLException {
+        final ResultSet rs = st.executeQuery(query);
+        try {
+            assertTrue(rs.next());
+            final double distance = rs.getDouble(ST_ShortestPathLength.DISTANCE_INDEX);
+            assertFalse(rs.next());
+            return distance;
+        } finally {
+            rs.close();
+        }
+    }
+
+    @Test
+    public void testOneToOne() throws SQLException {
+        final String[][] configurations = {{DO, W}, {RO, W}, {U, W}, {DO, null}, {U, null}};
+        for (String[] configuration : configurations) {
+            contract(configuration[0], configuration[1]);
+            for (int source = 1; source <= 8; source++) {
+                for (int destination = 1; destination <= 8; destination++) {
+                    final double expected = distance("SELECT * FROM ST_ShortestPathLength('COPY_EDGES_ALL', "
+                            + configuration[0] + (configuration[1] == null ? "" : ", " + configuration[1])
+                            + ", " + source + ", " + destination + ")");
+                    assertEquals(expected, distance("SELECT * FROM ST_CHShortestPathLength('COPY_EDGES_ALL', "
+                            + source + ", " + destination + ")"), TOLERANCE);
+                    checkPath(source, destination, expected);
+                }
+            }
+        }
+    }
+
+    private void checkPath(int source, int destination, double expected) throws SQLException {
+        final ResultSet rs = st.executeQuery("SELECT * FROM ST_CHShortestPath('COPY_EDGES_ALL', "
+                + source + ", " + destination + ")");
+        try {
+            if (expected == Double.POSITIVE_INFINITY) {
+                assertFalse(rs.next());
+                return;
+            }
+            double length = 0;
+            int vertex = destination;
+            int pathEdge = 1;
+            while (rs.next()) {
+                assertNotNull(rs.getObject(GraphConstants.THE_GEOM));
+                assertEquals(pathEdge++, rs.getInt(GraphConstants.PATH_EDGE_ID));
+                assertEquals(vertex, rs.getInt(GraphConstants.DESTINATION));
+                vertex = rs.getInt(GraphConstants.SOURCE);
+                length += rs.getDouble(GraphConstants.WEIGHT);
+            }
+            assertEquals(source, vertex);
+            assertEquals(expected, length, TOLERANCE);
+        } finally {
+            rs.close();
+        }
+    }
+
+    @Test
+    public void testManyToMany() throws SQLException {
+        contract(DO, W);
+        st.execute("DROP TABLE IF EXISTS CH_SOURCES, CH_DESTINATIONS;" +
+                "CREATE TABLE CH_SOURCES(SOURCE INT); INSERT INTO CH_SOURCES VALUES (1), (2), (6), (2);" +
+                "CREATE TABLE CH_DESTINATIONS(DESTINATION INT); INSERT INTO CH_DESTINATIONS VALUES (3), (7), (1);");
+        final ResultSet rs = st.executeQuery("SELECT * FROM ST_CHShortestPathLength('COPY_EDGES_ALL', " +
+                "'CH_SOURCES', 'CH_DESTINATIONS')");
+        final int[] sources = {1, 2, 6};
+        final int[] destinations = {3, 7, 1};
+        final double[] distances = new double[sources.length * destinations.length];
+        for (int i = 0; i < sources.length; i++) {
+            for (int j = 0; j < destinations.length; j++) {
+                assertTrue(rs.next());
+                assertEquals(sources[i], rs.getInt(ST_ShortestPathLength.SOURCE_INDEX));
+                assertEquals(destinations[j], rs.getInt(ST_ShortestPathLength.DESTINATION_INDEX));
+                distances[i * destinations.length + j] = rs.getDouble(ST_ShortestPathLength.DISTANCE_INDEX);
+            }
+        }
+        assertFalse(rs.next());
+        rs.close();
+        for (int i = 0; i < sources.length; i++) {
+            for (int j = 0; j < destinations.length; j++) {
+                assertEquals(distance("SELECT * FROM ST_ShortestPathLength('COPY_EDGES_ALL', " + DO + ", " + W
+                        + ", " + sources[i] + ", " + destinations[j] + ")"),
+                        distances[i * destinations.length + j], TOLERANCE);
+            }
+        }
+        st.execute("DROP TABLE CH_SOURCES, CH_DESTINATIONS");
+    }
+
+    @Test
+    public void testMissingHierarchy() {
+        assertThrows(SQLException.class, () ->
+                st.executeQuery("SELECT * FROM ST_CHShortestPathLength('CORMEN_EDGES_ALL', 1, 2)"));
+    }
+
+    @Test
+    public void testRandomGraph() {
+        // A grid with random weights, some streets being one way
+        final int size = 25;
+        final Random random = new Random(7);
+        final CSRGraph.Builder builder = new CSRGraph.Builder();
+        int edgeId = 1;
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                final int v = i * size + j;
+                for (int w : new int[]{j + 1 < size ? v + 1 : -1, i + 1 < size ? v + size : -1}) {
+                    if (w == -1) {
+                        continue;
+                    }
+                    final double weight = 1 + 9 * random.nextDouble();
+                    builder.addArc(v, w, weight, edgeId);
+                    if (random.nextInt(4) != 0) {
+                        builder.addArc(w, v, weight, -edgeId);
+                    }
+                    edgeId++;
+                }
+            }
+        }
+        final CSRGraph graph = builder.build();
+        final ContractionHierarchy hierarchy = ContractionHierarchy.contract(graph);
+        assertEquals(graph.getVertexCount(), hierarchy.getVertexCount());
+        final CSRDijkstra dijkstra = new CSRDijkstra(graph);
+        final CHQuery query = new CHQuery(hierarchy);
+        for (int k = 0; k < 100; k++) {
+            final int source = random.nextInt(graph.getVertexCount());
+            final int target = random.nextInt(graph.getVertexCount());
+            final double expected = dijkstra.oneToOne(source, target);
+            assertEquals(expected, query.oneToOne(hierarchy.getIndex(graph.getId(source)),
+                    hierarchy.getIndex(graph.getId(target))), 1e-9);
+            final int[] arcs = query.getPathArcs();
+            if (expected == Double.POSITIVE_INFINITY) {
+                assertNull(arcs);
+                continue;
+            }
+            double length = 0;
+            int vertex = source;
+            for (int arc : arcs) {
+                assertFalse(hierarchy.isShortcut(arc));
+                assertEquals(vertex, hierarchy.getSource(arc));
+                vertex = hierarchy.getTarget(arc);
+                length += hierarchy.getWeight(arc);
+            }
+            assertEquals(target, vertex);
+            assertEquals(expected, length, 1e-9);
+        }
+        final int[] sources = new int[20];
+        final int[] targets = new int[30];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = random.nextInt(graph.getVertexCount());
+        }
+        for (int j = 0; j < targets.length; j++) {
+            targets[j] = random.nextInt(graph.getVertexCount());
+        }
+        final double[][] distances = query.manyToMany(sources, targets);
+        for (int i = 0; i < sources.length; i++) {
+            dijkstra.calculate(sources[i]);
+            for (int j = 0; j < targets.length; j++) {
+                assertEquals(dijkstra.getDistance(targets[j]), distances[i][j], 1e-9);
+            }
+        }
+    }
+}
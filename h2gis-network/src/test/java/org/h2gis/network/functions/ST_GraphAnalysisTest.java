@@ -415,6 +415,60 @@ public class ST_GraphAnalysisTest {
         testBatchComputation(5 * BATCH_SIZE);
     }
 
+    @Test
+    public void testPivotsAllNodes() throws Exception {
+        st.execute("DROP TABLE IF EXISTS CORMEN_EDGES_ALL" + NODE_CENT_SUFFIX);
+        st.execute("DROP TABLE IF EXISTS CORMEN_EDGES_ALL" + EDGE_CENT_SUFFIX);
+
+        // With as many pivots as nodes, the exact values are computed
+        checkBoolean(st.executeQuery("SELECT ST_GraphAnalysis('CORMEN_EDGES_ALL', "
+                + DO + ", " + W + ", 5)"));
+        checkNodes(st.executeQuery("SELECT * FROM CORMEN_EDGES_ALL" + NODE_CENT_SUFFIX),
+                new double[]{
+                        4.0 / (0.0 + 8.0 + 5.0 + 13.0 + 7.0),
+                        4.0 / (11.0 + 0.0 + 2.0 + 10.0 + 4.0),
+                        4.0 / (9.0 + 3.0 + 0.0 + 8.0 + 2.0),
+                        4.0 / (11.0 + 1.0 + 3.0 + 0.0 + 4.0),
+                        4.0 / (7.0 + 7.0 + 9.0 + 6.0 + 0.0)},
+                WDO_WRO_NODE_BETWEENNESS
+        );
+        checkEdges(st.executeQuery("SELECT * FROM CORMEN_EDGES_ALL" + EDGE_CENT_SUFFIX),
+                WDO_WRO_EDGE_BETWEENNESS);
+    }
+
+    @Test
+    public void testPivotsLineGraph() throws Exception {
+        final int n = 101;
+        final String tableName = createLineGraphTable(connection, n);
+        checkBoolean(st.executeQuery("SELECT ST_GraphAnalysis('" + tableName + "', 'undirected', NULL, 20);"));
+        ResultSet nodeCent = st.executeQuery("SELECT * FROM " + tableName + "_NODE_CENT");
+        try {
+            int count = 0;
+            while (nodeCent.next()) {
+                // All the nodes are reached from the pivots, the estimated
+                // average distance is at most n / (n - 1) times the diameter
+                final double closeness = nodeCent.getDouble(GraphConstants.CLOSENESS);
+                assertTrue(closeness >= 1. / n);
+                final double betweenness = nodeCent.getDouble(GraphConstants.BETWEENNESS);
+                assertTrue(betweenness >= 0 && betweenness <= 1);
+                count++;
+            }
+            assertEquals(n, count);
+        } finally {
+            nodeCent.close();
+        }
+        ResultSet edgeCent = st.executeQuery("SELECT MIN(" + BETWEENNESS + "), MAX(" + BETWEENNESS + "), " +
+                "COUNT(*) FROM " + tableName + "_EDGE_CENT");
+        try {
+            assertTrue(edgeCent.next());
+            assertEquals(0., edgeCent.getDouble(1), TOLERANCE);
+            assertEquals(1., edgeCent.getDouble(2), TOLERANCE);
+            assertEquals(n - 1, edgeCent.getInt(3));
+        } finally {
+            edgeCent.close();
+        }
+    }
+
     private void testBatchComputation(final int n) throws SQLException {
         // Here we test the closeness and betweenness centrality computations
         // on a line graph.
@@ -904,6 +904,110 @@ public class ST_ShortestPathLengthTest {
         });
     }
 
+    @Test
+    public void testUpdatedTable() throws SQLException {
+        st.execute("DROP TABLE IF EXISTS UPDATED_EDGES; CREATE TABLE UPDATED_EDGES AS SELECT * FROM CORMEN_EDGES_ALL");
+        try {
+            ResultSet rs = st.executeQuery("SELECT * FROM ST_ShortestPathLength('UPDATED_EDGES', " + DO + ", " + W + ", 1, 3)");
+            assertTrue(rs.next());
+            assertEquals(5.0, rs.getDouble(ST_ShortestPathLength.DISTANCE_INDEX), TOLERANCE);
+            rs.close();
+            // The graph kept from the previous call must not be used anymore
+            st.execute("UPDATE UPDATED_EDGES SET weight = 100 WHERE edge_id = 5");
+            rs = st.executeQuery("SELECT * FROM ST_ShortestPathLength('UPDATED_EDGES', " + DO + ", " + W + ", 1, 3)");
+            assertTrue(rs.next());
+            assertEquals(12.0, rs.getDouble(ST_ShortestPathLength.DISTANCE_INDEX), TOLERANCE);
+            rs.close();
+        } finally {
+            st.execute("DROP TABLE UPDATED_EDGES");
+        }
+    }
+
+    @Test
+    public void testAlgorithms() throws SQLException {
+        // A* and the bidirectional search give the Dijkstra distances
+        final String[][] configurations = {{DO, W}, {RO, W}, {U, W}, {DO, "NULL"}, {U, "NULL"}};
+        for (String[] configuration : configurations) {
+            for (int source = 1; source <= 8; source++) {
+                for (int destination = 1; destination <= 8; destination++) {
+                    final double expected = oneToOneDistance(configuration[0], configuration[1],
+                            source, destination, "'dijkstra'");
+                    assertEquals(expected, oneToOneDistance(configuration[0], configuration[1],
+                            source, destination, "'astar'"), 1e-12);
+                    assertEquals(expected, oneToOneDistance(configuration[0], configuration[1],
+                            source, destination, "'bidirectional'"), 1e-12);
+                }
+            }
+        }
+        assertEquals(5.0, oneToOneDistance(DO, W, 1, 3, "'astar'"), 1e-12);
+        assertThrows(SQLException.class, () -> oneToOneDistance(DO, W, 1, 3, "'bfs'"));
+    }
+
+    private double oneToOneDistance(String orientation, String weight, int source, int destination,
+                                    String algorithm) throws SQLException {
+        final ResultSet rs = st.executeQuery("SELECT * FROM ST_ShortestPathLength('COPY_EDGES_ALL', "
+                + orientation + ", " + weight + ", " + source + ", " + destination + ", " + algorithm + ")");
+        try {
+            assertTrue(rs.next());
+            final double distance = rs.getDouble(ST_ShortestPathLength.DISTANCE_INDEX);
+            assertFalse(rs.next());
+            return distance;
+        } finally {
+            rs.close();
+        }
+    }
+
+    @Test
+    public void testLargeManyToMany() throws SQLException {
+        // Enough sources to be searched by chunks on the worker threads
+        st.execute("DROP TABLE IF EXISTS GRID_EDGES, GRID_SOURCES, GRID_DESTINATIONS, GRID_SOURCE_DEST;" +
+                "CREATE TABLE GRID_EDGES(EDGE_ID INT, START_NODE INT, END_NODE INT, WEIGHT DOUBLE);" +
+                "INSERT INTO GRID_EDGES SELECT X, X, X + 1, 1 + MOD(X * 7, 5) FROM SYSTEM_RANGE(1, 400) " +
+                "WHERE MOD(X, 20) <> 0;" +
+                "INSERT INTO GRID_EDGES SELECT 400 + X, X, X + 20, 1 + MOD(X * 3, 4) FROM SYSTEM_RANGE(1, 380);" +
+                "CREATE TABLE GRID_SOURCES AS SELECT X SOURCE FROM SYSTEM_RANGE(1, 100);" +
+                "CREATE TABLE GRID_DESTINATIONS AS SELECT 4 * X DESTINATION FROM SYSTEM_RANGE(1, 100);" +
+                "CREATE TABLE GRID_SOURCE_DEST AS SELECT S.SOURCE, D.DESTINATION " +
+                "FROM GRID_SOURCES S, GRID_DESTINATIONS D WHERE MOD(S.SOURCE + D.DESTINATION, 3) = 0");
+        try {
+            final double[][] expected = new double[101][401];
+            for (int source = 1; source <= 100; source++) {
+                final ResultSet rs = st.executeQuery("SELECT * FROM ST_ShortestPathLength('GRID_EDGES', " +
+                        U + ", " + W + ", " + source + ")");
+                while (rs.next()) {
+                    expected[source][rs.getInt(ST_ShortestPathLength.DESTINATION_INDEX)] =
+                            rs.getDouble(ST_ShortestPathLength.DISTANCE_INDEX);
+                }
+                rs.close();
+            }
+            checkMatrix(st.executeQuery("SELECT * FROM ST_ShortestPathLength('GRID_EDGES', " +
+                    U + ", " + W + ", 'GRID_SOURCE_DEST')"), expected, 100 * 100 / 3);
+            checkMatrix(st.executeQuery("SELECT * FROM ST_ShortestPathLength('GRID_EDGES', " +
+                    U + ", " + W + ", 'GRID_SOURCES', 'GRID_DESTINATIONS')"), expected, 100 * 100);
+        } finally {
+            st.execute("DROP TABLE GRID_EDGES, GRID_SOURCES, GRID_DESTINATIONS, GRID_SOURCE_DEST");
+        }
+    }
+
+    private static void checkMatrix(ResultSet rs, double[][] expected, int rowCount) throws SQLException {
+        try {
+            int count = 0;
+            int previousSource = 0;
+            while (rs.next()) {
+                final int source = rs.getInt(ST_ShortestPathLength.SOURCE_INDEX);
+                // The rows are returned in the order of the sources
+                assertTrue(source >= previousSource);
+                previousSource = source;
+                assertEquals(expected[source][rs.getInt(ST_ShortestPathLength.DESTINATION_INDEX)],
+                        rs.getDouble(ST_ShortestPathLength.DISTANCE_INDEX), TOLERANCE);
+                count++;
+            }
+            assertEquals(rowCount, count);
+        } finally {
+            rs.close();
+        }
+    }
+
     @Test
     public void testUnreachableVertices() throws SQLException {
         // Vertices 3 and 6 are in different connected components.
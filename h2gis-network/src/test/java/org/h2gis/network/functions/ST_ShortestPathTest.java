@@ -808,6 +808,66 @@ public class ST_ShortestPathTest {
                 new PathEdge("LINESTRING (3 1, 4 2)", 11, 1, 1, 7, 6, 1.0)});
     }
 
+    @Test
+    public void oneToOneAlgorithms() throws SQLException {
+        check(oneToOne(U, W, 5, 2, "'astar'"), new PathEdge[]{
+                new PathEdge("LINESTRING (1 2, 0.75 1, 1 0)", 3, 1, 1, 3, 2, 2.0),
+                new PathEdge("LINESTRING (1 0, 2 0)", 7, 1, 2, 5, 3, 2.0)});
+        check(oneToOne(U, W, 5, 2, "'bidirectional'"), new PathEdge[]{
+                new PathEdge("LINESTRING (1 2, 0.75 1, 1 0)", 3, 1, 1, 3, 2, 2.0),
+                new PathEdge("LINESTRING (1 0, 2 0)", 7, 1, 2, 5, 3, 2.0)});
+        check(oneToOne(U, W, 5, 5, "'astar'"), EMPTY);
+        assertFalse(oneToOne("COPY_EDGES_ALL", DO, W, 7, 6, "'bidirectional'").next());
+        // A single path as long as the Dijkstra ones
+        final String[][] configurations = {{DO, W}, {RO, W}, {U, W}, {DO, "NULL"}, {U, "NULL"}};
+        for (String[] configuration : configurations) {
+            for (int source = 1; source <= 5; source++) {
+                for (int destination = 1; destination <= 5; destination++) {
+                    final double expected = firstPathLength(oneToOne("CORMEN_EDGES_ALL",
+                            configuration[0], configuration[1], source, destination, "'dijkstra'"));
+                    for (String algorithm : new String[]{"'astar'", "'bidirectional'"}) {
+                        final ResultSet rs = oneToOne("CORMEN_EDGES_ALL", configuration[0], configuration[1],
+                                source, destination, algorithm);
+                        double length = 0;
+                        int vertex = destination;
+                        while (rs.next()) {
+                            assertEquals(1, rs.getInt(GraphConstants.PATH_ID));
+                            assertEquals(vertex, rs.getInt(GraphConstants.DESTINATION));
+                            vertex = rs.getInt(GraphConstants.SOURCE);
+                            length += rs.getDouble(GraphConstants.WEIGHT);
+                        }
+                        rs.close();
+                        assertEquals(source, vertex);
+                        assertEquals(expected, length, 1e-12);
+                    }
+                }
+            }
+        }
+    }
+
+    private static double firstPathLength(ResultSet rs) throws SQLException {
+        double length = 0;
+        while (rs.next()) {
+            if (rs.getInt(GraphConstants.PATH_ID) == 1) {
+                length += rs.getDouble(GraphConstants.WEIGHT);
+            }
+        }
+        rs.close();
+        return length;
+    }
+
+    private ResultSet oneToOne(String table, String orientation, String weight,
+                               int source, int destination, String algorithm) throws SQLException {
+        return st.executeQuery(
+                "SELECT * FROM ST_ShortestPath('" + table + "', " + orientation + ", " + weight
+                        + ", " + source + ", " + destination + ", " + algorithm + ")");
+    }
+
+    private ResultSet oneToOne(String orientation, String weight,
+                               int source, int destination, String algorithm) throws SQLException {
+        return oneToOne("CORMEN_EDGES_ALL", orientation, weight, source, destination, algorithm);
+    }
+
     private ResultSet oneToOne(String table, String orientation, String weight,
                                int source, int destination) throws SQLException {
         return st.executeQuery(
@@ -25,6 +25,7 @@ import org.h2.value.ValueGeometry;
 import org.h2gis.functions.factory.H2GISDBFactory;
 import org.h2gis.functions.factory.H2GISFunctions;
 import org.junit.jupiter.api.*;
+import org.locationtech.jts.geom.Geometry;
 
 import java.sql.Connection;
 import java.sql.ResultSet;
@@ -800,6 +801,58 @@ public class ST_ShortestPathTreeTest {
         );
     }
 
+    @Test
+    public void testGeometryBatches() throws Throwable {
+        // More tree edges than the rows of a chunk, the geometries are
+        // looked up by batches of ids with the primary key
+        st.execute("DROP TABLE IF EXISTS LONG_LINE;" +
+                "CREATE TABLE LONG_LINE AS SELECT " +
+                "ST_MakeLine(ST_MakePoint(X, 0), ST_MakePoint(X + 1, 0)) THE_GEOM, " +
+                "CAST(X AS INT) EDGE_ID, CAST(X AS INT) START_NODE, CAST(X + 1 AS INT) END_NODE " +
+                "FROM SYSTEM_RANGE(1, 2500);" +
+                "ALTER TABLE LONG_LINE ALTER COLUMN EDGE_ID SET NOT NULL;" +
+                "ALTER TABLE LONG_LINE ADD PRIMARY KEY (EDGE_ID);");
+        try {
+            final ResultSet rs = st.executeQuery("SELECT * FROM ST_ShortestPathTree('LONG_LINE', " + U + ", 1)");
+            int count = 0;
+            while (rs.next()) {
+                final int edgeID = rs.getInt(GraphConstants.EDGE_ID);
+                assertEquals(edgeID, ((Geometry) rs.getObject(GraphConstants.THE_GEOM))
+                        .getCoordinates()[0].x, TOLERANCE);
+                count++;
+            }
+            rs.close();
+            assertEquals(2500, count);
+        } finally {
+            st.execute("DROP TABLE LONG_LINE");
+        }
+    }
+
+    @Test
+    public void testLargeTreeGeometries() throws Throwable {
+        // A large tree on a table without index on the edge ids, the
+        // input table is scanned once for each chunk of tree edges
+        st.execute("DROP TABLE IF EXISTS LONG_LINE;" +
+                "CREATE TABLE LONG_LINE AS SELECT " +
+                "ST_MakeLine(ST_MakePoint(X, 0), ST_MakePoint(X + 1, 0)) THE_GEOM, " +
+                "CAST(X AS INT) EDGE_ID, CAST(X AS INT) START_NODE, CAST(X + 1 AS INT) END_NODE " +
+                "FROM SYSTEM_RANGE(1, 100000);");
+        try {
+            final ResultSet rs = st.executeQuery("SELECT EDGE_ID, THE_GEOM FROM ST_ShortestPathTree('LONG_LINE', " + U + ", 50000)");
+            int count = 0;
+            while (rs.next()) {
+                final int edgeID = rs.getInt(GraphConstants.EDGE_ID);
+                assertEquals(edgeID, ((Geometry) rs.getObject(GraphConstants.THE_GEOM))
+                        .getCoordinates()[0].x, TOLERANCE);
+                count++;
+            }
+            rs.close();
+            assertEquals(100000, count);
+        } finally {
+            st.execute("DROP TABLE LONG_LINE");
+        }
+    }
+
     private void check(ResultSet rs, Tree tree) throws SQLException {
         check(rs, tree, true);
     }
@@ -205,6 +205,19 @@ public class GeographyUtilities {
      * @return distance in meters
      */
     public static double getHaversineDistanceInMeters(Coordinate coordA, Coordinate coordB) {
+        return getHaversineDistanceInMeters(coordA, coordB, RADIUS_OF_EARTH_IN_METERS);
+    }
+
+    /**
+     * Calculate the spherical distance between two coordinates in meters using the
+     * Haversine formula and a given sphere radius.
+     *
+     * @param coordA
+     * @param coordB
+     * @param radius radius of the sphere in meters
+     * @return distance in meters
+     */
+    public static double getHaversineDistanceInMeters(Coordinate coordA, Coordinate coordB, double radius) {
         double dLat = Math.toRadians(coordB.getY() - coordA.getY());
         double dLon = Math.toRadians(coordB.getX() - coordA.getX());
         double a
@@ -212,10 +225,9 @@ public class GeographyUtilities {
                 + Math.cos(Math.toRadians(coordA.getY())) * Math.cos(Math.toRadians(coordB.getY()))
                 * Math.sin(dLon / 2) * Math.sin(dLon / 2);
         double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        double d = RADIUS_OF_EARTH_IN_METERS * c;
-        return d;
-    }  
-    
+        return radius * c;
+    }
+
     /**
      * Return a SRID code from latitude and longitude coordinates
      *
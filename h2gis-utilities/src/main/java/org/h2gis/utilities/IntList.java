@@ -0,0 +1,87 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+package org.h2gis.utilities;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive int values, also used as a stack.
+ * Shared by the cluster functions and the graph functions.
+ */
+public final class IntList {
+
+    private int[] values = new int[16];
+    private int size = 0;
+
+    /**
+     * Append a value
+     *
+     * @param value value
+     */
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Append two values
+     *
+     * @param a first value
+     * @param b second value
+     */
+    public void add(int a, int b) {
+        add(a);
+        add(b);
+    }
+
+    /**
+     * Remove the last value
+     *
+     * @return the removed value, the list must not be empty
+     */
+    public int removeLast() {
+        return values[--size];
+    }
+
+    /**
+     * @return the number of values
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index index between 0 and {@link #size()} (exclusive)
+     * @return the value at this index
+     */
+    public int get(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return a copy of the values
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation; version 3.0 of
+ * the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+package org.h2gis.utilities;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Pool of threads shared by the functions that split their work in tasks.
+ * The threads are daemons, created on first use and never shut down, so a
+ * result set that is not closed does not leak them.
+ * The tasks must not submit other tasks to this pool and wait for them.
+ */
+public class ParallelUtilities {
+
+    private static ExecutorService executor;
+
+    private ParallelUtilities() {
+    }
+
+    /**
+     * @return The number of threads of the shared pool
+     */
+    public static int getThreadCount() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return The shared pool of daemon threads
+     */
+    public static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(getThreadCount(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "H2GIS-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Submit a task to the shared pool
+     *
+     * @param task Task to run
+     * @param <T> Type of the result
+     * @return The future result of the task
+     */
+    public static <T> Future<T> submit(Callable<T> task) {
+        return getExecutor().submit(task);
+    }
+
+    /**
+     * Wait for the result of a task
+     *
+     * @param future Future result of the task
+     * @param operation Name of the operation, used in the error messages
+     * @param <T> Type of the result
+     * @return The result of the task
+     * @throws SQLException If the task failed or the wait has been interrupted
+     */
+    public static <T> T get(Future<T> future, String operation) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("The " + operation + " has been interrupted", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new SQLException("Cannot compute the " + operation, cause);
+        }
+    }
+
+    /**
+     * Run the tasks in the shared pool and wait for all of them
+     *
+     * @param tasks Tasks to run
+     * @param operation Name of the operation, used in the error messages
+     * @param <T> Type of the results
+     * @return The results, in the order of the tasks
+     * @throws SQLException If a task failed or the wait has been interrupted
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks, String operation) throws SQLException {
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        try {
+            for (Callable<T> task : tasks) {
+                futures.add(submit(task));
+            }
+            List<T> results = new ArrayList<>(tasks.size());
+            for (Future<T> future : futures) {
+                results.add(get(future, operation));
+            }
+            return results;
+        } finally {
+            cancel(futures);
+        }
+    }
+
+    /**
+     * Cancel the tasks that are not done yet
+     *
+     * @param futures Future results of the tasks
+     */
+    public static void cancel(Collection<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Tasks run on the shared pool whose results are read in the order of the
+     * submissions. The callers submit a new task only when the queue is not
+     * full, so the number of results kept in memory is bounded.
+     *
+     * @param <T> Type of the results
+     */
+    public static final class OrderedTasks<T> {
+
+        private final Deque<Future<T>> pending = new ArrayDeque<>();
+        private final int capacity;
+        private final String operation;
+
+        /**
+         * Queue of twice the number of threads of the shared pool, so the
+         * threads are kept busy while the caller reads a result
+         *
+         * @param operation Name of the operation, used in the error messages
+         */
+        public OrderedTasks(String operation) {
+            this.capacity = 2 * getThreadCount();
+            this.operation = operation;
+        }
+
+        /**
+         * @return True if no more task should be submitted before a result
+         * is read
+         */
+        public boolean isFull() {
+            return pending.size() >= capacity;
+        }
+
+        /**
+         * @return True if all the results have been read
+         */
+        public boolean isEmpty() {
+            return pending.isEmpty();
+        }
+
+        /**
+         * Submit a task to the shared pool
+         *
+         * @param task Task to run
+         */
+        public void submit(Callable<T> task) {
+            pending.add(ParallelUtilities.submit(task));
+        }
+
+        /**
+         * Wait for the result of the oldest task
+         *
+         * @return The result or null if there are no more tasks
+         * @throws SQLException If the task failed or the wait has been interrupted
+         */
+        public T take() throws SQLException {
+            Future<T> future = pending.poll();
+            return future == null ? null : get(future, operation);
+        }
+
+        /**
+         * Cancel the tasks whose result has not been read
+         */
+        public void cancel() {
+            ParallelUtilities.cancel(pending);
+            pending.clear();
+        }
+    }
+}
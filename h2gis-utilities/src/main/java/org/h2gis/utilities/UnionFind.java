@@ -0,0 +1,77 @@
+/**
+ * H2GIS is a library that brings spatial support to the H2 Database Engine
+ * <http://www.h2database.com>. H2GIS is developed by CNRS
+ * <http://www.cnrs.fr/>.
+ *
+ * This code is part of the H2GIS project. H2GIS is free software; 
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * H2GIS is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details <http://www.gnu.org/licenses/>.
+ *
+ *
+ * For more information, please consult: <http://www.h2gis.org/>
+ * or contact directly: info_at_h2gis.org
+ */
+
+
+package org.h2gis.utilities;
+
+/**
+ * Disjoint sets of integer elements, with union by size and path halving.
+ * Shared by the cluster functions and the graph functions.
+ */
+public final class UnionFind {
+
+    private final int[] parent;
+    private final int[] size;
+
+    /**
+     * @param count number of elements, each element starts in its own set
+     */
+    public UnionFind(int count) {
+        parent = new int[count];
+        size = new int[count];
+        for (int i = 0; i < count; i++) {
+            parent[i] = i;
+            size[i] = 1;
+        }
+    }
+
+    /**
+     * @param i element
+     * @return the representative element of the set of i
+     */
+    public int find(int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Merge the sets of two elements
+     *
+     * @param i first element
+     * @param j second element
+     */
+    public void union(int i, int j) {
+        int rootI = find(i);
+        int rootJ = find(j);
+        if (rootI == rootJ) {
+            return;
+        }
+        if (size[rootI] < size[rootJ]) {
+            int tmp = rootI;
+            rootI = rootJ;
+            rootJ = tmp;
+        }
+        parent[rootJ] = rootI;
+        size[rootI] += size[rootJ];
+    }
+}